@@ -5,35 +5,56 @@ package editor.actions;
 
 import javax.swing.*;
 
-import javax.swing.undo.*;
+import javax.swing.event.ChangeListener;
+import editor.text.UndoHistory;
 import java.awt.event.ActionEvent;
 import java.awt.event.KeyEvent;
 import java.awt.Toolkit;
 import java.awt.datatransfer.*;
+import java.util.function.Supplier;
 
 
 public class EditActions {
     
-    // Undo/Redo support
+    // Undo/Redo support; both follow the history's change events
     public static class UndoAction extends AbstractAction {
-        private final UndoManager undoManager;
+        private final Supplier<UndoHistory> target;
+        private final ChangeListener listener = e -> updateUndoState();
+        private UndoHistory undoManager;
         
-        public UndoAction(UndoManager undoManager) {
+        public UndoAction(UndoHistory undoManager) {
+            this(() -> undoManager);
+        }
+        
+        /** Acts on whatever history {@code target} gives; call {@link #retarget()} when that changes. */
+        public UndoAction(Supplier<UndoHistory> target) {
             super("Undo");
-            this.undoManager = undoManager;
+            this.target = target;
             putValue(ACCELERATOR_KEY, KeyStroke.getKeyStroke(KeyEvent.VK_Z, Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx()));
             putValue(SHORT_DESCRIPTION, "Undo the last action");
+            retarget();
+        }
+        
+        /** Follows the history the target now gives, e.g. after another tab is shown. */
+        public void retarget() {
+            UndoHistory next = target.get();
+            if (next != undoManager) {
+                if (undoManager != null) undoManager.removeChangeListener(listener);
+                undoManager = next;
+                if (next != null) next.addChangeListener(listener);
+            }
+            updateUndoState();
         }
         
         @Override
         public void actionPerformed(ActionEvent e) {
-            if (undoManager.canUndo()) {
+            if (undoManager != null && undoManager.canUndo()) {
                 undoManager.undo();
             }
         }
         
         public void updateUndoState() {
-            if (undoManager.canUndo()) {
+            if (undoManager != null && undoManager.canUndo()) {
                 setEnabled(true);
                 putValue(NAME, undoManager.getUndoPresentationName());
             } else {
@@ -44,24 +65,43 @@ public class EditActions {
     }
     
     public static class RedoAction extends AbstractAction {
-        private final UndoManager undoManager;
+        private final Supplier<UndoHistory> target;
+        private final ChangeListener listener = e -> updateRedoState();
+        private UndoHistory undoManager;
         
-        public RedoAction(UndoManager undoManager) {
+        public RedoAction(UndoHistory undoManager) {
+            this(() -> undoManager);
+        }
+        
+        /** Acts on whatever history {@code target} gives; call {@link #retarget()} when that changes. */
+        public RedoAction(Supplier<UndoHistory> target) {
             super("Redo");
-            this.undoManager = undoManager;
+            this.target = target;
             putValue(ACCELERATOR_KEY, KeyStroke.getKeyStroke(KeyEvent.VK_Y, Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx()));
             putValue(SHORT_DESCRIPTION, "Redo the last undone action");
+            retarget();
+        }
+        
+        /** Follows the history the target now gives, e.g. after another tab is shown. */
+        public void retarget() {
+            UndoHistory next = target.get();
+            if (next != undoManager) {
+                if (undoManager != null) undoManager.removeChangeListener(listener);
+                undoManager = next;
+                if (next != null) next.addChangeListener(listener);
+            }
+            updateRedoState();
         }
         
         @Override
         public void actionPerformed(ActionEvent e) {
-            if (undoManager.canRedo()) {
+            if (undoManager != null && undoManager.canRedo()) {
                 undoManager.redo();
             }
         }
         
         public void updateRedoState() {
-            if (undoManager.canRedo()) {
+            if (undoManager != null && undoManager.canRedo()) {
                 setEnabled(true);
                 putValue(NAME, undoManager.getRedoPresentationName());
             } else {
@@ -73,18 +113,23 @@ public class EditActions {
     
     // Enhanced Cut Action
     public static class CutAction extends AbstractAction {
-        private final JTextArea textArea;
+        private final Supplier<JTextArea> target;
         
         public CutAction(JTextArea textArea) {
+            this(() -> textArea);
+        }
+        
+        public CutAction(Supplier<JTextArea> target) {
             super("Cut");
-            this.textArea = textArea;
+            this.target = target;
             putValue(ACCELERATOR_KEY, KeyStroke.getKeyStroke(KeyEvent.VK_X, Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx()));
             putValue(SHORT_DESCRIPTION, "Cut selected text to clipboard");
         }
         
         @Override
         public void actionPerformed(ActionEvent e) {
-            if (textArea.getSelectedText() != null) {
+            JTextArea textArea = target.get();
+            if (textArea != null && textArea.getSelectedText() != null) {
                 textArea.cut();
             }
         }
@@ -92,18 +137,23 @@ public class EditActions {
     
     // Enhanced Copy Action
     public static class CopyAction extends AbstractAction {
-        private final JTextArea textArea;
+        private final Supplier<JTextArea> target;
         
         public CopyAction(JTextArea textArea) {
+            this(() -> textArea);
+        }
+        
+        public CopyAction(Supplier<JTextArea> target) {
             super("Copy");
-            this.textArea = textArea;
+            this.target = target;
             putValue(ACCELERATOR_KEY, KeyStroke.getKeyStroke(KeyEvent.VK_C, Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx()));
             putValue(SHORT_DESCRIPTION, "Copy selected text to clipboard");
         }
         
         @Override
         public void actionPerformed(ActionEvent e) {
-            if (textArea.getSelectedText() != null) {
+            JTextArea textArea = target.get();
+            if (textArea != null && textArea.getSelectedText() != null) {
                 textArea.copy();
             }
         }
@@ -111,17 +161,25 @@ public class EditActions {
     
     // Enhanced Paste Action
     public static class PasteAction extends AbstractAction {
-        private final JTextArea textArea;
+        private final Supplier<JTextArea> target;
         
         public PasteAction(JTextArea textArea) {
+            this(() -> textArea);
+        }
+        
+        public PasteAction(Supplier<JTextArea> target) {
             super("Paste");
-            this.textArea = textArea;
+            this.target = target;
             putValue(ACCELERATOR_KEY, KeyStroke.getKeyStroke(KeyEvent.VK_V, Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx()));
             putValue(SHORT_DESCRIPTION, "Paste text from clipboard");
         }
         
         @Override
         public void actionPerformed(ActionEvent e) {
+            JTextArea textArea = target.get();
+            if (textArea == null) {
+                return;
+            }
             try {
                 Clipboard clipboard = Toolkit.getDefaultToolkit().getSystemClipboard();
                 if (clipboard.isDataFlavorAvailable(DataFlavor.stringFlavor)) {
@@ -135,18 +193,25 @@ public class EditActions {
     
     // Select All Action
     public static class SelectAllAction extends AbstractAction {
-        private final JTextArea textArea;
+        private final Supplier<JTextArea> target;
         
         public SelectAllAction(JTextArea textArea) {
+            this(() -> textArea);
+        }
+        
+        public SelectAllAction(Supplier<JTextArea> target) {
             super("Select All");
-            this.textArea = textArea;
+            this.target = target;
             putValue(ACCELERATOR_KEY, KeyStroke.getKeyStroke(KeyEvent.VK_A, Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx()));
             putValue(SHORT_DESCRIPTION, "Select all text");
         }
         
         @Override
         public void actionPerformed(ActionEvent e) {
-            textArea.selectAll();
+            JTextArea textArea = target.get();
+            if (textArea != null) {
+                textArea.selectAll();
+            }
         }
     }
 }
\ No newline at end of file
@@ -5,48 +5,107 @@ package editor.actions;
 
 import javax.swing.*;
 import editor.ui.TextAreaPanel;
-import java.nio.file.Path;
+import editor.ui.Workspace;
+import java.awt.Cursor;
+import java.io.File;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import editor.utils.OSUtils;
 
 public class FileActions {
-    public static void newFile(JFrame parent, TextAreaPanel panel) {
-        panel.newFile();
-        parent.setTitle("Programmer's Editor - New File");
+    public static void newFile(JFrame parent, Workspace workspace) {
+        workspace.newDocument();
     }
 
-    public static void openFile(JFrame parent, TextAreaPanel panel) {
+    /** Opens the chosen files in tabs; only the last is loaded now, the others when shown. */
+    public static void openFile(JFrame parent, Workspace workspace) {
         var chooser = new JFileChooser();
+        chooser.setMultiSelectionEnabled(true);
         if (chooser.showOpenDialog(parent) == JFileChooser.APPROVE_OPTION) {
-            Path p = chooser.getSelectedFile().toPath();
-            panel.loadFile(p);
-            parent.setTitle("Programmer's Editor - " + p.getFileName());
+            File[] files = chooser.getSelectedFiles();
+            for (int i = 0; i < files.length - 1; i++) {
+                workspace.add(files[i].toPath());
+            }
+            if (files.length > 0) {
+                workspace.open(files[files.length - 1].toPath());
+            }
+        }
+    }
+
+    /** Opens any file read-only in a viewer tab, without loading it into an editor. */
+    public static void openInViewer(JFrame parent, Workspace workspace) {
+        var chooser = new JFileChooser();
+        if (chooser.showOpenDialog(parent) == JFileChooser.APPROVE_OPTION) {
+            workspace.openViewer(chooser.getSelectedFile().toPath());
         }
     }
 
-    public static void saveFile(JFrame parent, TextAreaPanel panel, boolean saveAs) {
+    /** Starts saving the editor; null if there is none or the user cancelled. */
+    public static Future<Boolean> saveFile(JFrame parent, TextAreaPanel panel, boolean saveAs) {
+        if (panel == null) {
+            return null;
+        }
         if (saveAs || panel.getCurrentFile() == null) {
             var chooser = new JFileChooser();
             if (chooser.showSaveDialog(parent) == JFileChooser.APPROVE_OPTION) {
-                Path p = chooser.getSelectedFile().toPath();
-                panel.saveFile(p);
-                parent.setTitle("Programmer's Editor - " + p.getFileName());
+                return panel.saveFile(chooser.getSelectedFile().toPath());
             }
-        } else {
-            panel.saveFile(panel.getCurrentFile());
+            return null;
+        }
+        return panel.saveFile(panel.getCurrentFile());
+    }
+
+    /** Closes the shown tab, offering to save it first. */
+    public static void closeTab(JFrame parent, Workspace workspace) {
+        int index = workspace.getSelectedIndex();
+        if (index >= 0 && confirmClose(parent, workspace.getPanel(index))) {
+            workspace.close(index);
         }
     }
 
-    public static boolean confirmCloseAll(JFrame parent, TextAreaPanel panel) {
-        if (panel.isModified()) {
-            int ans = JOptionPane.showConfirmDialog(parent, "Save changes?", "Unsaved", JOptionPane.YES_NO_CANCEL_OPTION);
-            if (ans == JOptionPane.CANCEL_OPTION) return false;
+    /**
+     * Offers to save one editor and waits for the save; false if the user
+     * cancelled or the save failed, so the editor must stay open.
+     */
+    public static boolean confirmClose(JFrame parent, TextAreaPanel panel) {
+        if (panel != null && panel.isModified()) {
+            String name = panel.getCurrentFile() != null ? panel.getCurrentFile().getFileName().toString() : "Untitled";
+            int ans = JOptionPane.showConfirmDialog(parent, "Save changes to " + name + "?", "Unsaved", JOptionPane.YES_NO_CANCEL_OPTION);
+            if (ans != JOptionPane.YES_OPTION && ans != JOptionPane.NO_OPTION) return false;
             if (ans == JOptionPane.YES_OPTION) {
-                saveFile(parent, panel, false);
+                return isSaved(parent, saveFile(parent, panel, false));
             }
         }
         return true;
     }
 
+    // a failed save has already told the user why
+    private static boolean isSaved(JFrame parent, Future<Boolean> save) {
+        if (save == null) {
+            return false;
+        }
+        Cursor cursor = parent.getCursor();
+        parent.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        try {
+            return save.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            return false;
+        } finally {
+            parent.setCursor(cursor);
+        }
+    }
+
+    /** Offers to save every modified tab; false if the user cancelled. */
+    public static boolean confirmCloseAll(JFrame parent, Workspace workspace) {
+        for (TextAreaPanel panel : workspace.getPanels()) {
+            if (!confirmClose(parent, panel)) return false;
+        }
+        return true;
+    }
+
     public static void openTerminal(JFrame parent) {
         try {
             OSUtils.openTerminal();
@@ -9,15 +9,35 @@ import java.awt.event.KeyEvent;
 import java.awt.Toolkit;
 import editor.ui.TextAreaPanel;
 import editor.ui.FindReplaceDialog;
+import editor.ui.Workspace;
+import editor.search.FindInFilesDialog;
+import java.awt.event.InputEvent;
+import java.util.function.Supplier;
 
 public class SearchActions {
     
+    // a dialog searches one text area, so another editor gets a new one
+    private static FindReplaceDialog dialogFor(JFrame parent, FindReplaceDialog dialog, TextAreaPanel panel) {
+        if (dialog != null && dialog.getTextArea() == panel.getTextArea()) {
+            return dialog;
+        }
+        if (dialog != null) {
+            dialog.dispose();
+        }
+        return new FindReplaceDialog(parent, panel.getTextArea());
+    }
+    
     public static class FindAction extends AbstractAction {
         private final JFrame parent;
-        private final TextAreaPanel textPanel;
+        private final Supplier<TextAreaPanel> textPanel;
         private FindReplaceDialog dialog;
         
         public FindAction(JFrame parent, TextAreaPanel textPanel) {
+            this(parent, () -> textPanel);
+        }
+        
+        /** Searches whichever editor {@code textPanel} gives, e.g. the shown tab's. */
+        public FindAction(JFrame parent, Supplier<TextAreaPanel> textPanel) {
             super("Find...");
             this.parent = parent;
             this.textPanel = textPanel;
@@ -27,12 +47,14 @@ public class SearchActions {
         
         @Override
         public void actionPerformed(ActionEvent e) {
-            if (dialog == null) {
-                dialog = new FindReplaceDialog(parent, textPanel.getTextArea());
+            TextAreaPanel panel = textPanel.get();
+            if (panel == null) {
+                return;
             }
+            dialog = dialogFor(parent, dialog, panel);
             
             // If text is selected, use it as search text
-            String selectedText = textPanel.getTextArea().getSelectedText();
+            String selectedText = panel.getTextArea().getSelectedText();
             if (selectedText != null && !selectedText.trim().isEmpty()) {
                 dialog.showWithText(selectedText);
             } else {
@@ -43,10 +65,15 @@ public class SearchActions {
     
     public static class ReplaceAction extends AbstractAction {
         private final JFrame parent;
-        private final TextAreaPanel textPanel;
+        private final Supplier<TextAreaPanel> textPanel;
         private FindReplaceDialog dialog;
         
         public ReplaceAction(JFrame parent, TextAreaPanel textPanel) {
+            this(parent, () -> textPanel);
+        }
+        
+        /** Searches whichever editor {@code textPanel} gives, e.g. the shown tab's. */
+        public ReplaceAction(JFrame parent, Supplier<TextAreaPanel> textPanel) {
             super("Replace...");
             this.parent = parent;
             this.textPanel = textPanel;
@@ -56,12 +83,14 @@ public class SearchActions {
         
         @Override
         public void actionPerformed(ActionEvent e) {
-            if (dialog == null) {
-                dialog = new FindReplaceDialog(parent, textPanel.getTextArea());
+            TextAreaPanel panel = textPanel.get();
+            if (panel == null) {
+                return;
             }
+            dialog = dialogFor(parent, dialog, panel);
             
             // If text is selected, use it as search text
-            String selectedText = textPanel.getTextArea().getSelectedText();
+            String selectedText = panel.getTextArea().getSelectedText();
             if (selectedText != null && !selectedText.trim().isEmpty()) {
                 dialog.showWithText(selectedText);
             } else {
@@ -72,10 +101,15 @@ public class SearchActions {
     
     public static class FindNextAction extends AbstractAction {
         private final JFrame parent;
-        private final TextAreaPanel textPanel;
+        private final Supplier<TextAreaPanel> textPanel;
         private FindReplaceDialog dialog;
         
         public FindNextAction(JFrame parent, TextAreaPanel textPanel) {
+            this(parent, () -> textPanel);
+        }
+        
+        /** Searches whichever editor {@code textPanel} gives, e.g. the shown tab's. */
+        public FindNextAction(JFrame parent, Supplier<TextAreaPanel> textPanel) {
             super("Find Next");
             this.parent = parent;
             this.textPanel = textPanel;
@@ -85,10 +119,36 @@ public class SearchActions {
         
         @Override
         public void actionPerformed(ActionEvent e) {
-            if (dialog == null) {
-                dialog = new FindReplaceDialog(parent, textPanel.getTextArea());
+            TextAreaPanel panel = textPanel.get();
+            if (panel == null) {
+                return;
             }
+            dialog = dialogFor(parent, dialog, panel);
             dialog.showDialog();
         }
     }
-}
\ No newline at end of file
+    
+    public static class FindInFilesAction extends AbstractAction {
+        private final JFrame parent;
+        private final Workspace workspace;
+        private FindInFilesDialog dialog;
+        
+        public FindInFilesAction(JFrame parent, Workspace workspace) {
+            super("Find in Files...");
+            this.parent = parent;
+            this.workspace = workspace;
+            putValue(ACCELERATOR_KEY, KeyStroke.getKeyStroke(KeyEvent.VK_F,
+                Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx() | InputEvent.SHIFT_DOWN_MASK));
+            putValue(SHORT_DESCRIPTION, "Find text in all files under a directory");
+        }
+        
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            if (dialog == null) {
+                dialog = new FindInFilesDialog(parent, workspace);
+            }
+            TextAreaPanel panel = workspace.getActivePanel();
+            dialog.showWithText(panel != null ? panel.getTextArea().getSelectedText() : null);
+        }
+    }
+}
@@ -0,0 +1,356 @@
+// -----------------------------
+// File: src/editor/search/FileSearch.java
+// -----------------------------
+package editor.search;
+
+import editor.text.BackgroundSearch;
+import editor.text.DocumentSearch;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Find in Files: searches every text file under a directory.
+ *
+ * Each directory is a fork-join task that lists its entries with
+ * Files.walkFileTree, one level deep, forks a task per subdirectory and
+ * searches its own files, so idle workers steal whole subtrees. With a
+ * ready {@link TrigramIndex} the walk is replaced by the index's candidate
+ * files, split across the workers. Files are read with {@link FileText},
+ * which skips binaries, and searched with the same engine as Find. Results
+ * are handed to the listener file by file, on the worker threads, as they
+ * are found.
+ */
+public final class FileSearch {
+    private static final int FILES_PER_TASK = 32;
+    private static final int MAX_HITS_PER_FILE = 1000;
+    private static final int MAX_LINE_TEXT = 500;
+    private static final long FILE_MILLIS = 10_000;
+    private static final long STEPS_PER_CHAR = 1000;
+
+    /** Receives results on the worker threads. */
+    public interface Listener {
+        void found(Path file, List<SearchHit> hits);
+
+        /** Called once when the search has finished or was cancelled. */
+        void done();
+    }
+
+    private final Path root;
+    private final DocumentSearch query;
+    private final List<Glob> includes;
+    private final List<Glob> excludes;
+    private final TrigramIndex index;
+    private volatile boolean indexed;
+    private final ForkJoinPool pool;
+    private volatile boolean cancelled;
+    private volatile Listener listener;
+    // set by whichever runs first, the walk or cancel(), so done() is called once
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    private final AtomicInteger filesSearched = new AtomicInteger();
+    private final AtomicInteger filesMatched = new AtomicInteger();
+    private final AtomicInteger filesSkipped = new AtomicInteger();
+    private final AtomicInteger hits = new AtomicInteger();
+
+    /**
+     * @param includes comma-separated globs a file must match, e.g. "*.java, *.xml";
+     *        empty for all files
+     * @param excludes comma-separated globs of files and directories to skip
+     */
+    public FileSearch(Path root, DocumentSearch query, String includes, String excludes) {
+        this(root, query, includes, excludes, null);
+    }
+
+    /** Searches only the candidate files of {@code index} when it is ready for the query. */
+    public FileSearch(Path root, DocumentSearch query, String includes, String excludes, TrigramIndex index) {
+        this.root = root;
+        this.query = query;
+        this.includes = Glob.parse(includes);
+        this.excludes = Glob.parse(excludes);
+        this.index = index;
+        // the workers block on disk reads, so use more of them than cores
+        this.pool = new ForkJoinPool(Math.max(4, 2 * Runtime.getRuntime().availableProcessors()));
+    }
+
+    /** Starts the search; the returned future completes after {@link Listener#done()}. */
+    public Future<?> start(Listener listener) {
+        this.listener = listener;
+        return pool.submit(() -> {
+            if (!started.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                List<Path> candidates = null;
+                try {
+                    candidates = index != null ? index.candidates(query) : null;
+                } catch (IOException e) {
+                    // walk the tree instead
+                }
+                if (candidates != null) {
+                    indexed = true;
+                    new FilesTask(candidates, 0, candidates.size(), listener).invoke();
+                } else {
+                    new DirectoryTask(root, listener).invoke();
+                }
+            } catch (CancellationException e) {
+                // cancel() stopped the pool
+            } finally {
+                pool.shutdown();
+                listener.done();
+            }
+        });
+    }
+
+    /** Stops the walk and interrupts the searches in progress. */
+    public void cancel() {
+        cancelled = true;
+        pool.shutdownNow();
+        Listener l = listener;
+        if (started.compareAndSet(false, true) && l != null) {
+            l.done();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public int getFilesSearched() {
+        return filesSearched.get();
+    }
+
+    public int getFilesMatched() {
+        return filesMatched.get();
+    }
+
+    /** Binary, unreadable, too large, or too slow to search. */
+    public int getFilesSkipped() {
+        return filesSkipped.get();
+    }
+
+    public int getHits() {
+        return hits.get();
+    }
+
+    /** True if only the index's candidate files were searched. */
+    public boolean isIndexed() {
+        return indexed;
+    }
+
+    private final class DirectoryTask extends RecursiveAction {
+        private final Path dir;
+        private final Listener listener;
+
+        DirectoryTask(Path dir, Listener listener) {
+            this.dir = dir;
+            this.listener = listener;
+        }
+
+        @Override
+        protected void compute() {
+            List<DirectoryTask> subdirs = new ArrayList<>();
+            List<Path> files = new ArrayList<>();
+            List<Long> sizes = new ArrayList<>();
+            try {
+                Files.walkFileTree(dir, EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        if (cancelled) {
+                            return FileVisitResult.TERMINATE;
+                        }
+                        Path relative = root.relativize(file);
+                        if (Glob.matches(excludes, relative) || isIndexDirectory(relative)) {
+                            return FileVisitResult.CONTINUE;
+                        }
+                        if (attrs.isDirectory()) {
+                            subdirs.add(new DirectoryTask(file, listener));
+                        } else if (attrs.isRegularFile() && (includes.isEmpty() || Glob.matches(includes, relative))) {
+                            files.add(file);
+                            sizes.add(attrs.size());
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        return FileVisitResult.CONTINUE; // unreadable entries are skipped
+                    }
+                });
+            } catch (IOException e) {
+                return;
+            }
+            // fork the subdirectories first so other workers can take them
+            for (DirectoryTask task : subdirs) {
+                task.fork();
+            }
+            for (int i = 0; i < files.size() && !cancelled; i++) {
+                searchFile(files.get(i), sizes.get(i), listener);
+            }
+            for (int i = subdirs.size() - 1; i >= 0; i--) {
+                subdirs.get(i).join();
+            }
+        }
+    }
+
+    // A range of the index's candidates, split in halves down to a few files
+    private final class FilesTask extends RecursiveAction {
+        private final List<Path> files;
+        private final int from;
+        private final int to;
+        private final Listener listener;
+
+        FilesTask(List<Path> files, int from, int to, Listener listener) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+            this.listener = listener;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > FILES_PER_TASK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new FilesTask(files, from, mid, listener), new FilesTask(files, mid, to, listener));
+                return;
+            }
+            for (int i = from; i < to && !cancelled; i++) {
+                Path file = files.get(i);
+                if (!isSelected(root.relativize(file))) {
+                    continue;
+                }
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                } catch (IOException e) {
+                    continue; // deleted since it was indexed
+                }
+                if (attrs.isRegularFile()) {
+                    searchFile(file, attrs.size(), listener);
+                }
+            }
+        }
+    }
+
+    // the same choice the walk makes: no excluded directory above it, and included
+    private boolean isSelected(Path relative) {
+        for (int i = 1; i <= relative.getNameCount(); i++) {
+            if (Glob.matches(excludes, relative.subpath(0, i))) {
+                return false;
+            }
+        }
+        return includes.isEmpty() || Glob.matches(includes, relative);
+    }
+
+    private static boolean isIndexDirectory(Path relative) {
+        return relative.getNameCount() == 1 && relative.toString().equals(TrigramIndex.DIRECTORY);
+    }
+
+    private void searchFile(Path file, long size, Listener listener) {
+        if (size == 0) {
+            filesSearched.incrementAndGet();
+            return;
+        }
+        if (size > FileText.MAX_FILE_BYTES) {
+            filesSkipped.incrementAndGet();
+            return;
+        }
+        CharBuffer chars;
+        try {
+            chars = FileText.read(file, size);
+        } catch (IOException e) {
+            filesSkipped.incrementAndGet();
+            return;
+        }
+        if (chars == null) {
+            filesSkipped.incrementAndGet();
+            return;
+        }
+        filesSearched.incrementAndGet();
+
+        int[] matches;
+        try {
+            matches = new BackgroundSearch(query, chars, STEPS_PER_CHAR * (chars.length() + 1024L), FILE_MILLIS)
+                .matchesIn(0, chars.length());
+        } catch (BackgroundSearch.BudgetExceededException e) {
+            filesSkipped.incrementAndGet();
+            return;
+        }
+        if (matches.length == 0) {
+            return;
+        }
+        List<SearchHit> found = new ArrayList<>();
+        int line = 1;
+        int lineStart = 0;
+        int scanned = 0;
+        for (int i = 0; i < matches.length && found.size() < MAX_HITS_PER_FILE; i += 2) {
+            int start = matches[i];
+            for (; scanned < start; scanned++) {
+                if (chars.get(scanned) == '\n') {
+                    line++;
+                    lineStart = scanned + 1;
+                }
+            }
+            int lineEnd = lineStart;
+            while (lineEnd < chars.length() && chars.get(lineEnd) != '\n' && chars.get(lineEnd) != '\r') {
+                lineEnd++;
+            }
+            int length = Math.min(matches[i + 1], lineEnd) - start;
+            String text = chars.subSequence(lineStart, Math.min(lineEnd, lineStart + MAX_LINE_TEXT)).toString();
+            found.add(new SearchHit(file, line, start - lineStart, Math.max(0, length), text));
+        }
+        filesMatched.incrementAndGet();
+        hits.addAndGet(found.size());
+        listener.found(file, found);
+    }
+
+    // A glob with a '/' is matched against the path below the search root,
+    // otherwise against the file or directory name alone
+    private static final class Glob {
+        final PathMatcher matcher;
+        final boolean wholePath;
+
+        Glob(String pattern) {
+            this.matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+            this.wholePath = pattern.indexOf('/') >= 0;
+        }
+
+        static List<Glob> parse(String globs) {
+            List<Glob> list = new ArrayList<>();
+            if (globs != null) {
+                for (String g : globs.split(",")) {
+                    if (!g.trim().isEmpty()) {
+                        list.add(new Glob(g.trim()));
+                    }
+                }
+            }
+            return list;
+        }
+
+        static boolean matches(List<Glob> globs, Path relative) {
+            for (Glob g : globs) {
+                Path p = g.wholePath ? relative : relative.getFileName();
+                if (p != null && g.matcher.matches(p)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
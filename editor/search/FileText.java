@@ -0,0 +1,101 @@
+// -----------------------------
+// File: src/editor/search/FileText.java
+// -----------------------------
+package editor.search;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a file as text for searching and indexing. Small files go through a
+ * direct buffer reused by the thread, large ones are mapped. The text is
+ * decoded as UTF-8 into a char buffer reused by the thread, so it is only
+ * valid until the thread reads the next file. Text longer than CACHED_CHARS
+ * gets a buffer of its own, sized to the file and dropped with the result,
+ * so a few big files do not pin their size on every worker thread.
+ */
+final class FileText {
+    static final long MAX_FILE_BYTES = 256L * 1024 * 1024;
+    private static final int MAPPED_BYTES = 1024 * 1024;
+    private static final int BINARY_PROBE = 8192;
+    private static final int CACHED_CHARS = 1024 * 1024;
+
+    private static final ThreadLocal<FileText> perThread = ThreadLocal.withInitial(FileText::new);
+
+    private ByteBuffer bytes = ByteBuffer.allocateDirect(64 * 1024);
+    private CharBuffer chars = CharBuffer.allocate(64 * 1024);
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    private FileText() {
+    }
+
+    /**
+     * The text of {@code file} read by the calling thread, or null if it is
+     * binary. {@code size} must be at most {@link #MAX_FILE_BYTES}.
+     */
+    static CharBuffer read(Path file, long size) throws IOException {
+        return perThread.get().readText(file, size);
+    }
+
+    private CharBuffer readText(Path file, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer in = size >= MAPPED_BYTES
+                ? channel.map(FileChannel.MapMode.READ_ONLY, 0, size)
+                : readSmall(channel, (int) size);
+            return isBinary(in) ? null : decode(in);
+        }
+    }
+
+    private ByteBuffer readSmall(FileChannel channel, int size) throws IOException {
+        if (bytes.capacity() < size) {
+            // below MAPPED_BYTES, so the buffer stays small
+            bytes = ByteBuffer.allocateDirect(grow(size, MAPPED_BYTES));
+        }
+        bytes.clear().limit(size);
+        while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+            // read until full or end of file
+        }
+        return bytes.flip();
+    }
+
+    // Like git: a NUL byte near the start means binary
+    private static boolean isBinary(ByteBuffer in) {
+        for (int i = 0, n = Math.min(BINARY_PROBE, in.limit()); i < n; i++) {
+            if (in.get(i) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private CharBuffer decode(ByteBuffer in) {
+        // UTF-8 never decodes to more chars than bytes
+        int size = in.remaining();
+        CharBuffer out;
+        if (size > CACHED_CHARS) {
+            out = CharBuffer.allocate(size);
+        } else {
+            if (chars.capacity() < size) {
+                chars = CharBuffer.allocate(grow(size, CACHED_CHARS));
+            }
+            out = chars.clear();
+        }
+        decoder.reset();
+        decoder.decode(in, out, true);
+        decoder.flush(out);
+        return out.flip();
+    }
+
+    private static int grow(int size, int cap) {
+        return Math.max(size, Math.min(cap, 2 * Integer.highestOneBit(size)));
+    }
+}
@@ -0,0 +1,323 @@
+// -----------------------------
+// File: src/editor/search/FindInFilesDialog.java
+// -----------------------------
+package editor.search;
+
+import javax.swing.*;
+import javax.swing.border.TitledBorder;
+import java.awt.*;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.regex.PatternSyntaxException;
+import editor.text.DocumentSearch;
+import editor.ui.TextAreaPanel;
+import editor.ui.Workspace;
+
+public class FindInFilesDialog extends JDialog {
+    private final Workspace workspace;
+    private final JTextField findField = new JTextField(30);
+    private final JTextField dirField = new JTextField(30);
+    private final JButton browseButton = new JButton("...");
+    private final JTextField includeField = new JTextField("", 30);
+    private final JTextField excludeField = new JTextField(".git, .svn, .hg, node_modules", 30);
+    private final JCheckBox matchCaseBox = new JCheckBox("Match case");
+    private final JCheckBox wholeWordBox = new JCheckBox("Whole word");
+    private final JCheckBox regexBox = new JCheckBox("Regular expression");
+    private final JButton findButton = new JButton("Find");
+    private final JButton stopButton = new JButton("Stop");
+    private final JLabel statusLabel = new JLabel(" ");
+    private final ResultsModel results = new ResultsModel();
+    private final JList<Object> resultList = new JList<>(results);
+
+    // results arrive on the search workers and are moved to the list in batches
+    private FileSearch search;
+    private final ConcurrentLinkedQueue<Object> arrived = new ConcurrentLinkedQueue<>();
+    private final Timer drainTimer = new Timer(100, e -> drain());
+    // index of the folder last searched, built and kept up to date in the background
+    private TrigramIndex index;
+
+    /** Header row of one file's hits in the result list. */
+    private static final class FileRow {
+        final Path file;
+        final String label;
+
+        FileRow(Path file, String label) {
+            this.file = file;
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    // an ArrayList model that announces each batch with one event
+    private static final class ResultsModel extends AbstractListModel<Object> {
+        private final List<Object> rows = new ArrayList<>();
+
+        @Override
+        public int getSize() {
+            return rows.size();
+        }
+
+        @Override
+        public Object getElementAt(int index) {
+            return rows.get(index);
+        }
+
+        void addAll(List<Object> batch) {
+            if (batch.isEmpty()) return;
+            int first = rows.size();
+            rows.addAll(batch);
+            fireIntervalAdded(this, first, rows.size() - 1);
+        }
+
+        void clear() {
+            int size = rows.size();
+            if (size == 0) return;
+            rows.clear();
+            fireIntervalRemoved(this, 0, size - 1);
+        }
+    }
+
+    public FindInFilesDialog(JFrame parent, Workspace workspace) {
+        super(parent, "Find in Files", false);
+        this.workspace = workspace;
+        TextAreaPanel panel = workspace.getActivePanel();
+        Path current = panel != null ? panel.getCurrentFile() : null;
+        dirField.setText(current != null && current.getParent() != null
+            ? current.getParent().toString() : System.getProperty("user.dir"));
+        includeField.setToolTipText("Comma-separated globs, e.g. *.java, src/**/*.xml; empty for all files");
+        excludeField.setToolTipText("Comma-separated globs of files and directories to skip");
+
+        setupLayout();
+        setupActions();
+
+        setDefaultCloseOperation(HIDE_ON_CLOSE);
+        setSize(700, 500);
+        setLocationRelativeTo(parent);
+    }
+
+    private void setupLayout() {
+        setLayout(new BorderLayout());
+
+        JPanel fields = new JPanel(new GridBagLayout());
+        fields.setBorder(new TitledBorder("Find in Files"));
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.insets = new Insets(2, 4, 2, 4);
+        gbc.anchor = GridBagConstraints.WEST;
+        addRow(fields, gbc, 0, "Find:", findField);
+        JPanel dirPanel = new JPanel(new BorderLayout(4, 0));
+        dirPanel.add(dirField, BorderLayout.CENTER);
+        dirPanel.add(browseButton, BorderLayout.EAST);
+        addRow(fields, gbc, 1, "Directory:", dirPanel);
+        addRow(fields, gbc, 2, "Include:", includeField);
+        addRow(fields, gbc, 3, "Exclude:", excludeField);
+
+        JPanel options = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        options.add(matchCaseBox);
+        options.add(wholeWordBox);
+        options.add(regexBox);
+        options.add(findButton);
+        options.add(stopButton);
+        stopButton.setEnabled(false);
+
+        JPanel top = new JPanel(new BorderLayout());
+        top.add(fields, BorderLayout.CENTER);
+        top.add(options, BorderLayout.SOUTH);
+
+        resultList.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        resultList.setPrototypeCellValue("0000: a typical line of source code in the results");
+        resultList.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                          boolean selected, boolean focused) {
+                super.getListCellRendererComponent(list, value, index, selected, focused);
+                setFont(value instanceof FileRow ? list.getFont().deriveFont(Font.BOLD) : list.getFont());
+                if (value instanceof SearchHit) setText("    " + value);
+                return this;
+            }
+        });
+
+        JPanel statusPanel = new JPanel(new BorderLayout());
+        statusPanel.add(statusLabel, BorderLayout.WEST);
+        statusPanel.setBorder(BorderFactory.createEtchedBorder());
+
+        add(top, BorderLayout.NORTH);
+        add(new JScrollPane(resultList), BorderLayout.CENTER);
+        add(statusPanel, BorderLayout.SOUTH);
+    }
+
+    private static void addRow(JPanel fields, GridBagConstraints gbc, int row, String label, JComponent field) {
+        gbc.gridy = row;
+        gbc.gridx = 0;
+        gbc.weightx = 0;
+        gbc.fill = GridBagConstraints.NONE;
+        fields.add(new JLabel(label), gbc);
+        gbc.gridx = 1;
+        gbc.weightx = 1;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        fields.add(field, gbc);
+    }
+
+    private void setupActions() {
+        findButton.addActionListener(e -> startSearch());
+        findField.addActionListener(e -> startSearch());
+        stopButton.addActionListener(e -> {
+            if (search != null) search.cancel();
+        });
+        browseButton.addActionListener(e -> {
+            JFileChooser chooser = new JFileChooser(dirField.getText());
+            chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+            if (chooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+                dirField.setText(chooser.getSelectedFile().getPath());
+            }
+        });
+
+        // open a hit with a double click or Enter
+        resultList.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2) openSelected();
+            }
+        });
+        resultList.getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, 0), "open-hit");
+        resultList.getActionMap().put("open-hit", new AbstractAction() {
+            @Override
+            public void actionPerformed(java.awt.event.ActionEvent e) {
+                openSelected();
+            }
+        });
+
+        getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW)
+            .put(KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0), "close");
+        getRootPane().getActionMap().put("close", new AbstractAction() {
+            @Override
+            public void actionPerformed(java.awt.event.ActionEvent e) {
+                setVisible(false);
+            }
+        });
+    }
+
+    private void startSearch() {
+        if (findField.getText().isEmpty()) {
+            setStatus("Search text is empty", Color.RED);
+            return;
+        }
+        Path root = Paths.get(dirField.getText().trim());
+        if (!Files.isDirectory(root)) {
+            setStatus("Not a directory: " + root, Color.RED);
+            return;
+        }
+        DocumentSearch query;
+        try {
+            query = new DocumentSearch(findField.getText(), matchCaseBox.isSelected(),
+                wholeWordBox.isSelected(), regexBox.isSelected());
+        } catch (PatternSyntaxException e) {
+            setStatus("Invalid regular expression: " + e.getMessage(), Color.RED);
+            return;
+        }
+        if (search != null) {
+            search.cancel();
+        }
+        results.clear();
+        arrived.clear();
+
+        FileSearch job = new FileSearch(root, query, includeField.getText(), excludeField.getText(), indexFor(root));
+        search = job;
+        findButton.setEnabled(false);
+        stopButton.setEnabled(true);
+        drainTimer.start();
+        job.start(new FileSearch.Listener() {
+            @Override
+            public void found(Path file, List<SearchHit> hits) {
+                if (job.isCancelled()) return;
+                arrived.add(new FileRow(file, root.relativize(file) + " (" + hits.size() + ")"));
+                arrived.addAll(hits);
+            }
+
+            @Override
+            public void done() {
+                SwingUtilities.invokeLater(() -> finished(job));
+            }
+        });
+    }
+
+    private TrigramIndex indexFor(Path root) {
+        Path folder = root.toAbsolutePath().normalize();
+        if (index == null || !index.getRoot().equals(folder)) {
+            if (index != null) {
+                index.close();
+            }
+            index = new TrigramIndex(folder);
+            index.open();
+        }
+        return index;
+    }
+
+    private void drain() {
+        List<Object> batch = new ArrayList<>();
+        for (Object row; (row = arrived.poll()) != null; ) {
+            batch.add(row);
+        }
+        results.addAll(batch);
+        FileSearch job = search;
+        if (job != null) {
+            setStatus("Searching... " + summary(job), Color.BLUE);
+        }
+    }
+
+    private void finished(FileSearch job) {
+        if (job != search) {
+            return; // replaced by a newer search
+        }
+        drain();
+        drainTimer.stop();
+        search = null;
+        findButton.setEnabled(true);
+        stopButton.setEnabled(false);
+        setStatus((job.isCancelled() ? "Stopped: " : "Done: ") + summary(job), Color.BLUE);
+    }
+
+    private static String summary(FileSearch job) {
+        String text = job.getHits() + " matches in " + job.getFilesMatched() + " of "
+            + job.getFilesSearched() + (job.isIndexed() ? " indexed candidate files" : " files");
+        return job.getFilesSkipped() > 0 ? text + ", " + job.getFilesSkipped() + " skipped" : text;
+    }
+
+    private void openSelected() {
+        Object row = resultList.getSelectedValue();
+        if (!(row instanceof SearchHit)) {
+            return;
+        }
+        SearchHit hit = (SearchHit) row;
+        // in the file's own tab, opened if need be
+        workspace.open(hit.file, panel -> panel.selectInLine(hit.line, hit.column, hit.length));
+    }
+
+    private void setStatus(String message, Color color) {
+        statusLabel.setText(message);
+        statusLabel.setForeground(color);
+    }
+
+    public void showWithText(String text) {
+        if (text != null && !text.trim().isEmpty() && text.indexOf('\n') < 0) {
+            findField.setText(text);
+        }
+        findField.selectAll();
+        Path root = Paths.get(dirField.getText().trim());
+        if (Files.isDirectory(root)) {
+            indexFor(root); // start indexing while the query is typed
+        }
+        setVisible(true);
+        findField.requestFocusInWindow();
+    }
+}
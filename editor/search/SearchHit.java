@@ -0,0 +1,31 @@
+// -----------------------------
+// File: src/editor/search/SearchHit.java
+// -----------------------------
+package editor.search;
+
+import java.nio.file.Path;
+
+/** One match of a Find in Files search, with the text of its line. */
+public final class SearchHit {
+    public final Path file;
+    /** 1-based line number. */
+    public final int line;
+    /** 0-based char offset of the match in its line. */
+    public final int column;
+    /** Match length, cut at the end of the line. */
+    public final int length;
+    public final String lineText;
+
+    public SearchHit(Path file, int line, int column, int length, String lineText) {
+        this.file = file;
+        this.line = line;
+        this.column = column;
+        this.length = length;
+        this.lineText = lineText;
+    }
+
+    @Override
+    public String toString() {
+        return line + ": " + lineText;
+    }
+}
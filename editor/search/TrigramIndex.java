@@ -0,0 +1,812 @@
+// -----------------------------
+// File: src/editor/search/TrigramIndex.java
+// -----------------------------
+package editor.search;
+
+import editor.text.DocumentSearch;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * A trigram index of the text files under a folder, kept on disk in
+ * {@value #DIRECTORY}, so Find in Files can read only the files that can
+ * contain a match instead of every file in the tree.
+ *
+ * The index maps each trigram, case folded, to the delta-encoded ids of the
+ * files containing it. A background thread loads it, re-checks every file's
+ * size and modification time against it, reindexes what changed, then
+ * follows changes with a WatchService. Changed files are kept in memory on
+ * top of the file and merged into it once there are enough of them, or when
+ * the index is closed. Until the first check is done, and for queries with
+ * no trigrams, {@link #candidates} returns null and the caller walks the
+ * whole tree.
+ */
+public final class TrigramIndex {
+    public static final String DIRECTORY = ".editor-index";
+    private static final String FILE_NAME = "trigrams.idx";
+    private static final int MAGIC = 0x45545249; // "ETRI"
+    private static final int VERSION = 1;
+    private static final int BATCH = 512;
+    private static final int MERGE_FILES = 1000;
+    private static final long DEBOUNCE_MILLIS = 300;
+    private static final long MAX_DEBOUNCE_MILLIS = 2000;
+    private static final int[] NO_GRAMS = new int[0];
+    // shared by every index, so opening more folders adds no threads
+    private static final ForkJoinPool INDEXERS = new ForkJoinPool(
+        Math.max(2, Runtime.getRuntime().availableProcessors()), pool -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            t.setName("indexer-" + t.getPoolIndex());
+            t.setDaemon(true);
+            return t;
+        }, null, false);
+
+    private final Path root;
+    private final Path indexFile;
+    private volatile State state = new State(Segment.EMPTY, Collections.emptyMap());
+    // paths the watcher reported but the index thread has not reindexed yet
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private final CountDownLatch readyLatch = new CountDownLatch(1);
+    private volatile boolean ready;
+    private volatile boolean closed;
+    private volatile boolean watching;
+    private WatchService watcher;
+    private final Map<WatchKey, Path> watched = new ConcurrentHashMap<>();
+    private Thread thread;
+
+    /** Size, modification time and trigrams of one file; null grams for a deleted file. */
+    private static final class FileEntry {
+        final long size;
+        final long modified;
+        final int[] grams;
+
+        FileEntry(long size, long modified, int[] grams) {
+            this.size = size;
+            this.modified = modified;
+            this.grams = grams;
+        }
+    }
+
+    // the file on disk plus the files that changed since it was written
+    private static final class State {
+        final Segment base;
+        final Map<String, FileEntry> changed;
+
+        State(Segment base, Map<String, FileEntry> changed) {
+            this.base = base;
+            this.changed = changed;
+        }
+    }
+
+    public TrigramIndex(Path root) {
+        this.root = root.toAbsolutePath().normalize();
+        this.indexFile = this.root.resolve(DIRECTORY).resolve(FILE_NAME);
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /** Starts loading, checking and watching the folder on a background thread. */
+    public synchronized void open() {
+        if (thread != null) {
+            return;
+        }
+        thread = new Thread(this::run, "index " + root.getFileName());
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /** Stops watching; changes not yet in the file are written out first. */
+    public void close() {
+        closed = true;
+        WatchService w = watcher;
+        if (w != null) {
+            try {
+                w.close();
+            } catch (IOException e) {
+                // closing anyway
+            }
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /** Waits for the first check of the folder; true if the index is ready. */
+    public boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException {
+        return readyLatch.await(timeout, unit) && ready;
+    }
+
+    /** Number of files in the index, text or not. */
+    public int getFileCount() {
+        State s = state;
+        int count = s.base.paths.length;
+        for (Map.Entry<String, FileEntry> e : s.changed.entrySet()) {
+            boolean inBase = s.base.ids.containsKey(e.getKey());
+            if (e.getValue().grams == null) {
+                count -= inBase ? 1 : 0;
+            } else if (!inBase) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * The files that may contain a match of {@code query}, or null if every
+     * file has to be searched: the index is not ready, or the query has no
+     * trigram every match must contain.
+     */
+    public List<Path> candidates(DocumentSearch query) throws IOException {
+        if (!ready) {
+            return null;
+        }
+        int[] grams = TrigramQuery.trigrams(query);
+        if (grams.length == 0) {
+            return null;
+        }
+        if (!watching) {
+            // without change events, check the tree before each query
+            refresh();
+        }
+        State s = state;
+        Set<String> waiting = new HashSet<>(pending);
+        List<Path> files = new ArrayList<>();
+        for (int id : s.base.lookup(grams)) {
+            String path = s.base.paths[id];
+            if (!s.changed.containsKey(path) && !waiting.contains(path)) {
+                files.add(root.resolve(path));
+            }
+        }
+        for (Map.Entry<String, FileEntry> e : s.changed.entrySet()) {
+            int[] fileGrams = e.getValue().grams;
+            if (fileGrams != null && containsAll(fileGrams, grams) && !waiting.contains(e.getKey())) {
+                files.add(root.resolve(e.getKey()));
+            }
+        }
+        for (String path : waiting) {
+            Path file = root.resolve(path);
+            if (Files.isRegularFile(file)) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    /** Checks every file against the index now and reindexes the ones that changed. */
+    public synchronized void refresh() throws IOException {
+        Map<String, BasicFileAttributes> found = new HashMap<>();
+        scan(root, found);
+        State s = state;
+        Set<String> deleted = new HashSet<>();
+        for (String path : s.base.paths) {
+            if (!found.containsKey(path)) {
+                deleted.add(path);
+            }
+        }
+        for (Map.Entry<String, FileEntry> e : s.changed.entrySet()) {
+            if (e.getValue().grams != null && !found.containsKey(e.getKey())) {
+                deleted.add(e.getKey());
+            }
+        }
+        update(found, deleted);
+    }
+
+    private void run() {
+        try {
+            load();
+            try {
+                watcher = root.getFileSystem().newWatchService();
+                watching = true;
+            } catch (IOException | UnsupportedOperationException e) {
+                watching = false;
+            }
+            if (closed) {
+                return;
+            }
+            refresh();
+            ready = true;
+            readyLatch.countDown();
+            synchronized (this) {
+                if (!state.changed.isEmpty()) {
+                    merge(Collections.emptyMap(), Collections.emptySet());
+                }
+            }
+            if (watching) {
+                watch();
+            }
+        } catch (IOException e) {
+            ready = false; // searches fall back to walking the tree
+        } finally {
+            readyLatch.countDown();
+            try {
+                synchronized (this) {
+                    if (!state.changed.isEmpty()) {
+                        merge(Collections.emptyMap(), Collections.emptySet());
+                    }
+                }
+            } catch (IOException e) {
+                // the next open checks the files again
+            }
+        }
+    }
+
+    private void watch() throws IOException {
+        try {
+            while (!closed) {
+                WatchKey key = watcher.take();
+                Set<Path> paths = new HashSet<>();
+                boolean overflow = false;
+                long deadline = System.currentTimeMillis() + MAX_DEBOUNCE_MILLIS;
+                // gather events until they stop for a moment, so a save is one update
+                do {
+                    Path dir = watched.get(key);
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                            overflow = true;
+                            continue;
+                        }
+                        Path file = dir.resolve((Path) event.context());
+                        String path = relative(file);
+                        if (!path.equals(DIRECTORY) && !path.startsWith(DIRECTORY + "/")) {
+                            pending.add(path);
+                            paths.add(file);
+                        }
+                    }
+                    if (!key.reset()) {
+                        watched.remove(key);
+                    }
+                } while (System.currentTimeMillis() < deadline
+                    && (key = watcher.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null);
+
+                synchronized (this) {
+                    if (overflow) {
+                        refresh();
+                    } else {
+                        updatePaths(paths);
+                    }
+                }
+                for (Path file : paths) {
+                    pending.remove(relative(file));
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+    // reindexes the files and directories the watcher reported
+    private void updatePaths(Set<Path> paths) throws IOException {
+        Map<String, BasicFileAttributes> found = new HashMap<>();
+        Set<String> deleted = new HashSet<>();
+        State s = state;
+        for (Path file : paths) {
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            } catch (IOException e) {
+                attrs = null;
+            }
+            String path = relative(file);
+            if (attrs == null || !attrs.isRegularFile()) {
+                // gone, or replaced by a directory: drop it and anything below it
+                String prefix = path + "/";
+                for (String p : s.base.paths) {
+                    if (p.equals(path) || p.startsWith(prefix)) {
+                        deleted.add(p);
+                    }
+                }
+                for (String p : s.changed.keySet()) {
+                    if (p.equals(path) || p.startsWith(prefix)) {
+                        deleted.add(p);
+                    }
+                }
+            }
+            if (attrs != null && attrs.isDirectory()) {
+                scan(file, found);
+            } else if (attrs != null && attrs.isRegularFile()) {
+                found.put(path, attrs);
+            }
+        }
+        deleted.removeAll(found.keySet());
+        update(found, deleted);
+    }
+
+    // reindexes the found files whose size or time differ from the index
+    private void update(Map<String, BasicFileAttributes> found, Set<String> deleted) throws IOException {
+        State s = state;
+        Map<String, BasicFileAttributes> stale = new LinkedHashMap<>();
+        for (Map.Entry<String, BasicFileAttributes> e : found.entrySet()) {
+            String path = e.getKey();
+            BasicFileAttributes attrs = e.getValue();
+            long modified = attrs.lastModifiedTime().toMillis();
+            FileEntry entry = s.changed.get(path);
+            Integer id = s.base.ids.get(path);
+            boolean same = entry != null
+                ? entry.grams != null && entry.size == attrs.size() && entry.modified == modified
+                : id != null && s.base.sizes[id] == attrs.size() && s.base.modified[id] == modified;
+            if (!same) {
+                stale.put(path, attrs);
+            }
+        }
+        Set<String> removed = new HashSet<>();
+        for (String path : deleted) {
+            FileEntry entry = s.changed.get(path);
+            if (entry != null ? entry.grams != null : s.base.ids.containsKey(path)) {
+                removed.add(path);
+            }
+        }
+        if (stale.isEmpty() && removed.isEmpty()) {
+            return;
+        }
+        if (s.changed.size() + stale.size() + removed.size() >= MERGE_FILES) {
+            merge(stale, removed);
+            return;
+        }
+        Map<String, FileEntry> changed = new HashMap<>(s.changed);
+        changed.putAll(index(stale));
+        for (String path : removed) {
+            changed.put(path, new FileEntry(0, 0, null));
+        }
+        state = new State(s.base, changed);
+    }
+
+    // Writes a new index file from the current one, the changed files and
+    // the stale ones, and makes it the base. Stale files are read in
+    // batches, so a first build never holds every file's trigrams at once.
+    private void merge(Map<String, BasicFileAttributes> stale, Set<String> removed) throws IOException {
+        State s = state;
+        Builder builder = new Builder();
+        Segment base = s.base;
+        int[] newIds = new int[base.paths.length];
+        for (int id = 0; id < base.paths.length; id++) {
+            String path = base.paths[id];
+            boolean replaced = s.changed.containsKey(path) || stale.containsKey(path) || removed.contains(path);
+            newIds[id] = replaced ? -1 : builder.addFile(path, base.sizes[id], base.modified[id]);
+        }
+        for (int g = 0; g < base.grams.length; g++) {
+            for (int id : base.postings(g)) {
+                if (newIds[id] >= 0) {
+                    builder.add(base.grams[g], newIds[id]);
+                }
+            }
+        }
+        for (Map.Entry<String, FileEntry> e : s.changed.entrySet()) {
+            FileEntry entry = e.getValue();
+            if (entry.grams != null && !stale.containsKey(e.getKey()) && !removed.contains(e.getKey())) {
+                builder.addFile(e.getKey(), entry);
+            }
+        }
+        List<Map.Entry<String, BasicFileAttributes>> todo = new ArrayList<>(stale.entrySet());
+        for (int i = 0; i < todo.size() && !closed; i += BATCH) {
+            Map<String, BasicFileAttributes> batch = new LinkedHashMap<>();
+            for (Map.Entry<String, BasicFileAttributes> e : todo.subList(i, Math.min(todo.size(), i + BATCH))) {
+                batch.put(e.getKey(), e.getValue());
+            }
+            for (Map.Entry<String, FileEntry> e : index(batch).entrySet()) {
+                builder.addFile(e.getKey(), e.getValue());
+            }
+        }
+        Segment merged = builder.build();
+        write(merged);
+        state = new State(merged, Collections.emptyMap());
+    }
+
+    // reads and extracts the trigrams of the files, in parallel on the indexing
+    // pool: the reads block, and the common pool is shared with Replace All
+    private Map<String, FileEntry> index(Map<String, BasicFileAttributes> files) {
+        return INDEXERS.submit(() -> files.entrySet().parallelStream()
+            .collect(Collectors.toMap(Map.Entry::getKey, e -> {
+                BasicFileAttributes attrs = e.getValue();
+                return new FileEntry(attrs.size(), attrs.lastModifiedTime().toMillis(),
+                    extract(root.resolve(e.getKey()), attrs.size()));
+            }))).join();
+    }
+
+    // binary, unreadable and oversized files get no trigrams, like Find in Files skips them
+    private static int[] extract(Path file, long size) {
+        if (size < 3 || size > FileText.MAX_FILE_BYTES) {
+            return NO_GRAMS;
+        }
+        try {
+            CharBuffer text = FileText.read(file, size);
+            if (text == null) {
+                return NO_GRAMS;
+            }
+            GramSet grams = new GramSet();
+            addTrigrams(text, grams);
+            return grams.toSortedArray();
+        } catch (IOException e) {
+            return NO_GRAMS;
+        }
+    }
+
+    // collects the regular files under dir and registers its directories with the watcher
+    private void scan(Path dir, Map<String, BasicFileAttributes> found) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) {
+                if (d.getFileName() != null && d.getFileName().toString().equals(DIRECTORY) && d.getParent().equals(root)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                if (watching) {
+                    try {
+                        watched.put(d.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), d);
+                    } catch (IOException | ClosedWatchServiceException e) {
+                        // e.g. out of inotify watches: check the tree on each query instead
+                        watching = false;
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()) {
+                    found.put(relative(file), attrs);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private String relative(Path file) {
+        return root.relativize(file).toString().replace('\\', '/');
+    }
+
+    private void load() {
+        if (!Files.isRegularFile(indexFile)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            int files = in.readInt();
+            String[] paths = new String[files];
+            long[] sizes = new long[files];
+            long[] modified = new long[files];
+            for (int i = 0; i < files; i++) {
+                paths[i] = in.readUTF();
+                sizes[i] = in.readLong();
+                modified[i] = in.readLong();
+            }
+            int count = in.readInt();
+            int[] grams = new int[count];
+            int[] offsets = new int[count + 1];
+            for (int i = 0; i < count; i++) {
+                grams[i] = in.readInt();
+            }
+            for (int i = 0; i <= count; i++) {
+                offsets[i] = in.readInt();
+            }
+            byte[] postings = new byte[offsets[count]];
+            in.readFully(postings);
+            state = new State(new Segment(paths, sizes, modified, grams, offsets, postings), Collections.emptyMap());
+        } catch (IOException | RuntimeException e) {
+            // unreadable or from another version: rebuild it
+            state = new State(Segment.EMPTY, Collections.emptyMap());
+        }
+    }
+
+    private void write(Segment segment) throws IOException {
+        Path dir = indexFile.getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, FILE_NAME, ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(segment.paths.length);
+                for (int i = 0; i < segment.paths.length; i++) {
+                    out.writeUTF(segment.paths[i]);
+                    out.writeLong(segment.sizes[i]);
+                    out.writeLong(segment.modified[i]);
+                }
+                out.writeInt(segment.grams.length);
+                for (int gram : segment.grams) {
+                    out.writeInt(gram);
+                }
+                for (int offset : segment.offsets) {
+                    out.writeInt(offset);
+                }
+                out.write(segment.postings, 0, segment.offsets[segment.grams.length]);
+            }
+            try {
+                Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static boolean containsAll(int[] sorted, int[] grams) {
+        for (int gram : grams) {
+            if (Arrays.binarySearch(sorted, gram) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Folds case the same way for text and queries, so a case-insensitive
+    // match always shares the folded trigrams of the query
+    private static int fold(char c) {
+        if (c < 128) {
+            return c >= 'A' && c <= 'Z' ? c + 32 : c;
+        }
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    /** Adds the keys of the case-folded trigrams of {@code text}. */
+    static void addTrigrams(CharSequence text, GramSet grams) {
+        int n = text.length();
+        if (n < 3) {
+            return;
+        }
+        int a = fold(text.charAt(0));
+        int b = fold(text.charAt(1));
+        for (int i = 2; i < n; i++) {
+            int c = fold(text.charAt(i));
+            // exact for chars below U+0400; others may share a key, which only adds candidates
+            grams.add((a & 0x7FF) << 21 | (b & 0x7FF) << 10 | (c & 0x3FF));
+            a = b;
+            b = c;
+        }
+    }
+
+    /** An open-addressing set of trigram keys; a file has far fewer distinct trigrams than chars. */
+    static final class GramSet {
+        private static final int FREE = 0; // key 0 is "\0\0\0", counted separately
+        private int[] keys = new int[1024];
+        private int size;
+        private boolean hasZero;
+
+        void add(int key) {
+            if (key == FREE) {
+                hasZero = true;
+                return;
+            }
+            int mask = keys.length - 1;
+            int h = key * 0x9E3779B9;
+            int i = (h ^ h >>> 16) & mask;
+            while (keys[i] != FREE) {
+                if (keys[i] == key) {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            if (++size * 2 > keys.length) {
+                rehash();
+            }
+        }
+
+        private void rehash() {
+            int[] old = keys;
+            keys = new int[old.length * 2];
+            size = 0;
+            for (int key : old) {
+                if (key != FREE) {
+                    add(key);
+                }
+            }
+        }
+
+        int[] toSortedArray() {
+            int[] out = new int[size + (hasZero ? 1 : 0)];
+            int n = 0;
+            if (hasZero) {
+                out[n++] = 0;
+            }
+            for (int key : keys) {
+                if (key != FREE) {
+                    out[n++] = key;
+                }
+            }
+            Arrays.sort(out);
+            return out;
+        }
+    }
+
+    // An immutable index: file table plus, per trigram in ascending order,
+    // the varint deltas of the ids of the files that contain it
+    private static final class Segment {
+        static final Segment EMPTY = new Segment(new String[0], new long[0], new long[0],
+            new int[0], new int[1], new byte[0]);
+
+        final String[] paths;
+        final long[] sizes;
+        final long[] modified;
+        final int[] grams;
+        final int[] offsets;
+        final byte[] postings;
+        final Map<String, Integer> ids;
+
+        Segment(String[] paths, long[] sizes, long[] modified, int[] grams, int[] offsets, byte[] postings) {
+            this.paths = paths;
+            this.sizes = sizes;
+            this.modified = modified;
+            this.grams = grams;
+            this.offsets = offsets;
+            this.postings = postings;
+            this.ids = new HashMap<>(paths.length * 2);
+            for (int i = 0; i < paths.length; i++) {
+                ids.put(paths[i], i);
+            }
+        }
+
+        int[] postings(int g) {
+            int[] out = new int[16];
+            int n = 0;
+            int id = -1;
+            for (int p = offsets[g], end = offsets[g + 1]; p < end; ) {
+                int delta = 0;
+                for (int shift = 0; ; shift += 7) {
+                    byte b = postings[p++];
+                    delta |= (b & 0x7F) << shift;
+                    if (b >= 0) {
+                        break;
+                    }
+                }
+                id += delta + 1;
+                if (n == out.length) {
+                    out = Arrays.copyOf(out, n * 2);
+                }
+                out[n++] = id;
+            }
+            return Arrays.copyOf(out, n);
+        }
+
+        // ids of the files that contain every gram, starting from the shortest list
+        int[] lookup(int[] query) {
+            int[] slots = new int[query.length];
+            for (int i = 0; i < query.length; i++) {
+                slots[i] = Arrays.binarySearch(grams, query[i]);
+                if (slots[i] < 0) {
+                    return NO_GRAMS;
+                }
+            }
+            Integer[] order = new Integer[slots.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = slots[i];
+            }
+            Arrays.sort(order, (x, y) -> Integer.compare(offsets[x + 1] - offsets[x], offsets[y + 1] - offsets[y]));
+            int[] result = postings(order[0]);
+            for (int i = 1; i < order.length && result.length > 0; i++) {
+                result = intersect(result, postings(order[i]));
+            }
+            return result;
+        }
+
+        private static int[] intersect(int[] a, int[] b) {
+            int[] out = new int[Math.min(a.length, b.length)];
+            int n = 0;
+            for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+                if (a[i] < b[j]) {
+                    i++;
+                } else if (a[i] > b[j]) {
+                    j++;
+                } else {
+                    out[n++] = a[i];
+                    i++;
+                    j++;
+                }
+            }
+            return Arrays.copyOf(out, n);
+        }
+    }
+
+    // Builds a segment from files added in id order
+    private static final class Builder {
+        private final List<String> paths = new ArrayList<>();
+        private long[] sizes = new long[256];
+        private long[] modified = new long[256];
+        private final Map<Integer, Postings> postings = new HashMap<>();
+
+        int addFile(String path, long size, long time) {
+            int id = paths.size();
+            if (id == sizes.length) {
+                sizes = Arrays.copyOf(sizes, id * 2);
+                modified = Arrays.copyOf(modified, id * 2);
+            }
+            paths.add(path);
+            sizes[id] = size;
+            modified[id] = time;
+            return id;
+        }
+
+        void addFile(String path, FileEntry entry) {
+            int id = addFile(path, entry.size, entry.modified);
+            for (int gram : entry.grams) {
+                add(gram, id);
+            }
+        }
+
+        void add(int gram, int id) {
+            postings.computeIfAbsent(gram, g -> new Postings()).add(id);
+        }
+
+        Segment build() {
+            int[] grams = new int[postings.size()];
+            int n = 0;
+            int total = 0;
+            for (Map.Entry<Integer, Postings> e : postings.entrySet()) {
+                grams[n++] = e.getKey();
+                total += e.getValue().length;
+            }
+            Arrays.sort(grams);
+            int[] offsets = new int[grams.length + 1];
+            byte[] bytes = new byte[total];
+            for (int g = 0; g < grams.length; g++) {
+                Postings p = postings.get(grams[g]);
+                System.arraycopy(p.bytes, 0, bytes, offsets[g], p.length);
+                offsets[g + 1] = offsets[g] + p.length;
+            }
+            int files = paths.size();
+            return new Segment(paths.toArray(new String[0]), Arrays.copyOf(sizes, files),
+                Arrays.copyOf(modified, files), grams, offsets, bytes);
+        }
+    }
+
+    // ids of one trigram's files as varint gaps
+    private static final class Postings {
+        byte[] bytes = new byte[4];
+        int length;
+        int last = -1;
+
+        void add(int id) {
+            int delta = id - last - 1;
+            last = id;
+            if (length + 5 > bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            while ((delta & ~0x7F) != 0) {
+                bytes[length++] = (byte) (delta & 0x7F | 0x80);
+                delta >>>= 7;
+            }
+            bytes[length++] = (byte) delta;
+        }
+    }
+}
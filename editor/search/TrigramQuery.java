@@ -0,0 +1,264 @@
+// -----------------------------
+// File: src/editor/search/TrigramQuery.java
+// -----------------------------
+package editor.search;
+
+import editor.text.DocumentSearch;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Works out which trigrams a file must contain to match a query, so the
+ * index can narrow a search to candidate files.
+ *
+ * Plain text needs all of its own trigrams; Whole word only narrows it
+ * further. A regex needs the trigrams of the literal runs every match has
+ * to contain: runs under an optional quantifier, in a negative lookaround
+ * or next to a class are dropped, and any alternation gives up, since its
+ * branches need not share a run. Case is folded on both sides, so the
+ * candidates are a superset of the files that match in either case mode.
+ */
+public final class TrigramQuery {
+
+    private TrigramQuery() {
+    }
+
+    /** The sorted trigram keys a matching file contains; empty if the query cannot be narrowed. */
+    public static int[] trigrams(DocumentSearch query) {
+        List<String> runs = query.isRegex()
+            ? literals(query.getText())
+            : Collections.singletonList(query.getText());
+        TrigramIndex.GramSet grams = new TrigramIndex.GramSet();
+        for (String run : runs) {
+            TrigramIndex.addTrigrams(run, grams);
+        }
+        return grams.toSortedArray();
+    }
+
+    /**
+     * The literal runs of at least three chars that every match of
+     * {@code regex} contains; empty if there are none or the regex is too
+     * complex to tell.
+     */
+    public static List<String> literals(String regex) {
+        List<String> runs = new ArrayList<>();
+        StringBuilder run = new StringBuilder();
+        // runs.size() at each open group, negated for groups whose runs are never required
+        List<Integer> groups = new ArrayList<>();
+        int groupStart = -1; // runs.size() when the group that just closed opened
+        int n = regex.length();
+        for (int i = 0; i < n; i++) {
+            char c = regex.charAt(i);
+            boolean literal = false;
+            int lastGroup = -1;
+            switch (c) {
+                case '\\':
+                    if (++i >= n) {
+                        return Collections.emptyList();
+                    }
+                    char e = regex.charAt(i);
+                    if (!Character.isLetterOrDigit(e)) {
+                        run.append(e);
+                        literal = true;
+                    } else {
+                        i = skipEscape(regex, i);
+                        if (i < 0) {
+                            return Collections.emptyList();
+                        }
+                        flush(run, runs);
+                    }
+                    break;
+                case '[':
+                    i = skipClass(regex, i);
+                    if (i < 0) {
+                        return Collections.emptyList();
+                    }
+                    flush(run, runs);
+                    break;
+                case '(':
+                    flush(run, runs);
+                    boolean required = true;
+                    if (i + 1 < n && regex.charAt(i + 1) == '?') {
+                        int close = groupKind(regex, i + 2);
+                        if (close == BAD) {
+                            return Collections.emptyList();
+                        }
+                        if (close == FLAGS) {
+                            // (?i) and the like: skip to the ')'
+                            i = regex.indexOf(')', i);
+                            break;
+                        }
+                        required = close == REQUIRED;
+                    }
+                    groups.add(required ? runs.size() : -runs.size() - 1);
+                    break;
+                case ')':
+                    flush(run, runs);
+                    if (groups.isEmpty()) {
+                        return Collections.emptyList();
+                    }
+                    int start = groups.remove(groups.size() - 1);
+                    if (start < 0) {
+                        truncate(runs, -start - 1);
+                        start = -start - 1;
+                    }
+                    lastGroup = start;
+                    break;
+                case '|':
+                    return Collections.emptyList();
+                case '*':
+                case '?':
+                case '+':
+                case '{':
+                    boolean optional = c != '+';
+                    if (c == '{') {
+                        int close = regex.indexOf('}', i);
+                        if (close < 0) {
+                            return Collections.emptyList();
+                        }
+                        String min = regex.substring(i + 1, close).split(",", -1)[0].trim();
+                        optional = min.isEmpty() || min.chars().allMatch(d -> d == '0');
+                        i = close;
+                    }
+                    if (run.length() > 0) {
+                        if (optional) {
+                            run.setLength(run.length() - 1);
+                        }
+                    } else if (optional && groupStart >= 0) {
+                        truncate(runs, groupStart);
+                    }
+                    flush(run, runs);
+                    // lazy and possessive forms
+                    if (i + 1 < n && (regex.charAt(i + 1) == '?' || regex.charAt(i + 1) == '+')) {
+                        i++;
+                    }
+                    break;
+                case '.':
+                case '^':
+                case '$':
+                    flush(run, runs);
+                    break;
+                default:
+                    run.append(c);
+                    literal = true;
+            }
+            // a quantifier applies to the last char of the run or to the group just closed
+            groupStart = lastGroup;
+            if (!literal && c != '*' && c != '?' && c != '+' && c != '{' && run.length() > 0) {
+                flush(run, runs);
+            }
+        }
+        if (!groups.isEmpty()) {
+            return Collections.emptyList();
+        }
+        flush(run, runs);
+        return runs;
+    }
+
+    private static final int REQUIRED = 0;
+    private static final int NOT_REQUIRED = 1;
+    private static final int FLAGS = 2;
+    private static final int BAD = 3;
+
+    // what follows "(?" in a group
+    private static int groupKind(String regex, int i) {
+        if (i >= regex.length()) {
+            return BAD;
+        }
+        char c = regex.charAt(i);
+        if (c == ':' || c == '=' || c == '>') {
+            return REQUIRED;
+        }
+        if (c == '!') {
+            return NOT_REQUIRED;
+        }
+        if (c == '<') {
+            if (i + 1 < regex.length() && (regex.charAt(i + 1) == '=' || regex.charAt(i + 1) == '!')) {
+                return regex.charAt(i + 1) == '=' ? REQUIRED : NOT_REQUIRED;
+            }
+            return REQUIRED; // named group
+        }
+        // inline flags: (?i) or (?i:X); comments mode changes what a literal is
+        int end = i;
+        while (end < regex.length() && (Character.isLetter(regex.charAt(end)) || regex.charAt(end) == '-')) {
+            end++;
+        }
+        if (end == regex.length() || regex.substring(i, end).indexOf('x') >= 0) {
+            return BAD;
+        }
+        return regex.charAt(end) == ')' ? FLAGS : regex.charAt(end) == ':' ? REQUIRED : BAD;
+    }
+
+    // skips an escape like \d, \x41, \p{L} or \k<name> starting at its letter; -1 if unsupported
+    private static int skipEscape(String regex, int i) {
+        char e = regex.charAt(i);
+        switch (e) {
+            case 'x':
+            case 'p':
+            case 'P':
+            case 'N':
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == '{') {
+                    int close = regex.indexOf('}', i);
+                    return close < 0 ? -1 : close;
+                }
+                return e == 'x' ? Math.min(i + 2, regex.length() - 1) : Math.min(i + 1, regex.length() - 1);
+            case 'u':
+                return Math.min(i + 4, regex.length() - 1);
+            case 'c':
+                return Math.min(i + 1, regex.length() - 1);
+            case 'k':
+                int close = regex.indexOf('>', i);
+                return close < 0 ? -1 : close;
+            case '0':
+                while (i + 1 < regex.length() && regex.charAt(i + 1) >= '0' && regex.charAt(i + 1) <= '7') {
+                    i++;
+                }
+                return i;
+            case 'Q':
+                return -1;
+            default:
+                // back references take all their digits
+                while (Character.isDigit(e) && i + 1 < regex.length() && Character.isDigit(regex.charAt(i + 1))) {
+                    i++;
+                }
+                return i;
+        }
+    }
+
+    // index of the ']' closing the class that opens at i, or -1
+    private static int skipClass(String regex, int i) {
+        int depth = 0;
+        for (int j = i; j < regex.length(); j++) {
+            char c = regex.charAt(j);
+            if (c == '\\') {
+                j++;
+            } else if (c == '[') {
+                depth++;
+                // a ']' right after the opening bracket is literal
+                if (j + 1 < regex.length() && regex.charAt(j + 1) == '^') {
+                    j++;
+                }
+                if (j + 1 < regex.length() && regex.charAt(j + 1) == ']') {
+                    j++;
+                }
+            } else if (c == ']' && --depth == 0) {
+                return j;
+            }
+        }
+        return -1;
+    }
+
+    private static void flush(StringBuilder run, List<String> runs) {
+        if (run.length() >= 3) {
+            runs.add(run.toString());
+        }
+        run.setLength(0);
+    }
+
+    private static void truncate(List<String> runs, int size) {
+        while (runs.size() > size) {
+            runs.remove(runs.size() - 1);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+// -----------------------------
+// File: src/editor/text/BackgroundSearch.java
+// -----------------------------
+package editor.text;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+
+/**
+ * Find Next / Find Previous and match counting for a worker thread.
+ *
+ * Both read a snapshot of the text through a CharSequence that counts the
+ * chars the matcher reads. Every few thousand reads it checks whether the
+ * worker was interrupted (a cancelled Future) and whether the search ran
+ * past its step or time budget, so a pathological regex gives up instead
+ * of running forever. The count is published as it grows, for a live
+ * "N of M matches" status.
+ */
+public final class BackgroundSearch {
+    private static final int CHECK_EVERY = 4096;
+
+    /** Thrown out of a search that ran past its step or time budget. */
+    public static final class BudgetExceededException extends RuntimeException {
+        BudgetExceededException(String message) {
+            super(message);
+        }
+    }
+
+    private final DocumentSearch search;
+    private final CharSequence text;
+    private final long maxSteps;
+    private final long maxNanos;
+
+    private volatile int count;
+    private volatile int ordinal;
+    private volatile boolean counted;
+
+    /**
+     * @param text a snapshot, see {@link DocumentSearch#snapshot}, or a
+     *        {@link DocumentCharSequence} when used on the EDT
+     * @param maxSteps chars a single find or count may read
+     * @param maxMillis time a single find or count may take
+     */
+    public BackgroundSearch(DocumentSearch search, CharSequence text, long maxSteps, long maxMillis) {
+        this.search = search;
+        this.text = text;
+        this.maxSteps = maxSteps;
+        this.maxNanos = TimeUnit.MILLISECONDS.toNanos(maxMillis);
+    }
+
+    /**
+     * The next match at or after {@code from}, or the previous one before
+     * it, wrapping around the end once. Returns null if there is none.
+     *
+     * @throws CancellationException if the worker was interrupted
+     * @throws BudgetExceededException if the search took too long
+     */
+    public DocumentSearch.Match find(int from, boolean forward) {
+        Budgeted chars = new Budgeted(view());
+        // the snapshot stays the same object while the text does
+        DocumentSearch.Match found = search.find(chars, from, forward, text);
+        if (found == null) {
+            found = search.find(chars, forward ? 0 : chars.length(), forward, text);
+        }
+        return found;
+    }
+
+    /**
+     * Counts all matches, as Replace All would find them. {@link #getOrdinal()}
+     * becomes the number of the match that starts at {@code current}.
+     *
+     * @throws CancellationException if the worker was interrupted
+     * @throws BudgetExceededException if the count took too long
+     */
+    public int countAll(int current) {
+        Budgeted chars = new Budgeted(view());
+        int n = 0;
+        if (search.isRegex()) {
+            Matcher m = search.getPattern().matcher(chars);
+            while (m.find()) {
+                count = ++n;
+                if (m.start() == current) ordinal = n;
+            }
+        } else {
+            for (DocumentSearch.Match m = search.find(chars, 0); m != null; m = search.find(chars, m.end)) {
+                count = ++n;
+                if (m.start == current) ordinal = n;
+            }
+        }
+        counted = true;
+        return n;
+    }
+
+    /**
+     * Start and end offsets, in pairs, of the matches that start in
+     * [from, to) when scanning from {@code from}; they may end past {@code to}.
+     *
+     * @throws BudgetExceededException if the scan took too long
+     */
+    public int[] matchesIn(int from, int to) {
+        Budgeted chars = new Budgeted(view());
+        int[] found = new int[16];
+        int n = 0;
+        if (search.isRegex()) {
+            Matcher m = search.getPattern().matcher(chars);
+            m.useTransparentBounds(true);
+            m.useAnchoringBounds(false);
+            m.region(from, chars.length());
+            while (m.find() && m.start() < to) {
+                if (n == found.length) found = Arrays.copyOf(found, n * 2);
+                found[n++] = m.start();
+                found[n++] = m.end();
+            }
+        } else {
+            for (DocumentSearch.Match m = search.find(chars, from); m != null && m.start < to; m = search.find(chars, m.end)) {
+                if (n == found.length) found = Arrays.copyOf(found, n * 2);
+                found[n++] = m.start;
+                found[n++] = m.end;
+            }
+        }
+        return Arrays.copyOf(found, n);
+    }
+
+    // a snapshot gets a view with its own read cursor per call, so calls on
+    // different threads don't share one; a live document is read in place
+    private CharSequence view() {
+        return text instanceof DocumentCharSequence ? text : text.subSequence(0, text.length());
+    }
+
+    /** Matches counted so far. */
+    public int getCount() {
+        return count;
+    }
+
+    /** Number of the current match, 1-based, or 0 while not reached. */
+    public int getOrdinal() {
+        return ordinal;
+    }
+
+    /** True once {@link #countAll(int)} has finished. */
+    public boolean isCounted() {
+        return counted;
+    }
+
+    // the snapshot, checking for cancellation and the budget as it is read
+    private final class Budgeted implements CharSequence {
+        private final CharSequence chars;
+        private final long deadline = System.nanoTime() + maxNanos;
+        private long steps;
+
+        Budgeted(CharSequence chars) {
+            this.chars = chars;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if ((++steps & (CHECK_EVERY - 1)) == 0) {
+                check();
+            }
+            return chars.charAt(index);
+        }
+
+        private void check() {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new CancellationException();
+            }
+            if (steps > maxSteps || System.nanoTime() - deadline > 0) {
+                throw new BudgetExceededException("Search stopped after " + steps + " steps");
+            }
+        }
+
+        @Override
+        public int length() {
+            return chars.length();
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return chars.subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return chars.toString();
+        }
+    }
+}
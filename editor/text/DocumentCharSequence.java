@@ -0,0 +1,88 @@
+// -----------------------------
+// File: src/editor/text/DocumentCharSequence.java
+// -----------------------------
+package editor.text;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+
+/**
+ * Read-only CharSequence view of a Document, for regex and literal scans.
+ *
+ * Text is pulled through {@link Document#getText(int, int, Segment)} one
+ * window at a time with partial returns enabled, so a piece table or gap
+ * buffer hands out its own arrays and the document is never copied whole.
+ * The length is fixed when the view is made: use it on the EDT (or under the
+ * document's read lock) and make a new one after the document changes.
+ */
+public final class DocumentCharSequence implements CharSequence {
+    private static final int WINDOW = 16 * 1024;
+
+    private final Document doc;
+    private final int length;
+    private final Segment segment = new Segment();
+    private int segStart;
+    private int segEnd;
+
+    public DocumentCharSequence(Document doc) {
+        this.doc = doc;
+        this.length = doc.getLength();
+        segment.setPartialReturn(true);
+    }
+
+    public Document getDocument() {
+        return doc;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < segStart || index >= segEnd) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+            }
+            load(index);
+        }
+        return segment.array[segment.offset + index - segStart];
+    }
+
+    private void load(int index) {
+        // scanning backwards: put the window behind the index
+        fetch(index < segStart ? Math.max(0, index - WINDOW + 1) : index);
+        if (index < segStart || index >= segEnd) {
+            fetch(index); // a partial return stopped short of the index
+        }
+    }
+
+    private void fetch(int from) {
+        try {
+            doc.getText(from, Math.min(WINDOW, length - from), segment);
+        } catch (BadLocationException e) {
+            throw new IllegalStateException("Document changed during search", e);
+        }
+        segStart = from;
+        segEnd = from + segment.count;
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length);
+        }
+        try {
+            return doc.getText(start, end - start);
+        } catch (BadLocationException e) {
+            throw new IllegalStateException("Document changed during search", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(0, length).toString();
+    }
+}
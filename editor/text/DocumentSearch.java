@@ -0,0 +1,275 @@
+// -----------------------------
+// File: src/editor/text/DocumentSearch.java
+// -----------------------------
+package editor.text;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * One find query (text plus Match case / Whole word / Regular expression)
+ * run directly over a Document through a {@link DocumentCharSequence}.
+ *
+ * A forward search reads only from the start offset to the next match, so
+ * Find Next costs time proportional to the distance travelled, not to the
+ * document size. Plain text goes through a {@link LiteralMatcher}, in either
+ * direction, folding case per char instead of lowercasing the document.
+ * Compiled patterns are cached, so repeating a query never recompiles it.
+ * A backward regex search reads back from the offset in growing windows
+ * rather than scanning from the top.
+ */
+public final class DocumentSearch {
+    private static final int CACHED_PATTERNS = 32;
+    private static final int BACKWARD_WINDOW = 4096;
+    private static final int MAX_BACKWARD_WINDOW = 4 * 1024 * 1024;
+
+    private static final Map<String, Pattern> patterns = Collections.synchronizedMap(
+        new LinkedHashMap<String, Pattern>(CACHED_PATTERNS, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Pattern> eldest) {
+                return size() > CACHED_PATTERNS;
+            }
+        });
+
+    private final String text;
+    private final boolean wholeWord;
+    private final boolean regex;
+    private final Pattern pattern;
+    private final LiteralMatcher literal;
+    private volatile BackwardCache backwardCache;
+
+    /** A match as [start, end) document offsets. */
+    public static final class Match {
+        public final int start;
+        public final int end;
+
+        public Match(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * @throws PatternSyntaxException if {@code regex} is set and the text is
+     *         not a valid regular expression
+     */
+    public DocumentSearch(String text, boolean matchCase, boolean wholeWord, boolean regex) {
+        this.text = text;
+        this.wholeWord = wholeWord && !regex; // whole word applies to plain text only
+        this.regex = regex;
+        this.pattern = compile(text, matchCase, regex);
+        this.literal = regex ? null : new LiteralMatcher(text, matchCase);
+    }
+
+    /** The compiled pattern for a query, from the cache when it was used before. */
+    public static Pattern compile(String text, boolean matchCase, boolean regex) {
+        int flags = regex ? 0 : Pattern.LITERAL | Pattern.UNICODE_CASE;
+        if (!matchCase) {
+            flags |= Pattern.CASE_INSENSITIVE;
+        }
+        String key = flags + ":" + text;
+        Pattern cached = patterns.get(key);
+        if (cached == null) {
+            cached = Pattern.compile(text, flags);
+            patterns.put(key, cached);
+        }
+        return cached;
+    }
+
+    public Pattern getPattern() {
+        return pattern;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /** True if all of {@code s} is one match, e.g. the current selection. */
+    public boolean matches(CharSequence s) {
+        if (literal != null) {
+            return s.length() == literal.length() && literal.matchesAt(s, 0);
+        }
+        return pattern.matcher(s).matches();
+    }
+
+    /**
+     * Finds the next match starting at or after {@code from} when going
+     * forward, or the last match starting before {@code from} when going
+     * backward. Returns null if there is none.
+     */
+    public Match find(Document doc, int from, boolean forward) {
+        return find(new DocumentCharSequence(doc), from, forward);
+    }
+
+    /** As {@link #find(Document, int, boolean)}, over any text, e.g. a snapshot. */
+    Match find(CharSequence chars, int from, boolean forward) {
+        return find(chars, from, forward, null);
+    }
+
+    /**
+     * As {@link #find(CharSequence, int, boolean)}. {@code version} is an
+     * object that stays the same exactly while the text does, such as a piece
+     * table snapshot; given one, a backward regex search reuses the matches
+     * it found for the previous Find Previous on the same text.
+     */
+    Match find(CharSequence chars, int from, boolean forward, Object version) {
+        if (from < 0 || from > chars.length()) {
+            return null;
+        }
+        if (literal != null) {
+            return forward ? findLiteral(chars, from) : findLiteralBackward(chars, from);
+        }
+        return forward ? findForward(chars, from) : findBackwardRegex(chars, from, version);
+    }
+
+    /** Next match starting at or after {@code from} in any text, e.g. a snapshot. */
+    Match find(CharSequence chars, int from) {
+        return literal != null ? findLiteral(chars, from) : findForward(chars, from);
+    }
+
+    /**
+     * The text of {@code doc} for searching off the EDT: a snapshot for a
+     * piece table, otherwise a copy. Call on the EDT.
+     */
+    public static CharSequence snapshot(Document doc) throws BadLocationException {
+        if (doc instanceof PieceTableDocument) {
+            return ((PieceTableDocument) doc).snapshot();
+        }
+        return doc.getText(0, doc.getLength());
+    }
+
+    public boolean isRegex() {
+        return regex;
+    }
+
+    private Match findLiteral(CharSequence chars, int from) {
+        int len = literal.length();
+        for (int pos = literal.indexOf(chars, from); pos >= 0; pos = literal.indexOf(chars, pos + 1)) {
+            if (!wholeWord || isWholeWord(chars, pos, pos + len)) {
+                return new Match(pos, pos + len);
+            }
+        }
+        return null;
+    }
+
+    private Match findLiteralBackward(CharSequence chars, int before) {
+        int len = literal.length();
+        for (int pos = literal.lastIndexOf(chars, before); pos >= 0; pos = literal.lastIndexOf(chars, pos)) {
+            if (!wholeWord || isWholeWord(chars, pos, pos + len)) {
+                return new Match(pos, pos + len);
+            }
+        }
+        return null;
+    }
+
+    private Match findForward(CharSequence chars, int from) {
+        Matcher m = pattern.matcher(chars);
+        int pos = from;
+        while (pos <= chars.length() && m.find(pos)) {
+            if (!wholeWord || isWholeWord(chars, m.start(), m.end())) {
+                return new Match(m.start(), m.end());
+            }
+            pos = m.start() + 1;
+        }
+        return null;
+    }
+
+    // A regex can match differently depending on where the scan starts, so
+    // scan forward over windows that start at a line start, each twice the
+    // size of the previous one, going back from the offset until one holds a
+    // match; for matches within a line this gives what a scan from the top
+    // would. The matches found stay cached, so repeated Find Previous on the
+    // same text walks back through them without scanning again, and the
+    // window size carries over, so each scan reads further ahead.
+    private Match findBackwardRegex(CharSequence chars, int before, Object version) {
+        BackwardCache cache = backwardCache;
+        if (version == null || cache == null || cache.version != version
+                || before < cache.from || before > cache.to) {
+            cache = new BackwardCache(version, before, before, new int[0], BACKWARD_WINDOW);
+        }
+        Match found;
+        while ((found = cache.lastBefore(before)) == null && cache.from > 0) {
+            int size = cache.window;
+            int from = lineStart(chars, Math.max(0, cache.from - size), size);
+            cache = cache.prepend(from, matchesIn(chars, from, cache.from), Math.min(MAX_BACKWARD_WINDOW, 2 * size));
+        }
+        if (version != null) {
+            backwardCache = cache;
+        }
+        return found;
+    }
+
+    // start/end pairs of the matches starting in [from, to), scanning from from
+    private int[] matchesIn(CharSequence chars, int from, int to) {
+        Matcher m = pattern.matcher(chars);
+        m.useTransparentBounds(true);
+        m.useAnchoringBounds(false);
+        m.region(from, chars.length());
+        int[] found = new int[16];
+        int n = 0;
+        while (m.find() && m.start() < to) {
+            if (n == found.length) found = Arrays.copyOf(found, n * 2);
+            found[n++] = m.start();
+            found[n++] = m.end();
+        }
+        return Arrays.copyOf(found, n);
+    }
+
+    // the start of the line holding pos, looking back at most limit chars
+    private static int lineStart(CharSequence chars, int pos, int limit) {
+        for (int i = pos; i > 0 && i > pos - limit; i--) {
+            if (chars.charAt(i - 1) == '\n') {
+                return i;
+            }
+        }
+        return Math.max(0, pos - limit);
+    }
+
+    // the regex matches starting in [from, to) of one version of the text
+    private static final class BackwardCache {
+        final Object version;
+        final int from;
+        final int to;
+        final int[] matches;
+        final int window; // size of the next window to scan
+
+        BackwardCache(Object version, int from, int to, int[] matches, int window) {
+            this.version = version;
+            this.from = from;
+            this.to = to;
+            this.matches = matches;
+            this.window = window;
+        }
+
+        // matches are in start order: binary search for the last start < before
+        Match lastBefore(int before) {
+            int lo = 0;
+            int hi = matches.length / 2;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (matches[mid * 2] < before) lo = mid + 1; else hi = mid;
+            }
+            return lo == 0 ? null : new Match(matches[lo * 2 - 2], matches[lo * 2 - 1]);
+        }
+
+        BackwardCache prepend(int start, int[] earlier, int nextWindow) {
+            int[] all = Arrays.copyOf(earlier, earlier.length + matches.length);
+            System.arraycopy(matches, 0, all, earlier.length, matches.length);
+            return new BackwardCache(version, start, to, all, nextWindow);
+        }
+    }
+
+    private static boolean isWholeWord(CharSequence chars, int start, int end) {
+        if (start > 0 && Character.isLetterOrDigit(chars.charAt(start - 1))) {
+            return false;
+        }
+        return end >= chars.length() || !Character.isLetterOrDigit(chars.charAt(end));
+    }
+}
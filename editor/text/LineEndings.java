@@ -0,0 +1,166 @@
+// -----------------------------
+// File: src/editor/text/LineEndings.java
+// -----------------------------
+package editor.text;
+
+/**
+ * Counts the CR, LF and CRLF line endings of a text as it streams past, so
+ * a file's style is known once it has been read, without another scan.
+ *
+ * Chunks are fed in order; a CR at the end of one chunk is only counted
+ * once the next chunk shows whether an LF follows it, so call
+ * {@link #finish()} after the last one. {@link #normalize} also rewrites
+ * every ending as a single '\n' while counting, which is how documents
+ * hold text; {@link Style#convert} turns them back on save.
+ */
+public final class LineEndings {
+
+    /** A line ending to save with. */
+    public enum Style {
+        LF("Unix"), CRLF("Windows"), CR("Mac");
+
+        private final String label;
+
+        Style(String label) {
+            this.label = label;
+        }
+
+        /** The name shown in the status bar. */
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * Copies src[from, to) into dst at {@code at} with every CR, LF and
+         * CRLF written as this style, and returns the end in dst; dst needs
+         * room for twice the chars. {@code afterCr} tells whether the chunk
+         * before ended in CR, so a CRLF split across chunks stays one
+         * ending.
+         */
+        public int convert(char[] src, int from, int to, char[] dst, int at, boolean afterCr) {
+            for (int i = from; i < to; i++) {
+                char c = src[i];
+                if (c > '\r') {
+                    dst[at++] = c;
+                    afterCr = false;
+                } else if (c == '\n') {
+                    if (!afterCr) at = put(dst, at);
+                    afterCr = false;
+                } else if (c == '\r') {
+                    at = put(dst, at);
+                    afterCr = true;
+                } else {
+                    dst[at++] = c;
+                    afterCr = false;
+                }
+            }
+            return at;
+        }
+
+        private int put(char[] dst, int at) {
+            if (this != LF) dst[at++] = '\r';
+            if (this != CR) dst[at++] = '\n';
+            return at;
+        }
+    }
+
+    private long lf;
+    private long crlf;
+    private long cr;
+    private boolean pendingCr;
+
+    /** Counts the endings in chars[from, to). */
+    public void count(char[] chars, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = chars[i];
+            if (c > '\r') {
+                if (pendingCr) endCr();
+            } else {
+                step(c);
+            }
+        }
+    }
+
+    /** Counts the endings in bytes[from, to) of an ASCII-compatible encoding. */
+    public void count(byte[] bytes, int from, int to) {
+        for (int i = from; i < to; i++) {
+            byte b = bytes[i];
+            if (b > '\r' || b < 0) {
+                if (pendingCr) endCr();
+            } else {
+                step((char) b);
+            }
+        }
+    }
+
+    /**
+     * Counts the endings in chars[from, to) and rewrites them in place as
+     * '\n', returning the new end of the range.
+     */
+    public int normalize(char[] chars, int from, int to) {
+        int w = from;
+        for (int i = from; i < to; i++) {
+            char c = chars[i];
+            if (c == '\n' && pendingCr) {
+                // the CR before it was already written as '\n'
+                pendingCr = false;
+                crlf++;
+                continue;
+            }
+            if (c > '\r') {
+                if (pendingCr) endCr();
+            } else {
+                step(c);
+                if (c == '\r') c = '\n';
+            }
+            chars[w++] = c;
+        }
+        return w;
+    }
+
+    private void step(char c) {
+        if (c == '\n') {
+            if (pendingCr) {
+                pendingCr = false;
+                crlf++;
+            } else {
+                lf++;
+            }
+        } else {
+            if (pendingCr) endCr();
+            if (c == '\r') pendingCr = true;
+        }
+    }
+
+    private void endCr() {
+        pendingCr = false;
+        cr++;
+    }
+
+    /** Counts a CR left at the very end of the text. */
+    public void finish() {
+        if (pendingCr) endCr();
+    }
+
+    public long getLfCount() { return lf; }
+    public long getCrLfCount() { return crlf; }
+    public long getCrCount() { return cr; }
+
+    /** True if more than one kind of ending was seen. */
+    public boolean isMixed() {
+        return (lf > 0 ? 1 : 0) + (crlf > 0 ? 1 : 0) + (cr > 0 ? 1 : 0) > 1;
+    }
+
+    /** The most common ending, or null if there were none. */
+    public Style getStyle() {
+        if (lf == 0 && crlf == 0 && cr == 0) return null;
+        if (crlf >= lf && crlf >= cr) return Style.CRLF;
+        return lf >= cr ? Style.LF : Style.CR;
+    }
+
+    /** "Unix", "Windows", "Mac", "Mixed" or "None", for the status bar. */
+    public String getLabel() {
+        Style style = getStyle();
+        return style == null ? "None" : isMixed() ? "Mixed" : style.getLabel();
+    }
+}
@@ -0,0 +1,140 @@
+// -----------------------------
+// File: src/editor/text/LineIndex.java
+// -----------------------------
+package editor.text;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import java.util.Arrays;
+
+/**
+ * Line-start offsets of a document in a primitive int array, kept up to date
+ * from DocumentEvents.
+ *
+ * Offsets are held in a gap buffer that follows the edit point: entries in
+ * front of the gap are absolute, entries behind it are stored relative to the
+ * document length, so an edit only converts the entries the gap moves over.
+ * Lookups are a binary search with no allocation. Line changes are taken from
+ * the root element's ElementChange, so the inserted text is never rescanned.
+ *
+ * One index is shared per document; get it with {@link #of(Document)}.
+ */
+public final class LineIndex implements DocumentListener {
+    private final Document doc;
+    private int[] starts;
+    private int gapStart;
+    private int gapEnd;
+    private int docLength;
+
+    private LineIndex(Document doc) {
+        this.doc = doc;
+        Element root = doc.getDefaultRootElement();
+        int lines = root.getElementCount();
+        starts = new int[Math.max(16, lines + lines / 8)];
+        for (int i = 0; i < lines; i++) {
+            starts[i] = root.getElement(i).getStartOffset();
+        }
+        gapStart = lines;
+        gapEnd = starts.length;
+        docLength = doc.getLength();
+    }
+
+    /** The index for {@code doc}, created and attached on first use. */
+    public static LineIndex of(Document doc) {
+        Object existing = doc.getProperty(LineIndex.class);
+        if (existing instanceof LineIndex) {
+            return (LineIndex) existing;
+        }
+        LineIndex index = new LineIndex(doc);
+        doc.addDocumentListener(index);
+        doc.putProperty(LineIndex.class, index);
+        return index;
+    }
+
+    public int getLineCount() {
+        return starts.length - (gapEnd - gapStart);
+    }
+
+    public int getLineStartOffset(int line) {
+        return line < gapStart ? starts[line] : starts[line + gapEnd - gapStart] + docLength;
+    }
+
+    /** End of the line, past its newline, as JTextArea.getLineEndOffset reports it. */
+    public int getLineEndOffset(int line) {
+        return line + 1 < getLineCount() ? getLineStartOffset(line + 1) : docLength + 1;
+    }
+
+    public int getLineOfOffset(int offset) {
+        int lo = 0;
+        int hi = getLineCount() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (getLineStartOffset(mid) <= offset) lo = mid; else hi = mid - 1;
+        }
+        return lo;
+    }
+
+    // --- DocumentListener -----------------------------------------------
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        update(e, e.getLength());
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        update(e, -e.getLength());
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+    }
+
+    private void update(DocumentEvent e, int delta) {
+        DocumentEvent.ElementChange change = e.getChange(doc.getDefaultRootElement());
+        if (change == null) {
+            // no line boundaries touched: lines after the edit just shift
+            moveGap(getLineOfOffset(e.getOffset()) + 1);
+            docLength += delta;
+            return;
+        }
+        moveGap(change.getIndex());
+        gapEnd += change.getChildrenRemoved().length;
+        docLength += delta;
+        Element[] added = change.getChildrenAdded();
+        ensureGap(added.length);
+        for (Element line : added) {
+            starts[gapStart++] = line.getStartOffset();
+        }
+    }
+
+    private void moveGap(int index) {
+        int gap = gapEnd - gapStart;
+        if (index < gapStart) {
+            for (int i = gapStart - 1; i >= index; i--) {
+                starts[i + gap] = starts[i] - docLength;
+            }
+        } else {
+            for (int i = gapStart; i < index; i++) {
+                starts[i] = starts[i + gap] + docLength;
+            }
+        }
+        gapStart = index;
+        gapEnd = index + gap;
+    }
+
+    private void ensureGap(int needed) {
+        int gap = gapEnd - gapStart;
+        if (gap >= needed) {
+            return;
+        }
+        int tail = starts.length - gapEnd;
+        int capacity = Math.max(starts.length * 2, starts.length - gap + needed + 16);
+        int[] grown = Arrays.copyOf(starts, capacity);
+        System.arraycopy(starts, gapEnd, grown, capacity - tail, tail);
+        starts = grown;
+        gapEnd = capacity - tail;
+    }
+}
@@ -0,0 +1,109 @@
+// -----------------------------
+// File: src/editor/text/LiteralMatcher.java
+// -----------------------------
+package editor.text;
+
+import java.util.Arrays;
+
+/**
+ * Boyer-Moore-Horspool search for a fixed string, in both directions.
+ *
+ * The skip tables are indexed by the low byte of the (folded) char; chars
+ * that share a low byte take the smaller shift, which keeps the search exact.
+ * Without Match case every char is folded through a table as it is read, so
+ * case-insensitive search does not need a lowercased copy of the text.
+ */
+public final class LiteralMatcher {
+    private static final char[] FOLD = new char[Character.MAX_VALUE + 1];
+
+    static {
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            // the same folding as String.equalsIgnoreCase
+            FOLD[c] = Character.toLowerCase(Character.toUpperCase((char) c));
+        }
+    }
+
+    private final char[] pattern;
+    private final boolean matchCase;
+    private final int[] forwardSkip = new int[256];
+    private final int[] backwardSkip = new int[256];
+
+    public LiteralMatcher(String text, boolean matchCase) {
+        if (text.isEmpty()) {
+            throw new IllegalArgumentException("Empty search text");
+        }
+        this.matchCase = matchCase;
+        this.pattern = text.toCharArray();
+        int m = pattern.length;
+        for (int i = 0; i < m; i++) {
+            pattern[i] = fold(pattern[i]);
+        }
+        Arrays.fill(forwardSkip, m);
+        Arrays.fill(backwardSkip, m);
+        for (int i = 0; i < m - 1; i++) {
+            forwardSkip[pattern[i] & 0xFF] = m - 1 - i;
+        }
+        for (int i = m - 1; i > 0; i--) {
+            backwardSkip[pattern[i] & 0xFF] = i;
+        }
+    }
+
+    private char fold(char c) {
+        return matchCase ? c : FOLD[c];
+    }
+
+    public int length() {
+        return pattern.length;
+    }
+
+    /** First match starting at or after {@code from}, or -1. */
+    public int indexOf(CharSequence text, int from) {
+        int m = pattern.length;
+        int last = m - 1;
+        char tail = pattern[last];
+        for (int i = Math.max(0, from), end = text.length() - m; i <= end; ) {
+            char c = fold(text.charAt(i + last));
+            if (c == tail && matchesBefore(text, i, last)) {
+                return i;
+            }
+            i += forwardSkip[c & 0xFF];
+        }
+        return -1;
+    }
+
+    /** Last match starting before {@code before}, or -1 (like lastIndexOf(text, before - 1)). */
+    public int lastIndexOf(CharSequence text, int before) {
+        char head = pattern[0];
+        for (int i = Math.min(before - 1, text.length() - pattern.length); i >= 0; ) {
+            char c = fold(text.charAt(i));
+            if (c == head && matchesAfter(text, i)) {
+                return i;
+            }
+            i -= backwardSkip[c & 0xFF];
+        }
+        return -1;
+    }
+
+    /** True if the pattern occurs at {@code at}. */
+    public boolean matchesAt(CharSequence text, int at) {
+        return at >= 0 && at + pattern.length <= text.length() && matchesAfter(text, at) && fold(text.charAt(at)) == pattern[0];
+    }
+
+    private boolean matchesBefore(CharSequence text, int at, int count) {
+        for (int j = count - 1; j >= 0; j--) {
+            if (fold(text.charAt(at + j)) != pattern[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean matchesAfter(CharSequence text, int at) {
+        for (int j = 1; j < pattern.length; j++) {
+            if (fold(text.charAt(at + j)) != pattern[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
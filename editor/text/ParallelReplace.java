@@ -0,0 +1,204 @@
+// -----------------------------
+// File: src/editor/text/ParallelReplace.java
+// -----------------------------
+package editor.text;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+
+/**
+ * Replace All for large documents.
+ *
+ * Matching runs off the EDT on a snapshot of the text, split into chunks that
+ * are searched in parallel as fork-join tasks. A chunk owns the matches that
+ * start inside it; a match may run past the chunk end, the scan reads on.
+ * Chunks are merged in order. If a chunk's first match overlaps the previous
+ * chunk's last one, that chunk is searched again sequentially from where the
+ * previous match ended, so the result is exactly that of one left-to-right
+ * pass. The replacements are then applied on the EDT as one undoable edit.
+ */
+public final class ParallelReplace {
+    private static final int CHUNK = 1024 * 1024;
+
+    private final DocumentSearch search;
+    private final String replacement;
+    private final AtomicInteger chunksDone = new AtomicInteger();
+    private volatile int chunks = 1;
+    private volatile boolean cancelled;
+
+    /** One match and the text that replaces it. */
+    public static final class Replacement {
+        public final int start;
+        public final int end;
+        public final String text;
+
+        Replacement(int start, int end, String text) {
+            this.start = start;
+            this.end = end;
+            this.text = text;
+        }
+    }
+
+    /**
+     * @param replacement the replacement text; for a regex search, {@code $n},
+     *        {@code ${name}} and backslash escapes work as in Matcher
+     */
+    public ParallelReplace(DocumentSearch search, String replacement) {
+        this.search = search;
+        this.replacement = replacement;
+    }
+
+    /**
+     * Finds all matches in {@code text}, in order and without overlaps. The
+     * chunk tasks fork into the caller's pool, or the common pool. Returns
+     * null if cancelled.
+     */
+    public List<Replacement> findAll(CharSequence text) {
+        int n = text.length();
+        int count = Math.max(1, (n + CHUNK - 1) / CHUNK);
+        chunks = count;
+        List<ForkJoinTask<List<Replacement>>> tasks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int from = i * CHUNK;
+            int to = Math.min(n, from + CHUNK);
+            tasks.add(ForkJoinTask.adapt(() -> {
+                List<Replacement> found = scan(text.subSequence(0, n), from, to);
+                chunksDone.incrementAndGet();
+                return found;
+            }).fork());
+        }
+        List<Replacement> all = new ArrayList<>();
+        int end = 0;
+        for (int i = 0; i < count; i++) {
+            List<Replacement> found = tasks.get(i).join();
+            if (found == null || cancelled) {
+                tasks.forEach(t -> t.cancel(false));
+                return null;
+            }
+            if (!found.isEmpty() && found.get(0).start < end) {
+                // overlaps the previous chunk's last match: redo this chunk after it
+                found = scan(text.subSequence(0, n), end, Math.min(n, (i + 1) * CHUNK));
+                if (found == null) {
+                    return null;
+                }
+            }
+            all.addAll(found);
+            if (!all.isEmpty()) {
+                end = Math.max(end, all.get(all.size() - 1).end);
+            }
+        }
+        return all;
+    }
+
+    // matches starting in [from, to); text is this thread's own view of the snapshot
+    private List<Replacement> scan(CharSequence text, int from, int to) {
+        List<Replacement> found = new ArrayList<>();
+        if (search.isRegex()) {
+            Matcher m = search.getPattern().matcher(text);
+            m.useTransparentBounds(true);
+            m.useAnchoringBounds(false);
+            m.region(from, text.length());
+            StringBuilder sb = new StringBuilder();
+            while (!cancelled && m.find() && m.start() < to) {
+                sb.setLength(0);
+                expand(m, sb);
+                found.add(new Replacement(m.start(), m.end(), sb.toString()));
+            }
+        } else {
+            DocumentSearch.Match m = search.find(text, from);
+            while (!cancelled && m != null && m.start < to) {
+                found.add(new Replacement(m.start, m.end, replacement));
+                m = search.find(text, m.end);
+            }
+        }
+        return cancelled ? null : found;
+    }
+
+    // the replacement syntax of Matcher.appendReplacement
+    private void expand(Matcher m, StringBuilder sb) {
+        for (int i = 0; i < replacement.length(); ) {
+            char c = replacement.charAt(i++);
+            if (c == '\\') {
+                if (i == replacement.length()) {
+                    throw new IllegalArgumentException("character to be escaped is missing");
+                }
+                sb.append(replacement.charAt(i++));
+            } else if (c != '$') {
+                sb.append(c);
+            } else if (i == replacement.length()) {
+                throw new IllegalArgumentException("Illegal group reference: group index is missing");
+            } else if (replacement.charAt(i) == '{') {
+                int close = replacement.indexOf('}', i);
+                if (close < 0) {
+                    throw new IllegalArgumentException("named capturing group is missing trailing '}'");
+                }
+                String group = m.group(replacement.substring(i + 1, close));
+                if (group != null) sb.append(group);
+                i = close + 1;
+            } else {
+                int digit = replacement.charAt(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    throw new IllegalArgumentException("Illegal group reference");
+                }
+                int group = digit;
+                i++;
+                // take more digits while they still name an existing group
+                while (i < replacement.length()) {
+                    int next = replacement.charAt(i) - '0';
+                    if (next < 0 || next > 9 || group * 10 + next > m.groupCount()) {
+                        break;
+                    }
+                    group = group * 10 + next;
+                    i++;
+                }
+                String text = m.group(group);
+                if (text != null) sb.append(text);
+            }
+        }
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /** Share of chunks searched so far, 0-100. */
+    public int getProgress() {
+        return (int) (100L * chunksDone.get() / Math.max(1, chunks));
+    }
+
+    /**
+     * Applies the replacements to {@code doc} as one undoable edit. Call on
+     * the EDT with the document unchanged since the snapshot was taken.
+     */
+    public static void apply(Document doc, List<Replacement> replacements) throws BadLocationException {
+        if (doc instanceof PieceTableDocument) {
+            int n = replacements.size();
+            int[] starts = new int[n];
+            int[] ends = new int[n];
+            String[] texts = new String[n];
+            for (int i = 0; i < n; i++) {
+                Replacement r = replacements.get(i);
+                starts[i] = r.start;
+                ends[i] = r.end;
+                texts[i] = r.text;
+            }
+            ((PieceTableDocument) doc).replaceRanges(starts, ends, texts);
+            return;
+        }
+        // back to front, so earlier offsets stay valid
+        for (int i = replacements.size() - 1; i >= 0; i--) {
+            Replacement r = replacements.get(i);
+            doc.remove(r.start, r.end - r.start);
+            doc.insertString(r.start, r.text, null);
+        }
+    }
+}
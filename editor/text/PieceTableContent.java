@@ -0,0 +1,969 @@
+// -----------------------------
+// File: src/editor/text/PieceTableContent.java
+// -----------------------------
+package editor.text;
+
+import javax.swing.text.*;
+import javax.swing.undo.*;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntConsumer;
+
+/**
+ * Piece-table storage for an {@link AbstractDocument}.
+ *
+ * The text of the opened file stays in the original buffer it was decoded
+ * into and is never copied; typed text is appended to an add buffer. The
+ * document is the in-order sequence of pieces pointing into those two
+ * buffers, kept in a treap keyed by document offset, so inserts and removes
+ * cost O(log pieces) no matter where they happen.
+ *
+ * Positions use the same scheme as {@link GapContent}: marks are stored in a
+ * sorted list of indices around a virtual gap that follows the edit point, so
+ * an edit only touches the marks between the previous and the current edit.
+ */
+public class PieceTableContent implements AbstractDocument.Content {
+    private static final long INITIAL_GAP = 1L << 40;
+    private static final char[] EMPTY = new char[0];
+    // rough heap of one Piece and one Mark with its weak reference
+    private static final long PIECE_BYTES = 48;
+    private static final long MARK_BYTES = 64;
+
+    private final CharSequence original;
+    private final char[] originalArray;
+    private final int originalBase;
+    private char[] add = new char[256];
+    private int addLength;
+    private Piece root;
+
+    // split() results; the content is only mutated under the document write lock
+    private Piece splitLeft;
+    private Piece splitRight;
+    private int foundStart;
+
+    private final ArrayList<Mark> marks = new ArrayList<>();
+    private final ReferenceQueue<StickyPosition> queue = new ReferenceQueue<>();
+    private int unusedMarks;
+    // marks created in ascending order during a position batch, merged in at its end
+    private ArrayList<Mark> pendingMarks;
+    // the last snapshot() while the text is unchanged; every edit moves marks
+    private CharSequence snapshot;
+    private long gapStart = 0;
+    private long gapEnd = INITIAL_GAP;
+
+    public PieceTableContent() {
+        this("");
+    }
+
+    /**
+     * Creates an empty content that can later take {@code original} as one
+     * piece through {@link #insertOriginal(int, int, int)} without copying it.
+     */
+    public PieceTableContent(CharSequence original) {
+        this.original = original;
+        if (original instanceof CharBuffer && ((CharBuffer) original).hasArray()) {
+            CharBuffer cb = (CharBuffer) original;
+            originalArray = cb.array();
+            originalBase = cb.arrayOffset() + cb.position();
+        } else {
+            originalArray = null;
+            originalBase = 0;
+        }
+        // AbstractDocument expects an implied trailing newline
+        add[addLength++] = '\n';
+        root = new Piece(true, 0, 1);
+    }
+
+    // --- AbstractDocument.Content ---------------------------------------
+
+    @Override
+    public int length() {
+        return total(root);
+    }
+
+    @Override
+    public UndoableEdit insertString(int where, String str) throws BadLocationException {
+        if (where < 0 || where > length() - 1) {
+            throw new BadLocationException("Invalid insert", length());
+        }
+        int n = str.length();
+        if (n == 0) {
+            return null;
+        }
+        int start = addLength;
+        ensureAddCapacity(n);
+        str.getChars(0, n, add, addLength);
+        addLength += n;
+        insertPiece(where, true, start, n);
+        return new InsertEdit(where, n);
+    }
+
+    @Override
+    public UndoableEdit remove(int where, int nitems) throws BadLocationException {
+        if (where < 0 || where + nitems >= length()) {
+            throw new BadLocationException("Invalid remove", length() + 1);
+        }
+        if (nitems == 0) {
+            return null;
+        }
+        RemoveEdit edit = new RemoveEdit(where, nitems, captureMarks(where, nitems));
+        edit.spans = removeSpans(where, nitems);
+        return edit;
+    }
+
+    @Override
+    public String getString(int where, int len) throws BadLocationException {
+        Segment s = new Segment();
+        getChars(where, len, s);
+        return new String(s.array, s.offset, s.count);
+    }
+
+    @Override
+    public void getChars(int where, int len, Segment txt) throws BadLocationException {
+        int end = where + len;
+        if (where < 0 || len < 0 || end > length()) {
+            throw new BadLocationException("Invalid location", length());
+        }
+        if (len == 0) {
+            txt.array = EMPTY;
+            txt.offset = 0;
+            txt.count = 0;
+            return;
+        }
+        Piece p = find(where);
+        int k = where - foundStart;
+        char[] backing = p.added ? add : originalArray;
+        if (backing != null && (k + len <= p.length || txt.isPartialReturn())) {
+            // the requested range lives in one buffer: hand it out without copying
+            txt.array = backing;
+            txt.offset = (p.added ? 0 : originalBase) + p.start + k;
+            txt.count = Math.min(len, p.length - k);
+            return;
+        }
+        char[] buf = new char[len];
+        copy(root, 0, where, end, buf, 0);
+        txt.array = buf;
+        txt.offset = 0;
+        txt.count = len;
+    }
+
+    @Override
+    public Position createPosition(int offset) throws BadLocationException {
+        while (queue.poll() != null) {
+            unusedMarks++;
+        }
+        if (unusedMarks > Math.max(5, marks.size() / 10)) {
+            removeUnusedMarks();
+        }
+        long index = indexOf(offset);
+        if (pendingMarks != null) {
+            int last = pendingMarks.size() - 1;
+            if (last < 0 || pendingMarks.get(last).index <= index) {
+                StickyPosition existing;
+                if (last >= 0 && pendingMarks.get(last).index == index && (existing = pendingMarks.get(last).get()) != null) {
+                    return existing;
+                }
+                return newPosition(index, pendingMarks, pendingMarks.size());
+            }
+            mergePendingMarks();
+        }
+        int i = lowerBound(index);
+        if (i < marks.size()) {
+            Mark m = marks.get(i);
+            StickyPosition existing;
+            if (m.index == index && (existing = m.get()) != null) {
+                return existing;
+            }
+        }
+        return newPosition(index, marks, i);
+    }
+
+    private StickyPosition newPosition(long index, ArrayList<Mark> list, int i) {
+        StickyPosition position = new StickyPosition();
+        Mark m = new Mark(index, position, queue);
+        position.mark = m;
+        list.add(i, m);
+        return position;
+    }
+
+    /**
+     * Collects the positions created until {@link #endPositionBatch()} and
+     * merges them into the marks in one pass. Inserting each mark into the
+     * list on its own moves every mark behind it, which made building the
+     * line elements of a large insert quadratic. The content must not change
+     * during a batch.
+     */
+    void beginPositionBatch() {
+        pendingMarks = new ArrayList<>();
+    }
+
+    void endPositionBatch() {
+        mergePendingMarks();
+        pendingMarks = null;
+    }
+
+    private void mergePendingMarks() {
+        if (pendingMarks.isEmpty()) {
+            return;
+        }
+        Mark[] merged = new Mark[marks.size() + pendingMarks.size()];
+        int i = 0;
+        int j = 0;
+        for (int k = 0; k < merged.length; k++) {
+            if (j == pendingMarks.size() || (i < marks.size() && marks.get(i).index <= pendingMarks.get(j).index)) {
+                merged[k] = marks.get(i++);
+            } else {
+                merged[k] = pendingMarks.get(j++);
+            }
+        }
+        marks.clear();
+        marks.addAll(Arrays.asList(merged));
+        pendingMarks.clear();
+    }
+
+    // --- piece table operations -----------------------------------------
+
+    /**
+     * Inserts chars [start, start + length) of the original buffer as a piece
+     * at {@code where}. Used by {@link PieceTableDocument} to load a file, in
+     * one go or batch by batch, without copying it.
+     */
+    void insertOriginal(int where, int start, int length) {
+        if (length > 0) {
+            insertPiece(where, false, start, length);
+        }
+    }
+
+    int originalLength() {
+        return original.length();
+    }
+
+    /**
+     * An immutable view of the current text, without the implied trailing
+     * newline, that other threads may read while the document keeps changing.
+     * Both buffers are append-only, so the view only copies the piece list;
+     * each {@link CharSequence#subSequence} of it has its own read cursor.
+     * While the text is unchanged the same view is returned again, so it can
+     * also tell a caller that the text did not change. Take it on the thread
+     * that edits the document.
+     */
+    public CharSequence snapshot() {
+        if (snapshot != null) {
+            return snapshot;
+        }
+        int n = count(root);
+        int[] offsets = new int[n + 1];
+        int[] spans = new int[n * 3];
+        collect(root, spans, 0);
+        for (int i = 0; i < n; i++) {
+            offsets[i + 1] = offsets[i] + spans[i * 3 + 2];
+        }
+        Snapshot whole = new Snapshot(this, add, offsets, spans);
+        snapshot = whole.subSequence(0, length() - 1);
+        return snapshot;
+    }
+
+    /** The text the content was created over, e.g. a mapped file. */
+    public CharSequence getOriginal() {
+        return original;
+    }
+
+    /** The original text under a {@link #snapshot()}, or null if {@code text} is not one. */
+    public static CharSequence originalOf(CharSequence text) {
+        return text instanceof Snapshot && ((Snapshot) text).base == 0 ? ((Snapshot) text).content.original : null;
+    }
+
+    /**
+     * The pieces of a {@link #snapshot()} that show the original text, as
+     * (snapshot offset, original offset, length) triples in order, with
+     * pieces that continue each other merged; null if {@code text} is not a
+     * snapshot.
+     */
+    public static int[] originalRuns(CharSequence text) {
+        if (originalOf(text) == null) {
+            return null;
+        }
+        Snapshot s = (Snapshot) text;
+        int[] runs = new int[s.spans.length];
+        int n = 0;
+        for (int i = 0; i < s.offsets.length - 1 && s.offsets[i] < s.length; i++) {
+            if (s.spans[i * 3] != 0) {
+                continue;
+            }
+            int at = s.offsets[i];
+            int start = s.spans[i * 3 + 1];
+            int length = Math.min(s.spans[i * 3 + 2], s.length - at);
+            if (n > 0 && runs[n - 3] + runs[n - 1] == at && runs[n - 2] + runs[n - 1] == start) {
+                runs[n - 1] += length;
+            } else {
+                runs[n++] = at;
+                runs[n++] = start;
+                runs[n++] = length;
+            }
+        }
+        return Arrays.copyOf(runs, n);
+    }
+
+    /**
+     * Spans (see {@link #removeSpans}) for the text [from, to) with the ranges
+     * [starts[i], ends[i]) replaced by texts[i]. The ranges are sorted and do
+     * not overlap. Text between them is referenced, not copied, and a text
+     * object used for several ranges is appended to the add buffer once.
+     */
+    int[] spliceSpans(int[] starts, int[] ends, String[] texts) {
+        int from = starts[0];
+        int to = ends[ends.length - 1];
+        split(root, from);
+        Piece left = splitLeft;
+        split(splitRight, to - from);
+        Piece middle = splitLeft;
+        int[] old = new int[count(middle) * 3];
+        collect(middle, old, 0);
+        root = merge(merge(left, middle), splitRight);
+
+        SpanBuilder out = new SpanBuilder(old.length + starts.length * 6);
+        IdentityHashMap<String, Integer> stored = new IdentityHashMap<>();
+        int span = 0;        // current old span
+        int spanPos = from;  // document offset where it starts
+        int pos = from;
+        for (int i = 0; i < starts.length; i++) {
+            // carry over the old text in [pos, starts[i])
+            while (pos < starts[i]) {
+                int spanEnd = spanPos + old[span + 2];
+                int end = Math.min(spanEnd, starts[i]);
+                out.add(old[span] != 0, old[span + 1] + pos - spanPos, end - pos);
+                pos = end;
+                if (pos == spanEnd) {
+                    span += 3;
+                    spanPos = spanEnd;
+                }
+            }
+            // skip the replaced range
+            pos = ends[i];
+            while (span < old.length && spanPos + old[span + 2] <= pos) {
+                spanPos += old[span + 2];
+                span += 3;
+            }
+            String text = texts[i];
+            if (!text.isEmpty()) {
+                Integer start = stored.get(text);
+                if (start == null) {
+                    start = addLength;
+                    ensureAddCapacity(text.length());
+                    text.getChars(0, text.length(), add, addLength);
+                    addLength += text.length();
+                    stored.put(text, start);
+                }
+                out.add(true, start, text.length());
+            }
+        }
+        return out.toArray();
+    }
+
+    /** Inserts spans made by {@link #spliceSpans} as one undoable content edit. */
+    UndoableEdit insertSpansEdit(int where, int[] spans) {
+        int n = 0;
+        for (int i = 2; i < spans.length; i += 3) {
+            n += spans[i];
+        }
+        insertSpans(where, spans);
+        return new InsertEdit(where, n);
+    }
+
+    private static final class SpanBuilder {
+        private int[] spans;
+        private int size;
+
+        SpanBuilder(int capacity) {
+            spans = new int[Math.max(3, capacity)];
+        }
+
+        void add(boolean added, int start, int length) {
+            int flag = added ? 1 : 0;
+            if (size > 0 && spans[size - 3] == flag && spans[size - 2] + spans[size - 1] == start) {
+                spans[size - 1] += length; // continues the previous span
+                return;
+            }
+            if (size + 3 > spans.length) {
+                spans = Arrays.copyOf(spans, spans.length * 2);
+            }
+            spans[size++] = flag;
+            spans[size++] = start;
+            spans[size++] = length;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(spans, size);
+        }
+    }
+
+    /** Number of pieces currently describing the document. */
+    public int getPieceCount() {
+        return count(root);
+    }
+
+    /**
+     * Rough heap held by the buffers, pieces and marks. A {@link TextSource}
+     * original, such as a mapped file, is not counted: its pages belong to
+     * the OS, not the heap.
+     */
+    public long getHeapBytes() {
+        long bytes = 2L * add.length + PIECE_BYTES * getPieceCount() + MARK_BYTES * marks.size();
+        if (originalArray != null) {
+            bytes += 2L * originalArray.length;
+        } else if (!(original instanceof TextSource)) {
+            bytes += 2L * original.length();
+        }
+        return bytes;
+    }
+
+    private void insertPiece(int where, boolean added, int start, int n) {
+        split(root, where);
+        Piece left = splitLeft;
+        Piece right = splitRight;
+        Piece last = rightmost(left);
+        if (last != null && last.added == added && last.start + last.length == start) {
+            // typing (or streaming a file in) continues the previous piece: grow it in place
+            for (Piece t = left; t != null; t = t.right) {
+                t.total += n;
+            }
+            last.length += n;
+        } else {
+            left = merge(left, new Piece(added, start, n));
+        }
+        root = merge(left, right);
+        marksForInsert(where, n);
+    }
+
+    /** Removes a range and returns it as (added, start, length) triples. */
+    private int[] removeSpans(int where, int n) {
+        split(root, where);
+        Piece left = splitLeft;
+        split(splitRight, n);
+        Piece middle = splitLeft;
+        root = merge(left, splitRight);
+        int[] spans = new int[count(middle) * 3];
+        collect(middle, spans, 0);
+        marksForRemove(where, n);
+        return spans;
+    }
+
+    private void insertSpans(int where, int[] spans) {
+        Piece middle = null;
+        int n = 0;
+        for (int i = 0; i < spans.length; i += 3) {
+            middle = merge(middle, new Piece(spans[i] != 0, spans[i + 1], spans[i + 2]));
+            n += spans[i + 2];
+        }
+        split(root, where);
+        root = merge(merge(splitLeft, middle), splitRight);
+        marksForInsert(where, n);
+    }
+
+    private void ensureAddCapacity(int n) {
+        if (addLength + n > add.length) {
+            int capacity = Math.max(add.length * 2, addLength + n);
+            char[] grown = new char[capacity];
+            System.arraycopy(add, 0, grown, 0, addLength);
+            add = grown;
+        }
+    }
+
+    private Piece find(int offset) {
+        Piece t = root;
+        int base = 0;
+        while (t != null) {
+            int lt = total(t.left);
+            if (offset < base + lt) {
+                t = t.left;
+            } else if (offset < base + lt + t.length) {
+                foundStart = base + lt;
+                return t;
+            } else {
+                base += lt + t.length;
+                t = t.right;
+            }
+        }
+        throw new IllegalStateException("offset " + offset + " outside of content");
+    }
+
+    private void copy(Piece t, int tStart, int from, int to, char[] dst, int dstBase) {
+        if (t == null || to <= tStart || from >= tStart + t.total) {
+            return;
+        }
+        copy(t.left, tStart, from, to, dst, dstBase);
+        int ps = tStart + total(t.left);
+        int pe = ps + t.length;
+        int s = Math.max(from, ps);
+        int e = Math.min(to, pe);
+        if (s < e) {
+            read(t, s - ps, e - s, dst, dstBase + (s - from));
+        }
+        copy(t.right, pe, from, to, dst, dstBase);
+    }
+
+    private void read(Piece p, int k, int n, char[] dst, int d) {
+        int from = p.start + k;
+        if (p.added) {
+            System.arraycopy(add, from, dst, d, n);
+        } else if (originalArray != null) {
+            System.arraycopy(originalArray, originalBase + from, dst, d, n);
+        } else if (original instanceof TextSource) {
+            ((TextSource) original).getChars(from, from + n, dst, d);
+        } else if (original instanceof String) {
+            ((String) original).getChars(from, from + n, dst, d);
+        } else {
+            for (int i = 0; i < n; i++) {
+                dst[d + i] = original.charAt(from + i);
+            }
+        }
+    }
+
+    private int collect(Piece t, int[] spans, int i) {
+        if (t == null) {
+            return i;
+        }
+        i = collect(t.left, spans, i);
+        spans[i++] = t.added ? 1 : 0;
+        spans[i++] = t.start;
+        spans[i++] = t.length;
+        return collect(t.right, spans, i);
+    }
+
+    private void split(Piece t, int offset) {
+        if (t == null) {
+            splitLeft = splitRight = null;
+            return;
+        }
+        int lt = total(t.left);
+        if (offset <= lt) {
+            split(t.left, offset);
+            t.left = splitRight;
+            update(t);
+            splitRight = t;
+        } else if (offset >= lt + t.length) {
+            split(t.right, offset - lt - t.length);
+            t.right = splitLeft;
+            update(t);
+            splitLeft = t;
+        } else {
+            int k = offset - lt;
+            Piece tail = new Piece(t.added, t.start + k, t.length - k, t.priority);
+            tail.right = t.right;
+            update(tail);
+            t.length = k;
+            t.right = null;
+            update(t);
+            splitLeft = t;
+            splitRight = tail;
+        }
+    }
+
+    private static Piece merge(Piece a, Piece b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        if (a.priority >= b.priority) {
+            a.right = merge(a.right, b);
+            update(a);
+            return a;
+        }
+        b.left = merge(a, b.left);
+        update(b);
+        return b;
+    }
+
+    private static Piece rightmost(Piece t) {
+        if (t == null) return null;
+        while (t.right != null) t = t.right;
+        return t;
+    }
+
+    private static int total(Piece t) {
+        return t == null ? 0 : t.total;
+    }
+
+    private static int count(Piece t) {
+        return t == null ? 0 : t.count;
+    }
+
+    private static void update(Piece t) {
+        t.total = total(t.left) + t.length + total(t.right);
+        t.count = count(t.left) + 1 + count(t.right);
+    }
+
+    private static final class Piece {
+        final boolean added;
+        final int start;
+        int length;
+        int total;
+        // pieces in this subtree, so the count costs nothing to read
+        int count = 1;
+        final int priority;
+        Piece left;
+        Piece right;
+
+        Piece(boolean added, int start, int length) {
+            this(added, start, length, ThreadLocalRandom.current().nextInt());
+        }
+
+        Piece(boolean added, int start, int length, int priority) {
+            this.added = added;
+            this.start = start;
+            this.length = length;
+            this.total = length;
+            this.priority = priority;
+        }
+    }
+
+    private static final class Snapshot implements TextSource {
+        private static final int WINDOW = 8 * 1024;
+
+        private final PieceTableContent content;
+        private final char[] add;
+        private final int[] offsets;
+        private final int[] spans;
+        private final int base;
+        private final int length;
+        // read cursor: chars [curStart, curEnd) are at curArray[curOffset...]
+        private char[] curArray = EMPTY;
+        private char[] window;
+        private int curOffset;
+        private int curStart;
+        private int curEnd;
+
+        Snapshot(PieceTableContent content, char[] add, int[] offsets, int[] spans) {
+            this(content, add, offsets, spans, 0, offsets[offsets.length - 1]);
+        }
+
+        private Snapshot(PieceTableContent content, char[] add, int[] offsets, int[] spans, int base, int length) {
+            this.content = content;
+            this.add = add;
+            this.offsets = offsets;
+            this.spans = spans;
+            this.base = base;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            int p = base + index;
+            if (p < curStart || p >= curEnd) {
+                if (index < 0 || index >= length) {
+                    throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+                }
+                locate(p);
+            }
+            return curArray[curOffset + p - curStart];
+        }
+
+        private void locate(int p) {
+            int lo = 0;
+            int hi = offsets.length - 2;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (offsets[mid] <= p) lo = mid; else hi = mid - 1;
+            }
+            boolean added = spans[lo * 3] != 0;
+            int start = spans[lo * 3 + 1];
+            if (added || content.originalArray != null) {
+                curArray = added ? add : content.originalArray;
+                curOffset = (added ? 0 : content.originalBase) + start;
+                curStart = offsets[lo];
+                curEnd = offsets[lo + 1];
+                return;
+            }
+            // not array-backed (a mapped file): read a window of the piece
+            if (window == null) {
+                window = new char[WINDOW];
+            }
+            int n = Math.min(WINDOW, offsets[lo + 1] - p);
+            int from = start + p - offsets[lo];
+            if (content.original instanceof TextSource) {
+                ((TextSource) content.original).getChars(from, from + n, window, 0);
+            } else {
+                for (int i = 0; i < n; i++) {
+                    window[i] = content.original.charAt(from + i);
+                }
+            }
+            curArray = window;
+            curOffset = 0;
+            curStart = p;
+            curEnd = p + n;
+        }
+
+        // copies piece by piece from the cursor's array
+        @Override
+        public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+            if (srcBegin < 0 || srcEnd > length || srcBegin > srcEnd) {
+                throw new IndexOutOfBoundsException("begin " + srcBegin + ", end " + srcEnd + ", length " + length);
+            }
+            for (int i = srcBegin; i < srcEnd; ) {
+                charAt(i);
+                int p = base + i;
+                int n = Math.min(srcEnd - i, curEnd - p);
+                System.arraycopy(curArray, curOffset + p - curStart, dst, dstBegin + i - srcBegin, n);
+                i += n;
+            }
+        }
+
+        @Override
+        public void forEachLineStart(IntConsumer action) {
+            for (int i = 0; i < length; i++) {
+                if (charAt(i) == '\n') {
+                    action.accept(i + 1);
+                }
+            }
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length || start > end) {
+                throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length);
+            }
+            return new Snapshot(content, add, offsets, spans, base + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            char[] chars = new char[length];
+            for (int i = 0; i < length; i++) {
+                chars[i] = charAt(i);
+            }
+            return new String(chars);
+        }
+    }
+
+    // --- marks ----------------------------------------------------------
+
+    private long indexOf(int offset) {
+        if (offset == 0) return 0;
+        return offset < gapStart ? offset : offset + (gapEnd - gapStart);
+    }
+
+    private int offsetOf(long index) {
+        if (index < gapStart) return (int) index;
+        return (int) Math.max(0, index - (gapEnd - gapStart));
+    }
+
+    private int lowerBound(long index) {
+        int lo = 0;
+        int hi = marks.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (marks.get(mid).index < index) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    private void moveGap(long newStart) {
+        long gapLength = gapEnd - gapStart;
+        if (newStart < gapStart) {
+            // marks in [newStart, gapStart) move behind the gap; marks at 0 stay put
+            for (int i = lowerBound(Math.max(newStart, 1)); i < marks.size(); i++) {
+                Mark m = marks.get(i);
+                if (m.index >= gapStart) break;
+                m.index += gapLength;
+            }
+        } else if (newStart > gapStart) {
+            long limit = gapEnd + (newStart - gapStart);
+            for (int i = lowerBound(gapEnd); i < marks.size(); i++) {
+                Mark m = marks.get(i);
+                if (m.index >= limit) break;
+                m.index -= gapLength;
+            }
+        }
+        gapStart = newStart;
+        gapEnd = newStart + gapLength;
+    }
+
+    private void marksForInsert(int where, int n) {
+        snapshot = null;
+        moveGap(where);
+        if (gapEnd - gapStart <= n) {
+            for (int i = lowerBound(gapEnd); i < marks.size(); i++) {
+                marks.get(i).index += INITIAL_GAP;
+            }
+            gapEnd += INITIAL_GAP;
+        }
+        gapStart += n;
+    }
+
+    private void marksForRemove(int where, int n) {
+        snapshot = null;
+        moveGap(where);
+        long newEnd = gapEnd + n;
+        for (int i = lowerBound(gapEnd); i < marks.size(); i++) {
+            Mark m = marks.get(i);
+            if (m.index > newEnd) break;
+            m.index = newEnd;
+        }
+        gapEnd = newEnd;
+        if (gapStart == 0) {
+            for (int i = 0; i < marks.size(); i++) {
+                Mark m = marks.get(i);
+                if (m.index > gapEnd) break;
+                m.index = 0;
+            }
+        }
+    }
+
+    private void removeUnusedMarks() {
+        marks.removeIf(m -> m.get() == null);
+        unusedMarks = 0;
+    }
+
+    /** First mark whose offset is at or after {@code offset}. */
+    private int lowerBoundOffset(int offset) {
+        int lo = 0;
+        int hi = marks.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (offsetOf(marks.get(mid).index) < offset) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    private int upperBoundOffset(int from, int offset) {
+        int to = from;
+        while (to < marks.size() && offsetOf(marks.get(to).index) <= offset) {
+            to++;
+        }
+        return to;
+    }
+
+    /** Remembers the marks in [where, where + n] so undo can put them back. */
+    private MarkSnapshot captureMarks(int where, int n) {
+        int from = lowerBoundOffset(where);
+        int to = upperBoundOffset(from, where + n);
+        if (from == to) {
+            return null;
+        }
+        Mark[] saved = new Mark[to - from];
+        int[] offsets = new int[saved.length];
+        for (int i = from; i < to; i++) {
+            saved[i - from] = marks.get(i);
+            offsets[i - from] = offsetOf(marks.get(i).index);
+        }
+        return new MarkSnapshot(saved, offsets);
+    }
+
+    /** Restores captured marks after the range [where, where + n] was re-inserted. */
+    private void restoreMarks(MarkSnapshot snapshot, int where, int n) {
+        if (snapshot == null) {
+            return;
+        }
+        int from = lowerBoundOffset(where);
+        int to = upperBoundOffset(from, where + n);
+        for (int i = 0; i < snapshot.marks.length; i++) {
+            snapshot.marks[i].index = indexOf(snapshot.offsets[i]);
+        }
+        marks.subList(from, to).sort(Comparator.comparingLong(m -> m.index));
+    }
+
+    private static final class MarkSnapshot {
+        final Mark[] marks;
+        final int[] offsets;
+
+        MarkSnapshot(Mark[] marks, int[] offsets) {
+            this.marks = marks;
+            this.offsets = offsets;
+        }
+    }
+
+    private static final class Mark extends WeakReference<StickyPosition> {
+        long index;
+
+        Mark(long index, StickyPosition position, ReferenceQueue<StickyPosition> queue) {
+            super(position, queue);
+            this.index = index;
+        }
+    }
+
+    private final class StickyPosition implements Position {
+        Mark mark;
+
+        @Override
+        public int getOffset() {
+            return offsetOf(mark.index);
+        }
+
+        @Override
+        public String toString() {
+            return Integer.toString(getOffset());
+        }
+    }
+
+    // --- undo -----------------------------------------------------------
+
+    /**
+     * Undo records keep the removed text as spans into the two buffers rather
+     * than as a String: the buffers are append-only, so the spans stay valid.
+     */
+    private final class InsertEdit extends AbstractUndoableEdit {
+        private final int offset;
+        private final int length;
+        private int[] spans;
+        private MarkSnapshot marksInRange;
+
+        InsertEdit(int offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            super.undo();
+            marksInRange = captureMarks(offset, length);
+            spans = removeSpans(offset, length);
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            super.redo();
+            insertSpans(offset, spans);
+            restoreMarks(marksInRange, offset, length);
+            spans = null;
+            marksInRange = null;
+        }
+    }
+
+    private final class RemoveEdit extends AbstractUndoableEdit {
+        private final int offset;
+        private final int length;
+        private int[] spans;
+        private MarkSnapshot marksInRange;
+
+        RemoveEdit(int offset, int length, MarkSnapshot marksInRange) {
+            this.offset = offset;
+            this.length = length;
+            this.marksInRange = marksInRange;
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            super.undo();
+            insertSpans(offset, spans);
+            restoreMarks(marksInRange, offset, length);
+            spans = null;
+            marksInRange = null;
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            super.redo();
+            marksInRange = captureMarks(offset, length);
+            spans = removeSpans(offset, length);
+        }
+    }
+}
@@ -0,0 +1,281 @@
+// -----------------------------
+// File: src/editor/text/PieceTableDocument.java
+// -----------------------------
+package editor.text;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.UndoableEditEvent;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.PlainDocument;
+import javax.swing.undo.CompoundEdit;
+import javax.swing.undo.UndoableEdit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * PlainDocument backed by a {@link PieceTableContent}.
+ *
+ * The loaded text becomes the piece table's original buffer as-is, so opening
+ * a file keeps exactly one copy of it on the heap. The document can be built
+ * on a background thread and handed to the text area once it is ready. A
+ * {@link TextSource} is never copied at all; its line map is built from the
+ * source's own line scan so the text is not decoded up front.
+ *
+ * A document made with {@link #streaming(CharSequence)} starts empty and
+ * reveals the original buffer with {@link #appendOriginal(int)} as a loader
+ * fills it, so a file can be shown while it is still being read.
+ */
+public class PieceTableDocument extends PlainDocument {
+    // longer removed text is handed out as a snapshot range instead of copied
+    private static final int COPY_CHARS = 64 * 1024;
+    // rough heap of one line element with its two positions
+    private static final long LINE_BYTES = 120;
+    private int originalLoaded;
+    private CompoundEdit compound;
+    private final List<BiConsumer<DocumentEvent, CharSequence>> removeObservers = new ArrayList<>();
+
+    public PieceTableDocument() {
+        super(new PieceTableContent());
+    }
+
+    public PieceTableDocument(CharSequence text) {
+        super(new PieceTableContent(text));
+        if (text.length() == 0) {
+            return;
+        }
+        writeLock();
+        try {
+            getPieceTable().insertOriginal(0, 0, text.length());
+            originalLoaded = text.length();
+            if (text instanceof TextSource) {
+                buildLineMap((TextSource) text);
+            } else {
+                // build the line elements the same way a regular insert would
+                DefaultDocumentEvent e = new DefaultDocumentEvent(0, text.length(), DocumentEvent.EventType.INSERT);
+                insertUpdate(e, null);
+                e.end();
+            }
+        } finally {
+            writeUnlock();
+        }
+    }
+
+    private PieceTableDocument(CharSequence original, boolean streaming) {
+        super(new PieceTableContent(original));
+    }
+
+    /** An empty document that will show {@code original} as it is appended. */
+    public static PieceTableDocument streaming(CharSequence original) {
+        return new PieceTableDocument(original, true);
+    }
+
+    /**
+     * Appends original chars [loaded, upTo) to the end of the document and
+     * fires a regular insert event. Loading is not an undoable edit.
+     */
+    public void appendOriginal(int upTo) {
+        PieceTableContent content = getPieceTable();
+        if (upTo > content.originalLength()) {
+            throw new IllegalArgumentException("Past the end of the original: " + upTo);
+        }
+        if (upTo <= originalLoaded) {
+            return;
+        }
+        writeLock();
+        try {
+            int where = getLength();
+            int n = upTo - originalLoaded;
+            content.insertOriginal(where, originalLoaded, n);
+            originalLoaded = upTo;
+            DefaultDocumentEvent e = new DefaultDocumentEvent(where, n, DocumentEvent.EventType.INSERT);
+            insertUpdate(e, null);
+            e.end();
+            fireInsertUpdate(e);
+        } finally {
+            writeUnlock();
+        }
+    }
+
+    /** Rough heap the document holds: its piece table and one element per line. */
+    public long getHeapBytes() {
+        return getPieceTable().getHeapBytes() + LINE_BYTES * getDefaultRootElement().getElementCount();
+    }
+
+    /** Chars of the original buffer made visible so far. */
+    public int getOriginalLoaded() {
+        return originalLoaded;
+    }
+
+    private void buildLineMap(TextSource source) {
+        BranchElement lineMap = (BranchElement) getDefaultRootElement();
+        List<Element> lines = new ArrayList<>();
+        int[] lineStart = {0};
+        source.forEachLineStart(next -> {
+            lines.add(createLeafElement(lineMap, null, lineStart[0], next));
+            lineStart[0] = next;
+        });
+        lines.add(createLeafElement(lineMap, null, lineStart[0], source.length() + 1));
+        lineMap.replace(0, lineMap.getElementCount(), lines.toArray(new Element[0]));
+    }
+
+    /**
+     * Runs {@code edits} (on the thread that owns the document) and reports
+     * everything they change to the undo listeners as one edit, so a
+     * multi-part change such as Replace All undoes in one step.
+     */
+    public void compoundEdit(Runnable edits) {
+        CompoundEdit edit = beginCompound();
+        try {
+            edits.run();
+        } finally {
+            endCompound(edit);
+        }
+    }
+
+    // null when already inside a compound edit
+    private CompoundEdit beginCompound() {
+        if (compound != null) {
+            return null;
+        }
+        compound = new UndoHistory.Group();
+        return compound;
+    }
+
+    private void endCompound(CompoundEdit edit) {
+        if (edit == null) {
+            return;
+        }
+        compound = null;
+        edit.end();
+        if (edit.isSignificant()) {
+            super.fireUndoableEditUpdate(new UndoableEditEvent(this, edit));
+        }
+    }
+
+    /**
+     * Replaces the whole text with {@code text}, changing only the span
+     * between the prefix and suffix the two have in common, so undo keeps
+     * that span instead of two copies of the document.
+     */
+    public void replaceText(String text) throws BadLocationException {
+        CompoundEdit edit = beginCompound();
+        writeLock();
+        try {
+            CharSequence old = snapshot();
+            int oldLength = old.length();
+            int limit = Math.min(oldLength, text.length());
+            int prefix = 0;
+            while (prefix < limit && old.charAt(prefix) == text.charAt(prefix)) {
+                prefix++;
+            }
+            int suffix = 0;
+            while (suffix < limit - prefix
+                    && old.charAt(oldLength - 1 - suffix) == text.charAt(text.length() - 1 - suffix)) {
+                suffix++;
+            }
+            if (prefix == oldLength && prefix == text.length()) {
+                return;
+            }
+            replace(prefix, oldLength - prefix - suffix, text.substring(prefix, text.length() - suffix), null);
+        } finally {
+            writeUnlock();
+            endCompound(edit);
+        }
+    }
+
+    /**
+     * Replaces the ranges [starts[i], ends[i]) with texts[i] as one undoable
+     * edit. The ranges must be sorted and must not overlap. The whole span
+     * from the first to the last range is swapped in a single remove and
+     * insert: the text between the ranges is carried over as pieces rather
+     * than copied, and listeners see two events however many ranges there are.
+     */
+    public void replaceRanges(int[] starts, int[] ends, String[] texts) throws BadLocationException {
+        if (starts.length == 0) {
+            return;
+        }
+        int from = starts[0];
+        int to = ends[ends.length - 1];
+        if (from < 0 || to > getLength()) {
+            throw new BadLocationException("Invalid replace", to);
+        }
+        CompoundEdit edit = beginCompound();
+        writeLock();
+        try {
+            int[] spans = getPieceTable().spliceSpans(starts, ends, texts);
+            remove(from, to - from);
+            int length = 0;
+            for (int i = 2; i < spans.length; i += 3) {
+                length += spans[i];
+            }
+            if (length > 0) {
+                UndoableEdit u = getPieceTable().insertSpansEdit(from, spans);
+                DefaultDocumentEvent e = new DefaultDocumentEvent(from, length, DocumentEvent.EventType.INSERT);
+                e.addEdit(u);
+                getPieceTable().beginPositionBatch();
+                try {
+                    insertUpdate(e, null);
+                } finally {
+                    getPieceTable().endPositionBatch();
+                }
+                e.end();
+                fireInsertUpdate(e);
+                fireUndoableEditUpdate(new UndoableEditEvent(this, e));
+            }
+        } finally {
+            writeUnlock();
+            endCompound(edit);
+        }
+    }
+
+    /**
+     * Registers {@code observer} to be told about each remove before it
+     * happens, with the text about to go; a DocumentListener only hears of
+     * a remove once the text is gone.
+     */
+    public void addRemoveObserver(BiConsumer<DocumentEvent, CharSequence> observer) {
+        removeObservers.add(observer);
+    }
+
+    public void removeRemoveObserver(BiConsumer<DocumentEvent, CharSequence> observer) {
+        removeObservers.remove(observer);
+    }
+
+    @Override
+    protected void removeUpdate(DefaultDocumentEvent chng) {
+        if (!removeObservers.isEmpty()) {
+            int offset = chng.getOffset();
+            int length = chng.getLength();
+            CharSequence text;
+            try {
+                text = length > COPY_CHARS ? snapshot().subSequence(offset, offset + length) : getText(offset, length);
+            } catch (BadLocationException e) {
+                throw new IllegalStateException(e);
+            }
+            for (BiConsumer<DocumentEvent, CharSequence> observer : removeObservers) {
+                observer.accept(chng, text);
+            }
+        }
+        super.removeUpdate(chng);
+    }
+
+    @Override
+    protected void fireUndoableEditUpdate(UndoableEditEvent e) {
+        if (compound != null) {
+            compound.addEdit(e.getEdit());
+        } else {
+            super.fireUndoableEditUpdate(e);
+        }
+    }
+
+    /** See {@link PieceTableContent#snapshot()}. */
+    public CharSequence snapshot() {
+        return getPieceTable().snapshot();
+    }
+
+    public PieceTableContent getPieceTable() {
+        return (PieceTableContent) getContent();
+    }
+}
@@ -0,0 +1,20 @@
+// -----------------------------
+// File: src/editor/text/TextSource.java
+// -----------------------------
+package editor.text;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Read-only text that is not held as one char array, e.g. a memory-mapped
+ * file decoded on demand. PieceTableContent copies from it in bulk and
+ * PieceTableDocument builds its line map from it without decoding.
+ */
+public interface TextSource extends CharSequence {
+
+    /** Copies chars [srcBegin, srcEnd) into dst, like String.getChars. */
+    void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin);
+
+    /** Reports the offset just past every '\n', in increasing order. */
+    void forEachLineStart(IntConsumer action);
+}
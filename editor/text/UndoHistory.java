@@ -0,0 +1,379 @@
+// -----------------------------
+// File: src/editor/text/UndoHistory.java
+// -----------------------------
+package editor.text;
+
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.EventListenerList;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import javax.swing.undo.CompoundEdit;
+import javax.swing.undo.UndoableEdit;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * UndoManager that merges typing into word-sized steps and bounds the
+ * history by the heap it holds rather than by a number of edits.
+ *
+ * Consecutive one-char inserts at the caret are grouped until a new word
+ * or line starts, and runs of Backspace or Delete are grouped the same
+ * way; a pause, a caret jump or any other edit starts a new step.
+ *
+ * Each step is charged an estimate of what it keeps alive: the line
+ * elements it swapped out and, for documents that are not piece tables,
+ * the removed text. Piece table edits keep spans into the document's own
+ * buffers, never copies, so a Replace All over a big file costs about as
+ * much as the lines it touched. Once the total passes the budget, the
+ * oldest steps are dropped.
+ *
+ * Change listeners are told whenever what can be undone or redone may
+ * have changed, so actions can follow the history without polling it.
+ */
+public class UndoHistory extends javax.swing.undo.UndoManager {
+    public static final long DEFAULT_BUDGET = 32L * 1024 * 1024;
+    // a pause this long between keys ends a typing step
+    static final long TYPING_PAUSE_MILLIS = 1500;
+    // backstop for many tiny steps; the byte budget is the real limit
+    private static final int MAX_EDITS = 100_000;
+    // rough heap held per edit record, per line element and per span
+    private static final long EDIT_BYTES = 160;
+    private static final long ELEMENT_BYTES = 120;
+    private static final long SPAN_BYTES = 48;
+
+    private long budget;
+    private long used;
+    // cost of each entry of edits, index for index
+    private final List<Long> costs = new ArrayList<>();
+    private Typing typing;
+    // set while an undo or redo runs, so edits it makes are not recorded
+    private boolean replaying;
+    private Listener listener;
+    private final EventListenerList changeListeners = new EventListenerList();
+
+    /**
+     * Told how the list of steps changes, so it can be mirrored elsewhere,
+     * e.g. on disk. Steps are numbered oldest first.
+     */
+    public interface Listener {
+        /** A step was added at the end, or the last one grew when {@code merged}. */
+        void stepAdded(boolean merged);
+        /** Steps from..to, inclusive, were dropped. */
+        void stepsRemoved(int from, int to);
+        /** An undo or redo left {@code done} steps done. */
+        void moved(int done);
+        /** The history was emptied. */
+        void cleared();
+    }
+
+    public UndoHistory() {
+        this(DEFAULT_BUDGET);
+    }
+
+    public UndoHistory(long budget) {
+        this.budget = budget;
+        setLimit(MAX_EDITS);
+    }
+
+    public synchronized long getBudget() { return budget; }
+    /** Bytes the history is estimated to hold. */
+    public synchronized long getUsedBytes() { return used; }
+
+    public synchronized void setBudget(long budget) {
+        this.budget = budget;
+        trimForBudget();
+        fireStateChanged();
+    }
+
+    public synchronized void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /** Tells {@code l} each time steps are added, dropped, undone or redone. */
+    public void addChangeListener(ChangeListener l) {
+        changeListeners.add(ChangeListener.class, l);
+    }
+
+    public void removeChangeListener(ChangeListener l) {
+        changeListeners.remove(ChangeListener.class, l);
+    }
+
+    private void fireStateChanged() {
+        ChangeEvent e = new ChangeEvent(this);
+        for (ChangeListener l : changeListeners.getListeners(ChangeListener.class)) {
+            l.stateChanged(e);
+        }
+    }
+
+    /** Number of steps that are done, i.e. can be undone. */
+    public synchronized int getDoneCount() {
+        UndoableEdit next = editToBeRedone();
+        return next == null ? edits.size() : edits.indexOf(next);
+    }
+
+    /**
+     * Replaces the history with {@code steps}, of which the first
+     * {@code done} are applied to the document and the rest undone; the
+     * steps must say so themselves, since nothing is undone here. The
+     * listener is not told: it is where restored steps come from.
+     */
+    public synchronized void restore(List<? extends UndoableEdit> steps, int done) {
+        clear();
+        Listener mirror = listener;
+        listener = null;
+        try {
+            for (UndoableEdit step : steps) {
+                super.addEdit(step);
+                long cost = costOf(step);
+                costs.add(cost);
+                used += cost;
+            }
+            for (int i = steps.size(); i > done; i--) {
+                super.undo();
+            }
+        } finally {
+            listener = mirror;
+        }
+        fireStateChanged();
+    }
+
+    @Override
+    public synchronized boolean addEdit(UndoableEdit edit) {
+        if (replaying) {
+            return false;
+        }
+        long cost = costOf(edit);
+        if (typing != null && lastEdit() == typing && editToBeRedone() == null
+                && typing.merge(edit, cost)) {
+            costs.set(costs.size() - 1, typing.cost);
+            used += cost;
+            if (listener != null) listener.stepAdded(true);
+            trimForBudget();
+            return true;
+        }
+        typing = Typing.start(edit, cost);
+        UndoableEdit added = typing != null ? typing : edit;
+        boolean accepted = super.addEdit(added);
+        if (lastEdit() == added) {
+            costs.add(cost);
+            used += cost;
+            if (listener != null) listener.stepAdded(false);
+        } else if (accepted && !costs.isEmpty()) {
+            // absorbed by the last edit
+            costs.set(costs.size() - 1, costs.get(costs.size() - 1) + cost);
+            used += cost;
+            if (listener != null) listener.stepAdded(true);
+        }
+        trimForBudget();
+        fireStateChanged();
+        return accepted;
+    }
+
+    @Override
+    protected void trimEdits(int from, int to) {
+        if (from <= to) {
+            for (int i = to; i >= from; i--) {
+                if (edits.get(i) == typing) typing = null;
+                if (i < costs.size()) used -= costs.remove(i);
+            }
+            if (listener != null) listener.stepsRemoved(from, to);
+        }
+        super.trimEdits(from, to);
+    }
+
+    @Override
+    public synchronized void discardAllEdits() {
+        clear();
+        if (listener != null) listener.cleared();
+        fireStateChanged();
+    }
+
+    private void clear() {
+        super.discardAllEdits();
+        costs.clear();
+        used = 0;
+        typing = null;
+    }
+
+    @Override
+    public synchronized void undo() throws CannotUndoException {
+        closeTyping();
+        replaying = true;
+        try {
+            super.undo();
+        } finally {
+            replaying = false;
+        }
+        if (listener != null) listener.moved(getDoneCount());
+        fireStateChanged();
+    }
+
+    @Override
+    public synchronized void redo() throws CannotRedoException {
+        closeTyping();
+        replaying = true;
+        try {
+            super.redo();
+        } finally {
+            replaying = false;
+        }
+        if (listener != null) listener.moved(getDoneCount());
+        fireStateChanged();
+    }
+
+    /** Ends the current typing step, so the next key starts a new one. */
+    public synchronized void closeTyping() {
+        if (typing != null) typing.open = false;
+        typing = null;
+    }
+
+    private void trimForBudget() {
+        // oldest done steps go first, then the farthest undone ones; the
+        // newest step stays even on its own over budget
+        while (used > budget && edits.size() > 1) {
+            if (edits.get(0).canUndo()) {
+                trimEdits(0, 0);
+            } else {
+                trimEdits(edits.size() - 1, edits.size() - 1);
+            }
+        }
+    }
+
+    /** Estimated heap an edit keeps alive while it is in the history. */
+    public static long costOf(UndoableEdit edit) {
+        if (edit instanceof Typing) {
+            return ((Typing) edit).cost;
+        }
+        if (edit instanceof Group) {
+            return ((Group) edit).cost();
+        }
+        if (edit instanceof DocumentEvent) {
+            DocumentEvent e = (DocumentEvent) edit;
+            Document doc = e.getDocument();
+            long cost = EDIT_BYTES;
+            DocumentEvent.ElementChange change = e.getChange(doc.getDefaultRootElement());
+            if (change != null) {
+                cost += ELEMENT_BYTES * (change.getChildrenAdded().length + change.getChildrenRemoved().length);
+            }
+            if (doc instanceof PieceTableDocument) {
+                cost += SPAN_BYTES;
+            } else if (e.getType() == DocumentEvent.EventType.REMOVE) {
+                cost += 2L * e.getLength();
+            }
+            return cost;
+        }
+        return EDIT_BYTES;
+    }
+
+    /**
+     * CompoundEdit that can report what its parts cost; documents group
+     * multi-part changes such as Replace All into one of these.
+     */
+    public static class Group extends CompoundEdit {
+        long cost() {
+            long cost = EDIT_BYTES;
+            for (UndoableEdit edit : edits) cost += costOf(edit);
+            return cost;
+        }
+    }
+
+    /** One typing or deleting step made of one-char document edits. */
+    private static final class Typing extends AbstractUndoableEdit {
+        private final List<UndoableEdit> parts = new ArrayList<>();
+        private final boolean inserting;
+        private boolean open = true;
+        // where the next char is typed, or the caret after the last delete
+        private int next;
+        private long lastTime;
+        private long cost;
+
+        private Typing(DocumentEvent first, long cost) {
+            inserting = first.getType() == DocumentEvent.EventType.INSERT;
+            parts.add((UndoableEdit) first);
+            next = first.getOffset() + (inserting ? 1 : 0);
+            lastTime = System.currentTimeMillis();
+            this.cost = cost;
+        }
+
+        static Typing start(UndoableEdit edit, long cost) {
+            DocumentEvent e = keystroke(edit);
+            return e == null ? null : new Typing(e, cost);
+        }
+
+        private static DocumentEvent keystroke(UndoableEdit edit) {
+            if (!(edit instanceof DocumentEvent)) return null;
+            DocumentEvent e = (DocumentEvent) edit;
+            if (e.getLength() != 1 || e.getType() == DocumentEvent.EventType.CHANGE) return null;
+            return e;
+        }
+
+        boolean merge(UndoableEdit edit, long editCost) {
+            DocumentEvent e = keystroke(edit);
+            long now = System.currentTimeMillis();
+            if (!open || e == null || now - lastTime > TYPING_PAUSE_MILLIS
+                    || (e.getType() == DocumentEvent.EventType.INSERT) != inserting) {
+                open = false;
+                return false;
+            }
+            int offset = e.getOffset();
+            if (inserting) {
+                if (offset != next || startsWord(e.getDocument(), offset)) {
+                    open = false;
+                    return false;
+                }
+                next = offset + 1;
+            } else if (offset == next - 1) {
+                next = offset;          // Backspace
+            } else if (offset != next) {
+                open = false;           // Delete keeps the caret in place
+                return false;
+            }
+            parts.add(edit);
+            lastTime = now;
+            cost += editCost;
+            return true;
+        }
+
+        // a step ends before the first char of a word and after a line break
+        private static boolean startsWord(Document doc, int offset) {
+            if (offset == 0) return false;
+            try {
+                String s = doc.getText(offset - 1, 2);
+                char before = s.charAt(0);
+                char typed = s.charAt(1);
+                return before == '\n' || (Character.isWhitespace(before) && !Character.isWhitespace(typed));
+            } catch (BadLocationException ex) {
+                return true;
+            }
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            super.undo();
+            open = false;
+            for (int i = parts.size() - 1; i >= 0; i--) parts.get(i).undo();
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            super.redo();
+            for (UndoableEdit part : parts) part.redo();
+        }
+
+        @Override
+        public void die() {
+            for (int i = parts.size() - 1; i >= 0; i--) parts.get(i).die();
+            super.die();
+        }
+
+        @Override
+        public String getPresentationName() {
+            return inserting ? "typing" : "deletion";
+        }
+    }
+}
@@ -0,0 +1,114 @@
+// -----------------------------
+// File: src/editor/ui/BufferCache.java
+// -----------------------------
+package editor.ui;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the heap used by the editors of a {@link Workspace} within a byte
+ * budget. Editors are kept least recently shown first; when their
+ * estimated heap, see {@link TextAreaPanel#getHeapBytes()}, passes the
+ * budget, the oldest ones that have nothing to lose are evicted: saved,
+ * fully loaded, backed by a file and not the one last shown. An evicted
+ * tab goes back to being a path and loads again when it is next shown.
+ *
+ * When the heap itself runs low the budget is halved for that trim, so
+ * other tabs make room even if the budget was set too generously.
+ *
+ * Hits and misses count showings of file-backed editors: a hit found the
+ * text still in memory, a miss had to load it.
+ */
+public class BufferCache {
+    /** A quarter of the heap the JVM may grow to. */
+    public static final long DEFAULT_BUDGET = Runtime.getRuntime().maxMemory() / 4;
+    // below this share of the maximum heap left free, the heap counts as low
+    private static final int LOW_HEAP_DIVISOR = 8;
+
+    private long budget;
+    // least recently shown first; each editor with what evicts it
+    private final LinkedHashMap<TextAreaPanel, Runnable> buffers = new LinkedHashMap<>(16, 0.75f, true);
+    private long usedBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public BufferCache() {
+        this(DEFAULT_BUDGET);
+    }
+
+    public BufferCache(long budget) {
+        this.budget = budget;
+    }
+
+    public long getBudget() { return budget; }
+    /** Heap estimated for all editors at the last trim. */
+    public long getUsedBytes() { return usedBytes; }
+    public long getHits() { return hits; }
+    public long getMisses() { return misses; }
+    public long getEvictions() { return evictions; }
+    public int getBufferCount() { return buffers.size(); }
+
+    /** Sets the budget and evicts down to it. */
+    public void setBudget(long budget) {
+        this.budget = budget;
+        trim();
+    }
+
+    /**
+     * Adds an editor just created, as the most recently shown; {@code evict}
+     * must drop it from its tab. One that loads a file counts as a miss.
+     */
+    public void add(TextAreaPanel panel, Runnable evict, boolean loads) {
+        buffers.put(panel, evict);
+        if (loads) misses++;
+    }
+
+    /** An editor still in memory was shown again. */
+    public void shown(TextAreaPanel panel) {
+        if (buffers.get(panel) != null && panel.getCurrentFile() != null) {
+            hits++;
+        }
+    }
+
+    /** Forgets an editor closed by other means. */
+    public void remove(TextAreaPanel panel) {
+        buffers.remove(panel);
+    }
+
+    /** Evicts clean editors, oldest shown first, until the rest fit the budget. */
+    public void trim() {
+        usedBytes = 0;
+        Map<TextAreaPanel, Long> costs = new LinkedHashMap<>();
+        for (TextAreaPanel panel : buffers.keySet()) {
+            long cost = panel.getHeapBytes();
+            costs.put(panel, cost);
+            usedBytes += cost;
+        }
+        long limit = isHeapLow() ? budget / 2 : budget;
+        if (usedBytes <= limit) {
+            return;
+        }
+        List<TextAreaPanel> order = new ArrayList<>(costs.keySet());
+        // the last one shown stays, whatever it costs
+        for (int i = 0; i < order.size() - 1 && usedBytes > limit; i++) {
+            TextAreaPanel panel = order.get(i);
+            if (panel.isModified() || panel.isLoading() || panel.getCurrentFile() == null) {
+                continue;
+            }
+            Runnable evict = buffers.remove(panel);
+            usedBytes -= costs.get(panel);
+            evictions++;
+            evict.run();
+        }
+    }
+
+    private static boolean isHeapLow() {
+        Runtime rt = Runtime.getRuntime();
+        long free = rt.maxMemory() - (rt.totalMemory() - rt.freeMemory());
+        return free < rt.maxMemory() / LOW_HEAP_DIVISOR;
+    }
+}
@@ -9,12 +9,14 @@ import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import editor.actions.FileActions;
 import editor.actions.TerminalAction;
-import java.beans.PropertyChangeEvent;
-import java.beans.PropertyChangeListener;
+import editor.utils.EditJournal;
+import editor.utils.UndoLog;
+import java.io.IOException;
 
 
 public class EditorFrame extends JFrame {
-    private final TextAreaPanel textPanel;
+    private static final String TITLE = "Programmer's Editor - ";
+    private final Workspace workspace;
     private final StatusBar statusBar;
 
     public EditorFrame() {
@@ -23,67 +25,65 @@ public class EditorFrame extends JFrame {
         setSize(1000, 700);
         setLocationRelativeTo(null);
 
-        // Central editor
-        textPanel = new TextAreaPanel();
-        add(textPanel, BorderLayout.CENTER);
+        // Central editors, one tab per document; files too big to edit open in viewer tabs
+        workspace = new Workspace(EditJournal.defaultDirectory(), UndoLog.defaultDirectory());
+        add(workspace, BorderLayout.CENTER);
 
         // Status bar
         statusBar = new StatusBar();
         add(statusBar, BorderLayout.SOUTH);
 
         // Menu and toolbar
-        setJMenuBar(MenuBarFactory.create(this, textPanel, statusBar));
-        var tb = ToolBarFactory.create(this, textPanel);
+        setJMenuBar(MenuBarFactory.create(this, workspace, statusBar));
+        var tb = ToolBarFactory.create(this, workspace);
         add(tb, BorderLayout.NORTH);
 
-        // Connect caret position updates to status bar
-        textPanel.addPropertyChangeListener("caret", new PropertyChangeListener() {
-            @Override
-            public void propertyChange(PropertyChangeEvent evt) {
-                String caretPos = (String) evt.getNewValue();
-                if (caretPos != null) {
-                    statusBar.setCaretPos("Ln " + caretPos.replace(",", ", Col "));
-                }
-            }
-        });
-        
-        // Connect file and modified status updates
-        textPanel.addPropertyChangeListener("file", evt -> {
-            String fileName = (String) evt.getNewValue();
-            if (fileName != null) {
-                setTitle("Programmer's Editor - " + fileName);
+        // Connect caret position updates of the shown tab to status bar
+        workspace.addPropertyChangeListener("caret", evt -> {
+            String caretPos = (String) evt.getNewValue();
+            if (caretPos != null) {
+                statusBar.setCaretPos("Ln " + caretPos.replace(",", ", Col "));
             }
         });
         
-        textPanel.addPropertyChangeListener("modified", evt -> {
-            boolean modified = (Boolean) evt.getNewValue();
-            String title = getTitle();
-            if (modified && !title.endsWith(" *")) {
-                setTitle(title + " *");
-            } else if (!modified && title.endsWith(" *")) {
-                setTitle(title.substring(0, title.length() - 2));
-            }
+        // Title follows the shown tab's file and modified state
+        workspace.addPropertyChangeListener("activePanel", evt -> {
+            updateTitle();
+            statusBar.setNotice(null); // the shown editor publishes its own
         });
+        workspace.addPropertyChangeListener("file", evt -> updateTitle());
+        workspace.addPropertyChangeListener("modified", evt -> updateTitle());
         
         // Connect file info updates to status bar
-        textPanel.addPropertyChangeListener("fileInfo", evt -> {
+        workspace.addPropertyChangeListener("fileInfo", evt -> {
             TextAreaPanel.FileInfo fileInfo = (TextAreaPanel.FileInfo) evt.getNewValue();
             if (fileInfo != null) {
-                statusBar.setFileInfo(fileInfo.lines, fileInfo.readOnly, fileInfo.type);
+                statusBar.setFileInfo(fileInfo.lines, fileInfo.readOnly, fileInfo.type, fileInfo.encoding);
             }
         });
         
+        // Connect streaming load and viewer indexing progress to status bar
+        workspace.addPropertyChangeListener("loadProgress", evt -> statusBar.setProgress((Integer) evt.getNewValue()));
+        statusBar.setCancelAction(workspace::cancelLoad);
+        workspace.addPropertyChangeListener("notice", evt -> statusBar.setNotice((String) evt.getNewValue()));
+        
         // Initialize status bar with initial caret position
         SwingUtilities.invokeLater(() -> {
             statusBar.setCaretPos("Ln 1, Col 1");
-            statusBar.setFileInfo(1, false, "OS");
+            statusBar.setFileInfo(1, false, workspace.getActivePanel().getFileType(), "UTF-8");
         });
 
+        // Offer the edits of a session that did not close properly
+        SwingUtilities.invokeLater(this::offerRecovery);
+
         // Window close -> check unsaved
         addWindowListener(new WindowAdapter() {
             @Override public void windowClosing(WindowEvent e) {
-                var ok = FileActions.confirmCloseAll(EditorFrame.this, textPanel);
-                if (ok) dispose();
+                var ok = FileActions.confirmCloseAll(EditorFrame.this, workspace);
+                if (ok) {
+                    workspace.close();
+                    dispose();
+                }
             }
         });
 
@@ -94,6 +94,38 @@ public class EditorFrame extends JFrame {
         getRootPane().getActionMap().put("open-term", terminalAction);
     }
 
-    public TextAreaPanel getTextPanel() { return textPanel; }
+    private void offerRecovery() {
+        for (EditJournal.Recovery r : EditJournal.recoverable(EditJournal.defaultDirectory())) {
+            String name = r.getBase() != null ? r.getBase().toString() : "an untitled document";
+            String message = "The editor did not close properly.\nRecover " + r.getEditCount()
+                + " unsaved edits to " + name + "?";
+            if (!r.isBaseUnchanged()) {
+                message += "\nThe file has changed since, so they may not apply.";
+            }
+            int ans = JOptionPane.showConfirmDialog(this, message, "Recover", JOptionPane.YES_NO_CANCEL_OPTION);
+            if (ans == JOptionPane.YES_OPTION) {
+                // each recovered document gets its own tab
+                workspace.recover(r);
+                continue;
+            }
+            if (ans != JOptionPane.NO_OPTION) {
+                return;
+            }
+            try {
+                r.delete();
+            } catch (IOException e) {
+                // offered again next time
+            }
+        }
+    }
+
+    private void updateTitle() {
+        TextAreaPanel panel = workspace.getActivePanel();
+        setTitle(TITLE + workspace.getActiveTitle() + (panel != null && panel.isModified() ? " *" : ""));
+    }
+
+    public Workspace getWorkspace() { return workspace; }
+    /** The editor of the shown tab, or null while a viewer is shown. */
+    public TextAreaPanel getTextPanel() { return workspace.getActivePanel(); }
     public StatusBar getStatusBar() { return statusBar; }
 }
@@ -0,0 +1,373 @@
+// -----------------------------
+// File: src/editor/ui/FileViewer.java
+// -----------------------------
+package editor.ui;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.*;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+import editor.text.DocumentSearch;
+import editor.utils.BackgroundIO;
+import editor.utils.HugeTextFile;
+
+/**
+ * Read-only view of a file too big to edit, shown in a {@link Workspace}
+ * tab in place of a {@link TextAreaPanel}.
+ *
+ * Scrolling is virtual: the view only knows the byte offset of its top
+ * row and reads the rows below it from the {@link HugeTextFile}, so
+ * nothing outside the window is ever decoded. The vertical scroll bar maps
+ * to byte offsets rather than lines, which works before the line index is
+ * built; line numbers, go to line and the line count fill in as the
+ * background indexing gets there.
+ *
+ * Fires the same "caret", "fileInfo" and "loadProgress" properties as
+ * TextAreaPanel, so the status bar follows either.
+ */
+public class FileViewer extends JPanel {
+    private static final int SCROLL_RANGE = 1 << 24;
+    private static final Color HIGHLIGHT = new Color(184, 207, 229);
+    // one file is indexed at a time, for all viewers, so searches and saves keep their threads
+    private static final ExecutorService INDEXER = BackgroundIO.serial();
+
+    private final Font font = new Font(Font.MONOSPACED, Font.PLAIN, 14);
+    private final FontMetrics fm;
+    private final RowView canvas = new RowView();
+    private final LineNumberView lineNumbers;
+    private final JScrollBar vertical = new JScrollBar(JScrollBar.VERTICAL, 0, 1, 0, SCROLL_RANGE);
+    private final JScrollBar horizontal = new JScrollBar(JScrollBar.HORIZONTAL, 0, 1, 0, 1);
+    private final ExecutorService executor = BackgroundIO.serial();
+
+    private HugeTextFile file;
+    private Future<?> indexer;
+    private Future<?> searchTask;
+    private final AtomicBoolean progressScheduled = new AtomicBoolean();
+    private boolean adjusting;
+
+    // the visible rows: rowStarts[i] is a byte offset, rowLines[i] its
+    // 1-based line number, 0 for the rest of a long line, -1 if not indexed
+    private long top;
+    private long[] rowStarts = new long[0];
+    private long[] rowLines = new long[0];
+    private int rows;
+    private int left;
+
+    private String lastSearch;
+    private long matchStart = -1;
+    private long matchEnd = -1;
+
+    public FileViewer() {
+        super(new BorderLayout());
+        fm = getFontMetrics(font);
+        lineNumbers = new LineNumberView(this);
+        add(lineNumbers, BorderLayout.WEST);
+        add(canvas, BorderLayout.CENTER);
+        add(vertical, BorderLayout.EAST);
+        add(horizontal, BorderLayout.SOUTH);
+
+        vertical.addAdjustmentListener(e -> {
+            if (!adjusting && file != null) {
+                double f = (double) e.getValue() / SCROLL_RANGE;
+                long span = file.size() - file.textStart();
+                scrollTo(file.rowStart(file.textStart() + (long) (f * span)), false);
+            }
+        });
+        horizontal.addAdjustmentListener(e -> {
+            left = e.getValue();
+            canvas.repaint();
+        });
+        canvas.addMouseWheelListener(this::wheel);
+        canvas.addComponentListener(new ComponentAdapter() {
+            @Override public void componentResized(ComponentEvent e) { layoutRows(); }
+        });
+        canvas.setFocusable(true);
+        canvas.addMouseListener(new MouseAdapter() {
+            @Override public void mousePressed(MouseEvent e) { canvas.requestFocusInWindow(); }
+        });
+
+        bind("UP", "up", () -> scrollRows(-1));
+        bind("DOWN", "down", () -> scrollRows(1));
+        bind("PAGE_UP", "pageUp", () -> scrollRows(-Math.max(1, rows - 1)));
+        bind("PAGE_DOWN", "pageDown", () -> scrollRows(Math.max(1, rows - 1)));
+        bind("control HOME", "home", () -> scrollTo(file.textStart(), true));
+        bind("control END", "end", this::scrollToEnd);
+        bind("control G", "goToLine", this::promptGoToLine);
+        bind("control F", "find", this::promptFind);
+        bind("F3", "findNext", () -> {
+            if (lastSearch != null) find(lastSearch, false, false);
+        });
+    }
+
+    private void bind(String key, String name, Runnable action) {
+        getInputMap(WHEN_ANCESTOR_OF_FOCUSED_COMPONENT).put(KeyStroke.getKeyStroke(key), name);
+        getActionMap().put(name, new AbstractAction() {
+            @Override public void actionPerformed(ActionEvent e) {
+                if (file != null) action.run();
+            }
+        });
+    }
+
+    /** Shows a file; returns at once while its lines are indexed in the background. */
+    public void open(Path path) throws IOException {
+        closeFile();
+        file = HugeTextFile.open(path);
+        matchStart = matchEnd = -1;
+        HugeTextFile indexing = file;
+        indexer = INDEXER.submit(() -> {
+            try {
+                indexing.index(bytes -> publishProgress());
+            } catch (IOException e) {
+                // cancelled or closed: what was indexed stays usable
+            }
+            publishProgress();
+        });
+        scrollTo(file.textStart(), true);
+        canvas.requestFocusInWindow();
+    }
+
+    /** Stops indexing; lines already indexed keep their numbers. */
+    public void cancelIndexing() {
+        if (indexer != null) indexer.cancel(true);
+    }
+
+    public void closeFile() {
+        cancelSearch();
+        if (indexer != null) {
+            indexer.cancel(true);
+            indexer = null;
+        }
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                // read-only, nothing to lose
+            }
+            file = null;
+        }
+        rows = 0;
+        firePropertyChange("loadProgress", null, -1);
+        repaint();
+    }
+
+    /** Publishes position, line count and indexing progress again. */
+    public void refreshStatus() {
+        if (file != null) {
+            layoutRows();
+            publishProgress();
+        }
+    }
+
+    /** Stops background work for good. */
+    public void close() {
+        closeFile();
+        executor.shutdown();
+    }
+
+    public Path getCurrentFile() { return file != null ? file.getPath() : null; }
+
+    Font getViewerFont() { return font; }
+
+    /** Line count for the gutter width: exact once indexed, estimated before. */
+    long getLineCount() { return file != null ? file.lineCount() : 1; }
+
+    int getRowCount() { return rows; }
+
+    /** 1-based line number of a visible row, 0 if it continues a long line, -1 if not yet known. */
+    long getRowLine(int row) { return rowLines[row]; }
+
+    // --- scrolling ------------------------------------------------------
+
+    private void wheel(MouseWheelEvent e) {
+        if (file == null) return;
+        if (e.isShiftDown()) {
+            horizontal.setValue(horizontal.getValue() + e.getWheelRotation() * 3 * fm.charWidth('0'));
+        } else {
+            scrollRows(e.getWheelRotation() * 3);
+        }
+    }
+
+    private void scrollRows(int n) {
+        long pos = top;
+        for (int i = 0; i < n && pos < file.size(); i++) {
+            long next = file.nextRow(pos);
+            if (next >= file.size()) break;
+            pos = next;
+        }
+        for (int i = 0; i > n && pos > file.textStart(); i--) {
+            pos = file.previousRow(pos);
+        }
+        scrollTo(pos, true);
+    }
+
+    private void scrollToEnd() {
+        long pos = file.rowStart(file.size());
+        for (int i = 1; i < rows && pos > file.textStart(); i++) {
+            pos = file.previousRow(pos);
+        }
+        scrollTo(pos, true);
+    }
+
+    private void scrollTo(long rowStart, boolean moveBar) {
+        top = rowStart;
+        layoutRows();
+        if (moveBar) {
+            long span = Math.max(1, file.size() - file.textStart());
+            adjusting = true;
+            vertical.setValue((int) ((double) (top - file.textStart()) / span * SCROLL_RANGE));
+            adjusting = false;
+        }
+    }
+
+    /** Reads the byte offsets and line numbers of the rows that fit the window. */
+    private void layoutRows() {
+        if (file == null) return;
+        int visible = Math.max(1, canvas.getHeight() / fm.getHeight() + 1);
+        if (rowStarts.length < visible) {
+            rowStarts = new long[visible];
+            rowLines = new long[visible];
+        }
+        long line = file.lineOf(top);
+        boolean known = line >= 0;
+        long pos = top;
+        int widest = 0;
+        rows = 0;
+        while (rows < visible && (pos < file.size() || rows == 0)) {
+            boolean startsLine = file.startsLine(pos);
+            if (startsLine && rows > 0 && known) line++;
+            rowStarts[rows] = pos;
+            rowLines[rows] = !known ? -1 : startsLine ? line + 1 : 0;
+            widest = Math.max(widest, file.row(pos).length());
+            rows++;
+            pos = file.nextRow(pos);
+        }
+        long span = Math.max(1, file.size() - file.textStart());
+        adjusting = true;
+        vertical.setVisibleAmount(Math.max(1, (int) ((double) (pos - top) / span * SCROLL_RANGE)));
+        vertical.setBlockIncrement(vertical.getVisibleAmount());
+        int width = widest * fm.charWidth('0');
+        horizontal.setValues(Math.min(left, width), canvas.getWidth(), 0, Math.max(width, canvas.getWidth()));
+        adjusting = false;
+        firePropertyChange("caret", null, (known ? Math.max(1, rowLines[0]) : "?") + ",1");
+        lineNumbers.linesChanged();
+        canvas.repaint();
+    }
+
+    // repaints numbers and status as the index grows, at most once per EDT turn
+    private void publishProgress() {
+        if (progressScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(() -> {
+                progressScheduled.set(false);
+                if (file == null) return;
+                long total = Math.max(1, file.size());
+                firePropertyChange("loadProgress", null, file.isIndexed() ? -1 : (int) (100 * file.getIndexedBytes() / total));
+                firePropertyChange("fileInfo", null, new TextAreaPanel.FileInfo(
+                    (int) Math.min(Integer.MAX_VALUE, file.lineCount()), true, "Viewer", file.getEncoding().getName()));
+                layoutRows();
+            });
+        }
+    }
+
+    // --- go to line and search ------------------------------------------
+
+    private void promptGoToLine() {
+        String s = JOptionPane.showInputDialog(this, "Go to line:");
+        if (s == null) return;
+        try {
+            goToLine(Long.parseLong(s.trim()));
+        } catch (NumberFormatException e) {
+            JOptionPane.showMessageDialog(this, "Not a line number: " + s);
+        }
+    }
+
+    /** Scrolls a 1-based line to the top; false if it is not indexed yet or past the end. */
+    public boolean goToLine(long line) {
+        long start = file.lineStart(line - 1);
+        if (start < 0) {
+            JOptionPane.showMessageDialog(this, file.isIndexed()
+                ? "The file has " + file.lineCount() + " lines."
+                : "Line " + line + " is not indexed yet.");
+            return false;
+        }
+        scrollTo(start, true);
+        return true;
+    }
+
+    private void promptFind() {
+        String s = JOptionPane.showInputDialog(this, "Find:", lastSearch);
+        if (s != null && !s.isEmpty()) {
+            matchStart = matchEnd = -1;
+            find(s, false, false);
+        }
+    }
+
+    /**
+     * Finds the next match after the current one, or from the top row,
+     * wrapping around once; runs in the background and scrolls to it.
+     */
+    public void find(String text, boolean matchCase, boolean regex) {
+        cancelSearch();
+        lastSearch = text;
+        Pattern pattern = DocumentSearch.compile(text, matchCase, regex);
+        HugeTextFile searching = file;
+        long from = matchEnd > matchStart ? matchEnd : matchStart >= 0 ? matchStart + 1 : top;
+        searchTask = executor.submit(() -> {
+            try {
+                long[] hit = searching.find(pattern, from, searching.size());
+                if (hit == null) hit = searching.find(pattern, searching.textStart(), from);
+                long[] found = hit;
+                SwingUtilities.invokeLater(() -> {
+                    if (file != searching) return;
+                    if (found == null) {
+                        JOptionPane.showMessageDialog(this, "Text not found: " + text);
+                        return;
+                    }
+                    matchStart = found[0];
+                    matchEnd = found[1];
+                    scrollTo(file.rowStart(matchStart), true);
+                });
+            } catch (IOException e) {
+                // cancelled
+            }
+        });
+    }
+
+    private void cancelSearch() {
+        if (searchTask != null) {
+            searchTask.cancel(true);
+            searchTask = null;
+        }
+    }
+
+    // --- painting -------------------------------------------------------
+
+    private final class RowView extends JComponent {
+        @Override protected void paintComponent(Graphics g) {
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, getWidth(), getHeight());
+            if (file == null) return;
+            g.setFont(font);
+            int rowHeight = fm.getHeight();
+            int charWidth = fm.charWidth('0');
+            for (int i = 0; i < rows; i++) {
+                long start = rowStarts[i];
+                String text = file.row(start);
+                int y = i * rowHeight;
+                long end = i + 1 < rows ? rowStarts[i + 1] : file.nextRow(start);
+                if (matchStart < end && matchEnd > start || matchStart == start && matchEnd == start) {
+                    int from = file.charsBetween(start, Math.max(start, matchStart));
+                    int to = file.charsBetween(start, Math.min(end, Math.max(matchEnd, matchStart)));
+                    g.setColor(HIGHLIGHT);
+                    g.fillRect(from * charWidth - left, y, Math.max(2, (to - from) * charWidth), rowHeight);
+                }
+                g.setColor(Color.BLACK);
+                g.drawString(text, -left, y + fm.getAscent());
+            }
+        }
+    }
+}
@@ -9,7 +9,18 @@ import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
-import java.util.regex.Pattern;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import editor.text.BackgroundSearch;
+import editor.text.DocumentSearch;
+import editor.text.ParallelReplace;
+import editor.utils.BackgroundIO;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.regex.PatternSyntaxException;
 
 public class FindReplaceDialog extends JDialog {
@@ -19,18 +30,61 @@ public class FindReplaceDialog extends JDialog {
     private final JCheckBox matchCaseBox = new JCheckBox("Match case");
     private final JCheckBox wholeWordBox = new JCheckBox("Whole word");
     private final JCheckBox regexBox = new JCheckBox("Regular expression");
+    private final JCheckBox highlightAllBox = new JCheckBox("Highlight all", true);
     private final JButton findNextButton = new JButton("Find Next");
     private final JButton findPrevButton = new JButton("Find Previous");
     private final JButton replaceButton = new JButton("Replace");
     private final JButton replaceAllButton = new JButton("Replace All");
     private final JLabel statusLabel = new JLabel(" ");
+    private final MatchHighlighter matchHighlighter;
     
     private int lastFoundIndex = -1;
     private String lastSearchText = "";
+    // the query while it is unchanged; kept so repeated finds reuse its caches
+    private DocumentSearch cachedSearch;
+    
+    // Find, match counting and Replace All run one at a time on the shared
+    // background pool, a budget stops runaway regexes
+    private static final long FIND_MILLIS = 5000;
+    private static final long COUNT_MILLIS = 30000;
+    private static final long STEPS_PER_CHAR = 1000;
+    private final ExecutorService searchExecutor = BackgroundIO.serial();
+    private Future<?> findTask;
+    private Future<?> countTask;
+    private BackgroundSearch countJob;
+    private int searchGeneration;
+    private final Timer countTimer = new Timer(100, e -> showCount());
+    private final Timer recountTimer = new Timer(200, e -> {
+        updateHighlights();
+        startCount(-1);
+    });
+    private final Timer statusClearTimer = new Timer(3000, e -> statusLabel.setText(" "));
+    private final DocumentListener editWatcher = new DocumentListener() {
+        public void insertUpdate(DocumentEvent e) { cancelSearch(); }
+        public void removeUpdate(DocumentEvent e) { cancelSearch(); }
+        public void changedUpdate(DocumentEvent e) { }
+    };
+    
+    // Replace All in progress
+    private ParallelReplace replaceJob;
+    private final JPanel replaceProgressPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 5, 0));
+    private final JProgressBar replaceProgress = new JProgressBar(0, 100);
+    private final JButton cancelReplaceButton = new JButton("Cancel");
+    private final Timer replaceProgressTimer = new Timer(100, e -> {
+        if (replaceJob != null) replaceProgress.setValue(replaceJob.getProgress());
+    });
+    private boolean replaceEditable;
+    private boolean replaceDocChanged;
+    private final DocumentListener replaceGuard = new DocumentListener() {
+        public void insertUpdate(DocumentEvent e) { replaceDocChanged = true; }
+        public void removeUpdate(DocumentEvent e) { replaceDocChanged = true; }
+        public void changedUpdate(DocumentEvent e) { }
+    };
     
     public FindReplaceDialog(JFrame parent, JTextArea textArea) {
         super(parent, "Find and Replace", false);
         this.textArea = textArea;
+        this.matchHighlighter = new MatchHighlighter(textArea);
         
         initComponents();
         setupLayout();
@@ -46,6 +100,16 @@ public class FindReplaceDialog extends JDialog {
     private void initComponents() {
         // Components are initialized in field declarations
         statusLabel.setForeground(Color.BLUE);
+        recountTimer.setRepeats(false);
+        statusClearTimer.setRepeats(false);
+        
+        // results found on a snapshot are stale once the text changes
+        textArea.getDocument().addDocumentListener(editWatcher);
+        textArea.addPropertyChangeListener("document", e -> {
+            if (e.getOldValue() != null) ((Document) e.getOldValue()).removeDocumentListener(editWatcher);
+            if (e.getNewValue() != null) ((Document) e.getNewValue()).addDocumentListener(editWatcher);
+            cancelSearch();
+        });
     }
     
     private void setupLayout() {
@@ -73,6 +137,7 @@ public class FindReplaceDialog extends JDialog {
         optionsPanel.add(matchCaseBox);
         optionsPanel.add(wholeWordBox);
         optionsPanel.add(regexBox);
+        optionsPanel.add(highlightAllBox);
         
         // Button panel
         JPanel buttonPanel = new JPanel(new FlowLayout());
@@ -84,6 +149,12 @@ public class FindReplaceDialog extends JDialog {
         // Status panel
         JPanel statusPanel = new JPanel(new BorderLayout());
         statusPanel.add(statusLabel, BorderLayout.WEST);
+        replaceProgress.setStringPainted(true);
+        cancelReplaceButton.setMargin(new Insets(0, 4, 0, 4));
+        replaceProgressPanel.add(replaceProgress);
+        replaceProgressPanel.add(cancelReplaceButton);
+        replaceProgressPanel.setVisible(false);
+        statusPanel.add(replaceProgressPanel, BorderLayout.EAST);
         statusPanel.setBorder(BorderFactory.createEtchedBorder());
         
         // Layout components
@@ -108,6 +179,9 @@ public class FindReplaceDialog extends JDialog {
         findPrevButton.addActionListener(e -> findPrevious());
         replaceButton.addActionListener(e -> replace());
         replaceAllButton.addActionListener(e -> replaceAll());
+        cancelReplaceButton.addActionListener(e -> {
+            if (replaceJob != null) replaceJob.cancel();
+        });
         
         // Auto-search as user types
         findField.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
@@ -117,10 +191,22 @@ public class FindReplaceDialog extends JDialog {
         });
         
         // Enable/disable buttons based on content
-        ActionListener updateButtons = e -> updateButtonStates();
+        ActionListener updateButtons = e -> {
+            updateButtonStates();
+            resetSearch();
+        };
         matchCaseBox.addActionListener(updateButtons);
         wholeWordBox.addActionListener(updateButtons);
         regexBox.addActionListener(updateButtons);
+        highlightAllBox.addActionListener(e -> updateHighlights());
+        
+        // highlight matches only while the dialog is open
+        addComponentListener(new java.awt.event.ComponentAdapter() {
+            @Override
+            public void componentShown(java.awt.event.ComponentEvent e) { updateHighlights(); }
+            @Override
+            public void componentHidden(java.awt.event.ComponentEvent e) { matchHighlighter.setSearch(null); }
+        });
     }
     
     private void setupKeyBindings() {
@@ -152,9 +238,41 @@ public class FindReplaceDialog extends JDialog {
     }
     
     private void resetSearch() {
+        cachedSearch = null;
         lastFoundIndex = -1;
         lastSearchText = "";
         updateButtonStates();
+        // count the matches of what is typed once typing pauses
+        cancelSearch();
+        recountTimer.restart();
+    }
+    
+    private void updateHighlights() {
+        DocumentSearch search = null;
+        if (highlightAllBox.isSelected() && isVisible() && !findField.getText().isEmpty()) {
+            try {
+                search = currentSearch();
+            } catch (PatternSyntaxException e) {
+                // reported by Find
+            }
+        }
+        matchHighlighter.setSearch(search);
+    }
+    
+    private void cancelSearch() {
+        searchGeneration++;
+        if (findTask != null) findTask.cancel(true);
+        if (countTask != null) countTask.cancel(true);
+        findTask = null;
+        countTask = null;
+        countJob = null;
+        countTimer.stop();
+        recountTimer.stop();
+    }
+    
+    private BackgroundSearch backgroundSearch(long millis) throws BadLocationException {
+        CharSequence text = DocumentSearch.snapshot(textArea.getDocument());
+        return new BackgroundSearch(currentSearch(), text, STEPS_PER_CHAR * (text.length() + 1024L), millis);
     }
     
     private void updateButtonStates() {
@@ -180,8 +298,8 @@ public class FindReplaceDialog extends JDialog {
             return;
         }
         
-        String content = textArea.getText();
-        if (content.isEmpty()) {
+        Document doc = textArea.getDocument();
+        if (doc.getLength() == 0) {
             setStatus("Document is empty", Color.RED);
             return;
         }
@@ -192,128 +310,122 @@ public class FindReplaceDialog extends JDialog {
         if (!searchText.equals(lastSearchText)) {
             lastFoundIndex = -1;
             lastSearchText = searchText;
+            updateHighlights();
         }
         
-        int foundIndex = -1;
-        
+        BackgroundSearch job;
         try {
-            if (regexBox.isSelected()) {
-                foundIndex = findWithRegex(content, searchText, startPos, forward);
-            } else {
-                foundIndex = findWithString(content, searchText, startPos, forward);
-            }
-            
-            if (foundIndex != -1) {
-                highlightFound(foundIndex, searchText);
-                setStatus("Found at position " + foundIndex, Color.BLUE);
-                lastFoundIndex = foundIndex;
-            } else {
-                // Try wrapping around
-                startPos = forward ? 0 : content.length();
-                if (regexBox.isSelected()) {
-                    foundIndex = findWithRegex(content, searchText, startPos, forward);
-                } else {
-                    foundIndex = findWithString(content, searchText, startPos, forward);
-                }
-                
-                if (foundIndex != -1) {
-                    highlightFound(foundIndex, searchText);
-                    setStatus("Found at position " + foundIndex + " (wrapped)", Color.BLUE);
-                    lastFoundIndex = foundIndex;
-                } else {
-                    setStatus("Text not found", Color.RED);
-                }
-            }
+            job = backgroundSearch(FIND_MILLIS);
         } catch (PatternSyntaxException e) {
             setStatus("Invalid regular expression: " + e.getMessage(), Color.RED);
+            return;
+        } catch (BadLocationException e) {
+            setStatus("Error: " + e.getMessage(), Color.RED);
+            return;
         }
         
+        cancelSearch();
+        int generation = searchGeneration;
+        int from = startPos;
+        setStatus("Searching...", Color.GRAY);
+        findTask = searchExecutor.submit(() -> {
+            try {
+                DocumentSearch.Match found = job.find(from, forward);
+                SwingUtilities.invokeLater(() -> {
+                    if (generation == searchGeneration) foundMatch(found, from, forward);
+                });
+            } catch (BackgroundSearch.BudgetExceededException e) {
+                SwingUtilities.invokeLater(() -> {
+                    if (generation == searchGeneration) setStatus("Search took too long and was stopped", Color.RED);
+                });
+            } catch (CancellationException e) {
+                // superseded by a newer search or an edit
+            }
+        });
+        
         updateButtonStates();
     }
     
-    private int findWithString(String content, String searchText, int startPos, boolean forward) {
-        if (!matchCaseBox.isSelected()) {
-            content = content.toLowerCase();
-            searchText = searchText.toLowerCase();
-        }
-        
-        if (wholeWordBox.isSelected()) {
-            return findWholeWord(content, searchText, startPos, forward);
+    private void foundMatch(DocumentSearch.Match found, int from, boolean forward) {
+        findTask = null;
+        if (found == null) {
+            setStatus("Text not found", Color.RED);
         } else {
-            return forward ? content.indexOf(searchText, startPos) 
-                           : content.lastIndexOf(searchText, startPos - 1);
+            highlightFound(found);
+            lastFoundIndex = found.start;
+            boolean wrapped = forward ? found.start < from : found.start >= from;
+            setStatus("Found at position " + found.start + (wrapped ? " (wrapped)" : ""), Color.BLUE);
+            startCount(found.start);
         }
+        updateButtonStates();
     }
     
-    private int findWholeWord(String content, String searchText, int startPos, boolean forward) {
-        int pos = startPos;
-        while (true) {
-            int foundPos = forward ? content.indexOf(searchText, pos)
-                                   : content.lastIndexOf(searchText, pos - 1);
-            if (foundPos == -1) break;
-            
-            // Check if it's a whole word
-            boolean isWholeWord = true;
-            if (foundPos > 0 && Character.isLetterOrDigit(content.charAt(foundPos - 1))) {
-                isWholeWord = false;
-            }
-            if (foundPos + searchText.length() < content.length() && 
-                Character.isLetterOrDigit(content.charAt(foundPos + searchText.length()))) {
-                isWholeWord = false;
-            }
-            
-            if (isWholeWord) {
-                return foundPos;
-            }
-            
-            pos = forward ? foundPos + 1 : foundPos - 1;
-            if (pos < 0 || pos >= content.length()) break;
+    /** Counts the matches in the background, showing "N of M matches" as it goes. */
+    private void startCount(int current) {
+        if (findField.getText().isEmpty() || textArea.getDocument().getLength() == 0) {
+            return;
         }
-        return -1;
+        BackgroundSearch job;
+        try {
+            job = backgroundSearch(COUNT_MILLIS);
+        } catch (PatternSyntaxException | BadLocationException e) {
+            return; // reported by Find
+        }
+        if (countTask != null) countTask.cancel(true);
+        int generation = searchGeneration;
+        countJob = job;
+        countTask = searchExecutor.submit(() -> {
+            String failure = null;
+            try {
+                job.countAll(current);
+            } catch (BackgroundSearch.BudgetExceededException e) {
+                failure = "Counting took too long and was stopped";
+            } catch (CancellationException e) {
+                return;
+            }
+            String message = failure;
+            SwingUtilities.invokeLater(() -> {
+                if (generation != searchGeneration) return;
+                countTimer.stop();
+                countTask = null;
+                if (message != null) {
+                    setStatus(message, Color.RED);
+                } else {
+                    showCount();
+                }
+            });
+        });
+        countTimer.restart();
     }
     
-    private int findWithRegex(String content, String searchText, int startPos, boolean forward) throws PatternSyntaxException {
-        int flags = matchCaseBox.isSelected() ? 0 : Pattern.CASE_INSENSITIVE;
-        Pattern pattern = Pattern.compile(searchText, flags);
-        
-        if (forward) {
-            java.util.regex.Matcher matcher = pattern.matcher(content);
-            if (matcher.find(startPos)) {
-                return matcher.start();
-            }
-        } else {
-            // For backward search, find all matches up to startPos and take the last one
-            java.util.regex.Matcher matcher = pattern.matcher(content);
-            int lastMatch = -1;
-            while (matcher.find() && matcher.start() < startPos) {
-                lastMatch = matcher.start();
-            }
-            return lastMatch;
+    private void showCount() {
+        BackgroundSearch job = countJob;
+        if (job == null) {
+            return;
+        }
+        boolean done = job.isCounted();
+        int count = job.getCount();
+        if (!done && count == 0) {
+            return; // keep "Found at ..." until there is something to show
         }
-        return -1;
+        String total = count + (done ? "" : "+") + (count == 1 && done ? " match" : " matches");
+        int ordinal = job.getOrdinal();
+        statusClearTimer.stop();
+        statusLabel.setText(ordinal > 0 ? ordinal + " of " + total : total);
+        statusLabel.setForeground(done && count == 0 ? Color.RED : Color.BLUE);
     }
     
-    private void highlightFound(int index, String searchText) {
-        int length;
-        if (regexBox.isSelected()) {
-            try {
-                int flags = matchCaseBox.isSelected() ? 0 : Pattern.CASE_INSENSITIVE;
-                Pattern pattern = Pattern.compile(searchText, flags);
-                java.util.regex.Matcher matcher = pattern.matcher(textArea.getText());
-                if (matcher.find(index)) {
-                    length = matcher.end() - matcher.start();
-                } else {
-                    length = searchText.length();
-                }
-            } catch (PatternSyntaxException e) {
-                length = searchText.length();
-            }
-        } else {
-            length = searchText.length();
+    private DocumentSearch currentSearch() throws PatternSyntaxException {
+        if (cachedSearch == null) {
+            cachedSearch = new DocumentSearch(findField.getText(), matchCaseBox.isSelected(),
+                wholeWordBox.isSelected(), regexBox.isSelected());
         }
-        
-        textArea.setSelectionStart(index);
-        textArea.setSelectionEnd(index + length);
+        return cachedSearch;
+    }
+    
+    private void highlightFound(DocumentSearch.Match found) {
+        textArea.setSelectionStart(found.start);
+        textArea.setSelectionEnd(found.end);
         textArea.getCaret().setSelectionVisible(true);
         textArea.requestFocusInWindow();
     }
@@ -325,24 +437,15 @@ public class FindReplaceDialog extends JDialog {
             return;
         }
         
-        String findText = findField.getText();
         String replaceText = replaceField.getText();
         
         // Check if selection matches find text
         boolean matches = false;
-        if (regexBox.isSelected()) {
-            try {
-                int flags = matchCaseBox.isSelected() ? 0 : Pattern.CASE_INSENSITIVE;
-                Pattern pattern = Pattern.compile(findText, flags);
-                matches = pattern.matcher(selectedText).matches();
-            } catch (PatternSyntaxException e) {
-                setStatus("Invalid regular expression: " + e.getMessage(), Color.RED);
-                return;
-            }
-        } else {
-            String compareText = matchCaseBox.isSelected() ? selectedText : selectedText.toLowerCase();
-            String compareFindText = matchCaseBox.isSelected() ? findText : findText.toLowerCase();
-            matches = compareText.equals(compareFindText);
+        try {
+            matches = currentSearch().matches(selectedText);
+        } catch (PatternSyntaxException e) {
+            setStatus("Invalid regular expression: " + e.getMessage(), Color.RED);
+            return;
         }
         
         if (matches) {
@@ -357,70 +460,79 @@ public class FindReplaceDialog extends JDialog {
     private void replaceAll() {
         String findText = findField.getText();
         String replaceText = replaceField.getText();
-        String content = textArea.getText();
         
         if (findText.isEmpty()) {
             setStatus("Find text is empty", Color.RED);
             return;
         }
+        if (replaceJob != null) {
+            return; // one at a time
+        }
         
-        int count = 0;
+        DocumentSearch search;
+        CharSequence text;
+        Document doc = textArea.getDocument();
         try {
-            if (regexBox.isSelected()) {
-                int flags = matchCaseBox.isSelected() ? 0 : Pattern.CASE_INSENSITIVE;
-                Pattern pattern = Pattern.compile(findText, flags);
-                java.util.regex.Matcher matcher = pattern.matcher(content);
-                StringBuffer sb = new StringBuffer();
-                while (matcher.find()) {
-                    matcher.appendReplacement(sb, replaceText);
-                    count++;
-                }
-                matcher.appendTail(sb);
-                content = sb.toString();
-            } else {
-                String searchText = matchCaseBox.isSelected() ? findText : findText.toLowerCase();
-                String searchContent = matchCaseBox.isSelected() ? content : content.toLowerCase();
-                
-                StringBuilder sb = new StringBuilder();
-                int lastIndex = 0;
-                int index = 0;
-                
-                while ((index = searchContent.indexOf(searchText, lastIndex)) != -1) {
-                    if (wholeWordBox.isSelected()) {
-                        // Check if it's a whole word
-                        boolean isWholeWord = true;
-                        if (index > 0 && Character.isLetterOrDigit(content.charAt(index - 1))) {
-                            isWholeWord = false;
-                        }
-                        if (index + findText.length() < content.length() && 
-                            Character.isLetterOrDigit(content.charAt(index + findText.length()))) {
-                            isWholeWord = false;
-                        }
-                        
-                        if (!isWholeWord) {
-                            lastIndex = index + 1;
-                            continue;
-                        }
-                    }
-                    
-                    sb.append(content.substring(lastIndex, index));
-                    sb.append(replaceText);
-                    lastIndex = index + findText.length();
-                    count++;
-                }
-                sb.append(content.substring(lastIndex));
-                content = sb.toString();
+            search = currentSearch();
+            text = DocumentSearch.snapshot(doc);
+        } catch (PatternSyntaxException e) {
+            setStatus("Invalid regular expression: " + e.getMessage(), Color.RED);
+            return;
+        } catch (BadLocationException e) {
+            setStatus("Error: " + e.getMessage(), Color.RED);
+            return;
+        }
+        
+        // match on a snapshot in the background; the text area is read-only
+        // until the replacements are applied in one undoable edit
+        cancelSearch();
+        ParallelReplace job = new ParallelReplace(search, replaceText);
+        replaceJob = job;
+        replaceEditable = textArea.isEditable();
+        textArea.setEditable(false);
+        replaceDocChanged = false;
+        doc.addDocumentListener(replaceGuard);
+        replaceProgress.setValue(0);
+        replaceProgressPanel.setVisible(true);
+        replaceProgressTimer.start();
+        searchExecutor.execute(() -> {
+            List<ParallelReplace.Replacement> found = null;
+            RuntimeException failure = null;
+            try {
+                found = job.findAll(text);
+            } catch (RuntimeException e) {
+                failure = e;
             }
-            
-            if (count > 0) {
-                textArea.setText(content);
+            List<ParallelReplace.Replacement> result = found;
+            RuntimeException error = failure;
+            SwingUtilities.invokeLater(() -> finishReplaceAll(job, doc, result, error));
+        });
+    }
+    
+    private void finishReplaceAll(ParallelReplace job, Document doc,
+                                  List<ParallelReplace.Replacement> found, RuntimeException failure) {
+        replaceJob = null;
+        replaceProgressTimer.stop();
+        replaceProgressPanel.setVisible(false);
+        doc.removeDocumentListener(replaceGuard);
+        textArea.setEditable(replaceEditable);
+        
+        if (job.isCancelled()) {
+            setStatus("Replace All cancelled", Color.RED);
+        } else if (failure != null) {
+            setStatus("Replace All failed: " + failure.getMessage(), Color.RED);
+        } else if (replaceDocChanged || textArea.getDocument() != doc) {
+            setStatus("Document changed during Replace All, nothing replaced", Color.RED);
+        } else if (found.isEmpty()) {
+            setStatus("No occurrences found to replace", Color.RED);
+        } else {
+            try {
+                ParallelReplace.apply(doc, found);
                 textArea.setCaretPosition(0);
-                setStatus("Replaced " + count + " occurrence(s)", Color.BLUE);
-            } else {
-                setStatus("No occurrences found to replace", Color.RED);
+                setStatus("Replaced " + found.size() + " occurrence(s)", Color.BLUE);
+            } catch (BadLocationException e) {
+                setStatus("Error: " + e.getMessage(), Color.RED);
             }
-        } catch (PatternSyntaxException e) {
-            setStatus("Invalid regular expression: " + e.getMessage(), Color.RED);
         }
     }
     
@@ -429,9 +541,7 @@ public class FindReplaceDialog extends JDialog {
         statusLabel.setForeground(color);
         
         // Clear status after 3 seconds
-        Timer timer = new Timer(3000, e -> statusLabel.setText(" "));
-        timer.setRepeats(false);
-        timer.start();
+        statusClearTimer.restart();
     }
     
     public void showWithText(String selectedText) {
@@ -447,4 +557,21 @@ public class FindReplaceDialog extends JDialog {
         setVisible(true);
         findField.requestFocusInWindow();
     }
+    
+    /** The text area this dialog searches. */
+    public JTextArea getTextArea() {
+        return textArea;
+    }
+    
+    /** Also stops the background searches: a disposed dialog is not shown again. */
+    @Override
+    public void dispose() {
+        cancelSearch();
+        // a cancelled Replace All still finishes, making the text area editable again
+        if (replaceJob != null) replaceJob.cancel();
+        matchHighlighter.setSearch(null);
+        searchExecutor.shutdown();
+        statusClearTimer.stop();
+        super.dispose();
+    }
 }
\ No newline at end of file
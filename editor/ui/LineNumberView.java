@@ -6,48 +6,121 @@ package editor.ui;
 import javax.swing.*;
 import javax.swing.event.*;
 import java.awt.*;
+import editor.text.LineIndex;
 
 
-// Lightweight line numbers for JTextArea
+// Lightweight line numbers for JTextArea, or for the rows of a FileViewer.
+// Painting allocates nothing: numbers are formatted into a reused char[] and
+// right-aligned on the fixed digit width of the monospaced editor font.
 public class LineNumberView extends JComponent implements DocumentListener {
+    private static final Color BACKGROUND = new Color(240, 240, 240);
+    private static final Color FOREGROUND = Color.GRAY;
+
     private final JTextArea textArea;
+    private final FileViewer viewer;
     private final FontMetrics fm;
+    private final int digitWidth;
     private int currentDigits = 2;
 
+    // reused on every paint
+    private final Rectangle clip = new Rectangle();
+    private final Insets insets = new Insets(0, 0, 0, 0);
+    private final char[] digits = new char[20];
+
     public LineNumberView(JTextArea textArea) {
         this.textArea = textArea;
+        this.viewer = null;
         this.fm = textArea.getFontMetrics(textArea.getFont());
+        this.digitWidth = fm.charWidth('0');
         textArea.getDocument().addDocumentListener(this);
+        // follow the text area when it is given a new document (file load)
+        textArea.addPropertyChangeListener("document", e -> {
+            if (e.getOldValue() instanceof javax.swing.text.Document) {
+                ((javax.swing.text.Document) e.getOldValue()).removeDocumentListener(this);
+            }
+            textArea.getDocument().addDocumentListener(this);
+            setPreferredWidth();
+            repaint();
+        });
+        setPreferredWidth();
+    }
+
+    /** Numbers the visible rows of a viewer, from its sparse line index. */
+    LineNumberView(FileViewer viewer) {
+        this.textArea = null;
+        this.viewer = viewer;
+        this.fm = viewer.getFontMetrics(viewer.getViewerFont());
+        this.digitWidth = fm.charWidth('0');
         setPreferredWidth();
     }
 
+    /** Called by the viewer when its rows or line count change. */
+    void linesChanged() {
+        setPreferredWidth();
+        repaint();
+    }
+
+    private LineIndex lines() {
+        return LineIndex.of(textArea.getDocument());
+    }
+
+    private static int digitsOf(long n) {
+        int count = 1;
+        while (n >= 10) { n /= 10; count++; }
+        return count;
+    }
+
     private void setPreferredWidth() {
-        int lines = Math.max(1, textArea.getLineCount());
-        int digits = String.valueOf(lines).length();
-        if (digits != currentDigits) {
-            currentDigits = digits;
-            int width = fm.charWidth('0') * digits + 10;
+        long lineCount = viewer != null ? viewer.getLineCount() : lines().getLineCount();
+        int count = Math.max(2, digitsOf(lineCount));
+        if (count != currentDigits) {
+            currentDigits = count;
+            int width = digitWidth * count + 10;
             setPreferredSize(new Dimension(width, Integer.MAX_VALUE));
             revalidate();
         }
     }
 
     @Override protected void paintComponent(Graphics g) {
-        Rectangle clip = g.getClipBounds();
-        g.setColor(new Color(240,240,240));
+        g.getClipBounds(clip);
+        g.setColor(BACKGROUND);
         g.fillRect(clip.x, clip.y, clip.width, clip.height);
-        g.setColor(Color.GRAY);
-        try {
-            int start = textArea.viewToModel2D(new Point(0, clip.y));
-            int end = textArea.viewToModel2D(new Point(0, clip.y + clip.height));
-            while (start <= end) {
-                int line = textArea.getLineOfOffset(start);
-                int y = (int) textArea.modelToView2D(start).getY() + fm.getAscent();
-                String num = String.valueOf(line + 1);
-                g.drawString(num, getWidth() - fm.stringWidth(num) - 5, y);
-                start = textArea.getLineEndOffset(line) + 1;
-            }
-        } catch (Exception e) { /* ignore */ }
+        g.setColor(FOREGROUND);
+        if (viewer != null) {
+            paintRows(g);
+            return;
+        }
+        // no line wrap: every line is one row, so visible lines follow from the clip
+        int rowHeight = fm.getHeight();
+        int top = textArea.getInsets(insets).top;
+        int first = Math.max(0, (clip.y - top) / rowHeight);
+        int last = Math.min(lines().getLineCount() - 1, (clip.y + clip.height - top) / rowHeight);
+        int right = getWidth() - 5;
+        int y = top + first * rowHeight + fm.getAscent();
+        for (int line = first; line <= last; line++, y += rowHeight) {
+            drawNumber(g, line + 1, right, y);
+        }
+    }
+
+    // the viewer's rows start at the top; unnumbered rows stay blank
+    private void paintRows(Graphics g) {
+        int rowHeight = fm.getHeight();
+        int right = getWidth() - 5;
+        int y = fm.getAscent();
+        for (int row = 0, rows = viewer.getRowCount(); row < rows; row++, y += rowHeight) {
+            long line = viewer.getRowLine(row);
+            if (line > 0) drawNumber(g, line, right, y);
+        }
+    }
+
+    private void drawNumber(Graphics g, long n, int right, int y) {
+        int pos = digits.length;
+        do {
+            digits[--pos] = (char) ('0' + n % 10);
+            n /= 10;
+        } while (n > 0);
+        int len = digits.length - pos;
+        g.drawChars(digits, pos, len, right - len * digitWidth, y);
     }
 
     @Override public void insertUpdate(DocumentEvent e) { setPreferredWidth(); repaint(); }
@@ -0,0 +1,244 @@
+// -----------------------------
+// File: src/editor/ui/MatchHighlighter.java
+// -----------------------------
+package editor.ui;
+
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.*;
+import java.awt.*;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import editor.text.BackgroundSearch;
+import editor.text.DocumentCharSequence;
+import editor.text.DocumentSearch;
+
+
+// Highlights every match of a search in a JTextArea.
+// One Highlighter entry paints all matches, and only those in the clip, so
+// the cost of a repaint follows the visible lines, not the number of matches.
+// Matches are found lazily per block of lines, for the viewport plus a
+// margin, and cached as offsets relative to the block start. An edit drops
+// only the blocks it touched; the blocks behind it keep their matches even
+// when the edit adds or removes lines.
+public class MatchHighlighter implements Highlighter.HighlightPainter, DocumentListener {
+    private static final Color COLOR = new Color(255, 230, 120);
+    private static final int BLOCK_LINES = 256;
+    private static final int MARGIN_LINES = 100;
+    private static final long BLOCK_MILLIS = 50;
+    private static final long STEPS_PER_CHAR = 1000;
+
+    private final JTextArea textArea;
+    private DocumentSearch search;
+    private Object tag;
+    // covers all lines in order; blocks split and merge as lines change
+    private final ArrayList<Block> blocks = new ArrayList<>();
+
+    private static final class Block {
+        int lines;
+        int[] matches; // start/end pairs relative to the block start, null until found
+
+        Block(int lines) {
+            this.lines = lines;
+        }
+    }
+
+    // reused on every paint
+    private final Rectangle clip = new Rectangle();
+    private final Point point = new Point();
+
+    public MatchHighlighter(JTextArea textArea) {
+        this.textArea = textArea;
+        textArea.getDocument().addDocumentListener(this);
+        textArea.addPropertyChangeListener("document", e -> {
+            if (e.getOldValue() instanceof Document) {
+                ((Document) e.getOldValue()).removeDocumentListener(this);
+            }
+            textArea.getDocument().addDocumentListener(this);
+            resetBlocks();
+        });
+    }
+
+    /** Highlights the matches of {@code search}, or nothing if it is null. */
+    public void setSearch(DocumentSearch search) {
+        this.search = search;
+        resetBlocks();
+        Highlighter highlighter = textArea.getHighlighter();
+        if (search != null && tag == null) {
+            try {
+                tag = highlighter.addHighlight(0, 0, this);
+            } catch (BadLocationException e) {
+                // offset 0 always exists
+            }
+        } else if (search == null && tag != null) {
+            highlighter.removeHighlight(tag);
+            tag = null;
+        }
+        textArea.repaint();
+    }
+
+    public DocumentSearch getSearch() {
+        return search;
+    }
+
+    private void resetBlocks() {
+        blocks.clear();
+        for (int left = textArea.getDocument().getDefaultRootElement().getElementCount(); left > 0; left -= BLOCK_LINES) {
+            blocks.add(new Block(Math.min(BLOCK_LINES, left)));
+        }
+    }
+
+    /**
+     * Start/end offset pairs of the matches starting on lines
+     * [firstLine, lastLine], finding those not cached yet. Returns an empty
+     * array when there is no search, or when it ran past its budget, which
+     * also turns highlighting off.
+     */
+    public int[] getMatches(int firstLine, int lastLine) {
+        if (search == null) {
+            return new int[0];
+        }
+        Element root = textArea.getDocument().getDefaultRootElement();
+        int[] result = new int[16];
+        int n = 0;
+        BackgroundSearch scan = null;
+        for (int b = 0, line = 0; b < blocks.size() && line <= lastLine; line += blocks.get(b++).lines) {
+            Block block = blocks.get(b);
+            if (line + block.lines <= firstLine) {
+                continue;
+            }
+            int start = root.getElement(line).getStartOffset();
+            if (block.matches == null) {
+                if (scan == null) {
+                    DocumentCharSequence chars = new DocumentCharSequence(textArea.getDocument());
+                    scan = new BackgroundSearch(search, chars,
+                        STEPS_PER_CHAR * BLOCK_LINES * 1024L, BLOCK_MILLIS);
+                }
+                int end = root.getElement(line + block.lines - 1).getEndOffset();
+                try {
+                    block.matches = scan.matchesIn(start, Math.min(end, textArea.getDocument().getLength()));
+                } catch (BackgroundSearch.BudgetExceededException e) {
+                    setSearch(null);
+                    return new int[0];
+                }
+                for (int i = 0; i < block.matches.length; i++) {
+                    block.matches[i] -= start;
+                }
+            }
+            int from = root.getElement(Math.max(line, firstLine)).getStartOffset();
+            int to = root.getElement(Math.min(line + block.lines - 1, lastLine)).getEndOffset();
+            for (int i = 0; i < block.matches.length; i += 2) {
+                int s = start + block.matches[i];
+                if (s >= from && s < to) {
+                    if (n == result.length) result = Arrays.copyOf(result, n * 2);
+                    result[n++] = s;
+                    result[n++] = start + block.matches[i + 1];
+                }
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    @Override
+    public void paint(Graphics g, int p0, int p1, Shape bounds, JTextComponent c) {
+        if (search == null || textArea.getDocument().getLength() == 0) {
+            return;
+        }
+        g.getClipBounds(clip);
+        Element root = textArea.getDocument().getDefaultRootElement();
+        point.setLocation(clip.x, clip.y);
+        int first = root.getElementIndex(textArea.viewToModel2D(point));
+        point.setLocation(clip.x, clip.y + clip.height);
+        int last = root.getElementIndex(textArea.viewToModel2D(point));
+        // find the margin too, so that scrolling a little hits the cache
+        getMatches(Math.max(0, first - MARGIN_LINES), Math.min(root.getElementCount() - 1, last + MARGIN_LINES));
+        int[] matches = getMatches(first, last);
+        if (search == null) {
+            return; // gave up
+        }
+        Rectangle area = bounds.getBounds();
+        g.setColor(COLOR);
+        try {
+            for (int i = 0; i < matches.length; i += 2) {
+                if (matches[i] == matches[i + 1]) {
+                    continue;
+                }
+                Rectangle2D r0 = textArea.modelToView2D(matches[i]);
+                Rectangle2D r1 = textArea.modelToView2D(matches[i + 1]);
+                int x0 = (int) r0.getX();
+                int y0 = (int) r0.getY();
+                int h = (int) r0.getHeight();
+                if ((int) r1.getY() == y0) {
+                    g.fillRect(x0, y0, (int) r1.getX() - x0, h);
+                } else {
+                    // over several lines: to the right edge, full lines, then up to the end
+                    int right = area.x + area.width;
+                    g.fillRect(x0, y0, right - x0, h);
+                    g.fillRect(area.x, y0 + h, area.width, (int) r1.getY() - y0 - h);
+                    g.fillRect(area.x, (int) r1.getY(), (int) r1.getX() - area.x, (int) r1.getHeight());
+                }
+            }
+        } catch (BadLocationException e) {
+            // the matches were just found on the current text
+        }
+    }
+
+    // --- block invalidation ----------------------------------------------
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        edited(e);
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        edited(e);
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+    }
+
+    // replaces the blocks holding the edited lines by one block to be searched again
+    private void edited(DocumentEvent e) {
+        if (search == null) {
+            return;
+        }
+        Element root = e.getDocument().getDefaultRootElement();
+        DocumentEvent.ElementChange change = e.getChange(root);
+        int line;
+        int removed;
+        int added;
+        if (change != null) {
+            line = change.getIndex();
+            removed = change.getChildrenRemoved().length;
+            added = change.getChildrenAdded().length;
+        } else {
+            line = root.getElementIndex(e.getOffset());
+            removed = 1;
+            added = 1;
+        }
+        // a match may run from the line before into the edited ones
+        int firstLine = Math.max(0, line - 1);
+        int lastLine = line + removed - 1;
+        int b = 0;
+        int blockStart = 0;
+        while (b < blocks.size() - 1 && blockStart + blocks.get(b).lines <= firstLine) {
+            blockStart += blocks.get(b++).lines;
+        }
+        int lines = 0;
+        int end = b;
+        for (int next = blockStart; end < blocks.size() && next <= lastLine; end++) {
+            lines += blocks.get(end).lines;
+            next += blocks.get(end).lines;
+        }
+        blocks.subList(b, end).clear();
+        lines += added - removed;
+        // keep blocks small, so a big paste is not searched as one
+        for (int at = b; lines > 0; lines -= BLOCK_LINES) {
+            blocks.add(at++, new Block(Math.min(BLOCK_LINES, lines)));
+        }
+    }
+}
@@ -4,50 +4,65 @@
 package editor.ui;
 
 import javax.swing.*;
+import javax.swing.event.MenuEvent;
+import javax.swing.event.MenuListener;
+import java.awt.Toolkit;
+import java.awt.event.KeyEvent;
+import java.awt.event.WindowEvent;
+import java.util.EnumMap;
 import editor.actions.FileActions;
 import editor.actions.EditActions;
 import editor.actions.SearchActions;
+import editor.text.LineEndings;
 import editor.utils.SystemIconHelper;
 
 
 public class MenuBarFactory {
-    public static JMenuBar create(JFrame parent, TextAreaPanel panel, StatusBar status) {
+    public static JMenuBar create(JFrame parent, Workspace workspace, StatusBar status) {
         var mb = new JMenuBar();
 
         // File Menu
         var file = new JMenu("File");
         var newIt = new JMenuItem("New", SystemIconHelper.getBestIcon("new"));
         var openIt = new JMenuItem("Open...", SystemIconHelper.getBestIcon("open"));
+        var viewIt = new JMenuItem("Open in Viewer...");
         var saveIt = new JMenuItem("Save", SystemIconHelper.getBestIcon("save"));
         var saveAsIt = new JMenuItem("Save As...", SystemIconHelper.getBestIcon("save"));
+        var closeIt = new JMenuItem("Close");
         var exitIt = new JMenuItem("Exit");
+        closeIt.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_W, Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx()));
 
-        newIt.addActionListener(e -> FileActions.newFile(parent, panel));
-        openIt.addActionListener(e -> FileActions.openFile(parent, panel));
-        saveIt.addActionListener(e -> FileActions.saveFile(parent, panel, false));
-        saveAsIt.addActionListener(e -> FileActions.saveFile(parent, panel, true));
-        exitIt.addActionListener(e -> {
-            if (FileActions.confirmCloseAll(parent, panel)) parent.dispose();
-        });
+        newIt.addActionListener(e -> FileActions.newFile(parent, workspace));
+        openIt.addActionListener(e -> FileActions.openFile(parent, workspace));
+        viewIt.addActionListener(e -> FileActions.openInViewer(parent, workspace));
+        saveIt.addActionListener(e -> FileActions.saveFile(parent, workspace.getActivePanel(), false));
+        saveAsIt.addActionListener(e -> FileActions.saveFile(parent, workspace.getActivePanel(), true));
+        closeIt.addActionListener(e -> FileActions.closeTab(parent, workspace));
+        // closing the window runs the same checks as its close button
+        exitIt.addActionListener(e -> parent.dispatchEvent(new WindowEvent(parent, WindowEvent.WINDOW_CLOSING)));
 
-        file.add(newIt); file.add(openIt); file.add(saveIt); file.add(saveAsIt); file.addSeparator(); file.add(exitIt);
+        file.add(newIt); file.add(openIt); file.add(viewIt); file.add(saveIt); file.add(saveAsIt); file.add(closeIt); file.addSeparator(); file.add(exitIt);
 
         // Edit Menu with enhanced functionality
         var edit = new JMenu("Edit");
         
-        // Undo/Redo actions
-        var undoAction = new EditActions.UndoAction(panel.getUndoManager());
-        var redoAction = new EditActions.RedoAction(panel.getUndoManager());
+        // Undo/Redo actions follow the shown tab
+        var undoAction = new EditActions.UndoAction(workspace::getActiveUndoManager);
+        var redoAction = new EditActions.RedoAction(workspace::getActiveUndoManager);
+        workspace.addPropertyChangeListener("activePanel", e -> {
+            undoAction.retarget();
+            redoAction.retarget();
+        });
         var undoItem = new JMenuItem(undoAction);
         undoItem.setIcon(SystemIconHelper.getBestIcon("undo"));
         var redoItem = new JMenuItem(redoAction);
         redoItem.setIcon(SystemIconHelper.getBestIcon("redo"));
         
         // Cut/Copy/Paste actions
-        var cutAction = new EditActions.CutAction(panel.getTextArea());
-        var copyAction = new EditActions.CopyAction(panel.getTextArea());
-        var pasteAction = new EditActions.PasteAction(panel.getTextArea());
-        var selectAllAction = new EditActions.SelectAllAction(panel.getTextArea());
+        var cutAction = new EditActions.CutAction(workspace::getActiveTextArea);
+        var copyAction = new EditActions.CopyAction(workspace::getActiveTextArea);
+        var pasteAction = new EditActions.PasteAction(workspace::getActiveTextArea);
+        var selectAllAction = new EditActions.SelectAllAction(workspace::getActiveTextArea);
         
         var cutItem = new JMenuItem(cutAction);
         cutItem.setIcon(SystemIconHelper.getBestIcon("cut"));
@@ -66,11 +81,42 @@ public class MenuBarFactory {
         edit.addSeparator();
         edit.add(selectAllItem);
         
+        // Line endings written on save; the document itself holds '\n'
+        var lineEndings = new JMenu("Line Endings");
+        var lineEndingGroup = new ButtonGroup();
+        var lineEndingItems = new EnumMap<LineEndings.Style, JRadioButtonMenuItem>(LineEndings.Style.class);
+        for (LineEndings.Style style : LineEndings.Style.values()) {
+            var item = new JRadioButtonMenuItem(style.getLabel() + " (" + style.name() + ")");
+            item.addActionListener(e -> {
+                TextAreaPanel panel = workspace.getActivePanel();
+                if (panel != null && !panel.setLineEnding(style)) {
+                    JOptionPane.showMessageDialog(parent,
+                        "Files opened in large-file mode keep their line endings as they are.");
+                }
+            });
+            lineEndingGroup.add(item);
+            lineEndingItems.put(style, item);
+            lineEndings.add(item);
+        }
+        lineEndings.addMenuListener(new MenuListener() {
+            public void menuSelected(MenuEvent e) {
+                TextAreaPanel panel = workspace.getActivePanel();
+                LineEndings.Style current = panel != null ? panel.getLineEnding() : null;
+                lineEndingGroup.clearSelection();
+                if (current != null) lineEndingItems.get(current).setSelected(true);
+            }
+            public void menuDeselected(MenuEvent e) { }
+            public void menuCanceled(MenuEvent e) { }
+        });
+        edit.addSeparator();
+        edit.add(lineEndings);
+        
         // Search Menu
         var search = new JMenu("Search");
-        var findAction = new SearchActions.FindAction(parent, panel);
-        var replaceAction = new SearchActions.ReplaceAction(parent, panel);
-        var findNextAction = new SearchActions.FindNextAction(parent, panel);
+        var findAction = new SearchActions.FindAction(parent, workspace::getActivePanel);
+        var replaceAction = new SearchActions.ReplaceAction(parent, workspace::getActivePanel);
+        var findNextAction = new SearchActions.FindNextAction(parent, workspace::getActivePanel);
+        var findInFilesAction = new SearchActions.FindInFilesAction(parent, workspace);
         
         var findItem = new JMenuItem(findAction);
         findItem.setIcon(SystemIconHelper.getBestIcon("find"));
@@ -78,19 +124,23 @@ public class MenuBarFactory {
         replaceItem.setIcon(SystemIconHelper.getBestIcon("replace"));
         var findNextItem = new JMenuItem(findNextAction);
         findNextItem.setIcon(SystemIconHelper.getBestIcon("find"));
+        var findInFilesItem = new JMenuItem(findInFilesAction);
+        findInFilesItem.setIcon(SystemIconHelper.getBestIcon("find"));
         
         search.add(findItem);
         search.add(replaceItem);
         search.addSeparator();
         search.add(findNextItem);
+        search.addSeparator();
+        search.add(findInFilesItem);
         
         // View Menu
         var view = new JMenu("View");
-        var lineNumbersItem = new JCheckBoxMenuItem("Line Numbers", panel.isLineNumbersVisible());
+        var lineNumbersItem = new JCheckBoxMenuItem("Line Numbers", workspace.isLineNumbersVisible());
         lineNumbersItem.setIcon(SystemIconHelper.getLineNumbersIcon());
         lineNumbersItem.addActionListener(e -> {
-            panel.toggleLineNumbers();
-            lineNumbersItem.setSelected(panel.isLineNumbersVisible());
+            workspace.setLineNumbersVisible(!workspace.isLineNumbersVisible());
+            lineNumbersItem.setSelected(workspace.isLineNumbersVisible());
         });
         view.add(lineNumbersItem);
         
@@ -106,13 +156,6 @@ public class MenuBarFactory {
         mb.add(view);
         mb.add(tools);
         
-        // Update undo/redo states periodically
-        javax.swing.Timer timer = new javax.swing.Timer(500, e -> {
-            undoAction.updateUndoState();
-            redoAction.updateRedoState();
-        });
-        timer.start();
-        
         return mb;
     }
 }
@@ -8,7 +8,16 @@ import java.awt.*;
 
 public class StatusBar extends JPanel {
     private final JLabel left = new JLabel("Ln 1, Col 1");
-    private final JLabel right = new JLabel("Lines: 1 | RO | OS");
+    private final JLabel right = new JLabel("Lines: 1 | RO | Unix | UTF-8");
+    private final JPanel progressPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+    private final JProgressBar progress = new JProgressBar(0, 100);
+    private final JButton cancelButton = new JButton("Cancel");
+    private final JLabel notice = new JLabel();
+    private Runnable cancelAction;
+    private int shownLines = -1;
+    private boolean shownReadOnly;
+    private String shownType;
+    private String shownEncoding;
 
     public StatusBar() {
         super(new BorderLayout());
@@ -18,6 +27,25 @@ public class StatusBar extends JPanel {
         left.setBorder(BorderFactory.createEmptyBorder(2, 5, 2, 5));
         add(left, BorderLayout.WEST);
         
+        // Load progress, only shown while a file is streaming in
+        progress.setStringPainted(true);
+        progress.setPreferredSize(new Dimension(160, progress.getPreferredSize().height));
+        cancelButton.setMargin(new Insets(0, 4, 0, 4));
+        cancelButton.setFocusable(false);
+        cancelButton.addActionListener(e -> {
+            if (cancelAction != null) cancelAction.run();
+        });
+        progressPanel.add(progress);
+        progressPanel.add(cancelButton);
+        progressPanel.setVisible(false);
+        // Problems worth knowing about, next to the progress
+        notice.setForeground(Color.RED);
+        notice.setVisible(false);
+        JPanel center = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        center.add(progressPanel);
+        center.add(notice);
+        add(center, BorderLayout.CENTER);
+        
         // Add some padding to right label
         right.setBorder(BorderFactory.createEmptyBorder(2, 5, 2, 5));
         add(right, BorderLayout.EAST);
@@ -25,8 +53,37 @@ public class StatusBar extends JPanel {
 
     public void setCaretPos(String s) { left.setText(s); }
     
-    public void setFileInfo(int totalLines, boolean readOnly, String fileType) {
+    public void setFileInfo(int totalLines, boolean readOnly, String fileType, String encoding) {
+        if (totalLines == shownLines && readOnly == shownReadOnly && fileType.equals(shownType)
+                && encoding.equals(shownEncoding)) {
+            return; // unchanged, skip the text update and relayout
+        }
+        shownLines = totalLines;
+        shownReadOnly = readOnly;
+        shownType = fileType;
+        shownEncoding = encoding;
         String mode = readOnly ? "RO" : "RW";
-        right.setText(String.format("Lines: %d  |  %s  |  %s", totalLines, mode, fileType));
+        right.setText("Lines: " + totalLines + "  |  " + mode + "  |  " + fileType + "  |  " + encoding);
+    }
+
+    /**
+     * Shows load progress in percent; a negative value hides the indicator.
+     */
+    public void setProgress(int percent) {
+        if (percent < 0) {
+            progressPanel.setVisible(false);
+            return;
+        }
+        progress.setValue(percent);
+        progress.setString("Loading " + percent + "%");
+        progressPanel.setVisible(true);
     }
+
+    /** Shows a problem with the current document; null hides it. */
+    public void setNotice(String message) {
+        notice.setText(message);
+        notice.setVisible(message != null);
+    }
+
+    public void setCancelAction(Runnable action) { this.cancelAction = action; }
 }
@@ -8,27 +8,86 @@ import javax.swing.event.*;
 import javax.swing.text.*;
 import javax.swing.undo.*;
 import java.awt.*;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.UnmappableCharacterException;
 import java.nio.file.Path;
 import java.nio.file.Files;
+import editor.text.LineEndings;
+import editor.text.LineIndex;
+import editor.text.PieceTableDocument;
+import editor.text.UndoHistory;
+import editor.utils.BackgroundIO;
+import editor.utils.EditJournal;
+import editor.utils.FileEncoding;
 import editor.utils.FileUtils;
+import editor.utils.MappedTextFile;
+import editor.utils.UndoLog;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-// Lightweight panel that uses JTextArea (fast for large files)
+// Lightweight panel that uses JTextArea on a piece-table document (fast for large files)
 public class TextAreaPanel extends JPanel {
     private final JTextArea textArea;
     private final JScrollPane scrollPane;
     private Path currentFile;
     private volatile boolean modified = false;
-    private final ExecutorService executor = Executors.newSingleThreadExecutor();
-    private String fileType = "OS";
+    // loads and saves run in order, on the pool every document shares
+    private final ExecutorService executor = BackgroundIO.serial();
+    private String fileType = LineEndings.Style.LF.getLabel();
+    // endings are read as '\n' and written back in this style; null keeps
+    // them as they are, for mapped files and files with mixed endings,
+    // whose text is not normalized
+    private LineEndings.Style lineEnding = LineEndings.Style.LF;
+    // the text holds a mixed file's own endings until a style is picked
+    private boolean mixedEndings;
+    // detected on load and used again on save
+    private FileEncoding encoding = FileEncoding.UTF_8;
     private boolean readOnly = false;
-    private final UndoManager undoManager = new UndoManager();
+    private final UndoHistory undoManager = new UndoHistory();
     private LineNumberView lineNumberView;
     private boolean lineNumbersVisible = true;
+    private static final int FIRST_BATCH = 64 * 1024;
+    private static final int MAX_BATCH = 16 * 1024 * 1024;
+    private Future<?> loadTask;
+    private int loadGeneration;
+    private boolean loading = false;
+    // Caret, line count and mode changes are coalesced into one status
+    // refresh per frame, and only values that changed are published
+    private static final int STATUS_DELAY = 16;
+    private final Timer statusTimer = new Timer(STATUS_DELAY, e -> publishStatus());
+    private int shownLine = -1;
+    private int shownCol = -1;
+    private int shownLines = -1;
+    private boolean shownReadOnly;
+    private String shownType;
+    private FileEncoding shownEncoding;
+    private EditJournal journal;
+    // the journal close() deletes once the saves before it are done
+    private volatile EditJournal closingJournal;
+    // why the journal stopped, while it is stopped
+    private String journalProblem;
+    private UndoLog undoLog;
+    private final DocumentListener documentListener = new DocumentListener() {
+        public void insertUpdate(DocumentEvent e) { 
+            updateFileInfo();
+            if (loading) return; // text streaming in from disk is not an edit
+            setModified(true); 
+            if (journal != null) journal.inserted(e);
+        }
+        public void removeUpdate(DocumentEvent e) { 
+            setModified(true); 
+            updateFileInfo();
+            if (journal != null) journal.removed(e);
+        }
+        public void changedUpdate(DocumentEvent e) { 
+            setModified(true); 
+        }
+    };
 
     public TextAreaPanel() {
         super(new BorderLayout());
-        textArea = new JTextArea();
+        textArea = new JTextArea(new PieceTableDocument());
         textArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 14));
         textArea.setLineWrap(false);
         textArea.setWrapStyleWord(false);
@@ -40,109 +99,463 @@ public class TextAreaPanel extends JPanel {
         
         // Add undo support
         textArea.getDocument().addUndoableEditListener(undoManager);
+        textArea.getDocument().addDocumentListener(documentListener);
+        // registered after the caret's own listener, so it is updated first
+        LineIndex.of(textArea.getDocument());
 
-        textArea.getDocument().addDocumentListener(new DocumentListener() {
-            public void insertUpdate(DocumentEvent e) { 
-                setModified(true); 
-                updateFileInfo();
-            }
-            public void removeUpdate(DocumentEvent e) { 
-                setModified(true); 
-                updateFileInfo();
-            }
-            public void changedUpdate(DocumentEvent e) { 
-                setModified(true); 
-            }
-        });
-
-        // caret update example
-        textArea.addCaretListener(e -> {
-            int pos = textArea.getCaretPosition();
-            try {
-                int line = textArea.getLineOfOffset(pos) + 1;
-                int col = pos - textArea.getLineStartOffset(line - 1) + 1;
-                // publish to status bar via property change
-                firePropertyChange("caret", null, line + "," + col);
-                
-                // Also update file info
-                int totalLines = textArea.getLineCount();
-                firePropertyChange("fileInfo", null, new FileInfo(totalLines, readOnly, fileType));
-            } catch (BadLocationException ex) { /* ignore */ }
-        });
+        // caret moves reach the status bar through the same throttled refresh
+        statusTimer.setRepeats(false);
+        textArea.addCaretListener(e -> updateFileInfo());
     }
 
     public void newFile() {
-        textArea.setText("");
+        abortLoad();
+        installDocument(new PieceTableDocument());
         currentFile = null;
         setModified(false);
-        fileType = "OS";
+        if (journal != null) journal.reset(null, 0);
+        if (undoLog != null) undoLog.track((PieceTableDocument) textArea.getDocument(), undoManager, null);
+        lineEnding = LineEndings.Style.LF;
+        mixedEndings = false;
+        fileType = lineEnding.getLabel();
+        encoding = FileEncoding.UTF_8;
         readOnly = false;
-        firePropertyChange("fileInfo", null, new FileInfo(1, readOnly, fileType));
+        updateFileInfo();
     }
 
     public void loadFile(Path path) {
-        // load in background
-        executor.submit(() -> {
+        loadFile(path, null);
+    }
+
+    /** Loads a file, then runs {@code whenLoaded} on the EDT, e.g. to show a line. */
+    public void loadFile(Path path, Runnable whenLoaded) {
+        abortLoad();
+        var load = new StreamingLoad(path, ++loadGeneration, whenLoaded, null, false);
+        // decode in background, the EDT appends what is ready in bounded batches
+        loadTask = executor.submit(load);
+    }
+
+    /**
+     * Stops a load in progress and leaves an empty document behind, since a
+     * partially loaded file must not be saved over the original.
+     */
+    public void cancelLoad() {
+        if (loading) {
+            abortLoad();
+            newFile();
+        }
+    }
+
+    public boolean isLoading() { return loading; }
+
+    private void abortLoad() {
+        if (loadTask != null) {
+            loadTask.cancel(true);
+            loadTask = null;
+        }
+        loadGeneration++;
+        if (loading) {
+            loading = false;
+            textArea.setEditable(true);
+            firePropertyChange("loadProgress", null, -1);
+        }
+    }
+
+    /**
+     * Streams one file into a {@link PieceTableDocument}. The background part
+     * decodes into the document's original buffer (or maps it); each EDT batch
+     * reveals at most MAX_BATCH more chars, so the first screen shows after the
+     * first chunk and the UI stays responsive while the rest arrives.
+     */
+    private final class StreamingLoad implements Runnable {
+        private final Path path;
+        private final int generation;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private PieceTableDocument doc;
+        private volatile int available;
+        private volatile boolean complete;
+        private int expected;
+        private String detectedType;
+        private FileEncoding detectedEncoding;
+        private LineEndings.Style detectedEnding;
+        private final Runnable whenLoaded;
+        // set when the detected encoding turned out wrong further into the file
+        private final FileEncoding forcedEncoding;
+        // set when the file turned out to mix its endings: they are kept as read
+        private final boolean keepEndings;
+
+        StreamingLoad(Path path, int generation, Runnable whenLoaded, FileEncoding forcedEncoding,
+                      boolean keepEndings) {
+            this.path = path;
+            this.generation = generation;
+            this.whenLoaded = whenLoaded;
+            this.forcedEncoding = forcedEncoding;
+            this.keepEndings = keepEndings;
+        }
+
+        @Override
+        public void run() {
             try {
-                String content = FileUtils.readFile(path);
+                if (Files.size(path) >= FileUtils.MAPPED_THRESHOLD) {
+                    var mapped = MappedTextFile.open(path);
+                    doc = PieceTableDocument.streaming(mapped);
+                    expected = mapped.length();
+                    detectedType = mapped.getLineEndings().getLabel();
+                    detectedEnding = null;
+                    detectedEncoding = mapped.getEncoding();
+                    available = mapped.length();
+                } else {
+                    detectedEncoding = forcedEncoding != null ? forcedEncoding : FileEncoding.detect(path);
+                    char[] buf = FileUtils.newCharBuffer(path, detectedEncoding);
+                    doc = PieceTableDocument.streaming(CharBuffer.wrap(buf));
+                    expected = buf.length;
+                    // endings are counted and normalized as each chunk is decoded
+                    LineEndings endings = new LineEndings();
+                    int n = FileUtils.readChars(path, detectedEncoding, buf, keepEndings ? null : endings, read -> {
+                        available = read;
+                        publish();
+                    });
+                    if (keepEndings) {
+                        endings.count(buf, 0, n);
+                        endings.finish();
+                    } else if (endings.isMixed()) {
+                        // saving them all as one style is the user's call: read again as they are
+                        FileEncoding found = detectedEncoding;
+                        SwingUtilities.invokeLater(() -> {
+                            if (generation != loadGeneration) return; // cancelled
+                            loadTask = executor.submit(new StreamingLoad(path, ++loadGeneration, whenLoaded,
+                                found, true));
+                        });
+                        return;
+                    }
+                    detectedType = endings.getLabel();
+                    detectedEnding = keepEndings ? null
+                        : endings.getStyle() != null ? endings.getStyle() : LineEndings.Style.LF;
+                    available = n;
+                }
+                complete = true;
+                publish();
+            } catch (CharacterCodingException e) {
+                // read it all again byte for byte; the partial text stays read-only meanwhile
                 SwingUtilities.invokeLater(() -> {
-                    textArea.setText(content);
-                    textArea.setCaretPosition(0);
-                    currentFile = path;
-                    setModified(false);
-                    
-                    // Detect file type based on line endings
-                    fileType = detectFileType(content);
-                    
-                    // Check if file is read-only
-                    readOnly = !Files.isWritable(path);
-                    
-                    firePropertyChange("file", null, path.toString());
-                    firePropertyChange("fileInfo", null, new FileInfo(textArea.getLineCount(), readOnly, fileType));
+                    if (generation != loadGeneration) return; // cancelled
+                    loadTask = executor.submit(new StreamingLoad(path, ++loadGeneration, whenLoaded,
+                        FileEncoding.ISO_8859_1, keepEndings));
                 });
             } catch (Exception e) {
-                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, "Error: " + e.getMessage()));
+                SwingUtilities.invokeLater(() -> {
+                    if (generation != loadGeneration) return; // cancelled
+                    abortLoad();
+                    newFile();
+                    JOptionPane.showMessageDialog(TextAreaPanel.this, "Error: " + e.getMessage());
+                });
             }
-        });
+        }
+
+        private void publish() {
+            if (scheduled.compareAndSet(false, true)) {
+                SwingUtilities.invokeLater(this::appendBatch);
+            }
+        }
+
+        private void appendBatch() {
+            scheduled.set(false);
+            if (generation != loadGeneration) {
+                return;
+            }
+            boolean done = complete;
+            int ready = available;
+            if (textArea.getDocument() != doc) {
+                installDocument(doc);
+                loading = true;
+                textArea.setEditable(false);
+                currentFile = path;
+                firePropertyChange("file", null, path.toString());
+            }
+            int loaded = doc.getOriginalLoaded();
+            int batch = Math.min(MAX_BATCH, Math.max(FIRST_BATCH, loaded / 8));
+            int target = Math.min(ready, loaded + batch);
+            doc.appendOriginal(target);
+            firePropertyChange("loadProgress", null, (int) (100L * target / Math.max(1, expected)));
+            if (target < ready) {
+                publish();
+            } else if (done) {
+                finish();
+            }
+        }
+
+        private void finish() {
+            loading = false;
+            loadTask = null;
+            textArea.setEditable(true);
+            textArea.setCaretPosition(0);
+            undoManager.discardAllEdits();
+            setModified(false);
+            if (journal != null) journal.reset(path, doc.getLength());
+            if (undoLog != null) undoLog.track(doc, undoManager, path);
+            
+            // Line endings as counted while reading
+            fileType = detectedType;
+            lineEnding = detectedEnding;
+            mixedEndings = keepEndings;
+            encoding = detectedEncoding;
+            
+            // Check if file is read-only
+            readOnly = !Files.isWritable(path);
+            
+            firePropertyChange("loadProgress", null, -1);
+            updateFileInfo();
+            if (whenLoaded != null) {
+                whenLoaded.run();
+            }
+        }
     }
 
-    public void saveFile(Path path) {
-        final String content = textArea.getText();
-        executor.submit(() -> {
+    /**
+     * Saves the document in the background. The future tells whether the
+     * file was written; a failure is also reported to the user.
+     */
+    public Future<Boolean> saveFile(Path path) {
+        // a piece table snapshot is written as is; other documents are copied once
+        Document doc = textArea.getDocument();
+        final CharSequence content = doc instanceof PieceTableDocument
+            ? ((PieceTableDocument) doc).snapshot() : textArea.getText();
+        final FileEncoding charset = encoding;
+        final LineEndings.Style ending = lineEnding;
+        final EditJournal saving = journal;
+        final long mark = saving != null ? saving.mark() : 0;
+        final UndoLog history = undoLog;
+        final long undoMark = history != null ? history.mark() : 0;
+        return executor.submit(() -> {
             try {
-                FileUtils.writeFile(path, content);
+                FileUtils.writeText(path, content, charset, ending, true);
+                if (saving != null) saving.saved(mark, path, content.length());
+                if (history != null) history.saved(undoMark, path);
                 SwingUtilities.invokeLater(() -> {
                     currentFile = path;
-                    setModified(false);
+                    // edits made while saving keep the document modified
+                    if (textArea.getDocument() == doc && (!(doc instanceof PieceTableDocument)
+                            || ((PieceTableDocument) doc).snapshot() == content)) {
+                        setModified(false);
+                    }
                     firePropertyChange("file", null, path.toString());
                 });
+                return true;
+            } catch (UnmappableCharacterException e) {
+                // the file is untouched; '?' in place of the char would lose it
+                if (saving != null) saving.forget(mark);
+                if (history != null) history.forget(undoMark);
+                SwingUtilities.invokeLater(() -> offerUtf8(path, charset));
             } catch (Exception e) {
+                if (saving != null) saving.forget(mark);
+                if (history != null) history.forget(undoMark);
                 SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, "Error: " + e.getMessage()));
             }
+            return false;
         });
     }
 
+    private void offerUtf8(Path path, FileEncoding failed) {
+        int ans = JOptionPane.showConfirmDialog(this,
+            failed.getName() + " cannot hold some characters of this document.\nSave it as UTF-8 instead?",
+            "Save", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
+        if (ans == JOptionPane.YES_OPTION && !executor.isShutdown()) {
+            encoding = FileEncoding.UTF_8;
+            updateFileInfo();
+            saveFile(path);
+        }
+    }
+
+    /**
+     * Journals every edit from now on, so it can be recovered if the editor
+     * dies before the document is saved; see {@link EditJournal}. Should
+     * journaling stop, a "notice" property change says so.
+     */
+    public void setJournal(EditJournal journal) {
+        if (this.journal != null) this.journal.close();
+        this.journal = journal;
+        setJournalProblem(null);
+        if (journal != null) {
+            journal.setStatusListener(problem -> SwingUtilities.invokeLater(() -> {
+                if (this.journal == journal) setJournalProblem(problem);
+            }));
+            journal.reset(currentFile, textArea.getDocument().getLength());
+        }
+    }
+
+    private void setJournalProblem(String problem) {
+        journalProblem = problem;
+        firePropertyChange("notice", null, getNotice());
+    }
+
+    /** A problem the user should know about, such as edits no longer being journaled; null if none. */
+    public String getNotice() {
+        return journalProblem == null ? null : "Crash recovery off: " + journalProblem;
+    }
+
+    public EditJournal getJournal() { return journal; }
+
+    /**
+     * Keeps the undo history on disk from now on, so it is back the next
+     * time the file is opened; see {@link UndoLog}.
+     */
+    public void setUndoLog(UndoLog undoLog) {
+        if (this.undoLog != null) this.undoLog.close();
+        this.undoLog = undoLog;
+        Document doc = textArea.getDocument();
+        if (undoLog != null && doc instanceof PieceTableDocument && !loading) {
+            undoLog.track((PieceTableDocument) doc, undoManager, null);
+        }
+    }
+
+    public UndoLog getUndoLog() { return undoLog; }
+
+    /**
+     * Opens the journal's base file, or a new document, and replays the
+     * journaled edits as one undoable edit; the document is left modified.
+     */
+    public void recover(EditJournal.Recovery recovery) {
+        Runnable replay = () -> {
+            Document doc = textArea.getDocument();
+            try {
+                if (doc instanceof PieceTableDocument) {
+                    BadLocationException[] failure = new BadLocationException[1];
+                    ((PieceTableDocument) doc).compoundEdit(() -> {
+                        try {
+                            recovery.replay(doc);
+                        } catch (BadLocationException e) {
+                            failure[0] = e;
+                        }
+                    });
+                    if (failure[0] != null) throw failure[0];
+                } else {
+                    recovery.replay(doc);
+                }
+                recovery.delete();
+            } catch (Exception e) {
+                JOptionPane.showMessageDialog(this, "Could not recover all edits: " + e.getMessage());
+            }
+        };
+        if (recovery.getBase() == null) {
+            newFile();
+            replay.run();
+        } else {
+            loadFile(recovery.getBase(), replay);
+        }
+    }
+
+    /**
+     * Stops background work; the journal is deleted since nothing is left to
+     * recover, but only after a save still queued has been written.
+     */
+    public void close() {
+        abortLoad();
+        if (journal != null) {
+            EditJournal closing = journal;
+            executor.execute(closing::close);
+            journal = null;
+            closingJournal = closing;
+        }
+        executor.shutdown();
+        if (undoLog != null) {
+            undoLog.close();
+            undoLog = null;
+        }
+    }
+
+    /**
+     * Swaps in a new document, moving the panel's listeners over to it.
+     * Loading is not an undoable edit, so the undo history starts fresh.
+     */
+    private void installDocument(Document doc) {
+        Document old = textArea.getDocument();
+        old.removeUndoableEditListener(undoManager);
+        old.removeDocumentListener(documentListener);
+        textArea.setDocument(doc);
+        LineIndex.of(doc);
+        doc.addUndoableEditListener(undoManager);
+        doc.addDocumentListener(documentListener);
+        undoManager.discardAllEdits();
+    }
+
+    /** Selects {@code length} chars at a 1-based line and 0-based column, scrolling to them. */
+    public void selectInLine(int line, int column, int length) {
+        LineIndex lines = getLineIndex();
+        int index = Math.max(0, Math.min(line - 1, lines.getLineCount() - 1));
+        int start = lines.getLineStartOffset(index);
+        int end = Math.max(start, lines.getLineEndOffset(index) - 1);
+        int from = Math.min(start + column, end);
+        textArea.select(from, Math.min(from + length, end));
+        textArea.requestFocusInWindow();
+    }
+
+    /** Waits until a closed panel's saves are written and its journal deleted; false on timeout. */
+    public boolean awaitClosed(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        if (!executor.awaitTermination(timeout, unit)) {
+            return false;
+        }
+        return closingJournal == null
+            || closingJournal.awaitClosed(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
     public Path getCurrentFile() { return currentFile; }
     public boolean isModified() { return modified; }
     public void setModified(boolean m) { boolean old = this.modified; this.modified = m; firePropertyChange("modified", old, m); }
     public String getTextContent() { return textArea.getText(); }
-    public void setTextContent(String s) { textArea.setText(s); }
+    public void setTextContent(String s) {
+        Document doc = textArea.getDocument();
+        if (!(doc instanceof PieceTableDocument)) {
+            textArea.setText(s);
+            return;
+        }
+        try {
+            ((PieceTableDocument) doc).replaceText(s);
+        } catch (BadLocationException e) {
+            UIManager.getLookAndFeel().provideErrorFeedback(textArea);
+        }
+    }
     
+    /**
+     * Schedules a status refresh. Calls within one frame collapse into a
+     * single refresh, so typing bursts and held-down keys queue nothing extra.
+     */
     private void updateFileInfo() {
-        SwingUtilities.invokeLater(() -> {
-            int totalLines = textArea.getLineCount();
-            firePropertyChange("fileInfo", null, new FileInfo(totalLines, readOnly, fileType));
-        });
+        if (!statusTimer.isRunning()) {
+            statusTimer.start();
+        }
+    }
+
+    private void publishStatus() {
+        int pos = textArea.getCaretPosition();
+        LineIndex lines = getLineIndex();
+        int line = lines.getLineOfOffset(pos) + 1;
+        int col = pos - lines.getLineStartOffset(line - 1) + 1;
+        if (line != shownLine || col != shownCol) {
+            shownLine = line;
+            shownCol = col;
+            firePropertyChange("caret", null, line + "," + col);
+        }
+        int totalLines = lines.getLineCount();
+        if (totalLines != shownLines || readOnly != shownReadOnly || !fileType.equals(shownType)
+                || !encoding.equals(shownEncoding)) {
+            shownLines = totalLines;
+            shownReadOnly = readOnly;
+            shownType = fileType;
+            shownEncoding = encoding;
+            firePropertyChange("fileInfo", null, new FileInfo(totalLines, readOnly, fileType, encoding.getName()));
+        }
     }
     
-    private String detectFileType(String content) {
-        if (content.contains("\r\n")) {
-            return "OS";  // Windows (CRLF)
-        } else if (content.contains("\n")) {
-            return "Unix"; // Unix/Linux (LF)
-        } else {
-            return "OS";  // Default to OS if no line endings found
+    /** Publishes caret and file info again, e.g. when the panel is shown in place of another. */
+    public void refreshStatus() {
+        shownLine = shownCol = shownLines = -1;
+        shownType = null;
+        if (!loading) {
+            firePropertyChange("loadProgress", null, -1);
         }
+        firePropertyChange("notice", null, getNotice());
+        publishStatus();
     }
     
     public void refreshReadOnlyStatus() {
@@ -172,6 +585,54 @@ public class TextAreaPanel extends JPanel {
         return fileType;
     }
     
+    /** The line ending the document is saved with, or null if it keeps the file's own. */
+    public LineEndings.Style getLineEnding() {
+        return lineEnding;
+    }
+    
+    /**
+     * Writes every line ending as {@code style} from the next save on.
+     * A file with mixed endings, kept as they are so far, has them turned
+     * into '\n' in the document, an undoable edit. Returns false for a file
+     * opened in large-file mode, whose text keeps its endings as they are
+     * on disk.
+     */
+    public boolean setLineEnding(LineEndings.Style style) {
+        if (lineEnding == null) {
+            if (!mixedEndings || loading) {
+                return false;
+            }
+            normalizeEndings();
+            mixedEndings = false;
+        }
+        lineEnding = style;
+        setFileType(style.getLabel());
+        return true;
+    }
+    
+    private void normalizeEndings() {
+        Document doc = textArea.getDocument();
+        try {
+            char[] chars = doc.getText(0, doc.getLength()).toCharArray();
+            LineEndings endings = new LineEndings();
+            int n = endings.normalize(chars, 0, chars.length);
+            endings.finish();
+            if (n == chars.length && endings.getCrCount() == 0) {
+                return; // only LF after all
+            }
+            int caret = textArea.getCaretPosition();
+            setTextContent(new String(chars, 0, n));
+            textArea.setCaretPosition(Math.min(caret, doc.getLength()));
+        } catch (BadLocationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /** The charset the current file was read in and will be saved in. */
+    public FileEncoding getEncoding() {
+        return encoding;
+    }
+    
     public boolean isReadOnly() {
         return readOnly;
     }
@@ -180,10 +641,22 @@ public class TextAreaPanel extends JPanel {
         return textArea;
     }
     
-    public UndoManager getUndoManager() {
+    /** Line-start index of the current document, shared with the gutter. */
+    public LineIndex getLineIndex() {
+        return LineIndex.of(textArea.getDocument());
+    }
+    
+    public UndoHistory getUndoManager() {
         return undoManager;
     }
     
+    /** Rough heap held by the document, its line index and its undo history. */
+    public long getHeapBytes() {
+        Document doc = textArea.getDocument();
+        long text = doc instanceof PieceTableDocument ? ((PieceTableDocument) doc).getHeapBytes() : 2L * doc.getLength();
+        return text + 4L * getLineIndex().getLineCount() + undoManager.getUsedBytes();
+    }
+    
     // Helper class for file information
     /**
      * Toggle line numbers on/off
@@ -218,11 +691,13 @@ public class TextAreaPanel extends JPanel {
         public final int lines;
         public final boolean readOnly;
         public final String type;
+        public final String encoding;
         
-        public FileInfo(int lines, boolean readOnly, String type) {
+        public FileInfo(int lines, boolean readOnly, String type, String encoding) {
             this.lines = lines;
             this.readOnly = readOnly;
             this.type = type;
+            this.encoding = encoding;
         }
     }
 }
@@ -11,7 +11,7 @@ import editor.actions.SearchActions;
 import editor.utils.SystemIconHelper;
 
 public class ToolBarFactory {
-    public static JToolBar create(JFrame parent, TextAreaPanel panel) {
+    public static JToolBar create(JFrame parent, Workspace workspace) {
         var tb = new JToolBar();
         tb.setFloatable(false);
         tb.setRollover(true);
@@ -19,28 +19,33 @@ public class ToolBarFactory {
 
         // File operations
         var newBtn = createToolBarButton(SystemIconHelper.getBestIcon("new"), "New File (Ctrl+N)"); 
-        newBtn.addActionListener(e -> FileActions.newFile(parent, panel));
+        newBtn.addActionListener(e -> FileActions.newFile(parent, workspace));
         var openBtn = createToolBarButton(SystemIconHelper.getBestIcon("open"), "Open File (Ctrl+O)"); 
-        openBtn.addActionListener(e -> FileActions.openFile(parent, panel));
+        openBtn.addActionListener(e -> FileActions.openFile(parent, workspace));
         var saveBtn = createToolBarButton(SystemIconHelper.getBestIcon("save"), "Save File (Ctrl+S)"); 
-        saveBtn.addActionListener(e -> FileActions.saveFile(parent, panel, false));
+        saveBtn.addActionListener(e -> FileActions.saveFile(parent, workspace.getActivePanel(), false));
 
-        // Edit operations
-        var undoAction = new EditActions.UndoAction(panel.getUndoManager());
-        var redoAction = new EditActions.RedoAction(panel.getUndoManager());
-        var cutAction = new EditActions.CutAction(panel.getTextArea());
-        var copyAction = new EditActions.CopyAction(panel.getTextArea());
-        var pasteAction = new EditActions.PasteAction(panel.getTextArea());
+        // Edit operations, on whichever tab is shown
+        var undoAction = new EditActions.UndoAction(workspace::getActiveUndoManager);
+        var redoAction = new EditActions.RedoAction(workspace::getActiveUndoManager);
+        workspace.addPropertyChangeListener("activePanel", e -> {
+            undoAction.retarget();
+            redoAction.retarget();
+        });
+        var cutAction = new EditActions.CutAction(workspace::getActiveTextArea);
+        var copyAction = new EditActions.CopyAction(workspace::getActiveTextArea);
+        var pasteAction = new EditActions.PasteAction(workspace::getActiveTextArea);
         
         var undoBtn = createToolBarButton(SystemIconHelper.getBestIcon("undo"), "Undo (Ctrl+Z)");
         undoBtn.setAction(undoAction);
         undoBtn.setIcon(SystemIconHelper.getBestIcon("undo"));
-        undoBtn.setText("");
+        // the action renames itself as the history changes
+        undoBtn.setHideActionText(true);
         
         var redoBtn = createToolBarButton(SystemIconHelper.getBestIcon("redo"), "Redo (Ctrl+Y)");
         redoBtn.setAction(redoAction);
         redoBtn.setIcon(SystemIconHelper.getBestIcon("redo"));
-        redoBtn.setText("");
+        redoBtn.setHideActionText(true);
         
         var cutBtn = createToolBarButton(SystemIconHelper.getBestIcon("cut"), "Cut (Ctrl+X)");
         cutBtn.setAction(cutAction);
@@ -58,7 +63,7 @@ public class ToolBarFactory {
         pasteBtn.setText("");
         
         // Search operations
-        var findAction = new SearchActions.FindAction(parent, panel);
+        var findAction = new SearchActions.FindAction(parent, workspace::getActivePanel);
         var findBtn = createToolBarButton(SystemIconHelper.getBestIcon("find"), "Find (Ctrl+F)");
         findBtn.setAction(findAction);
         findBtn.setIcon(SystemIconHelper.getBestIcon("find"));
@@ -67,9 +72,9 @@ public class ToolBarFactory {
         // Line numbers toggle
         var lineNumBtn = createToolBarButton(SystemIconHelper.getLineNumbersIcon(), "Toggle Line Numbers"); 
         lineNumBtn.addActionListener(e -> {
-            panel.toggleLineNumbers();
+            workspace.setLineNumbersVisible(!workspace.isLineNumbersVisible());
             // Update button appearance based on state
-            if (panel.isLineNumbersVisible()) {
+            if (workspace.isLineNumbersVisible()) {
                 lineNumBtn.setToolTipText("Hide Line Numbers");
             } else {
                 lineNumBtn.setToolTipText("Show Line Numbers");
@@ -0,0 +1,442 @@
+// -----------------------------
+// File: src/editor/ui/Workspace.java
+// -----------------------------
+package editor.ui;
+
+import javax.swing.*;
+import java.awt.*;
+import java.beans.PropertyChangeListener;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import editor.text.UndoHistory;
+import editor.utils.EditJournal;
+import editor.utils.FileUtils;
+import editor.utils.UndoLog;
+
+/**
+ * Tabs of open documents. A tab starts out as just a path: its
+ * {@link TextAreaPanel}, or {@link FileViewer} for a file too big to edit,
+ * is only created and loaded the first time the tab is shown, so opening a
+ * hundred files costs a hundred tab headers until they are looked at. All
+ * panels do their file work on the shared {@link editor.utils.BackgroundIO}
+ * pool, so threads do not grow with the number of tabs either. Editors
+ * that were shown are kept within a heap budget by a {@link BufferCache}:
+ * the least recently shown saved ones are dropped and their tabs load
+ * again, at the same caret, when shown.
+ *
+ * The "caret", "fileInfo", "loadProgress", "file" and "modified" properties
+ * of the shown tab are fired again by the workspace, so the status bar and
+ * title follow whichever tab is selected; "activePanel" is fired when the
+ * selection changes. There is always at least one tab.
+ */
+public class Workspace extends JPanel {
+    private static final long CLOSE_MILLIS = 30_000;
+    private static final String[] FORWARDED = { "caret", "fileInfo", "loadProgress", "file", "modified", "notice" };
+
+    private final JTabbedPane tabs = new JTabbedPane(JTabbedPane.TOP, JTabbedPane.SCROLL_TAB_LAYOUT);
+    private final List<Tab> open = new ArrayList<>();
+    private final Path journalDirectory;
+    private final Path undoDirectory;
+    private boolean lineNumbersVisible = true;
+    private Tab active;
+    private final BufferCache buffers = new BufferCache();
+    private boolean trimScheduled;
+
+    private final PropertyChangeListener forward = e -> {
+        Tab tab = tabOf((Component) e.getSource());
+        if (tab == null) return;
+        if (e.getPropertyName().equals("file") || e.getPropertyName().equals("modified")) {
+            if (tab.panel != null && tab.panel.getCurrentFile() != null) {
+                tab.file = tab.panel.getCurrentFile();
+            }
+            updateTitle(tab);
+        }
+        if (tab == active) {
+            firePropertyChange(e.getPropertyName(), null, e.getNewValue());
+        }
+        // a finished load or save may push the editors over budget or make one evictable
+        if (e.getPropertyName().equals("loadProgress") && Integer.valueOf(-1).equals(e.getNewValue())
+                || e.getPropertyName().equals("modified") && Boolean.FALSE.equals(e.getNewValue())) {
+            scheduleTrim();
+        }
+    };
+
+    /** One document; {@code panel} or {@code viewer} is null until shown, and again once evicted. */
+    private static final class Tab {
+        final JPanel holder = new JPanel(new BorderLayout());
+        final boolean tooBig;
+        Path file;
+        TextAreaPanel panel;
+        FileViewer viewer;
+        Consumer<TextAreaPanel> whenLoaded;
+        EditJournal.Recovery recovery;
+        // where the caret was when the editor was evicted
+        int caret = -1;
+
+        Tab(Path file, boolean tooBig) {
+            this.file = file;
+            this.tooBig = tooBig;
+        }
+
+        Component content() {
+            return panel != null ? panel : viewer;
+        }
+    }
+
+    /** A workspace whose editors journal and log undo in these directories; either may be null. */
+    public Workspace(Path journalDirectory, Path undoDirectory) {
+        super(new BorderLayout());
+        this.journalDirectory = journalDirectory;
+        this.undoDirectory = undoDirectory;
+        add(tabs, BorderLayout.CENTER);
+        tabs.addChangeListener(e -> select());
+        newDocument();
+    }
+
+    /** Opens a new, empty document in its own tab and shows it. */
+    public TextAreaPanel newDocument() {
+        Tab tab = add(new Tab(null, false));
+        show(tab);
+        return tab.panel;
+    }
+
+    /** Shows {@code path}, in the tab it is already open in or in a new one. */
+    public void open(Path path) {
+        open(path, null);
+    }
+
+    /**
+     * Shows {@code path} and runs {@code whenLoaded} on the EDT once its
+     * text is in; a file too big to edit opens in a viewer and skips it.
+     */
+    public void open(Path path, Consumer<TextAreaPanel> whenLoaded) {
+        Tab tab = find(path);
+        if (tab == null) {
+            tab = add(new Tab(normalize(path), tooBig(path)));
+            tab.whenLoaded = whenLoaded;
+            replaceBlank(tab);
+        } else if (tab.panel == null) {
+            tab.whenLoaded = whenLoaded;
+        } else if (whenLoaded != null) {
+            TextAreaPanel panel = tab.panel;
+            if (panel.isLoading()) {
+                // reloading is harmless: nothing can be edited while loading
+                panel.loadFile(tab.file, () -> whenLoaded.accept(panel));
+            } else {
+                whenLoaded.accept(panel);
+            }
+        }
+        show(tab);
+    }
+
+    /** Adds a tab for {@code path} without showing it; nothing is read until it is shown. */
+    public void add(Path path) {
+        if (find(path) == null) {
+            replaceBlank(add(new Tab(normalize(path), tooBig(path))));
+        }
+    }
+
+    /** Shows any file read-only in a viewer, however big. */
+    public void openViewer(Path path) {
+        Tab tab = find(path);
+        if (tab == null || tab.viewer == null && !tab.tooBig) {
+            tab = add(new Tab(normalize(path), true));
+            replaceBlank(tab);
+        }
+        show(tab);
+    }
+
+    /** Opens a document from an edit journal in a new tab; see {@link TextAreaPanel#recover}. */
+    public void recover(EditJournal.Recovery recovery) {
+        Path base = recovery.getBase();
+        Tab tab = add(new Tab(base != null ? normalize(base) : null, false));
+        tab.recovery = recovery;
+        replaceBlank(tab);
+        show(tab);
+    }
+
+    /** Closes the tab at {@code index} without asking; an empty document replaces the last one. */
+    public void close(int index) {
+        Tab tab = open.remove(index);
+        tabs.remove(tab.holder);
+        dispose(tab);
+        if (open.isEmpty()) {
+            newDocument();
+        }
+    }
+
+    /**
+     * Stops the background work of every tab, e.g. when the window closes,
+     * and waits up to CLOSE_MILLIS for saves still queued to be written:
+     * the pool's threads do not keep the JVM alive.
+     */
+    public void close() {
+        List<TextAreaPanel> closing = new ArrayList<>();
+        for (Tab tab : open) {
+            if (tab.panel != null) closing.add(tab.panel);
+            dispose(tab);
+        }
+        long deadline = System.currentTimeMillis() + CLOSE_MILLIS;
+        try {
+            for (TextAreaPanel panel : closing) {
+                panel.awaitClosed(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** The editor of the shown tab, or null while a viewer is shown. */
+    public TextAreaPanel getActivePanel() {
+        return active != null ? active.panel : null;
+    }
+
+    /** The text area of the shown editor, or null while a viewer is shown. */
+    public JTextArea getActiveTextArea() {
+        return active != null && active.panel != null ? active.panel.getTextArea() : null;
+    }
+
+    /** The undo history of the shown editor, or null while a viewer is shown. */
+    public UndoHistory getActiveUndoManager() {
+        return active != null && active.panel != null ? active.panel.getUndoManager() : null;
+    }
+
+    /** The viewer of the shown tab, or null while an editor is shown. */
+    public FileViewer getActiveViewer() {
+        return active != null ? active.viewer : null;
+    }
+
+    public int getSelectedIndex() {
+        return tabs.getSelectedIndex();
+    }
+
+    public void setSelectedIndex(int index) {
+        tabs.setSelectedIndex(index);
+    }
+
+    public int getTabCount() {
+        return open.size();
+    }
+
+    /** The file open in a tab, or null for a new document. */
+    public Path getFile(int index) {
+        return open.get(index).file;
+    }
+
+    /** The editor of a tab, or null if the tab was not shown yet or is a viewer. */
+    public TextAreaPanel getPanel(int index) {
+        return open.get(index).panel;
+    }
+
+    /** Editors created so far; tabs never shown have none and nothing unsaved. */
+    public List<TextAreaPanel> getPanels() {
+        List<TextAreaPanel> panels = new ArrayList<>();
+        for (Tab tab : open) {
+            if (tab.panel != null) panels.add(tab.panel);
+        }
+        return panels;
+    }
+
+    /** Name of the shown document, for the window title. */
+    public String getActiveTitle() {
+        if (active == null) return "";
+        return active.file == null ? "New File"
+            : active.viewer != null ? active.file.getFileName() + " (read-only)"
+            : active.file.getFileName().toString();
+    }
+
+    /** Heap budget, hit, miss and eviction counts of the tabs' editors. */
+    public BufferCache getBufferCache() {
+        return buffers;
+    }
+
+    /** Stops the load or indexing of the shown tab. */
+    public void cancelLoad() {
+        if (active == null) return;
+        if (active.panel != null) active.panel.cancelLoad();
+        if (active.viewer != null) active.viewer.cancelIndexing();
+    }
+
+    public boolean isLineNumbersVisible() {
+        return lineNumbersVisible;
+    }
+
+    /** Shows or hides line numbers in every editor, including ones created later. */
+    public void setLineNumbersVisible(boolean visible) {
+        lineNumbersVisible = visible;
+        for (TextAreaPanel panel : getPanels()) {
+            panel.setLineNumbersVisible(visible);
+        }
+    }
+
+    private Tab add(Tab tab) {
+        open.add(tab);
+        if (tab.file == null && !tab.tooBig) {
+            // nothing to load, so nothing to put off
+            materialize(tab);
+        }
+        tabs.addTab(null, tab.holder);
+        updateTitle(tab);
+        return tab;
+    }
+
+    private void show(Tab tab) {
+        int index = tabs.indexOfComponent(tab.holder);
+        if (tabs.getSelectedIndex() != index) {
+            tabs.setSelectedIndex(index);
+        } else {
+            select();
+        }
+    }
+
+    // the tab just shown gets its editor or viewer, if it has none yet
+    private void select() {
+        int index = tabs.getSelectedIndex();
+        Tab tab = index >= 0 && index < open.size() ? open.get(index) : null;
+        if (tab != null && tab.content() == null) {
+            materialize(tab);
+        } else if (tab != null && tab.panel != null) {
+            buffers.shown(tab.panel);
+        }
+        scheduleTrim();
+        Tab old = active;
+        active = tab;
+        if (old == tab) return;
+        firePropertyChange("activePanel", old != null ? old.panel : null, tab != null ? tab.panel : null);
+        if (tab == null) return;
+        if (tab.panel != null) {
+            tab.panel.refreshStatus();
+            tab.panel.getTextArea().requestFocusInWindow();
+        } else if (tab.viewer != null) {
+            tab.viewer.refreshStatus();
+        }
+    }
+
+    private void materialize(Tab tab) {
+        if (tab.tooBig) {
+            FileViewer viewer = new FileViewer();
+            try {
+                viewer.open(tab.file);
+            } catch (IOException e) {
+                viewer.close();
+                JOptionPane.showMessageDialog(this, "Error: " + e.getMessage());
+                SwingUtilities.invokeLater(() -> {
+                    int index = open.indexOf(tab);
+                    if (index >= 0) close(index);
+                });
+                return;
+            }
+            tab.viewer = viewer;
+        } else {
+            TextAreaPanel panel = new TextAreaPanel();
+            panel.setLineNumbersVisible(lineNumbersVisible);
+            if (journalDirectory != null) panel.setJournal(new EditJournal(journalDirectory));
+            if (undoDirectory != null) panel.setUndoLog(new UndoLog(undoDirectory));
+            tab.panel = panel;
+            buffers.add(panel, () -> evict(tab), tab.file != null);
+            if (tab.recovery != null) {
+                panel.recover(tab.recovery);
+                tab.recovery = null;
+            } else if (tab.file != null) {
+                Consumer<TextAreaPanel> then = tab.whenLoaded;
+                int caret = tab.caret;
+                panel.loadFile(tab.file, then != null ? () -> then.accept(panel)
+                    : caret < 0 ? null : () -> panel.getTextArea().setCaretPosition(
+                        Math.min(caret, panel.getTextArea().getDocument().getLength())));
+            }
+            tab.whenLoaded = null;
+            tab.caret = -1;
+        }
+        for (String property : FORWARDED) {
+            tab.content().addPropertyChangeListener(property, forward);
+        }
+        tab.holder.add(tab.content(), BorderLayout.CENTER);
+        tab.holder.revalidate();
+    }
+
+    // back to a path: the file is saved, so loading it again gives the same text
+    private void evict(Tab tab) {
+        TextAreaPanel panel = tab.panel;
+        tab.caret = panel.getTextArea().getCaretPosition();
+        for (String property : FORWARDED) panel.removePropertyChangeListener(property, forward);
+        tab.holder.remove(panel);
+        tab.panel = null;
+        panel.close();
+    }
+
+    private void scheduleTrim() {
+        if (!trimScheduled) {
+            trimScheduled = true;
+            SwingUtilities.invokeLater(() -> {
+                trimScheduled = false;
+                buffers.trim();
+            });
+        }
+    }
+
+    private void dispose(Tab tab) {
+        if (tab.panel != null) {
+            buffers.remove(tab.panel);
+            for (String property : FORWARDED) tab.panel.removePropertyChangeListener(property, forward);
+            tab.panel.close();
+        }
+        if (tab.viewer != null) {
+            for (String property : FORWARDED) tab.viewer.removePropertyChangeListener(property, forward);
+            tab.viewer.close();
+        }
+        if (tab == active) {
+            active = null;
+        }
+    }
+
+    // an untouched new document makes way for the first file opened
+    private void replaceBlank(Tab opened) {
+        if (open.size() != 2) return;
+        Tab first = open.get(0);
+        if (first != opened && first.file == null && first.panel != null && !first.panel.isModified()
+                && first.panel.getTextArea().getDocument().getLength() == 0) {
+            close(0);
+        }
+    }
+
+    private void updateTitle(Tab tab) {
+        int index = tabs.indexOfComponent(tab.holder);
+        if (index < 0) return;
+        String name = tab.file != null ? tab.file.getFileName().toString() : "Untitled";
+        boolean modified = tab.panel != null && tab.panel.isModified();
+        tabs.setTitleAt(index, modified ? "*" + name : name);
+        tabs.setToolTipTextAt(index, tab.file != null ? tab.file.toString() : null);
+    }
+
+    private Tab find(Path path) {
+        Path key = normalize(path);
+        for (Tab tab : open) {
+            if (key.equals(tab.file)) return tab;
+        }
+        return null;
+    }
+
+    private Tab tabOf(Component content) {
+        for (Tab tab : open) {
+            if (tab.content() == content) return tab;
+        }
+        return null;
+    }
+
+    private static Path normalize(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+
+    private static boolean tooBig(Path path) {
+        try {
+            return FileUtils.isTooBigToEdit(path);
+        } catch (IOException e) {
+            // let the load report it
+            return false;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+// -----------------------------
+// File: src/editor/utils/BackgroundIO.java
+// -----------------------------
+package editor.utils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The small pool of daemon threads that every open document shares for
+ * its file work: loading, saving, journaling and undo logs. Opening more
+ * files adds queues, not threads.
+ *
+ * Work for one document usually has to stay in order, e.g. a save must
+ * not overtake the load before it, so each user gets a {@link #serial()}
+ * executor: its tasks run one at a time, in order, on the shared pool.
+ */
+public final class BackgroundIO {
+    private static final int THREADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final AtomicInteger threads = new AtomicInteger();
+    private static final ScheduledThreadPoolExecutor POOL = new ScheduledThreadPoolExecutor(THREADS, r -> {
+        Thread t = new Thread(r, "io-" + threads.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+
+    private BackgroundIO() { }
+
+    /** The shared pool, also for delayed work. */
+    public static ScheduledExecutorService pool() {
+        return POOL;
+    }
+
+    public static int getThreadCount() {
+        return THREADS;
+    }
+
+    /** A new executor that runs its tasks one at a time, in order, on the shared pool. */
+    public static ExecutorService serial() {
+        return new Serial();
+    }
+
+    /**
+     * Queues tasks and keeps at most one of them on the pool. Shutting it
+     * down lets queued tasks finish; shutdownNow drops them and interrupts
+     * the one running.
+     */
+    private static final class Serial extends AbstractExecutorService {
+        private final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+        private boolean running;
+        private boolean shutdown;
+        private Thread worker;
+
+        @Override
+        public void execute(Runnable task) {
+            synchronized (this) {
+                if (shutdown) {
+                    throw new RejectedExecutionException("Shut down");
+                }
+                queue.add(task);
+                if (running) {
+                    return;
+                }
+                running = true;
+            }
+            POOL.execute(this::drain);
+        }
+
+        private void drain() {
+            boolean drained = false;
+            try {
+                while (true) {
+                    Runnable task;
+                    synchronized (this) {
+                        task = queue.poll();
+                        if (task == null) {
+                            running = false;
+                            worker = null;
+                            notifyAll();
+                            drained = true;
+                            return;
+                        }
+                        worker = Thread.currentThread();
+                    }
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        // a failed task must not stall the ones behind it
+                    } finally {
+                        // a cancel meant for this task must not reach the next one
+                        synchronized (this) {
+                            worker = null;
+                        }
+                        Thread.interrupted();
+                    }
+                }
+            } finally {
+                if (!drained) {
+                    // an Error got out of a task: the rest go on in a new drain
+                    boolean more;
+                    synchronized (this) {
+                        more = !queue.isEmpty();
+                        running = more;
+                        notifyAll();
+                    }
+                    if (more) {
+                        POOL.execute(this::drain);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public synchronized void shutdown() {
+            shutdown = true;
+            notifyAll();
+        }
+
+        @Override
+        public synchronized List<Runnable> shutdownNow() {
+            shutdown = true;
+            List<Runnable> dropped = new ArrayList<>(queue);
+            queue.clear();
+            if (worker != null) {
+                worker.interrupt();
+            }
+            notifyAll();
+            return dropped;
+        }
+
+        @Override
+        public synchronized boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public synchronized boolean isTerminated() {
+            return shutdown && !running;
+        }
+
+        @Override
+        public synchronized boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (!isTerminated()) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, left);
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,751 @@
+// -----------------------------
+// File: src/editor/utils/EditJournal.java
+// -----------------------------
+package editor.utils;
+
+import editor.text.PieceTableDocument;
+import editor.text.TextSource;
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * An append-only journal of the edits made to one document since it was
+ * last loaded or saved, so they can be replayed after a crash.
+ *
+ * The document listener only queues each insert or remove; a background
+ * task on the shared {@link BackgroundIO} pool appends them to a
+ * memory-mapped log, which the OS still writes out if the JVM dies, and
+ * forces it to disk at most once a second. The type byte of a record is
+ * written last, so a record cut short reads as the end of the log. Once
+ * the log has grown by COMPACT_BYTES it is folded into the fewest edits
+ * that give the same text, a patch over the base file. A save rebases the
+ * log on the saved file and keeps only the edits made after the saved
+ * snapshot.
+ *
+ * A closed journal is deleted; journals left behind by a process that is
+ * no longer running are offered by {@link #recoverable}.
+ */
+public final class EditJournal {
+    private static final int MAGIC = 0x454A4E4C; // "EJNL"
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".journal";
+    private static final byte END = 0;
+    private static final byte INSERT = 1;
+    private static final byte REMOVE = 2;
+    private static final int RECORD_HEADER = 9;
+    private static final int INITIAL_CAPACITY = 1024 * 1024;
+    private static final int COMPACT_BYTES = 1024 * 1024;
+    private static final long FORCE_MILLIS = 1000;
+    // longer inserts are read from a snapshot on the journal thread instead of copied on the EDT
+    private static final int COPY_CHARS = 64 * 1024;
+    private static final AtomicInteger sessions = new AtomicInteger();
+    private static final Object CLOSE = new Object();
+    // queued when a delayed force is due
+    private static final Object FORCE = new Object();
+
+    private final Path file;
+    private final ExecutorService io = BackgroundIO.serial();
+    private long marks;
+    private volatile Consumer<String> statusListener;
+
+    // owned by the journal's tasks, which run one at a time
+    private Path base;
+    private long baseSize = -1;
+    private long baseModified;
+    private int baseLength;
+    private FileChannel channel;
+    private MappedByteBuffer log;
+    private int recordsStart;
+    private int end;
+    private int compactAt;
+    private boolean dirty;
+    private long forced;
+    private boolean forceScheduled;
+    private boolean failed;
+    private final Map<Long, Integer> marked = new HashMap<>();
+
+    private static final class Edit {
+        final byte type;
+        final int offset;
+        final int length;
+        final CharSequence text;
+
+        Edit(byte type, int offset, int length, CharSequence text) {
+            this.type = type;
+            this.offset = offset;
+            this.length = length;
+            this.text = text;
+        }
+
+        long bytes() {
+            return RECORD_HEADER + (type == INSERT ? 2L * length : 0);
+        }
+    }
+
+    // the document is now base (null for a new one) with only the edits after mark, if any
+    private static final class Rebase {
+        final Path base;
+        final int length;
+        final long mark;
+
+        Rebase(Path base, int length, long mark) {
+            this.base = base;
+            this.length = length;
+            this.mark = mark;
+        }
+    }
+
+    private static final class Mark {
+        final long id;
+        final boolean forget;
+
+        Mark(long id, boolean forget) {
+            this.id = id;
+            this.forget = forget;
+        }
+    }
+
+    /** Starts a journal in {@code directory}; nothing is written before the first edit. */
+    public EditJournal(Path directory) {
+        file = directory.resolve(ProcessHandle.current().pid() + "-" + sessions.incrementAndGet() + SUFFIX);
+    }
+
+    public static Path defaultDirectory() {
+        return Paths.get(System.getProperty("user.home"), ".programmers-editor", "recovery");
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * The document now holds {@code base} as loaded, or nothing for a new
+     * file; earlier edits are dropped.
+     */
+    public void reset(Path base, int length) {
+        submit(new Rebase(base, length, -1));
+    }
+
+    public void inserted(DocumentEvent e) {
+        Document doc = e.getDocument();
+        int offset = e.getOffset();
+        int length = e.getLength();
+        CharSequence text;
+        try {
+            if (length > COPY_CHARS && doc instanceof PieceTableDocument) {
+                text = ((PieceTableDocument) doc).snapshot().subSequence(offset, offset + length);
+            } else {
+                text = doc.getText(offset, length);
+            }
+        } catch (BadLocationException ex) {
+            throw new IllegalStateException(ex);
+        }
+        submit(new Edit(INSERT, offset, length, text));
+    }
+
+    public void removed(DocumentEvent e) {
+        submit(new Edit(REMOVE, e.getOffset(), e.getLength(), null));
+    }
+
+    /** Marks the edits so far, e.g. when a snapshot is taken to be saved. */
+    public long mark() {
+        long id = ++marks;
+        submit(new Mark(id, false));
+        return id;
+    }
+
+    /** The text as of {@code mark} is now in {@code saved}; only later edits are kept. */
+    public void saved(long mark, Path saved, int length) {
+        submit(new Rebase(saved, length, mark));
+    }
+
+    /** Drops a mark whose save failed. */
+    public void forget(long mark) {
+        submit(new Mark(mark, true));
+    }
+
+    /**
+     * Tells {@code listener}, on the journal's thread, why journaling
+     * stopped, and null once a reload starts it again. Edits made while it
+     * is stopped cannot be recovered.
+     */
+    public void setStatusListener(Consumer<String> listener) {
+        statusListener = listener;
+    }
+
+    /** Waits until everything queued so far is in the log. */
+    public void flush() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        if (submit(latch)) {
+            latch.await();
+        }
+    }
+
+    /** Stops the journal and deletes it: nothing is left to recover. */
+    public void close() {
+        submit(CLOSE);
+        io.shutdown();
+    }
+
+    /** Waits until a closed journal is deleted; false if {@code timeout} passed first. */
+    public boolean awaitClosed(long timeout, TimeUnit unit) throws InterruptedException {
+        return io.awaitTermination(timeout, unit);
+    }
+
+    // false once the journal is closed
+    private boolean submit(Object entry) {
+        try {
+            io.execute(() -> handle(entry));
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    private void handle(Object entry) {
+        if (entry == CLOSE) {
+            delete();
+            return;
+        }
+        if (entry instanceof CountDownLatch) {
+            ((CountDownLatch) entry).countDown();
+            return;
+        }
+        if (failed) {
+            if (!(entry instanceof Rebase) || ((Rebase) entry).mark >= 0) {
+                return;
+            }
+            // the document was loaded or replaced: a fresh start
+            failed = false;
+            forceScheduled = false;
+            notifyStatus(null);
+        }
+        try {
+            if (entry == FORCE) {
+                forceScheduled = false;
+            } else {
+                apply(entry);
+            }
+            // forced at most once a second, later if edits keep coming
+            if (dirty) {
+                long wait = FORCE_MILLIS - (System.currentTimeMillis() - forced);
+                if (wait <= 0) {
+                    log.force();
+                    dirty = false;
+                    forced = System.currentTimeMillis();
+                } else if (!forceScheduled) {
+                    forceScheduled = true;
+                    BackgroundIO.pool().schedule(() -> submit(FORCE), wait, TimeUnit.MILLISECONDS);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // recovery is best effort: stop journaling rather than disturb editing
+            failed = true;
+            delete();
+            notifyStatus(e.getMessage() != null ? e.getMessage() : e.toString());
+        }
+    }
+
+    private void notifyStatus(String problem) {
+        Consumer<String> listener = statusListener;
+        if (listener != null) {
+            listener.accept(problem);
+        }
+    }
+
+    private void apply(Object entry) throws IOException {
+        if (entry instanceof Edit) {
+            append((Edit) entry);
+        } else if (entry instanceof Mark) {
+            Mark m = (Mark) entry;
+            if (m.forget) {
+                marked.remove(m.id);
+            } else {
+                marked.put(m.id, channel == null ? 0 : end - recordsStart);
+            }
+        } else {
+            rebase((Rebase) entry);
+        }
+    }
+
+    private void append(Edit edit) throws IOException {
+        if (channel == null) {
+            rewrite(null, null);
+        }
+        if (end + edit.bytes() > log.capacity()) {
+            long capacity = Math.max(2L * log.capacity(), end + edit.bytes());
+            if (capacity > Integer.MAX_VALUE) {
+                throw new IOException("Unsaved edits are too large to journal");
+            }
+            log = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+        end = put(log, end, edit);
+        dirty = true;
+        if (end - recordsStart > compactAt && marked.isEmpty()) {
+            compact();
+        }
+    }
+
+    private void rebase(Rebase r) throws IOException {
+        ByteBuffer kept = null;
+        if (r.mark >= 0) {
+            Integer before = marked.remove(r.mark);
+            if (before == null) {
+                return; // the document was replaced since the mark
+            }
+            if (channel != null && recordsStart + before < end) {
+                kept = log.duplicate().limit(end).position(recordsStart + before).slice();
+            }
+        } else {
+            marked.clear();
+        }
+        base = r.base;
+        baseLength = r.length;
+        baseSize = -1;
+        baseModified = 0;
+        if (base != null) {
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(base, BasicFileAttributes.class);
+                baseSize = attrs.size();
+                baseModified = attrs.lastModifiedTime().toMillis();
+            } catch (IOException e) {
+                // recovered against whatever is there then
+            }
+        }
+        if (kept == null) {
+            delete();
+        } else {
+            rewrite(kept, null);
+        }
+    }
+
+    // folds the log into the fewest edits that turn the base into the same text
+    private void compact() throws IOException {
+        Patch patch = new Patch(baseLength);
+        forEach(log, recordsStart, patch::apply);
+        List<Edit> edits = patch.edits(baseLength);
+        rewrite(null, edits);
+    }
+
+    /**
+     * Replaces the log with a new file holding the current base, then the
+     * {@code records} bytes, then the {@code edits}; the file is written
+     * aside and moved over the old one.
+     */
+    private void rewrite(ByteBuffer records, List<Edit> edits) throws IOException {
+        byte[] path = base == null ? new byte[0] : base.toString().getBytes(StandardCharsets.UTF_8);
+        int header = 32 + path.length;
+        long size = header + (records == null ? 0 : records.remaining());
+        if (edits != null) {
+            for (Edit e : edits) {
+                size += e.bytes();
+            }
+        }
+        long capacity = Math.max(INITIAL_CAPACITY, 2 * size);
+        if (capacity > Integer.MAX_VALUE) {
+            throw new IOException("Unsaved edits are too large to journal");
+        }
+        FileUtils.createPrivateDirectories(file.getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        FileChannel ch = FileUtils.openPrivate(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            buf.putInt(0, MAGIC);
+            buf.putInt(4, VERSION);
+            buf.putLong(8, baseSize);
+            buf.putLong(16, baseModified);
+            buf.putInt(24, baseLength);
+            buf.putInt(28, path.length);
+            buf.put(32, path);
+            int pos = header;
+            if (records != null) {
+                buf.put(pos, records, records.position(), records.remaining());
+                pos += records.remaining();
+            }
+            if (edits != null) {
+                for (Edit e : edits) {
+                    pos = put(buf, pos, e);
+                }
+            }
+            buf.force();
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (channel != null) {
+                channel.close();
+            }
+            channel = ch;
+            log = buf;
+            recordsStart = header;
+            end = pos;
+            compactAt = Math.max(COMPACT_BYTES, 2 * (end - recordsStart));
+            dirty = false;
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+    }
+
+    private void delete() {
+        log = null;
+        dirty = false;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // deleting anyway
+            }
+            channel = null;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // left for the next start to offer
+        }
+    }
+
+    // writes one record at pos and returns where the next one goes; the type goes in last
+    private static int put(ByteBuffer buf, int pos, Edit edit) {
+        buf.putInt(pos + 1, edit.offset);
+        buf.putInt(pos + 5, edit.length);
+        if (edit.type == INSERT) {
+            CharBuffer chars = buf.duplicate().position(pos + RECORD_HEADER).asCharBuffer();
+            CharSequence text = edit.text;
+            if (text instanceof TextSource) {
+                char[] chunk = new char[Math.min(COPY_CHARS, edit.length)];
+                for (int i = 0; i < edit.length; i += chunk.length) {
+                    int n = Math.min(chunk.length, edit.length - i);
+                    ((TextSource) text).getChars(i, i + n, chunk, 0);
+                    chars.put(chunk, 0, n);
+                }
+            } else {
+                chars.append(text);
+            }
+        }
+        buf.put(pos, edit.type);
+        return (int) (pos + edit.bytes()); // fits: the buffer holds it
+    }
+
+    private interface RecordAction {
+        void accept(byte type, int offset, int length, CharBuffer text);
+    }
+
+    // calls action for each complete record from pos on
+    private static int forEach(ByteBuffer buf, int pos, RecordAction action) {
+        int count = 0;
+        while (pos + RECORD_HEADER <= buf.limit()) {
+            byte type = buf.get(pos);
+            if (type == END) {
+                break;
+            }
+            int offset = buf.getInt(pos + 1);
+            int length = buf.getInt(pos + 5);
+            int bytes = RECORD_HEADER + (type == INSERT ? 2 * length : 0);
+            if (type != INSERT && type != REMOVE || offset < 0 || length < 0
+                    || pos + (long) bytes > buf.limit()) {
+                break;
+            }
+            CharBuffer text = type == INSERT
+                ? buf.duplicate().limit(pos + bytes).position(pos + RECORD_HEADER).asCharBuffer() : null;
+            action.accept(type, offset, length, text);
+            pos += bytes;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * The text as runs of base chars and inserted text, kept while folding
+     * a log; its size grows with the number of places edited, not with the
+     * length of the text.
+     */
+    private static final class Patch {
+        private final List<Run> runs = new ArrayList<>();
+
+        private static final class Run {
+            int start;
+            int length;
+            final StringBuilder text;
+
+            Run(int start, int length, StringBuilder text) {
+                this.start = start;
+                this.length = length;
+                this.text = text;
+            }
+
+            int length() {
+                return text != null ? text.length() : length;
+            }
+        }
+
+        Patch(int baseLength) {
+            if (baseLength > 0) {
+                runs.add(new Run(0, baseLength, null));
+            }
+        }
+
+        void apply(byte type, int offset, int length, CharBuffer text) {
+            if (type == INSERT) {
+                insert(offset, text);
+            } else {
+                remove(offset, length);
+            }
+        }
+
+        private void insert(int at, CharSequence s) {
+            int pos = 0;
+            for (int i = 0; i < runs.size(); i++) {
+                Run r = runs.get(i);
+                int len = r.length();
+                // text runs take what is typed at their end, base runs only what falls inside them
+                if (at < pos + len || at == pos + len && r.text != null) {
+                    int k = at - pos;
+                    if (r.text != null) {
+                        r.text.insert(k, s);
+                    } else if (k == 0) {
+                        runs.add(i, new Run(0, 0, new StringBuilder(s)));
+                    } else {
+                        runs.add(i + 1, new Run(0, 0, new StringBuilder(s)));
+                        runs.add(i + 2, new Run(r.start + k, len - k, null));
+                        r.length = k;
+                    }
+                    return;
+                }
+                pos += len;
+            }
+            if (at != pos) {
+                throw new IllegalStateException("Insert past the end: " + at);
+            }
+            runs.add(new Run(0, 0, new StringBuilder(s)));
+        }
+
+        private void remove(int at, int n) {
+            int pos = 0;
+            int i = 0;
+            while (n > 0 && i < runs.size()) {
+                Run r = runs.get(i);
+                int len = r.length();
+                if (at >= pos + len) {
+                    pos += len;
+                    i++;
+                    continue;
+                }
+                int k = at - pos;
+                int m = Math.min(n, len - k);
+                if (r.text != null) {
+                    r.text.delete(k, k + m);
+                } else if (k == 0) {
+                    r.start += m;
+                    r.length -= m;
+                } else if (k + m == len) {
+                    r.length = k;
+                } else {
+                    runs.add(i + 1, new Run(r.start + k + m, len - k - m, null));
+                    r.length = k;
+                }
+                n -= m;
+                if (r.length() == 0) {
+                    runs.remove(i);
+                } else {
+                    pos += r.length();
+                    i++;
+                }
+            }
+            if (n > 0) {
+                throw new IllegalStateException("Remove past the end: " + at);
+            }
+        }
+
+        // the edits that turn the base into this text, from the front
+        List<Edit> edits(int baseLength) {
+            List<Edit> edits = new ArrayList<>();
+            int pos = 0;
+            int next = 0;
+            for (Run r : runs) {
+                if (r.text != null) {
+                    edits.add(new Edit(INSERT, pos, r.text.length(), r.text.toString()));
+                } else if (r.start > next) {
+                    edits.add(new Edit(REMOVE, pos, r.start - next, null));
+                }
+                if (r.text == null) {
+                    next = r.start + r.length;
+                }
+                pos += r.length();
+            }
+            if (next < baseLength) {
+                edits.add(new Edit(REMOVE, pos, baseLength - next, null));
+            }
+            return edits;
+        }
+    }
+
+    /** Journals in {@code directory} left behind by editors that are no longer running. */
+    public static List<Recovery> recoverable(Path directory) {
+        List<Recovery> found = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return found;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path f : files) {
+                String name = f.getFileName().toString();
+                int dash = name.indexOf('-');
+                long pid;
+                try {
+                    pid = Long.parseLong(name.substring(0, Math.max(0, dash)));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                if (ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false)) {
+                    continue;
+                }
+                Recovery r = read(f);
+                if (r != null && r.getEditCount() > 0) {
+                    found.add(r);
+                } else {
+                    Files.deleteIfExists(f);
+                }
+            }
+        } catch (IOException e) {
+            // nothing that can be read is offered
+        }
+        found.sort((a, b) -> Long.compare(b.modified, a.modified));
+        return found;
+    }
+
+    /** Reads a journal file; null if it is not one. */
+    public static Recovery read(Path journal) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(journal));
+        if (buf.limit() < 32 || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+            return null;
+        }
+        int pathLength = buf.getInt(28);
+        if (pathLength < 0 || 32 + pathLength > buf.limit()) {
+            return null;
+        }
+        byte[] path = new byte[pathLength];
+        buf.get(32, path);
+        Path base = pathLength == 0 ? null : Paths.get(new String(path, StandardCharsets.UTF_8));
+        long modified = Files.getLastModifiedTime(journal).toMillis();
+        return new Recovery(journal, base, buf.getLong(8), buf.getLong(16), buf.getInt(24), buf,
+                32 + pathLength, modified);
+    }
+
+    /** The edits a journal holds, to be replayed over its base file. */
+    public static final class Recovery {
+        private final Path journal;
+        private final Path base;
+        private final long baseSize;
+        private final long baseModified;
+        private final int baseLength;
+        private final ByteBuffer records;
+        private final int recordsStart;
+        private final long modified;
+        private final int editCount;
+
+        private Recovery(Path journal, Path base, long baseSize, long baseModified, int baseLength,
+                         ByteBuffer records, int recordsStart, long modified) {
+            this.journal = journal;
+            this.base = base;
+            this.baseSize = baseSize;
+            this.baseModified = baseModified;
+            this.baseLength = baseLength;
+            this.records = records;
+            this.recordsStart = recordsStart;
+            this.modified = modified;
+            this.editCount = forEach(records, recordsStart, (type, offset, length, text) -> { });
+        }
+
+        public Path getJournal() {
+            return journal;
+        }
+
+        /** The file the edits apply to; null for a document that was never saved. */
+        public Path getBase() {
+            return base;
+        }
+
+        public int getEditCount() {
+            return editCount;
+        }
+
+        /** The time the journal was last written, in epoch millis. */
+        public long getModified() {
+            return modified;
+        }
+
+        /** True if the base file still has the size and modification time it had when journaled. */
+        public boolean isBaseUnchanged() {
+            if (base == null) {
+                return true;
+            }
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(base, BasicFileAttributes.class);
+                return attrs.size() == baseSize && attrs.lastModifiedTime().toMillis() == baseModified;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Replays the edits into {@code doc}, which must hold the base text;
+         * throws if they do not fit it.
+         */
+        public void replay(Document doc) throws BadLocationException {
+            if (doc.getLength() != baseLength) {
+                throw new BadLocationException("The file has " + doc.getLength()
+                    + " chars, the journal expects " + baseLength, baseLength);
+            }
+            BadLocationException[] failure = new BadLocationException[1];
+            forEach(records, recordsStart, (type, offset, length, text) -> {
+                if (failure[0] != null) {
+                    return;
+                }
+                try {
+                    if (type == INSERT) {
+                        doc.insertString(offset, text.toString(), null);
+                    } else {
+                        doc.remove(offset, length);
+                    }
+                } catch (BadLocationException e) {
+                    failure[0] = e;
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+        }
+
+        public void delete() throws IOException {
+            Files.deleteIfExists(journal);
+        }
+    }
+}
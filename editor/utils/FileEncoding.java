@@ -0,0 +1,207 @@
+// -----------------------------
+// File: src/editor/utils/FileEncoding.java
+// -----------------------------
+package editor.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/**
+ * The charset of a text file and whether it starts with a byte order mark.
+ *
+ * {@link #detect(Path)} only reads the first SAMPLE_BYTES of a file: a BOM
+ * decides outright; otherwise NUL bytes at every other position mean
+ * UTF-16 without a BOM, well-formed UTF-8 (or plain ASCII) means UTF-8,
+ * and anything else is read as ISO-8859-1, which maps every byte to one
+ * char and so saves back unchanged.
+ *
+ * The sample can be wrong about the rest of the file, e.g. ASCII up front
+ * and Latin-1 further on. Readers therefore report malformed input instead
+ * of replacing it, and read the file again as {@link #ISO_8859_1}, so no
+ * byte is turned into U+FFFD and saved back over the original.
+ */
+public final class FileEncoding {
+    public static final FileEncoding UTF_8 = new FileEncoding(StandardCharsets.UTF_8, false);
+    /** Decodes any bytes and encodes them back unchanged; the fallback for malformed input. */
+    public static final FileEncoding ISO_8859_1 = new FileEncoding(StandardCharsets.ISO_8859_1, false);
+    static final int SAMPLE_BYTES = 8 * 1024;
+
+    private static final byte[] UTF_8_BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+    private static final byte[] UTF_16LE_BOM = {(byte) 0xFF, (byte) 0xFE};
+    private static final byte[] UTF_16BE_BOM = {(byte) 0xFE, (byte) 0xFF};
+    private static final byte[] NO_BOM = new byte[0];
+
+    private final Charset charset;
+    private final boolean bom;
+
+    /** {@code bom} is ignored for charsets without a byte order mark. */
+    public FileEncoding(Charset charset, boolean bom) {
+        this.charset = Objects.requireNonNull(charset);
+        this.bom = bom && bomFor(charset).length > 0;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    public boolean hasBom() {
+        return bom;
+    }
+
+    /** The bytes the file starts with before the text. */
+    public byte[] getBom() {
+        return bom ? bomFor(charset).clone() : NO_BOM;
+    }
+
+    public int getBomLength() {
+        return bom ? bomFor(charset).length : 0;
+    }
+
+    /** True if every ASCII char is the same single byte, as UTF-8 and ISO-8859-1 are. */
+    public boolean isAsciiCompatible() {
+        return charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.ISO_8859_1)
+            || charset.equals(StandardCharsets.US_ASCII);
+    }
+
+    /** Bytes per char for fixed-width charsets, else 0. */
+    int fixedWidth() {
+        if (charset.equals(StandardCharsets.UTF_16LE) || charset.equals(StandardCharsets.UTF_16BE)) {
+            return 2;
+        }
+        if (charset.equals(StandardCharsets.ISO_8859_1) || charset.equals(StandardCharsets.US_ASCII)) {
+            return 1;
+        }
+        return 0;
+    }
+
+    /** Most chars a file of {@code size} bytes can decode to. */
+    long maxChars(long size) {
+        long data = Math.max(0, size - getBomLength());
+        return charset.equals(StandardCharsets.UTF_16LE) || charset.equals(StandardCharsets.UTF_16BE)
+            ? (data + 1) / 2 : data;
+    }
+
+    private static byte[] bomFor(Charset charset) {
+        if (charset.equals(StandardCharsets.UTF_8)) return UTF_8_BOM;
+        if (charset.equals(StandardCharsets.UTF_16LE)) return UTF_16LE_BOM;
+        if (charset.equals(StandardCharsets.UTF_16BE)) return UTF_16BE_BOM;
+        return NO_BOM;
+    }
+
+    /** Detects the encoding of a file from its first few KB. */
+    public static FileEncoding detect(Path p) throws IOException {
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+            ByteBuffer sample = ByteBuffer.allocate(SAMPLE_BYTES);
+            while (sample.hasRemaining() && ch.read(sample) >= 0) {
+                // fill the sample or reach the end
+            }
+            sample.flip();
+            return detect(sample, sample.limit() == ch.size());
+        }
+    }
+
+    /**
+     * Detects the encoding from the first bytes of a file; {@code whole}
+     * tells whether they are all of it, so a sequence cut off at the end
+     * is malformed rather than continued in the bytes not read.
+     */
+    public static FileEncoding detect(ByteBuffer sample, boolean whole) {
+        int n = sample.remaining();
+        int at = sample.position();
+        if (startsWith(sample, UTF_8_BOM)) return new FileEncoding(StandardCharsets.UTF_8, true);
+        if (startsWith(sample, UTF_16LE_BOM)) return new FileEncoding(StandardCharsets.UTF_16LE, true);
+        if (startsWith(sample, UTF_16BE_BOM)) return new FileEncoding(StandardCharsets.UTF_16BE, true);
+
+        // ASCII text in UTF-16 has a NUL in every other byte
+        int evenZeros = 0;
+        int oddZeros = 0;
+        for (int i = 0; i + 1 < n; i += 2) {
+            if (sample.get(at + i) == 0) evenZeros++;
+            if (sample.get(at + i + 1) == 0) oddZeros++;
+        }
+        int pairs = n / 2;
+        if (pairs > 0) {
+            if (oddZeros * 10 >= pairs * 3 && evenZeros * 20 < pairs) {
+                return new FileEncoding(StandardCharsets.UTF_16LE, false);
+            }
+            if (evenZeros * 10 >= pairs * 3 && oddZeros * 20 < pairs) {
+                return new FileEncoding(StandardCharsets.UTF_16BE, false);
+            }
+        }
+        return isUtf8(sample, whole) ? UTF_8 : ISO_8859_1;
+    }
+
+    private static boolean startsWith(ByteBuffer sample, byte[] prefix) {
+        if (sample.remaining() < prefix.length) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (sample.get(sample.position() + i) != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    // well-formed UTF-8: no overlong forms, surrogates or values past U+10FFFF
+    private static boolean isUtf8(ByteBuffer sample, boolean whole) {
+        int end = sample.limit();
+        int i = sample.position();
+        while (i < end) {
+            int b = sample.get(i) & 0xFF;
+            if (b < 0x80) {
+                i++;
+                continue;
+            }
+            int extra;
+            int min;
+            if (b >= 0xC2 && b <= 0xDF) {
+                extra = 1;
+                min = 0x80;
+            } else if (b >= 0xE0 && b <= 0xEF) {
+                extra = 2;
+                min = 0x800;
+            } else if (b >= 0xF0 && b <= 0xF4) {
+                extra = 3;
+                min = 0x10000;
+            } else {
+                return false;
+            }
+            int cp = b & (0x3F >> extra);
+            for (int k = 1; k <= extra; k++) {
+                if (i + k == end) {
+                    // the sequence runs past the sample
+                    return !whole;
+                }
+                int c = sample.get(i + k) & 0xFF;
+                if ((c & 0xC0) != 0x80) return false;
+                cp = cp << 6 | c & 0x3F;
+            }
+            if (cp < min || cp > 0x10FFFF || cp >= 0xD800 && cp <= 0xDFFF) return false;
+            i += extra + 1;
+        }
+        return true;
+    }
+
+    /** A short name for the status bar, e.g. "UTF-8" or "UTF-16LE BOM". */
+    public String getName() {
+        return bom ? charset.name() + " BOM" : charset.name();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof FileEncoding && ((FileEncoding) o).charset.equals(charset) && ((FileEncoding) o).bom == bom;
+    }
+
+    @Override
+    public int hashCode() {
+        return charset.hashCode() * 31 + (bom ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+}
@@ -3,24 +3,402 @@
 // -----------------------------
 package editor.utils;
 
+import editor.text.LineEndings;
+import editor.text.TextSource;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.io.*;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.IntConsumer;
 
 public class FileUtils {
+    /** Files at least this big are memory-mapped instead of read onto the heap. */
+    public static final long MAPPED_THRESHOLD = 16L * 1024 * 1024;
+    private static final int CHUNK_CHARS = 64 * 1024;
+    private static final long MAX_EDIT_BYTES = Integer.MAX_VALUE - 8;
+    private static final int READ_BYTES = 64 * 1024;
+    private static final int WRITE_BYTES = 256 * 1024;
+    private static final Set<PosixFilePermission> PRIVATE_DIR = PosixFilePermissions.fromString("rwx------");
+    private static final Set<PosixFilePermission> PRIVATE_FILE = PosixFilePermissions.fromString("rw-------");
+
+    // encoder and buffers reused by each thread that saves
+    private static final ThreadLocal<Encoding> encodings = new ThreadLocal<>();
+
     public static String readFile(Path p) throws IOException {
-        // read with buffered reader into StringBuilder
-        var sb = new StringBuilder();
-        try (var reader = Files.newBufferedReader(p)) {
-            char[] buf = new char[8192];
-            int r;
-            while ((r = reader.read(buf)) != -1) sb.append(buf, 0, r);
+        return readChars(p).toString();
+    }
+
+    /**
+     * Reads a file straight into a single char array sized from the file
+     * length, so the result can back a document without another copy.
+     */
+    public static CharBuffer readChars(Path p) throws IOException {
+        FileEncoding encoding = FileEncoding.detect(p);
+        try {
+            char[] buf = newCharBuffer(p, encoding);
+            int n = readChars(p, encoding, buf, null);
+            return CharBuffer.wrap(buf, 0, n);
+        } catch (CharacterCodingException e) {
+            // the sample was misleading: keep every byte rather than replace it
+            char[] buf = newCharBuffer(p, FileEncoding.ISO_8859_1);
+            int n = readChars(p, FileEncoding.ISO_8859_1, buf, null);
+            return CharBuffer.wrap(buf, 0, n);
+        }
+    }
+
+    /** A char array big enough for the decoded contents of {@code p}. */
+    public static char[] newCharBuffer(Path p) throws IOException {
+        return newCharBuffer(p, FileEncoding.UTF_8);
+    }
+
+    /** A char array big enough for the contents of {@code p} decoded from {@code encoding}. */
+    public static char[] newCharBuffer(Path p, FileEncoding encoding) throws IOException {
+        long chars = encoding.maxChars(Files.size(p));
+        if (chars > Integer.MAX_VALUE - 8) {
+            throw new IOException("File too large: " + p);
+        }
+        return new char[(int) chars];
+    }
+
+    /** Reads a file as UTF-8; see {@link #readChars(Path, FileEncoding, char[], LineEndings, IntConsumer)}. */
+    public static int readChars(Path p, char[] buf, IntConsumer progress) throws IOException {
+        return readChars(p, FileEncoding.UTF_8, buf, null, progress);
+    }
+
+    /** Reads a file with its line endings as they are; see below. */
+    public static int readChars(Path p, FileEncoding encoding, char[] buf, IntConsumer progress) throws IOException {
+        return readChars(p, encoding, buf, null, progress);
+    }
+
+    /**
+     * Decodes a file into {@code buf} chunk by chunk, after its byte order
+     * mark, reporting the number of chars available so far after each
+     * chunk. Malformed input fails the read with a CharacterCodingException
+     * rather than becoming U+FFFD, which a save would write back over the
+     * original bytes; read such a file as {@link FileEncoding#ISO_8859_1}.
+     * Stops with an InterruptedIOException when the reading thread is
+     * interrupted. Returns the number of chars read.
+     *
+     * With {@code endings}, each decoded chunk is counted into it and its
+     * CR, LF and CRLF endings are rewritten as '\n' while still in cache.
+     */
+    public static int readChars(Path p, FileEncoding encoding, char[] buf, LineEndings endings,
+                                IntConsumer progress) throws IOException {
+        CharsetDecoder decoder = encoding.getCharset().newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+        ByteBuffer in = ByteBuffer.allocate(READ_BYTES);
+        CharBuffer out = CharBuffer.wrap(buf);
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+            ch.position(encoding.getBomLength());
+            boolean eof = false;
+            while (!eof && out.hasRemaining()) {
+                eof = ch.read(in) < 0;
+                in.flip();
+                int from = out.position();
+                CoderResult result = decoder.decode(in, out, eof);
+                if (result.isError()) result.throwException();
+                if (endings != null) out.position(endings.normalize(buf, from, out.position()));
+                in.compact();
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Read cancelled: " + p);
+                }
+                if (progress != null) progress.accept(out.position());
+            }
+            // the buffer may fill before the channel reports its end
+            in.flip();
+            int from = out.position();
+            CoderResult result = decoder.decode(in, out, true);
+            if (result.isError()) result.throwException();
+            decoder.flush(out);
+            if (endings != null) {
+                out.position(endings.normalize(buf, from, out.position()));
+                endings.finish();
+            }
+        }
+        return out.position();
+    }
+
+    /**
+     * Large-file mode: maps the file and decodes it lazily, page by page, as
+     * the view asks for text. Small files are read into one char array.
+     * Either way the encoding is detected first.
+     */
+    public static CharSequence readText(Path p) throws IOException {
+        if (Files.size(p) >= MAPPED_THRESHOLD) {
+            return MappedTextFile.open(p);
         }
-        return sb.toString();
+        return readChars(p);
+    }
+
+    /**
+     * True if a file is too big for the editor, even mapped: past the 2 GB
+     * a mapping can index, or bigger than the heap its line map and edits
+     * would have to share. Such files go to the read-only viewer.
+     */
+    public static boolean isTooBigToEdit(Path p) throws IOException {
+        long size = Files.size(p);
+        return size > MAX_EDIT_BYTES || size > Runtime.getRuntime().maxMemory();
     }
 
     public static void writeFile(Path p, String content) throws IOException {
-        try (var writer = Files.newBufferedWriter(p)) {
-            writer.write(content);
+        writeText(p, content, StandardCharsets.UTF_8, true);
+    }
+
+    /**
+     * Saves {@code text} so that a crash or a full disk never leaves
+     * {@code p} half written: the text is encoded chunk by chunk into a
+     * temp file in the same directory, which is optionally forced to disk
+     * and then moved over the original in one step. The original's
+     * permissions are kept and a symbolic link is written through. Where no
+     * temp file can be created next to it, {@code p} is written in place.
+     *
+     * {@code text} is read in chunks, in bulk when it is a
+     * {@link TextSource}, so a document snapshot is saved without first
+     * being copied into one String.
+     *
+     * A char the charset cannot hold, e.g. '€' in ISO-8859-1, fails the save
+     * with an UnmappableCharacterException and leaves {@code p} as it was,
+     * rather than writing '?' in its place.
+     */
+    public static void writeText(Path p, CharSequence text, Charset charset, boolean sync) throws IOException {
+        writeText(p, text, new FileEncoding(charset, false), sync);
+    }
+
+    /** As {@link #writeText(Path, CharSequence, Charset, boolean)}, starting with the encoding's byte order mark. */
+    public static void writeText(Path p, CharSequence text, FileEncoding encoding, boolean sync) throws IOException {
+        writeText(p, text, encoding, null, sync);
+    }
+
+    /**
+     * As above, writing every line ending in {@code text} as {@code style}
+     * while it is encoded; a null style writes them as they are.
+     */
+    public static void writeText(Path p, CharSequence text, FileEncoding encoding, LineEndings.Style style,
+                                 boolean sync) throws IOException {
+        if (style == null && IncrementalSave.write(p, text, encoding, sync)) return;
+        Path target = Files.isSymbolicLink(p) ? p.toRealPath() : p;
+        Path tmp;
+        try {
+            tmp = tempFileFor(target);
+        } catch (AccessDeniedException e) {
+            // writing in place truncates first, so nothing may fail halfway
+            if (!isUnicode(encoding.getCharset())) {
+                encode(text, 0, text.length(), encoding.getCharset(), style, null);
+            }
+            try (FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                writeBom(encoding, out);
+                encode(text, 0, text.length(), encoding.getCharset(), style, out);
+                if (sync) out.force(true);
+            }
+            return;
+        }
+        try {
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                writeBom(encoding, out);
+                encode(text, 0, text.length(), encoding.getCharset(), style, out);
+                if (sync) out.force(true);
+            }
+            replace(target, tmp, sync);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /** An empty temp file in the same directory as {@code target}. */
+    static Path tempFileFor(Path target) throws IOException {
+        return Files.createTempFile(target.toAbsolutePath().getParent(), "." + target.getFileName(), ".tmp");
+    }
+
+    /** Moves a written temp file over {@code target}, keeping its permissions. */
+    static void replace(Path target, Path tmp, boolean sync) throws IOException {
+        copyPermissions(target, tmp);
+        try {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        if (sync) syncDirectory(target.toAbsolutePath().getParent());
+    }
+
+    static void writeBom(FileEncoding encoding, FileChannel out) throws IOException {
+        ByteBuffer bom = ByteBuffer.wrap(encoding.getBom());
+        while (bom.hasRemaining()) {
+            out.write(bom);
+        }
+    }
+
+    /** Encodes text[from, to) at the channel's position. */
+    static void encode(CharSequence text, int from, int to, Charset charset, FileChannel out) throws IOException {
+        encode(text, from, to, charset, null, out);
+    }
+
+    // every char has a mapping, so only unpaired surrogates can go wrong
+    private static boolean isUnicode(Charset charset) {
+        return charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.UTF_16)
+            || charset.equals(StandardCharsets.UTF_16LE) || charset.equals(StandardCharsets.UTF_16BE);
+    }
+
+    /**
+     * Encodes text[from, to) with its line endings written as {@code style},
+     * unless null; with a null channel it only checks that the text encodes.
+     */
+    static void encode(CharSequence text, int from, int to, Charset charset, LineEndings.Style style,
+                       FileChannel out) throws IOException {
+        Encoding e = encodings.get();
+        if (e == null || !e.encoder.charset().equals(charset)) {
+            e = new Encoding(charset);
+            encodings.set(e);
+        }
+        e.write(text, from, to, style, out);
+    }
+
+    /**
+     * Creates {@code dir} and any missing parents for files nobody but the
+     * owner may read, such as recovery journals and undo logs. Where the file
+     * system has POSIX permissions the directory ends up rwx------, even if
+     * it existed before; elsewhere it keeps the platform's defaults.
+     */
+    public static void createPrivateDirectories(Path dir) throws IOException {
+        if (isPosix(dir)) {
+            Files.createDirectories(dir, PosixFilePermissions.asFileAttribute(PRIVATE_DIR));
+            Files.setPosixFilePermissions(dir, PRIVATE_DIR);
+        } else {
+            Files.createDirectories(dir);
+        }
+    }
+
+    /**
+     * Opens {@code p} with {@code options}, creating it rw------- where the
+     * file system has POSIX permissions. A file that already existed is
+     * restricted the same way, as it may predate the check.
+     */
+    public static FileChannel openPrivate(Path p, OpenOption... options) throws IOException {
+        if (!isPosix(p)) {
+            return FileChannel.open(p, options);
+        }
+        Set<OpenOption> set = new HashSet<>(Arrays.asList(options));
+        FileChannel ch = FileChannel.open(p, set, PosixFilePermissions.asFileAttribute(PRIVATE_FILE));
+        try {
+            Files.setPosixFilePermissions(p, PRIVATE_FILE);
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+        return ch;
+    }
+
+    private static boolean isPosix(Path p) {
+        return p.getFileSystem().supportedFileAttributeViews().contains("posix");
+    }
+
+    private static void copyPermissions(Path from, Path to) throws IOException {
+        if (!Files.exists(from)) return; // a new file keeps the temp file's defaults
+        PosixFileAttributeView view = Files.getFileAttributeView(from, PosixFileAttributeView.class);
+        if (view != null) {
+            PosixFileAttributes attrs = view.readAttributes();
+            Files.setPosixFilePermissions(to, attrs.permissions());
+        }
+    }
+
+    // makes the rename itself durable; not possible on every platform
+    private static void syncDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // e.g. Windows cannot open a directory as a channel
+        }
+    }
+
+    private static final class Encoding {
+        final CharsetEncoder encoder;
+        final char[] chunk = new char[CHUNK_CHARS];
+        final CharBuffer in = CharBuffer.wrap(chunk);
+        // text before its line endings are converted into chunk
+        final char[] raw = new char[CHUNK_CHARS / 2];
+        // a heap buffer: the encoders only take their array fast path when
+        // both buffers have arrays, which outweighs the channel's copy
+        final ByteBuffer out = ByteBuffer.allocate(WRITE_BYTES);
+
+        Encoding(Charset charset) {
+            // an unpaired surrogate is written as '?'; a char the charset lacks fails the save
+            encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        }
+
+        void write(CharSequence text, int from, int to, LineEndings.Style style, FileChannel channel)
+                throws IOException {
+            encoder.reset();
+            in.clear().limit(0);
+            out.clear();
+            int pos = from;
+            boolean afterCr = false;
+            while (true) {
+                // keep a high surrogate left at the end of the last chunk
+                in.compact();
+                if (style == null) {
+                    int n = Math.min(in.remaining(), to - pos);
+                    copy(text, pos, pos + n, chunk, in.position());
+                    in.position(in.position() + n);
+                    pos += n;
+                } else {
+                    // an ending converts to at most two chars
+                    int n = Math.min(Math.min(raw.length, in.remaining() / 2), to - pos);
+                    copy(text, pos, pos + n, raw, 0);
+                    in.position(style.convert(raw, 0, n, chunk, in.position(), afterCr));
+                    afterCr = n > 0 && raw[n - 1] == '\r';
+                    pos += n;
+                }
+                in.flip();
+                boolean last = pos == to;
+                CoderResult result;
+                while ((result = encoder.encode(in, out, last)).isOverflow()) {
+                    drain(channel);
+                }
+                if (result.isError()) result.throwException();
+                if (last) break;
+            }
+            while (encoder.flush(out).isOverflow()) {
+                drain(channel);
+            }
+            drain(channel);
+        }
+
+        private void drain(FileChannel channel) throws IOException {
+            out.flip();
+            while (channel != null && out.hasRemaining()) {
+                channel.write(out);
+            }
+            out.clear();
+        }
+
+        private static void copy(CharSequence text, int from, int to, char[] dst, int at) {
+            if (text instanceof String) {
+                ((String) text).getChars(from, to, dst, at);
+            } else if (text instanceof TextSource) {
+                ((TextSource) text).getChars(from, to, dst, at);
+            } else {
+                for (int i = from; i < to; i++) {
+                    dst[at++] = text.charAt(i);
+                }
+            }
         }
     }
 }
@@ -0,0 +1,391 @@
+// -----------------------------
+// File: src/editor/utils/HugeTextFile.java
+// -----------------------------
+package editor.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A read-only text file of any size, for the viewer: nothing but a sparse
+ * line index and a few decoded lines are ever held on the heap.
+ *
+ * Opening only sniffs the encoding, so it takes the same time for any
+ * size. {@link #index} then walks the file once, on a background thread,
+ * and keeps the byte offset of every CHECKPOINT_LINES-th line; a line
+ * number is found from the checkpoint before it by counting at most that
+ * many lines. Until the walk has got there, lines are still reachable by
+ * byte offset, just without their number.
+ *
+ * Text is read through read-only mappings of SEGMENT_BYTES each, made as
+ * the view first touches them. Lines longer than MAX_LINE_BYTES are shown
+ * as several rows. Only ASCII-compatible encodings are supported, since
+ * lines are found by looking for '\n' bytes.
+ */
+public final class HugeTextFile implements Closeable {
+    static final long SEGMENT_BYTES = 1L << 30;
+    static final int CHECKPOINT_LINES = 1024;
+    /** Rows are cut after this many bytes so that no line is decoded whole. */
+    public static final int MAX_LINE_BYTES = 16 * 1024;
+    private static final int SCAN_BYTES = 1024 * 1024;
+    private static final int CACHED_LINES = 512;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final long size;
+    private final FileEncoding encoding;
+    private final MappedByteBuffer[] segments;
+    private final CharsetDecoder decoder;
+    private final Map<Long, String> lines = new LinkedHashMap<>(CACHED_LINES, 0.75f, true) {
+        @Override protected boolean removeEldestEntry(Map.Entry<Long, String> eldest) {
+            return size() > CACHED_LINES;
+        }
+    };
+
+    // checkpoints[k] is the byte offset of line k * CHECKPOINT_LINES; written
+    // by the indexing thread before indexedLines/indexedBytes publish it.
+    // indexedLines counts the '\n's in the first indexedBytes.
+    private volatile long[] checkpoints = new long[1024];
+    private volatile long indexedLines;
+    private volatile long indexedBytes;
+    private volatile boolean indexed;
+
+    private HugeTextFile(Path path, FileChannel channel, FileEncoding encoding) throws IOException {
+        this.path = path;
+        this.channel = channel;
+        this.size = channel.size();
+        this.encoding = encoding;
+        this.segments = new MappedByteBuffer[(int) ((size + SEGMENT_BYTES - 1) / SEGMENT_BYTES)];
+        this.decoder = encoding.getCharset().newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.indexedBytes = encoding.getBomLength();
+        this.indexed = indexedBytes >= size;
+        checkpoints[0] = indexedBytes;
+    }
+
+    /** Opens a file for viewing; reads no more than the encoding sample. */
+    public static HugeTextFile open(Path path) throws IOException {
+        FileChannel ch = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer sample = ByteBuffer.allocate(FileEncoding.SAMPLE_BYTES);
+            while (sample.hasRemaining() && ch.read(sample) >= 0) {
+                // fill the sample or reach the end
+            }
+            sample.flip();
+            FileEncoding encoding = FileEncoding.detect(sample, sample.limit() == ch.size());
+            if (!encoding.isAsciiCompatible()) {
+                throw new IOException("The viewer cannot show " + encoding.getName() + " text: " + path);
+            }
+            return new HugeTextFile(path, ch, encoding);
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    public Path getPath() { return path; }
+    public FileEncoding getEncoding() { return encoding; }
+    /** Size in bytes. */
+    public long size() { return size; }
+    /** Offset of the first text byte, after the byte order mark. */
+    public long textStart() { return encoding.getBomLength(); }
+    public boolean isIndexed() { return indexed; }
+    public long getIndexedBytes() { return indexedBytes; }
+
+    // --- indexing -------------------------------------------------------
+
+    /**
+     * Builds the line index, reporting the bytes indexed so far after each
+     * chunk. Run once, off the EDT; an interrupt stops it with an
+     * InterruptedIOException and leaves what was indexed usable.
+     */
+    public void index(LongConsumer progress) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocateDirect(SCAN_BYTES);
+        byte[] chunk = new byte[SCAN_BYTES];
+        long pos = indexedBytes;
+        long line = 0;
+        long[] marks = checkpoints;
+        while (pos < size) {
+            buf.clear();
+            int n = channel.read(buf, pos);
+            if (n <= 0) break;
+            buf.flip();
+            buf.get(chunk, 0, n);
+            for (int i = 0; i < n; i++) {
+                if (chunk[i] == '\n') {
+                    line++;
+                    if (line % CHECKPOINT_LINES == 0) {
+                        int k = (int) (line / CHECKPOINT_LINES);
+                        if (k == marks.length) {
+                            marks = Arrays.copyOf(marks, marks.length * 2);
+                            checkpoints = marks;
+                        }
+                        marks[k] = pos + i + 1;
+                    }
+                }
+            }
+            pos += n;
+            indexedLines = line;
+            indexedBytes = pos;
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Indexing cancelled: " + path);
+            }
+            if (progress != null) progress.accept(pos);
+        }
+        indexed = true;
+    }
+
+    /**
+     * The number of lines: exact once indexed, before that extrapolated
+     * from the part indexed so far.
+     */
+    public long lineCount() {
+        long done = indexedBytes - textStart();
+        // the text after the last '\n' is a line too, even when empty
+        long lines = indexedLines + 1;
+        if (indexed) return lines;
+        if (done <= 0) return Math.max(1, (size - textStart()) / 80);
+        return Math.max(lines, (long) (lines * ((double) (size - textStart()) / done)));
+    }
+
+    /** Byte offset where a 0-based line starts, or -1 if it is not indexed yet. */
+    public long lineStart(long line) {
+        if (line < 0 || line > indexedLines) return -1;
+        long[] marks = checkpoints;
+        long pos = marks[(int) (line / CHECKPOINT_LINES)];
+        for (long k = line % CHECKPOINT_LINES; k > 0; k--) {
+            pos = nextNewline(pos, size) + 1;
+        }
+        return pos;
+    }
+
+    /** The 0-based line holding byte {@code offset}, or -1 if not indexed that far. */
+    public long lineOf(long offset) {
+        if (offset > indexedBytes) return -1;
+        int count = (int) (indexedLines / CHECKPOINT_LINES) + 1;
+        long[] marks = checkpoints;
+        int k = Arrays.binarySearch(marks, 0, count, offset);
+        if (k < 0) k = -k - 2;
+        long line = (long) k * CHECKPOINT_LINES;
+        long pos = marks[k];
+        while (true) {
+            long nl = nextNewline(pos, offset);
+            if (nl >= offset) return line;
+            line++;
+            pos = nl + 1;
+        }
+    }
+
+    // --- rows -----------------------------------------------------------
+
+    /** Start of the row after the one starting at {@code start}; size() at the end. */
+    public long nextRow(long start) {
+        long cut = cutAfter(start);
+        long nl = nextNewline(start, cut);
+        return nl < cut ? nl + 1 : cut;
+    }
+
+    /** Start of the row holding byte {@code offset}. */
+    public long rowStart(long offset) {
+        long pos = Math.max(textStart(), Math.min(offset, size));
+        long from = Math.max(textStart(), cutBefore(pos));
+        for (long p = pos - 1; p >= from; p--) {
+            if (byteAt(p) == '\n') return p + 1;
+        }
+        return from;
+    }
+
+    // Long lines are cut into rows near every multiple of MAX_LINE_BYTES,
+    // backed up to a char boundary, so rows can be found from either side
+    private long cutAfter(long start) {
+        for (long cut = (start / MAX_LINE_BYTES + 1) * MAX_LINE_BYTES; ; cut += MAX_LINE_BYTES) {
+            if (cut >= size) return size;
+            long b = charBoundary(cut);
+            if (b > start) return b;
+        }
+    }
+
+    private long cutBefore(long pos) {
+        long cut = pos / MAX_LINE_BYTES * MAX_LINE_BYTES;
+        if (cut >= size) cut = Math.max(0, cut - MAX_LINE_BYTES); // the end of the file is not a cut
+        long next = cut + MAX_LINE_BYTES;
+        if (next < size && charBoundary(next) <= pos) return charBoundary(next);
+        return cut == 0 ? 0 : charBoundary(cut);
+    }
+
+    /** Start of the row before the one starting at {@code start}. */
+    public long previousRow(long start) {
+        return start <= textStart() ? textStart() : rowStart(start - 1);
+    }
+
+    /** The decoded text of the row starting at {@code start}, without its line ending. */
+    public synchronized String row(long start) {
+        String text = lines.get(start);
+        if (text == null) {
+            long end = nextRow(start);
+            int n = (int) (end - start);
+            if (n > 0 && byteAt(end - 1) == '\n') n--;
+            if (n > 0 && byteAt(start + n - 1) == '\r') n--;
+            byte[] bytes = new byte[n];
+            read(start, bytes, 0, n);
+            char[] chars = new char[n];
+            CharBuffer out = CharBuffer.wrap(chars);
+            decoder.reset();
+            decoder.decode(ByteBuffer.wrap(bytes), out, true);
+            decoder.flush(out);
+            text = new String(chars, 0, out.position());
+            lines.put(start, text);
+        }
+        return text;
+    }
+
+    /** True if a row starting at {@code offset} is the start of a line, not the rest of a long one. */
+    public boolean startsLine(long offset) {
+        return offset <= textStart() || byteAt(offset - 1) == '\n';
+    }
+
+    /** Number of chars bytes [from, to) of one row decode to. */
+    public synchronized int charsBetween(long from, long to) {
+        int n = (int) (to - from);
+        byte[] bytes = new byte[n];
+        read(from, bytes, 0, n);
+        char[] chars = new char[n];
+        CharBuffer out = CharBuffer.wrap(chars);
+        decoder.reset();
+        decoder.decode(ByteBuffer.wrap(bytes), out, true);
+        decoder.flush(out);
+        return out.position();
+    }
+
+    // --- search ---------------------------------------------------------
+
+    /**
+     * The byte range {start, end} of the first match of {@code pattern} in
+     * bytes [from, limit), or null. The bytes are read and decoded a chunk
+     * of whole lines at a time, so a match cannot span two chunks; the
+     * search stops with an InterruptedIOException when interrupted.
+     */
+    public long[] find(Pattern pattern, long from, long limit) throws IOException {
+        CharsetDecoder chunkDecoder = encoding.getCharset().newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer buf = ByteBuffer.allocate(SCAN_BYTES);
+        byte[] bytes = buf.array();
+        char[] chars = new char[SCAN_BYTES];
+        long pos = Math.max(textStart(), from);
+        while (pos < limit) {
+            buf.clear().limit((int) Math.min(SCAN_BYTES, limit - pos));
+            int n = channel.read(buf, pos);
+            if (n <= 0) break;
+            int end = n;
+            if (pos + n < limit) {
+                // end the chunk after its last line, or at least on a whole char
+                int nl = n - 1;
+                while (nl >= 0 && bytes[nl] != '\n') nl--;
+                if (nl >= 0) {
+                    end = nl + 1;
+                } else {
+                    // back up to before the lead byte of a char the read cut in two
+                    int lead = n - 1;
+                    while (lead > n - 4 && lead > 0 && (bytes[lead] & 0xC0) == 0x80) lead--;
+                    int b = bytes[lead] & 0xFF;
+                    int length = b >= 0xF0 ? 4 : b >= 0xE0 ? 3 : b >= 0xC0 ? 2 : 1;
+                    if (lead > 0 && lead + length > n) end = lead;
+                }
+            }
+            CharBuffer out = CharBuffer.wrap(chars);
+            chunkDecoder.reset();
+            chunkDecoder.decode(ByteBuffer.wrap(bytes, 0, end), out, true);
+            chunkDecoder.flush(out);
+            Matcher m = pattern.matcher(CharBuffer.wrap(chars, 0, out.position()));
+            if (m.find()) {
+                long start = pos + encodedLength(chars, 0, m.start());
+                return new long[] {start, start + encodedLength(chars, m.start(), m.end())};
+            }
+            pos += end;
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Search cancelled: " + path);
+            }
+        }
+        return null;
+    }
+
+    private long encodedLength(char[] chars, int from, int to) {
+        return encoding.fixedWidth() == 1 ? to - from : MappedTextFile.utf8Length(chars, from, to);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // --- bytes ----------------------------------------------------------
+
+    private long nextNewline(long from, long limit) {
+        long pos = from;
+        while (pos < limit) {
+            ByteBuffer seg = segment(pos);
+            int at = (int) (pos % SEGMENT_BYTES);
+            int end = (int) Math.min(seg.capacity(), at + (limit - pos));
+            for (int i = at; i < end; i++) {
+                if (seg.get(i) == '\n') return pos + (i - at);
+            }
+            pos += end - at;
+        }
+        return limit;
+    }
+
+    private byte byteAt(long pos) {
+        return segment(pos).get((int) (pos % SEGMENT_BYTES));
+    }
+
+    // backs up over UTF-8 continuation bytes so a cut row ends on a whole char
+    private long charBoundary(long pos) {
+        long p = pos;
+        while (p > pos - 3 && (byteAt(p) & 0xC0) == 0x80) p--;
+        return p;
+    }
+
+    private void read(long pos, byte[] dst, int off, int len) {
+        while (len > 0) {
+            ByteBuffer seg = segment(pos);
+            int at = (int) (pos % SEGMENT_BYTES);
+            int n = Math.min(len, seg.capacity() - at);
+            seg.get(at, dst, off, n);
+            pos += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    private synchronized MappedByteBuffer segment(long pos) {
+        int s = (int) (pos / SEGMENT_BYTES);
+        MappedByteBuffer seg = segments[s];
+        if (seg == null) {
+            long start = s * SEGMENT_BYTES;
+            try {
+                seg = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_BYTES, size - start));
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot map " + path, e);
+            }
+            segments[s] = seg;
+        }
+        return seg;
+    }
+}
@@ -0,0 +1,245 @@
+// -----------------------------
+// File: src/editor/utils/IncrementalSave.java
+// -----------------------------
+package editor.utils;
+
+import editor.text.PieceTableContent;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Saves a document back to the large file it was mapped from without
+ * re-encoding all of it.
+ *
+ * The snapshot's pieces tell which parts are still the original text, and
+ * {@link MappedTextFile} maps them to byte ranges of the file. When the
+ * original parts would land at the bytes they already occupy, as after
+ * edits that keep the length of what follows them, only the other bytes
+ * are written, in place, and the file is truncated or extended at the end;
+ * the pages under the overwritten bytes are decoded and kept first, so the
+ * document, its undo history and older snapshots still read the old text.
+ * Otherwise the file is rebuilt in a temp file, copying the original parts
+ * with FileChannel.transferTo from the still open original and encoding
+ * only the rest, and swapped in as in {@link FileUtils#writeText}.
+ *
+ * An in-place save is not atomic, so it is only used while it writes at
+ * most {@link #IN_PLACE_BYTES}.
+ */
+final class IncrementalSave {
+    static final long IN_PLACE_BYTES = 32L * 1024 * 1024;
+
+    // one run of the new file: snapshot chars [from, to) at newStart, and
+    // for original text the bytes [byteStart, byteEnd) of the mapped file
+    private static final class Run {
+        final int from;
+        final int to;
+        final long newStart;
+        final long byteStart;
+        final long byteEnd;
+
+        Run(int from, int to, long newStart, long byteStart, long byteEnd) {
+            this.from = from;
+            this.to = to;
+            this.newStart = newStart;
+            this.byteStart = byteStart;
+            this.byteEnd = byteEnd;
+        }
+
+        boolean isOriginal() {
+            return byteStart >= 0;
+        }
+    }
+
+    private IncrementalSave() {
+    }
+
+    /**
+     * Saves {@code text} if it is a snapshot over a mapped copy of
+     * {@code p}; false if it has to be written out in full instead.
+     */
+    static boolean write(Path p, CharSequence text, FileEncoding encoding, boolean sync) throws IOException {
+        if (!StandardCharsets.UTF_8.equals(encoding.getCharset())) {
+            return false;
+        }
+        CharSequence source = PieceTableContent.originalOf(text);
+        if (!(source instanceof MappedTextFile)) {
+            return false;
+        }
+        MappedTextFile original = (MappedTextFile) source;
+        // the byte order mark stays where it is, so it must be the one being saved
+        if (!original.getEncoding().equals(encoding) || !original.channel().isOpen() || !Files.exists(p)
+                || !Files.isSameFile(original.getPath(), p)) {
+            return false;
+        }
+        Run[] runs = layout(text, original, encoding.getBomLength());
+        if (runs == null) {
+            return false;
+        }
+        if (original.isOnDisk(p) && writeInPlace(p, text, original, runs, sync)) {
+            return true;
+        }
+        return writeCopy(p, text, original, runs, sync);
+    }
+
+    // the new file as runs of original and other text; null if a run edge cannot be mapped to bytes
+    private static Run[] layout(CharSequence text, MappedTextFile original, int bom) {
+        int[] pieces = PieceTableContent.originalRuns(text);
+        Run[] runs = new Run[pieces.length / 3 * 2 + 1];
+        int n = 0;
+        int pos = 0;
+        long bytes = bom;
+        for (int i = 0; i < pieces.length; i += 3) {
+            int at = pieces[i];
+            int start = pieces[i + 1];
+            int length = pieces[i + 2];
+            if (at > pos) {
+                runs[n++] = new Run(pos, at, bytes, -1, -1);
+                bytes += utf8Length(text, pos, at);
+            }
+            long byteStart = original.byteOffset(start);
+            long byteEnd = original.byteOffset(start + length);
+            if (byteStart < 0 || byteEnd < 0) {
+                return null;
+            }
+            runs[n++] = new Run(at, at + length, bytes, byteStart, byteEnd);
+            bytes += byteEnd - byteStart;
+            pos = at + length;
+        }
+        if (pos < text.length()) {
+            runs[n++] = new Run(pos, text.length(), bytes, -1, -1);
+        }
+        Run[] out = new Run[n];
+        for (int i = 0; i < n; i++) {
+            out[i] = runs[i];
+            // each run is encoded on its own, so none may split a surrogate pair
+            int edge = runs[i].from;
+            if (edge > 0 && Character.isHighSurrogate(text.charAt(edge - 1)) && Character.isLowSurrogate(text.charAt(edge))) {
+                return null;
+            }
+        }
+        return out;
+    }
+
+    private static long end(Run[] runs, CharSequence text, int bom) {
+        if (runs.length == 0) {
+            return bom;
+        }
+        Run last = runs[runs.length - 1];
+        return last.newStart + (last.isOriginal() ? last.byteEnd - last.byteStart : utf8Length(text, last.from, last.to));
+    }
+
+    // Writes the runs that are not already in place; false, having written
+    // nothing, if that is more than IN_PLACE_BYTES or cannot be done exactly
+    private static boolean writeInPlace(Path p, CharSequence text, MappedTextFile original, Run[] runs,
+                                        boolean sync) throws IOException {
+        long oldSize = Files.size(p);
+        long newSize = end(runs, text, original.getEncoding().getBomLength());
+        boolean[] keep = new boolean[runs.length];
+        long[] lengths = new long[runs.length];
+        long written = Math.max(0, oldSize - newSize);
+        for (int i = 0; i < runs.length; i++) {
+            Run r = runs[i];
+            keep[i] = r.isOriginal() && r.newStart == r.byteStart && original.isUnchanged(r.byteStart, r.byteEnd);
+            if (!keep[i]) {
+                lengths[i] = r.isOriginal() ? r.byteEnd - r.byteStart : utf8Length(text, r.from, r.to);
+                written += lengths[i];
+                if (written > IN_PLACE_BYTES) {
+                    return false;
+                }
+                // original text re-encodes to its own bytes only where the file was well-formed
+                if (r.isOriginal() && utf8Length(text, r.from, r.to) != lengths[i]) {
+                    return false;
+                }
+            }
+        }
+        // from here on the file may differ from the mapping wherever it is written
+        for (int i = 0; i < runs.length; i++) {
+            if (!keep[i]) {
+                original.overwriting(runs[i].newStart, runs[i].newStart + lengths[i]);
+            }
+        }
+        original.overwriting(newSize, oldSize);
+        try (FileChannel out = FileChannel.open(p, StandardOpenOption.WRITE)) {
+            for (int i = 0; i < runs.length; i++) {
+                if (!keep[i]) {
+                    out.position(runs[i].newStart);
+                    FileUtils.encode(text, runs[i].from, runs[i].to, StandardCharsets.UTF_8, out);
+                }
+            }
+            if (newSize < oldSize) {
+                out.truncate(newSize);
+            }
+            if (sync) out.force(true);
+        } catch (IOException | RuntimeException e) {
+            original.savedInPlace(-1, 0); // the file is in an unknown state
+            throw e;
+        }
+        original.savedInPlace(newSize, Files.getLastModifiedTime(p).toMillis());
+        return true;
+    }
+
+    // Rebuilds the file in a temp file, copying unchanged bytes from the original
+    private static boolean writeCopy(Path p, CharSequence text, MappedTextFile original, Run[] runs,
+                                     boolean sync) throws IOException {
+        Path target = Files.isSymbolicLink(p) ? p.toRealPath() : p;
+        Path tmp;
+        try {
+            tmp = FileUtils.tempFileFor(target);
+        } catch (AccessDeniedException e) {
+            return false;
+        }
+        try {
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                FileUtils.writeBom(original.getEncoding(), out);
+                FileChannel in = original.channel();
+                for (Run r : runs) {
+                    if (r.isOriginal() && original.isUnchanged(r.byteStart, r.byteEnd)) {
+                        transfer(in, r.byteStart, r.byteEnd - r.byteStart, out);
+                    } else {
+                        FileUtils.encode(text, r.from, r.to, StandardCharsets.UTF_8, out);
+                    }
+                }
+                if (sync) out.force(true);
+            }
+            FileUtils.replace(target, tmp, sync);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return true;
+    }
+
+    private static void transfer(FileChannel in, long position, long count, FileChannel out) throws IOException {
+        while (count > 0) {
+            long n = in.transferTo(position, count, out);
+            if (n <= 0) {
+                throw new IOException("File changed while saving");
+            }
+            position += n;
+            count -= n;
+        }
+    }
+
+    // UTF-8 length as the save's encoder writes it: an unpaired surrogate becomes '?'
+    private static long utf8Length(CharSequence text, int from, int to) {
+        long n = 0;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                n++;
+            } else if (c < 0x800) {
+                n += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(text.charAt(i + 1))) {
+                n += 4;
+                i++;
+            } else {
+                n += Character.isSurrogate(c) ? 1 : 3;
+            }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,479 @@
+// -----------------------------
+// File: src/editor/utils/MappedTextFile.java
+// -----------------------------
+package editor.utils;
+
+import editor.text.LineEndings;
+import editor.text.TextSource;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntConsumer;
+
+/**
+ * A text file mapped with FileChannel.map and decoded page by page on demand.
+ *
+ * Opening only walks the bytes once to find page boundaries, the char
+ * offset of every page and the line endings; ASCII pages of an ASCII-compatible encoding are
+ * counted without decoding. Pages never split a char, and start after the
+ * byte order mark. Decoded pages are kept in a small LRU, so heap use does
+ * not grow with file size.
+ *
+ * The file stays open so that saving can copy unchanged spans straight from
+ * it. When a save overwrites parts of the file in place, the pages under
+ * them are decoded first and pinned, and the overwritten byte ranges are
+ * remembered, so the text seen through this object never changes.
+ */
+public class MappedTextFile implements TextSource {
+    static final int PAGE_BYTES = 64 * 1024;
+    private static final int CACHED_PAGES = 64;
+
+    private static final VarHandle LONGS =
+        MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final Path path;
+    private final FileEncoding encoding;
+    private final MappedByteBuffer bytes;
+    private final FileChannel channel;
+    private final Object fileKey;
+    private final int[] pageByteStart;   // pageCount + 1 entries
+    private final int[] pageCharStart;   // pageCount + 1 entries
+    private final boolean[] asciiPage;
+    private final int length;
+    private final LineEndings lineEndings = new LineEndings();
+    private final CharsetDecoder decoder;
+    private final Map<Integer, char[]> pages = new LinkedHashMap<>(CACHED_PAGES, 0.75f, true) {
+        @Override protected boolean removeEldestEntry(Map.Entry<Integer, char[]> eldest) {
+            return size() > CACHED_PAGES;
+        }
+    };
+    private int lastPage = -1;
+    private char[] lastChars;
+    // pages overwritten on disk, decoded before they were
+    private final Map<Integer, char[]> pinned = new HashMap<>();
+    private final byte[] exactPage;             // 0 unknown, 1 re-encodes to its bytes, 2 not
+    private final TreeMap<Long, Long> dirty = new TreeMap<>(); // overwritten byte ranges
+    // what the file on disk looked like after opening or the last in-place save
+    private long diskSize;
+    private long diskModified;
+
+    private MappedTextFile(Path path, FileEncoding encoding, MappedByteBuffer bytes, FileChannel channel,
+                           BasicFileAttributes attrs) throws IOException {
+        this.path = path;
+        this.encoding = encoding;
+        // every page that is not ASCII is decoded below, so bad input shows up now
+        this.decoder = encoding.getCharset().newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+        this.bytes = bytes;
+        this.channel = channel;
+        this.fileKey = attrs.fileKey();
+        this.diskSize = attrs.size();
+        this.diskModified = attrs.lastModifiedTime().toMillis();
+        int size = bytes.capacity();
+        int estimate = size / PAGE_BYTES + 2;
+        int[] byteStarts = new int[estimate];
+        int[] charStarts = new int[estimate];
+        boolean[] ascii = new boolean[estimate];
+        byte[] chunk = new byte[PAGE_BYTES];
+        char[] scratch = new char[PAGE_BYTES];
+        boolean asciiCompatible = encoding.isAsciiCompatible();
+        int pages = 0;
+        int chars = 0;
+        int pos = Math.min(size, encoding.getBomLength());
+        while (pos < size) {
+            int end = pageEnd(pos, size);
+            int n = end - pos;
+            bytes.get(pos, chunk, 0, n);
+            boolean pageAscii = asciiCompatible && isAscii(chunk, n);
+            if (asciiCompatible) {
+                lineEndings.count(chunk, 0, n);
+            }
+            byteStarts[pages] = pos;
+            charStarts[pages] = chars;
+            ascii[pages] = pageAscii;
+            long pageChars = pageAscii ? end - pos : decodeInto(pos, end, scratch);
+            if (!asciiCompatible) {
+                // other encodings are counted as decoded chars
+                lineEndings.count(scratch, 0, (int) pageChars);
+            }
+            if (chars + pageChars > Integer.MAX_VALUE - 8) {
+                throw new IOException("File too large to edit: " + path);
+            }
+            chars += (int) pageChars;
+            pages++;
+            pos = end;
+        }
+        byteStarts[pages] = size;
+        charStarts[pages] = chars;
+        this.pageByteStart = Arrays.copyOf(byteStarts, pages + 1);
+        this.pageCharStart = Arrays.copyOf(charStarts, pages + 1);
+        this.asciiPage = Arrays.copyOf(ascii, pages);
+        this.exactPage = new byte[pages];
+        this.length = chars;
+        lineEndings.finish();
+    }
+
+    // Checks eight bytes at a time for a set high bit
+    private static boolean isAscii(byte[] chunk, int n) {
+        long bits = 0;
+        int i = 0;
+        for (; i + 8 <= n; i += 8) {
+            bits |= (long) LONGS.get(chunk, i);
+        }
+        for (; i < n; i++) {
+            bits |= chunk[i];
+        }
+        return (bits & 0x8080808080808080L) == 0;
+    }
+
+    /**
+     * Maps a file read-only and indexes its pages. A file that turns out
+     * not to be in the encoding its start suggested is mapped as
+     * ISO-8859-1 instead, so saving it writes every byte back unchanged.
+     */
+    public static MappedTextFile open(Path path) throws IOException {
+        FileChannel ch = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            long size = ch.size();
+            if (size > Integer.MAX_VALUE - 8) {
+                throw new IOException("File too large to edit: " + path);
+            }
+            MappedByteBuffer bytes = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            // sniff the encoding from the mapping rather than reading the start twice
+            int sample = (int) Math.min(size, FileEncoding.SAMPLE_BYTES);
+            FileEncoding encoding = FileEncoding.detect(bytes.slice(0, sample), sample == size);
+            MappedTextFile file;
+            try {
+                file = new MappedTextFile(path, encoding, bytes, ch, attrs);
+            } catch (CharacterCodingException e) {
+                file = new MappedTextFile(path, FileEncoding.ISO_8859_1, bytes, ch, attrs);
+            }
+            // the channel only serves saves; close it with the text
+            CLEANER.register(file, () -> {
+                try {
+                    ch.close();
+                } catch (IOException e) {
+                    // nothing to do
+                }
+            });
+            return file;
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    // Ends a page on a char boundary so no sequence straddles two pages
+    private int pageEnd(int pos, int size) {
+        int end = Math.min(size, pos + PAGE_BYTES);
+        if (end == size) return end;
+        int width = encoding.fixedWidth();
+        if (width == 1) {
+            return end;
+        }
+        if (width == 2) {
+            // whole code units, and never between the halves of a surrogate pair
+            boolean bigEndian = encoding.getCharset().equals(StandardCharsets.UTF_16BE);
+            end -= (end - pos) % 2;
+            int high = bytes.get(bigEndian ? end - 2 : end - 1) & 0xFC;
+            return high == 0xD8 && end - pos > 2 ? end - 2 : end;
+        }
+        int limit = Math.max(pos + 1, end - 3);
+        while (end > limit && (bytes.get(end) & 0xC0) == 0x80) end--;
+        return end;
+    }
+
+    // No supported charset yields more chars than bytes, so dst.length >= to - from is enough
+    private synchronized int decodeInto(int from, int to, char[] dst) throws CharacterCodingException {
+        ByteBuffer in = bytes.slice(from, to - from);
+        CharBuffer out = CharBuffer.wrap(dst);
+        decoder.reset();
+        CoderResult result = decoder.decode(in, out, true);
+        if (result.isError()) result.throwException();
+        decoder.flush(out);
+        return out.position();
+    }
+
+    // pages were all decoded once while indexing, so they decode again
+    private int decodePage(int from, int to, char[] dst) {
+        try {
+            return decodeInto(from, to, dst);
+        } catch (CharacterCodingException e) {
+            throw new IllegalStateException("Mapped bytes changed: " + path, e);
+        }
+    }
+
+    private synchronized char[] page(int index) {
+        if (index == lastPage) {
+            return lastChars;
+        }
+        char[] chars = pinned.get(index);
+        if (chars == null) {
+            chars = pages.get(index);
+        }
+        if (chars == null) {
+            int from = pageByteStart[index];
+            int to = pageByteStart[index + 1];
+            if (asciiPage[index]) {
+                chars = new char[to - from];
+                for (int i = 0; i < chars.length; i++) chars[i] = (char) bytes.get(from + i);
+            } else {
+                chars = new char[to - from];
+                int n = decodePage(from, to, chars);
+                if (n < chars.length) chars = Arrays.copyOf(chars, n);
+            }
+            if (!pinned.containsKey(index)) {
+                pages.put(index, chars);
+            }
+        }
+        lastPage = index;
+        lastChars = chars;
+        return chars;
+    }
+
+    private int pageOf(int offset) {
+        // every page decodes to at least one char, so page starts are distinct
+        int i = Arrays.binarySearch(pageCharStart, offset);
+        return i < 0 ? -i - 2 : i;
+    }
+
+    public Path getPath() { return path; }
+    public FileEncoding getEncoding() { return encoding; }
+    public boolean hasCrLf() { return lineEndings.getCrLfCount() > 0; }
+    public boolean hasLf() { return lineEndings.getLfCount() + lineEndings.getCrLfCount() > 0; }
+    /** The line endings counted while indexing; the text keeps them as they are. */
+    public LineEndings getLineEndings() { return lineEndings; }
+
+    // --- saving ---------------------------------------------------------
+
+    /** The open file the text was mapped from, for copying unchanged spans. */
+    FileChannel channel() {
+        return channel;
+    }
+
+    /** Size of the mapped bytes. */
+    long byteSize() {
+        return bytes.capacity();
+    }
+
+    /**
+     * Byte offset in the file of the char at {@code offset}, or -1 if the
+     * page holding it does not re-encode to its own bytes (malformed input)
+     * or the offset falls inside a surrogate pair.
+     */
+    synchronized long byteOffset(int offset) {
+        int last = asciiPage.length;
+        if (offset == length) {
+            return pageByteStart[last];
+        }
+        int p = pageOf(offset);
+        int k = offset - pageCharStart[p];
+        if (asciiPage[p]) {
+            return pageByteStart[p] + k;
+        }
+        if (!isExact(p)) {
+            return -1;
+        }
+        char[] chars = page(p);
+        if (k > 0 && Character.isHighSurrogate(chars[k - 1]) && Character.isLowSurrogate(chars[k])) {
+            return -1;
+        }
+        return pageByteStart[p] + utf8Length(chars, 0, k);
+    }
+
+    private boolean isExact(int p) {
+        if (exactPage[p] == 0) {
+            char[] chars = page(p);
+            int from = pageByteStart[p];
+            int to = pageByteStart[p + 1];
+            boolean exact = utf8Length(chars, 0, chars.length) == to - from;
+            if (exact) {
+                CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+                try {
+                    exact = encoder.encode(CharBuffer.wrap(chars)).equals(bytes.slice(from, to - from));
+                } catch (IOException e) {
+                    exact = false;
+                }
+            }
+            exactPage[p] = (byte) (exact ? 1 : 2);
+        }
+        return exactPage[p] == 1;
+    }
+
+    /** UTF-8 length of chars[from, to); an unpaired surrogate encodes as '?'. */
+    static long utf8Length(char[] chars, int from, int to) {
+        long n = 0;
+        for (int i = from; i < to; i++) {
+            char c = chars[i];
+            if (c < 0x80) {
+                n++;
+            } else if (c < 0x800) {
+                n += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(chars[i + 1])) {
+                n += 4;
+                i++;
+            } else {
+                n += Character.isSurrogate(c) ? 1 : 3;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Decodes and keeps the pages over bytes [from, to) before a save
+     * overwrites them, and marks the range as no longer matching the file.
+     */
+    synchronized void overwriting(long from, long to) {
+        long end = Math.min(to, byteSize());
+        if (from >= end) {
+            return;
+        }
+        int first = pageAt(from);
+        int last = pageAt(end - 1);
+        for (int p = first; p <= last; p++) {
+            if (!pinned.containsKey(p)) {
+                if (!asciiPage[p]) {
+                    isExact(p); // needs the bytes as they are now
+                }
+                pinned.put(p, page(p));
+                pages.remove(p);
+            }
+        }
+        Map.Entry<Long, Long> before = dirty.floorEntry(from);
+        long start = from;
+        if (before != null && before.getValue() >= from) {
+            start = before.getKey();
+            end = Math.max(end, before.getValue());
+        }
+        // absorb the ranges this one reaches
+        for (Map.Entry<Long, Long> e = dirty.ceilingEntry(start); e != null && e.getKey() <= end;
+             e = dirty.ceilingEntry(start)) {
+            end = Math.max(end, e.getValue());
+            dirty.remove(e.getKey());
+        }
+        dirty.put(start, end);
+    }
+
+    private int pageAt(long byteOffset) {
+        int i = Arrays.binarySearch(pageByteStart, (int) byteOffset);
+        return i < 0 ? -i - 2 : i;
+    }
+
+    /** True if the file still holds the mapped bytes [from, to). */
+    synchronized boolean isUnchanged(long from, long to) {
+        Map.Entry<Long, Long> e = dirty.lowerEntry(to);
+        return e == null || e.getValue() <= from;
+    }
+
+    /** True if {@code file} is still the file mapped here, as last saved by us. */
+    synchronized boolean isOnDisk(Path file) throws IOException {
+        if (fileKey == null || diskSize < 0) {
+            return false;
+        }
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        return fileKey.equals(attrs.fileKey()) && attrs.size() == diskSize
+            && attrs.lastModifiedTime().toMillis() == diskModified;
+    }
+
+    /** Records the file after an in-place save; a negative size means it is unknown. */
+    synchronized void savedInPlace(long size, long modified) {
+        diskSize = size;
+        diskModified = modified;
+    }
+
+    // --- TextSource -----------------------------------------------------
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        int p = pageOf(index);
+        return page(p)[index - pageCharStart[p]];
+    }
+
+    @Override
+    public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+        if (srcBegin < 0 || srcEnd > length || srcBegin > srcEnd) {
+            throw new IndexOutOfBoundsException("[" + srcBegin + ", " + srcEnd + ")");
+        }
+        int pos = srcBegin;
+        int d = dstBegin;
+        while (pos < srcEnd) {
+            int p = pageOf(pos);
+            char[] chars = page(p);
+            int k = pos - pageCharStart[p];
+            int n = Math.min(srcEnd - pos, chars.length - k);
+            System.arraycopy(chars, k, dst, d, n);
+            pos += n;
+            d += n;
+        }
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        char[] chars = new char[end - start];
+        getChars(start, end, chars, 0);
+        return CharBuffer.wrap(chars);
+    }
+
+    @Override
+    public void forEachLineStart(IntConsumer action) {
+        // '\n' never occurs inside a UTF-8 sequence, so scan bytes and only
+        // count chars on the non-ASCII pages
+        byte[] chunk = new byte[PAGE_BYTES];
+        char[] scratch = new char[PAGE_BYTES];
+        for (int p = 0; p < asciiPage.length; p++) {
+            int from = pageByteStart[p];
+            int to = pageByteStart[p + 1];
+            int charBase = pageCharStart[p];
+            if (asciiPage[p]) {
+                bytes.get(from, chunk, 0, to - from);
+                for (int i = 0; i < to - from; i++) {
+                    if (chunk[i] == '\n') action.accept(charBase + i + 1);
+                }
+            } else {
+                int n = decodePage(from, to, scratch);
+                for (int i = 0; i < n; i++) {
+                    if (scratch[i] == '\n') action.accept(charBase + i + 1);
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        char[] chars = new char[length];
+        getChars(0, length, chars, 0);
+        return new String(chars);
+    }
+}
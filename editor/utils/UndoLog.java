@@ -0,0 +1,798 @@
+// -----------------------------
+// File: src/editor/utils/UndoLog.java
+// -----------------------------
+package editor.utils;
+
+import editor.text.PieceTableDocument;
+import editor.text.TextSource;
+import editor.text.UndoHistory;
+import javax.swing.SwingUtilities;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import javax.swing.undo.UndoableEdit;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Keeps the undo history of a file on disk, so closing it and opening it
+ * again brings undo and redo back.
+ *
+ * Each step of the {@link UndoHistory} is appended to a log named after
+ * the file's path as the edits that make it up, each with the text it
+ * inserted or removed, in UTF-8. The appending happens in the background,
+ * one task at a time for all logs, on the shared {@link BackgroundIO}
+ * pool. A save writes an index at the end of the log: the saved file's
+ * size and modification time, how many steps were done, and where each
+ * step's records start and end; the header points at the latest index.
+ *
+ * Opening a file reads only the header and the index, and only if the
+ * file still has the size and time it was saved with, so neither a save
+ * nor an open reads the file again. The history is filled with
+ * placeholders, and a step's records are read and decoded when it is
+ * undone or redone, so opening costs the same however long the history.
+ * Text a restored step removes must match the document, which catches a
+ * file rewritten with the same size and time before anything is lost.
+ * Records left behind by edits that were never saved are garbage and are
+ * dropped when the log is compacted on a later save.
+ *
+ * A file's log is owned through an exclusive lock on a ".lock" file next
+ * to it, as the log itself is replaced when compacted. An editor that
+ * cannot take the lock, because another editor has the file open, keeps
+ * its history in memory only.
+ */
+public final class UndoLog {
+    private static final int MAGIC = 0x554E444F; // "UNDO"
+    private static final int VERSION = 2;
+    private static final String SUFFIX = ".undo";
+    private static final String UNSAVED = "unsaved-";
+    private static final String LOCK = ".lock";
+    private static final int HEADER = 16;
+    private static final byte INSERT = 1;
+    private static final byte REMOVE = 2;
+    private static final byte INDEX = 3;
+    // type, offset, chars, bytes
+    private static final int RECORD_HEADER = 13;
+    private static final int INDEX_HEADER = 25;
+    private static final int COPY_CHARS = 64 * 1024;
+    private static final long COMPACT_BYTES = 4 * 1024 * 1024;
+    private static final AtomicInteger sessions = new AtomicInteger();
+    // every log is written one task at a time, in the order things happened
+    private static final ExecutorService WRITER = BackgroundIO.serial();
+    // directories already cleared of abandoned logs by this process
+    private static final Set<Path> swept = ConcurrentHashMap.newKeySet();
+
+    private final Path directory;
+    private Session session;
+    private long marks;
+
+    /** Logs in {@code directory}; unsaved logs of editors no longer running are deleted. */
+    public UndoLog(Path directory) {
+        this.directory = directory;
+        if (swept.add(directory.toAbsolutePath().normalize())) {
+            WRITER.execute(this::deleteAbandoned);
+        }
+    }
+
+    public static Path defaultDirectory() {
+        return Paths.get(System.getProperty("user.home"), ".programmers-editor", "undo");
+    }
+
+    /** The log that holds the history of {@code file}. */
+    public Path logFor(Path file) {
+        String key = file.toAbsolutePath().normalize().toString();
+        return directory.resolve(UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)) + SUFFIX);
+    }
+
+    /**
+     * Logs the steps of {@code history} for {@code doc} from now on, in
+     * place of whatever was tracked before. For a file, the history last
+     * saved with it is restored, if the file still has the same content
+     * and nothing was edited in the meantime.
+     */
+    public void track(PieceTableDocument doc, UndoHistory history, Path file) {
+        close();
+        session = new Session(doc, history);
+        session.attach();
+        if (file != null) {
+            Session s = session;
+            WRITER.execute(() -> s.open(file));
+        }
+    }
+
+    /** Marks the history as it is, e.g. when a snapshot is taken to be saved. */
+    public long mark() {
+        if (session == null) {
+            return 0;
+        }
+        long id = ++marks;
+        Session s = session;
+        s.history.closeTyping();
+        WRITER.execute(() -> s.mark(id));
+        return id;
+    }
+
+    /** The text as of {@code mark} is now in {@code file}; its history is indexed with it. */
+    public void saved(long mark, Path file) {
+        Session s = session;
+        if (s != null) {
+            WRITER.execute(() -> s.saved(mark, file));
+        }
+    }
+
+    /** Drops a mark whose save failed. */
+    public void forget(long mark) {
+        Session s = session;
+        if (s != null) {
+            WRITER.execute(() -> s.marked.remove(mark));
+        }
+    }
+
+    /** Waits until everything queued so far is written. */
+    public void flush() throws InterruptedException {
+        try {
+            WRITER.submit(() -> { }).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Stops logging; what was indexed at the last save stays on disk. */
+    public void close() {
+        if (session != null) {
+            Session s = session;
+            s.detach();
+            WRITER.execute(s::close);
+            session = null;
+        }
+    }
+
+    private void deleteAbandoned() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, UNSAVED + "*" + SUFFIX)) {
+            for (Path f : files) {
+                String name = f.getFileName().toString().substring(UNSAVED.length());
+                try {
+                    long pid = Long.parseLong(name.substring(0, Math.max(0, name.indexOf('-'))));
+                    if (!ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false)) {
+                        Files.deleteIfExists(f);
+                    }
+                } catch (NumberFormatException e) {
+                    // not one of ours
+                }
+            }
+        } catch (IOException e) {
+            // left for the next start
+        }
+    }
+
+    /** Where one step's records are in the log; moved when the log is compacted. */
+    private static final class Step {
+        volatile long start;
+        volatile long end;
+
+        Step(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private static final class Op {
+        final byte type;
+        final int offset;
+        final CharSequence text;
+
+        Op(byte type, int offset, CharSequence text) {
+            this.type = type;
+            this.offset = offset;
+            this.text = text;
+        }
+    }
+
+    private static final class Mark {
+        final List<Step> steps;
+        final int done;
+
+        Mark(List<Step> steps, int done) {
+            this.steps = steps;
+            this.done = done;
+        }
+    }
+
+    /**
+     * The log of one document. Edits are collected on the EDT and handed
+     * over as a step when the history takes them; everything else runs on
+     * the writer thread, apart from reading a step back.
+     */
+    private final class Session implements UndoHistory.Listener, DocumentListener,
+            BiConsumer<DocumentEvent, CharSequence> {
+        private final PieceTableDocument doc;
+        private final UndoHistory history;
+        // EDT: edits not yet taken by the history
+        private List<Op> pending = new ArrayList<>();
+
+        // writer thread
+        private Path file;
+        private boolean unsaved;
+        private long end;
+        private List<Step> steps = new ArrayList<>();
+        private int done;
+        private final Map<Long, Mark> marked = new HashMap<>();
+        private boolean failed;
+        // held while this session owns the log of a file
+        private FileChannel lockFile;
+
+        // guards the channel, which readers on the EDT share with the writer
+        private final Object lock = new Object();
+        private FileChannel channel;
+
+        Session(PieceTableDocument doc, UndoHistory history) {
+            this.doc = doc;
+            this.history = history;
+            file = directory.resolve(UNSAVED + ProcessHandle.current().pid() + "-"
+                    + sessions.incrementAndGet() + SUFFIX);
+            unsaved = true;
+        }
+
+        void attach() {
+            doc.addDocumentListener(this);
+            doc.addRemoveObserver(this);
+            history.setListener(this);
+        }
+
+        void detach() {
+            doc.removeDocumentListener(this);
+            doc.removeRemoveObserver(this);
+            history.setListener(null);
+        }
+
+        // --- EDT ----------------------------------------------------------
+
+        @Override
+        public void insertUpdate(DocumentEvent e) {
+            int offset = e.getOffset();
+            int length = e.getLength();
+            try {
+                CharSequence text = length > COPY_CHARS
+                    ? doc.snapshot().subSequence(offset, offset + length) : doc.getText(offset, length);
+                pending.add(new Op(INSERT, offset, text));
+            } catch (BadLocationException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        @Override
+        public void removeUpdate(DocumentEvent e) { }
+
+        @Override
+        public void changedUpdate(DocumentEvent e) { }
+
+        @Override
+        public void accept(DocumentEvent e, CharSequence removed) {
+            pending.add(new Op(REMOVE, e.getOffset(), removed));
+        }
+
+        @Override
+        public void stepAdded(boolean merged) {
+            List<Op> ops = pending;
+            pending = new ArrayList<>();
+            WRITER.execute(() -> append(ops, merged));
+        }
+
+        @Override
+        public void stepsRemoved(int from, int to) {
+            WRITER.execute(() -> {
+                steps.subList(from, to + 1).clear();
+                if (done > to) {
+                    done -= to - from + 1;
+                } else if (done > from) {
+                    done = from;
+                }
+            });
+        }
+
+        @Override
+        public void moved(int done) {
+            // the edits the undo or redo made itself
+            pending.clear();
+            WRITER.execute(() -> this.done = done);
+        }
+
+        @Override
+        public void cleared() {
+            pending.clear();
+            WRITER.execute(() -> {
+                steps.clear();
+                done = 0;
+            });
+        }
+
+        private void restore(List<Step> saved, int savedDone) {
+            if (session != this || history.canUndo() || history.canRedo()) {
+                return; // edited while the log was read
+            }
+            List<UndoableEdit> edits = new ArrayList<>(saved.size());
+            for (int i = 0; i < saved.size(); i++) {
+                edits.add(new Persisted(this, saved.get(i), i < savedDone));
+            }
+            history.restore(edits, savedDone);
+            WRITER.execute(() -> {
+                steps = new ArrayList<>(saved);
+                done = savedDone;
+            });
+        }
+
+        // --- writer thread ------------------------------------------------
+
+        void open(Path target) {
+            try {
+                Path log = logFor(target);
+                if (!own(log)) {
+                    failed = true; // another editor has the file open
+                    return;
+                }
+                if (!Files.exists(log)) {
+                    file = log;
+                    unsaved = false;
+                    return;
+                }
+                FileChannel ch = FileChannel.open(log, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                Mark index = readIndex(ch, target);
+                if (index == null) {
+                    ch.close();
+                    Files.deleteIfExists(log);
+                    file = log;
+                    unsaved = false;
+                    return;
+                }
+                synchronized (lock) {
+                    channel = ch;
+                }
+                file = log;
+                unsaved = false;
+                end = ch.size();
+                SwingUtilities.invokeLater(() -> restore(index.steps, index.done));
+            } catch (IOException | RuntimeException e) {
+                failed = true;
+            }
+        }
+
+        void mark(long id) {
+            marked.put(id, new Mark(new ArrayList<>(steps), done));
+        }
+
+        void saved(long id, Path target) {
+            Mark m = marked.remove(id);
+            if (m == null || failed) {
+                return;
+            }
+            try {
+                moveTo(logFor(target));
+                ensureOpen();
+                long[] stamp = stamp(target);
+                compactIfSparse(m);
+                ByteBuffer index = ByteBuffer.allocate(INDEX_HEADER + 16 * m.steps.size());
+                index.put(INDEX).putLong(stamp[0]).putLong(stamp[1]).putInt(m.done).putInt(m.steps.size());
+                for (Step step : m.steps) {
+                    index.putLong(step.start).putLong(step.end);
+                }
+                long at = end;
+                end = write(index.flip(), end);
+                write(ByteBuffer.allocate(8).putLong(0, at), 8);
+                channel.force(false);
+            } catch (IOException | RuntimeException e) {
+                failed = true;
+            }
+        }
+
+        void close() {
+            release();
+            synchronized (lock) {
+                if (channel != null) {
+                    try {
+                        channel.close();
+                    } catch (IOException e) {
+                        // closing anyway
+                    }
+                    channel = null;
+                }
+            }
+            if (unsaved) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    // deleted on a later start
+                }
+            }
+        }
+
+        private void append(List<Op> ops, boolean merged) {
+            if (failed) {
+                return;
+            }
+            try {
+                ensureOpen();
+                Step last = steps.isEmpty() ? null : steps.get(steps.size() - 1);
+                if (merged && last != null && last.end != end) {
+                    // bring the step to the end so it stays one run of records
+                    ByteBuffer bytes = read(last);
+                    long start = end;
+                    end = write(bytes, end);
+                    last.start = start;
+                    last.end = end;
+                }
+                long start = end;
+                for (Op op : ops) {
+                    end = writeOp(op, end);
+                }
+                if (merged && last != null) {
+                    last.end = end;
+                } else {
+                    steps.add(new Step(start, end));
+                    done = steps.size();
+                }
+            } catch (IOException | RuntimeException e) {
+                failed = true;
+            }
+        }
+
+        private void ensureOpen() throws IOException {
+            if (channel != null) {
+                return;
+            }
+            FileUtils.createPrivateDirectories(file.getParent());
+            FileChannel ch = FileUtils.openPrivate(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            synchronized (lock) {
+                channel = ch;
+            }
+            end = write(ByteBuffer.allocate(HEADER).putInt(MAGIC).putInt(VERSION).putLong(0).flip(), 0);
+        }
+
+        private void moveTo(Path target) throws IOException {
+            if (target.equals(file)) {
+                return;
+            }
+            if (!own(target)) {
+                throw new IOException("Undo log in use: " + target);
+            }
+            synchronized (lock) {
+                if (channel != null) {
+                    channel.close();
+                    channel = null;
+                    FileUtils.createPrivateDirectories(target.getParent());
+                    move(file, target);
+                    channel = FileChannel.open(target, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                }
+            }
+            file = target;
+            unsaved = false;
+        }
+
+        // takes the lock of log, giving up any other; false if someone else holds it
+        private boolean own(Path log) throws IOException {
+            release();
+            FileUtils.createPrivateDirectories(log.getParent());
+            FileChannel ch = FileUtils.openPrivate(log.resolveSibling(log.getFileName() + LOCK),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            try {
+                if (ch.tryLock() != null) {
+                    lockFile = ch;
+                    return true;
+                }
+            } catch (OverlappingFileLockException e) {
+                // held by another editor in this process
+            }
+            ch.close();
+            return false;
+        }
+
+        private void release() {
+            if (lockFile != null) {
+                try {
+                    lockFile.close();
+                } catch (IOException e) {
+                    // the lock goes with the channel anyway
+                }
+                lockFile = null;
+            }
+        }
+
+        // rewrites the log with only the steps still in use once most of it is garbage
+        private void compactIfSparse(Mark m) throws IOException {
+            Set<Step> live = Collections.newSetFromMap(new IdentityHashMap<>());
+            live.addAll(steps);
+            live.addAll(m.steps);
+            long liveBytes = 0;
+            for (Step step : live) {
+                liveBytes += step.end - step.start;
+            }
+            if (end - HEADER <= 2 * liveBytes + COMPACT_BYTES) {
+                return;
+            }
+            List<Step> order = new ArrayList<>(live);
+            order.sort((a, b) -> Long.compare(a.start, b.start));
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            synchronized (lock) {
+                try (FileChannel out = FileUtils.openPrivate(tmp, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    out.write(ByteBuffer.allocate(HEADER).putInt(MAGIC).putInt(VERSION).putLong(0).flip(), 0);
+                    long pos = HEADER;
+                    long[] starts = new long[order.size()];
+                    for (int i = 0; i < order.size(); i++) {
+                        Step step = order.get(i);
+                        starts[i] = pos;
+                        for (long from = step.start; from < step.end; ) {
+                            long n = channel.transferTo(from, step.end - from, out.position(pos));
+                            from += n;
+                            pos += n;
+                        }
+                    }
+                    out.force(false);
+                    channel.close();
+                    move(tmp, file);
+                    channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    for (int i = 0; i < order.size(); i++) {
+                        Step step = order.get(i);
+                        step.end = starts[i] + step.end - step.start;
+                        step.start = starts[i];
+                    }
+                    end = pos;
+                }
+            }
+        }
+
+        private long writeOp(Op op, long pos) throws IOException {
+            CharSequence text = op.text;
+            int chars = text.length();
+            long bytesAt = pos + RECORD_HEADER;
+            long at = bytesAt;
+            if (text instanceof TextSource && chars > COPY_CHARS) {
+                char[] chunk = new char[COPY_CHARS];
+                for (int i = 0; i < chars; ) {
+                    int n = Math.min(COPY_CHARS, chars - i);
+                    ((TextSource) text).getChars(i, i + n, chunk, 0);
+                    // a surrogate pair is not split across chunks
+                    if (n > 1 && i + n < chars && Character.isHighSurrogate(chunk[n - 1])) n--;
+                    at = write(ByteBuffer.wrap(new String(chunk, 0, n).getBytes(StandardCharsets.UTF_8)), at);
+                    i += n;
+                }
+            } else {
+                at = write(ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8)), at);
+            }
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER)
+                .put(op.type).putInt(op.offset).putInt(chars).putInt((int) (at - bytesAt));
+            write(header.flip(), pos);
+            return at;
+        }
+
+        private long write(ByteBuffer buf, long pos) throws IOException {
+            while (buf.hasRemaining()) {
+                pos += channel.write(buf, pos);
+            }
+            return pos;
+        }
+
+        // --- any thread ---------------------------------------------------
+
+        ByteBuffer read(Step step) throws IOException {
+            synchronized (lock) {
+                long length = step.end - step.start;
+                if (channel == null || length > Integer.MAX_VALUE) {
+                    throw new IOException("Undo log not readable: " + file);
+                }
+                ByteBuffer buf = ByteBuffer.allocate((int) length);
+                long pos = step.start;
+                while (buf.hasRemaining()) {
+                    int n = channel.read(buf, pos);
+                    if (n < 0) throw new IOException("Undo log cut short: " + file);
+                    pos += n;
+                }
+                return buf.flip();
+            }
+        }
+    }
+
+    // the steps indexed last, if the file still has the size and time they were saved with
+    private static Mark readIndex(FileChannel ch, Path target) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        ch.read(header, 0);
+        if (header.position() < HEADER || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            return null;
+        }
+        long at = header.getLong(8);
+        if (at < HEADER || at + INDEX_HEADER > ch.size()) {
+            return null;
+        }
+        ByteBuffer head = ByteBuffer.allocate(INDEX_HEADER);
+        ch.read(head, at);
+        head.flip();
+        if (head.get() != INDEX) {
+            return null;
+        }
+        long size = head.getLong();
+        long modified = head.getLong();
+        int done = head.getInt();
+        int count = head.getInt();
+        if (count < 0 || done < 0 || done > count || at + INDEX_HEADER + 16L * count > ch.size()) {
+            return null;
+        }
+        long[] stamp = stamp(target);
+        if (stamp[0] != size || stamp[1] != modified) {
+            return null;
+        }
+        ByteBuffer entries = ByteBuffer.allocate(16 * count);
+        long pos = at + INDEX_HEADER;
+        while (entries.hasRemaining()) {
+            pos += ch.read(entries, pos);
+        }
+        entries.flip();
+        List<Step> steps = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            steps.add(new Step(entries.getLong(), entries.getLong()));
+        }
+        return new Mark(steps, done);
+    }
+
+    /** Size and modification time, in nanoseconds, of a file. */
+    static long[] stamp(Path file) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        return new long[] {attrs.size(), attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS)};
+    }
+
+    private static void move(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * A restored step: its records stay in the log until it is undone or
+     * redone. {@code applied} tells whether the document holds its edits,
+     * so a restore can mark the undone steps without touching the text.
+     */
+    private static final class Persisted extends AbstractUndoableEdit {
+        private final Session session;
+        private final Step step;
+        private boolean applied;
+
+        Persisted(Session session, Step step, boolean applied) {
+            this.session = session;
+            this.step = step;
+            this.applied = applied;
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            super.undo();
+            if (applied) {
+                List<Op> ops = decode();
+                if (ops == null) {
+                    throw new CannotUndoException();
+                }
+                int i = ops.size() - 1;
+                try {
+                    for (; i >= 0; i--) {
+                        revert(ops.get(i));
+                    }
+                } catch (BadLocationException e) {
+                    // put back what was undone, the document is not the one logged
+                    try {
+                        for (i++; i < ops.size(); i++) {
+                            apply(ops.get(i));
+                        }
+                    } catch (BadLocationException again) {
+                        // left as it is
+                    }
+                    throw new CannotUndoException();
+                }
+                applied = false;
+            }
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            super.redo();
+            if (!applied) {
+                List<Op> ops = decode();
+                if (ops == null) {
+                    throw new CannotRedoException();
+                }
+                int i = 0;
+                try {
+                    for (; i < ops.size(); i++) {
+                        apply(ops.get(i));
+                    }
+                } catch (BadLocationException e) {
+                    try {
+                        for (i--; i >= 0; i--) {
+                            revert(ops.get(i));
+                        }
+                    } catch (BadLocationException again) {
+                        // left as it is
+                    }
+                    throw new CannotRedoException();
+                }
+                applied = true;
+            }
+        }
+
+        private void apply(Op op) throws BadLocationException {
+            if (op.type == INSERT) {
+                session.doc.insertString(op.offset, op.text.toString(), null);
+            } else {
+                remove(op);
+            }
+        }
+
+        private void revert(Op op) throws BadLocationException {
+            if (op.type == INSERT) {
+                remove(op);
+            } else {
+                session.doc.insertString(op.offset, op.text.toString(), null);
+            }
+        }
+
+        // only the text the log says is there
+        private void remove(Op op) throws BadLocationException {
+            int length = op.text.length();
+            if (!session.doc.getText(op.offset, length).contentEquals(op.text)) {
+                throw new BadLocationException("Text differs from the undo log", op.offset);
+            }
+            session.doc.remove(op.offset, length);
+        }
+
+        // null if the log cannot be read
+        private List<Op> decode() {
+            ByteBuffer buf;
+            try {
+                buf = session.read(step);
+            } catch (IOException e) {
+                return null;
+            }
+            List<Op> ops = new ArrayList<>();
+            while (buf.remaining() >= RECORD_HEADER) {
+                byte type = buf.get();
+                int offset = buf.getInt();
+                buf.getInt(); // chars
+                int bytes = buf.getInt();
+                String text = new String(buf.array(), buf.position(), bytes, StandardCharsets.UTF_8);
+                buf.position(buf.position() + bytes);
+                ops.add(new Op(type, offset, text));
+            }
+            return ops;
+        }
+    }
+}
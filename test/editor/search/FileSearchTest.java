@@ -0,0 +1,128 @@
+// -----------------------------
+// File: src/test/editor/search/FileSearchTest.java
+// -----------------------------
+package test.editor.search;
+
+import editor.search.FileSearch;
+import editor.search.SearchHit;
+import editor.text.DocumentSearch;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Unit tests for FileSearch
+ */
+public class FileSearchTest {
+
+    private Path root;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        root = Files.createTempDirectory("findinfiles");
+        write("Main.java", "class Main {\n    // TODO: needle\n}\n");
+        write("notes.txt", "needle in a haystack\nno match\nneedle needle\n");
+        write("src/deep/er/Util.java", "/* needle */\n");
+        write(".git/config", "needle\n");
+        Files.createDirectories(root.resolve("bin"));
+        Files.write(root.resolve("bin/tool.class"), new byte[] {(byte) 0xCA, (byte) 0xFE, 0, 0, 'n', 'e', 'e', 'd', 'l', 'e'});
+        // big enough to be mapped instead of read
+        StringBuilder big = new StringBuilder();
+        while (big.length() < 3 * 1024 * 1024) big.append("lorem ipsum dolor sit amet\n");
+        write("big.log", big + "needle at the end\n");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> walk = Files.walk(root)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private void write(String name, String text) throws IOException {
+        Path file = root.resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // relative path -> "line:column" of every hit
+    private Map<String, String> run(FileSearch search) throws Exception {
+        Map<String, String> found = new ConcurrentHashMap<>();
+        CountDownLatch done = new CountDownLatch(1);
+        search.start(new FileSearch.Listener() {
+            @Override
+            public void found(Path file, List<SearchHit> hits) {
+                StringBuilder sb = new StringBuilder();
+                for (SearchHit hit : hits) sb.append(hit.line).append(':').append(hit.column).append(' ');
+                found.put(root.relativize(file).toString().replace('\\', '/'), sb.toString().trim());
+            }
+
+            @Override
+            public void done() {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(30, TimeUnit.SECONDS), "search should finish");
+        return new TreeMap<>(found);
+    }
+
+    @Test
+    @DisplayName("Should find matches in text files, skipping binaries and excluded directories")
+    void testSearch() throws Exception {
+        FileSearch search = new FileSearch(root, new DocumentSearch("needle", true, false, false), "", ".git");
+        Map<String, String> found = run(search);
+        assertEquals("2:13", found.get("Main.java"));
+        assertEquals("1:0 3:0 3:7", found.get("notes.txt"));
+        assertEquals("1:3", found.get("src/deep/er/Util.java"));
+        assertEquals(String.valueOf((3 * 1024 * 1024 + 26) / 27 + 1) + ":0", found.get("big.log"));
+        assertEquals(4, found.size(), "no hits from .git or the binary file: " + found);
+        assertEquals(6, search.getHits());
+        assertEquals(1, search.getFilesSkipped(), "the binary file");
+    }
+
+    @Test
+    @DisplayName("Should apply include globs and regex queries")
+    void testIncludeAndRegex() throws Exception {
+        FileSearch search = new FileSearch(root, new DocumentSearch("ne+dle \\*/", true, false, true), "*.java", ".git");
+        Map<String, String> found = run(search);
+        assertEquals(1, found.size());
+        assertEquals("1:3", found.get("src/deep/er/Util.java"));
+
+        FileSearch paths = new FileSearch(root, new DocumentSearch("needle", true, false, false), "src/**.java", "");
+        assertEquals("[src/deep/er/Util.java]", run(paths).keySet().toString());
+    }
+
+    @Test
+    @DisplayName("Should report done once when cancelled")
+    void testCancel() throws Exception {
+        FileSearch search = new FileSearch(root, new DocumentSearch("needle", true, false, false), "", "");
+        CountDownLatch done = new CountDownLatch(1);
+        search.start(new FileSearch.Listener() {
+            @Override
+            public void found(Path file, List<SearchHit> hits) {
+            }
+
+            @Override
+            public void done() {
+                done.countDown();
+            }
+        });
+        search.cancel();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(search.isCancelled());
+    }
+}
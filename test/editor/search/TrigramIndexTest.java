@@ -0,0 +1,109 @@
+// -----------------------------
+// File: src/test/editor/search/TrigramIndexTest.java
+// -----------------------------
+package test.editor.search;
+
+import editor.search.TrigramIndex;
+import editor.text.DocumentSearch;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Unit tests for TrigramIndex
+ */
+public class TrigramIndexTest {
+
+    private Path root;
+    private TrigramIndex index;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        root = Files.createTempDirectory("trigrams");
+        write("a.txt", "the quick brown fox\n");
+        write("b.txt", "jumps over the lazy dog\n");
+        write("src/c.java", "class Fox { int foxes; }\n");
+        Files.write(root.resolve("d.bin"), new byte[] {0, 'f', 'o', 'x', 0});
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (index != null) {
+            index.close();
+        }
+        try (Stream<Path> walk = Files.walk(root)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private void write(String name, String text) throws IOException {
+        Path file = root.resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private TrigramIndex open() throws InterruptedException {
+        TrigramIndex opened = new TrigramIndex(root);
+        opened.open();
+        assertTrue(opened.awaitReady(30, TimeUnit.SECONDS), "index should get ready");
+        return opened;
+    }
+
+    private String candidates(String text, boolean regex) throws IOException {
+        List<Path> files = index.candidates(new DocumentSearch(text, false, false, regex));
+        if (files == null) {
+            return null;
+        }
+        return files.stream().map(p -> root.relativize(p).toString().replace('\\', '/'))
+            .collect(Collectors.toCollection(TreeSet::new)).toString();
+    }
+
+    @Test
+    @DisplayName("Should narrow queries to the files containing their trigrams")
+    void testCandidates() throws Exception {
+        index = open();
+        assertEquals(4, index.getFileCount());
+        assertEquals("[a.txt, src/c.java]", candidates("FOX", false));
+        assertEquals("[b.txt]", candidates("lazy\\s+dog", true));
+        assertEquals("[]", candidates("absent", false));
+        assertNull(candidates("ox", false), "too short to narrow");
+        assertNull(candidates("fox|dog", true), "alternation searches every file");
+    }
+
+    @Test
+    @DisplayName("Should pick up changes on refresh and keep them on disk")
+    void testUpdateAndReload() throws Exception {
+        index = open();
+        write("b.txt", "a fox now\n");
+        // make sure the change shows even on coarse file times
+        Files.setLastModifiedTime(root.resolve("b.txt"), FileTime.fromMillis(System.currentTimeMillis() + 5000));
+        Files.delete(root.resolve("a.txt"));
+        write("new/e.txt", "foxtrot\n");
+        index.refresh();
+        assertEquals("[b.txt, new/e.txt, src/c.java]", candidates("fox", false));
+        index.close();
+
+        // the merged index is written on close and read back on the next open
+        Path file = root.resolve(TrigramIndex.DIRECTORY).resolve("trigrams.idx");
+        for (int i = 0; i < 100 && !Files.exists(file); i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(Files.exists(file));
+        index = open();
+        assertEquals(4, index.getFileCount());
+        assertEquals("[b.txt, new/e.txt, src/c.java]", candidates("fox", false));
+    }
+}
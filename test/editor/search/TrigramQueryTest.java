@@ -0,0 +1,57 @@
+// -----------------------------
+// File: src/test/editor/search/TrigramQueryTest.java
+// -----------------------------
+package test.editor.search;
+
+import editor.search.TrigramQuery;
+import editor.text.DocumentSearch;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for TrigramQuery
+ */
+public class TrigramQueryTest {
+
+    private static String literals(String regex) {
+        return TrigramQuery.literals(regex).toString();
+    }
+
+    @Test
+    @DisplayName("Should keep the literal runs every match contains")
+    void testRequiredRuns() {
+        assertEquals("[foo, barbaz]", literals("foo\\d+barbaz"));
+        assertEquals("[needle]", literals("^needle$"));
+        assertEquals("[a.b]", literals("a\\.b"));
+        assertEquals("[hello, world]", literals("(?i)hello\\s+world"));
+        assertEquals("[abc, def]", literals("abc(def)+"));
+        assertEquals("[abc]", literals("abcd?"));
+        assertEquals("[abc]", literals("abc(def)*"));
+        assertEquals("[abc]", literals("abc(?!def)"));
+        assertEquals("[abc, xyz]", literals("abc[d-f]{2,}xyz"));
+        assertEquals("[abc]", literals("abc\\x41\\u0042"));
+        assertEquals("[def]", literals("(?:ab)?def"));
+    }
+
+    @Test
+    @DisplayName("Should give up on alternation and quoting")
+    void testUnsupported() {
+        assertEquals("[]", literals("foo|bar"));
+        assertEquals("[]", literals("(foo|bar)baz"));
+        assertEquals("[]", literals("\\Qa.b\\E"));
+        assertEquals("[]", literals("(?x) foo bar"));
+        assertEquals("[]", literals("ab.cd"));
+    }
+
+    @Test
+    @DisplayName("Should fold case so either case mode finds the same candidates")
+    void testTrigrams() {
+        int[] lower = TrigramQuery.trigrams(new DocumentSearch("needle", true, false, false));
+        int[] upper = TrigramQuery.trigrams(new DocumentSearch("NEEDLE", false, true, false));
+        assertEquals(4, lower.length);
+        assertArrayEquals(lower, upper);
+        assertEquals(0, TrigramQuery.trigrams(new DocumentSearch("ab", true, false, false)).length);
+        assertEquals(0, TrigramQuery.trigrams(new DocumentSearch("a|needle", true, false, true)).length);
+    }
+}
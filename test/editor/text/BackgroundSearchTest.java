@@ -0,0 +1,80 @@
+// -----------------------------
+// File: src/test/editor/text/BackgroundSearchTest.java
+// -----------------------------
+package test.editor.text;
+
+import editor.text.BackgroundSearch;
+import editor.text.DocumentSearch;
+import editor.text.PieceTableDocument;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import static org.junit.jupiter.api.Assertions.*;
+import java.nio.CharBuffer;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for BackgroundSearch
+ */
+public class BackgroundSearchTest {
+
+    private static BackgroundSearch search(String text, String query, boolean regex) throws Exception {
+        PieceTableDocument doc = new PieceTableDocument(CharBuffer.wrap(text.toCharArray()));
+        return new BackgroundSearch(new DocumentSearch(query, true, false, regex),
+            DocumentSearch.snapshot(doc), Long.MAX_VALUE, 60_000);
+    }
+
+    @Test
+    @DisplayName("Should find with wrap-around and count matches with the current one's number")
+    void testFindAndCount() throws Exception {
+        BackgroundSearch job = search("one two one two one", "one", false);
+        assertEquals(8, job.find(1, true).start);
+        assertEquals(0, job.find(17, true).start, "wraps to the top");
+        assertEquals(16, job.find(0, false).start, "wraps to the bottom");
+
+        assertEquals(3, job.countAll(8));
+        assertTrue(job.isCounted());
+        assertEquals(3, job.getCount());
+        assertEquals(2, job.getOrdinal());
+
+        BackgroundSearch regex = search("a1 b22 c333", "\\d+", true);
+        assertEquals(3, regex.countAll(-1));
+        assertEquals(0, regex.getOrdinal());
+    }
+
+    @Test
+    @DisplayName("Should stop a catastrophic regex when its budget runs out")
+    void testBudget() throws Exception {
+        String text = "a".repeat(30) + "!";
+        DocumentSearch slow = new DocumentSearch("(.*a){20}b", true, false, true);
+        BackgroundSearch steps = new BackgroundSearch(slow, text, 1_000_000, 60_000);
+        assertThrows(BackgroundSearch.BudgetExceededException.class, () -> steps.find(0, true));
+        BackgroundSearch time = new BackgroundSearch(slow, text, Long.MAX_VALUE, 200);
+        assertThrows(BackgroundSearch.BudgetExceededException.class, () -> time.countAll(-1));
+    }
+
+    @Test
+    @DisplayName("Should stop when its Future is cancelled")
+    void testCancel() throws Exception {
+        String text = "a".repeat(30) + "!";
+        BackgroundSearch job = new BackgroundSearch(new DocumentSearch("(.*a){20}b", true, false, true),
+            text, Long.MAX_VALUE, 60_000);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> count = executor.submit(() -> job.countAll(-1));
+            Thread.sleep(100);
+            count.cancel(true);
+            // the worker is free again once the scan noticed the interrupt
+            Future<String> next = executor.submit(() -> "done");
+            assertEquals("done", next.get(5, TimeUnit.SECONDS));
+            assertThrows(CancellationException.class, count::get);
+            assertFalse(job.isCounted());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+// -----------------------------
+// File: src/test/editor/text/BackwardRegexBenchmark.java
+// -----------------------------
+package test.editor.text;
+
+import editor.text.BackgroundSearch;
+import editor.text.DocumentCharSequence;
+import editor.text.DocumentSearch;
+import editor.text.PieceTableDocument;
+import java.nio.CharBuffer;
+import java.util.Random;
+import java.util.regex.Matcher;
+
+/**
+ * Find Previous with a regex near the end of a 50 MB document: the old scan
+ * from the top, the first press with growing windows, and repeated presses
+ * (Shift+F3) that walk back through the cached matches.
+ *
+ * Run with: java -Xmx2g test.editor.text.BackwardRegexBenchmark
+ */
+public class BackwardRegexBenchmark {
+    private static final int SIZE = 50 * 1024 * 1024;
+    // rare (one in 30K chars) and frequent matches in random text
+    private static final String[] REGEXES = {"fo+x\\d", "o+x"};
+    private static final int PRESSES = 1000;
+
+    public static void main(String[] args) throws Exception {
+        Random rnd = new Random(1);
+        String words = "the quick brown fox jumps over a lazy dog foox1 fooox22\n";
+        char[] text = new char[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            text[i] = words.charAt(rnd.nextInt(words.length()));
+        }
+        PieceTableDocument doc = new PieceTableDocument(CharBuffer.wrap(text));
+        for (String regex : REGEXES) {
+            System.out.println(regex + ":");
+            run(doc, new DocumentSearch(regex, true, false, true));
+        }
+    }
+
+    private static void run(PieceTableDocument doc, DocumentSearch search) {
+        int before = doc.getLength() - 100;
+
+        long start = System.nanoTime();
+        Matcher m = search.getPattern().matcher(new DocumentCharSequence(doc));
+        int last = -1;
+        while (m.find() && m.start() < before) {
+            last = m.start();
+        }
+        System.out.printf("  scan from the top   %8.1f ms  (found at %d)%n", (System.nanoTime() - start) / 1e6, last);
+
+        BackgroundSearch job = new BackgroundSearch(search, doc.snapshot(), Long.MAX_VALUE, 60_000);
+        start = System.nanoTime();
+        int found = job.find(before, false).start;
+        System.out.printf("  growing windows     %8.1f ms  (found at %d)%n", (System.nanoTime() - start) / 1e6, found);
+
+        start = System.nanoTime();
+        for (int i = 0; i < PRESSES; i++) {
+            found = job.find(found, false).start;
+        }
+        System.out.printf("  repeated, per press %8.1f us  (%d presses, now at %d)%n",
+            (System.nanoTime() - start) / 1e3 / PRESSES, PRESSES, found);
+    }
+}
@@ -0,0 +1,160 @@
+// -----------------------------
+// File: src/test/editor/text/DocumentSearchTest.java
+// -----------------------------
+package test.editor.text;
+
+import editor.text.BackgroundSearch;
+import editor.text.DocumentSearch;
+import editor.text.LiteralMatcher;
+import editor.text.PieceTableDocument;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import static org.junit.jupiter.api.Assertions.*;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Unit tests for DocumentSearch / DocumentCharSequence
+ */
+public class DocumentSearchTest {
+
+    private static int start(DocumentSearch.Match m) {
+        return m == null ? -1 : m.start;
+    }
+
+    // many small pieces, so windows and partial segments end mid-word
+    private static PieceTableDocument fragmented(String text) throws Exception {
+        PieceTableDocument doc = new PieceTableDocument();
+        Random rnd = new Random(3);
+        StringBuilder shadow = new StringBuilder();
+        for (int i = text.length() - 1; i >= 0; i--) {
+            int at = rnd.nextInt(shadow.length() + 1);
+            doc.insertString(at, "#", null);
+            shadow.insert(at, '#');
+        }
+        for (int i = 0; i < text.length(); i++) {
+            doc.remove(i, 1);
+            doc.insertString(i, text.substring(i, i + 1), null);
+        }
+        assertEquals(text, doc.getText(0, doc.getLength()));
+        return doc;
+    }
+
+    @Test
+    @DisplayName("Should find literal text like indexOf and lastIndexOf")
+    void testLiteralLikeString() throws Exception {
+        Random rnd = new Random(11);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 4000; i++) {
+            sb.append("ab ".charAt(rnd.nextInt(3)));
+        }
+        String text = sb.toString();
+        PieceTableDocument doc = fragmented(text);
+        DocumentSearch search = new DocumentSearch("aba", true, false, false);
+        for (int from = 0; from <= text.length(); from += 7) {
+            assertEquals(text.indexOf("aba", from), start(search.find(doc, from, true)), "forward from " + from);
+            assertEquals(text.lastIndexOf("aba", from - 1), start(search.find(doc, from, false)), "backward from " + from);
+        }
+    }
+
+    @Test
+    @DisplayName("Should fold case and respect whole words")
+    void testOptions() throws Exception {
+        PieceTableDocument doc = new PieceTableDocument(CharBuffer.wrap("Word swordfish WORD word2 ÉTÉ".toCharArray()));
+        DocumentSearch ignoreCase = new DocumentSearch("word", false, true, false);
+        assertEquals(0, start(ignoreCase.find(doc, 0, true)));
+        assertEquals(15, start(ignoreCase.find(doc, 1, true)));
+        assertEquals(-1, start(ignoreCase.find(doc, 16, true)));
+        assertEquals(15, start(ignoreCase.find(doc, doc.getLength(), false)));
+        assertEquals(26, start(new DocumentSearch("été", false, false, false).find(doc, 0, true)));
+        assertEquals(20, start(new DocumentSearch("word", true, false, false).find(doc, 16, true)));
+        assertTrue(ignoreCase.matches("WoRd"));
+    }
+
+    @Test
+    @DisplayName("Should report regex match bounds and reuse compiled patterns")
+    void testRegex() throws Exception {
+        PieceTableDocument doc = fragmented("x = 12; y = 345; z = 6;");
+        DocumentSearch numbers = new DocumentSearch("\\d+", true, false, true);
+        DocumentSearch.Match m = numbers.find(doc, 6, true);
+        assertEquals(12, m.start);
+        assertEquals(15, m.end);
+        assertEquals(12, numbers.find(doc, 21, false).start);
+        assertSame(numbers.getPattern(), new DocumentSearch("\\d+", true, false, true).getPattern());
+        assertThrows(PatternSyntaxException.class, () -> new DocumentSearch("(", true, false, true));
+    }
+
+    @Test
+    @DisplayName("Should agree with regionMatches for literal search in both directions")
+    void testLiteralMatcher() {
+        Random rnd = new Random(5);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20_000; i++) {
+            sb.append("aAbBſsSĀā\u0141\u0241".charAt(rnd.nextInt(11)));
+        }
+        String text = sb.toString();
+        for (String needle : new String[] {"ab", "AbA", "sS", "āĀ", "ba\u0141", "a"}) {
+            for (boolean matchCase : new boolean[] {true, false}) {
+                LiteralMatcher matcher = new LiteralMatcher(needle, matchCase);
+                int expected = -1;
+                for (int at = text.length() - needle.length(); at >= 0; at--) {
+                    if (text.regionMatches(!matchCase, at, needle, 0, needle.length())) {
+                        expected = at;
+                    }
+                    if (at % 97 == 0) {
+                        assertEquals(expected, matcher.indexOf(text, at), needle + " from " + at);
+                    }
+                }
+                int last = -1;
+                for (int at = 0; at + needle.length() <= text.length(); at++) {
+                    if (text.regionMatches(!matchCase, at, needle, 0, needle.length())) {
+                        last = at;
+                    }
+                    if (at % 89 == 0) {
+                        assertEquals(last, matcher.lastIndexOf(text, at + 1), needle + " before " + (at + 1));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Should find previous regex matches like a scan from the top, reusing them on repeat")
+    void testBackwardRegex() throws Exception {
+        Random rnd = new Random(11);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 200_000; i++) {
+            sb.append(rnd.nextInt(40) == 0 ? '\n' : "ab1 2".charAt(rnd.nextInt(5)));
+        }
+        String text = sb.toString();
+        PieceTableDocument doc = new PieceTableDocument(CharBuffer.wrap(text.toCharArray()));
+        for (String regex : new String[] {"\\d+", "(ab|a)b*", "^b|1$", "a{0}"}) {
+            Matcher all = Pattern.compile(regex, Pattern.MULTILINE).matcher(text);
+            List<Integer> starts = new ArrayList<>();
+            while (all.find()) starts.add(all.start());
+            DocumentSearch search = new DocumentSearch("(?m)" + regex, true, false, true);
+
+            // Find Previous all the way up, as with repeated Shift+F3
+            BackgroundSearch job = new BackgroundSearch(search, doc.snapshot(), Long.MAX_VALUE, 60_000);
+            int before = doc.getLength();
+            for (int i = starts.size() - 1; i >= 0; i--) {
+                if (starts.get(i) >= before) continue; // empty matches repeat at the same offset
+                DocumentSearch.Match m = job.find(before, false);
+                assertEquals((int) starts.get(i), m.start, regex + " before " + before);
+                before = m.start;
+            }
+            // and from anywhere, without a cache
+            for (int k = 0; k < 50; k++) {
+                int from = rnd.nextInt(text.length());
+                int expected = -1;
+                for (int s : starts) if (s < from) expected = s;
+                assertEquals(expected, start(search.find(doc, from, false)), regex + " from " + from);
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+// -----------------------------
+// File: src/test/editor/text/LineEndingsTest.java
+// -----------------------------
+package test.editor.text;
+
+import editor.text.LineEndings;
+import editor.utils.FileEncoding;
+import editor.utils.FileUtils;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Unit tests for LineEndings counting, normalizing on load and converting on save
+ */
+public class LineEndingsTest {
+
+    private static LineEndings countInChunks(String text, int chunk) {
+        LineEndings endings = new LineEndings();
+        char[] chars = text.toCharArray();
+        for (int i = 0; i < chars.length; i += chunk) {
+            endings.count(chars, i, Math.min(chars.length, i + chunk));
+        }
+        endings.finish();
+        return endings;
+    }
+
+    @Test
+    @DisplayName("Should count endings split across chunks once")
+    void testCount() {
+        String text = "a\r\nb\nc\rd\r\n\r\r\ne\r";
+        for (int chunk = 1; chunk <= text.length(); chunk++) {
+            LineEndings endings = countInChunks(text, chunk);
+            assertEquals(3, endings.getCrLfCount(), "chunk " + chunk);
+            assertEquals(1, endings.getLfCount(), "chunk " + chunk);
+            assertEquals(3, endings.getCrCount(), "chunk " + chunk);
+            assertTrue(endings.isMixed());
+            assertEquals("Mixed", endings.getLabel());
+        }
+    }
+
+    @Test
+    @DisplayName("Should name a single style and report no endings as None")
+    void testLabel() {
+        assertEquals("Windows", countInChunks("a\r\nb\r\n", 3).getLabel());
+        assertEquals("Unix", countInChunks("a\nb\n", 3).getLabel());
+        assertEquals("Mac", countInChunks("a\rb\r", 3).getLabel());
+        assertEquals("None", countInChunks("ab", 3).getLabel());
+        assertNull(countInChunks("ab", 3).getStyle());
+    }
+
+    @Test
+    @DisplayName("Should normalize every ending to LF in place")
+    void testNormalize() {
+        String text = "a\r\nb\nc\rd\r\n\r\r\ne\r";
+        for (int chunk = 1; chunk <= text.length(); chunk++) {
+            LineEndings endings = new LineEndings();
+            char[] chars = text.toCharArray();
+            int w = 0;
+            for (int i = 0; i < chars.length; i += chunk) {
+                int end = Math.min(chars.length, i + chunk);
+                // like a decoder, each chunk lands right after the normalized text
+                System.arraycopy(chars, i, chars, w, end - i);
+                w = endings.normalize(chars, w, w + end - i);
+            }
+            endings.finish();
+            assertEquals("a\nb\nc\nd\n\n\ne\n", new String(chars, 0, w), "chunk " + chunk);
+            assertEquals(3, endings.getCrLfCount());
+        }
+    }
+
+    @Test
+    @DisplayName("Should convert endings to each style")
+    void testConvert() {
+        char[] src = "a\r\nb\nc\r".toCharArray();
+        char[] dst = new char[src.length * 2];
+        int n = LineEndings.Style.CRLF.convert(src, 0, src.length, dst, 0, false);
+        assertEquals("a\r\nb\r\nc\r\n", new String(dst, 0, n));
+        n = LineEndings.Style.CR.convert(src, 0, src.length, dst, 0, false);
+        assertEquals("a\rb\rc\r", new String(dst, 0, n));
+        // an LF right after a CR that ended the chunk before
+        n = LineEndings.Style.LF.convert(src, 2, src.length, dst, 0, true);
+        assertEquals("b\nc\n", new String(dst, 0, n));
+    }
+
+    @Test
+    @DisplayName("Should normalize on read and convert on save")
+    void testRoundTrip() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; sb.length() < 300_000; i++) {
+            sb.append("line ").append(i).append("\r\n");
+        }
+        Path file = Files.createTempFile("endings", ".txt");
+        try {
+            Files.write(file, sb.toString().getBytes(StandardCharsets.UTF_8));
+            char[] buf = FileUtils.newCharBuffer(file);
+            LineEndings endings = new LineEndings();
+            int n = FileUtils.readChars(file, FileEncoding.UTF_8, buf, endings, null);
+            String text = new String(buf, 0, n);
+            assertEquals(sb.toString().replace("\r\n", "\n"), text);
+            assertEquals(LineEndings.Style.CRLF, endings.getStyle());
+            assertFalse(endings.isMixed());
+
+            FileUtils.writeText(file, text, FileEncoding.UTF_8, endings.getStyle(), false);
+            assertEquals(sb.toString(), new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+            FileUtils.writeText(file, text, FileEncoding.UTF_8, LineEndings.Style.LF, false);
+            assertEquals(text, new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
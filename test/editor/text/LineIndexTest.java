@@ -0,0 +1,78 @@
+// -----------------------------
+// File: src/test/editor/text/LineIndexTest.java
+// -----------------------------
+package test.editor.text;
+
+import editor.text.LineIndex;
+import editor.text.PieceTableDocument;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import static org.junit.jupiter.api.Assertions.*;
+import javax.swing.text.Element;
+import javax.swing.undo.UndoManager;
+import java.nio.CharBuffer;
+import java.util.Random;
+
+/**
+ * Unit tests for LineIndex
+ */
+public class LineIndexTest {
+
+    private static void assertMatchesRoot(PieceTableDocument doc, LineIndex index) {
+        Element root = doc.getDefaultRootElement();
+        assertEquals(root.getElementCount(), index.getLineCount(), "Line count");
+        for (int i = 0; i < root.getElementCount(); i++) {
+            assertEquals(root.getElement(i).getStartOffset(), index.getLineStartOffset(i), "Start of line " + i);
+            assertEquals(root.getElement(i).getEndOffset(), index.getLineEndOffset(i), "End of line " + i);
+        }
+        for (int offset = 0; offset <= doc.getLength(); offset++) {
+            assertEquals(root.getElementIndex(offset), index.getLineOfOffset(offset), "Line of offset " + offset);
+        }
+    }
+
+    @Test
+    @DisplayName("Should be shared per document")
+    void testSharedPerDocument() {
+        PieceTableDocument doc = new PieceTableDocument();
+        assertSame(LineIndex.of(doc), LineIndex.of(doc));
+    }
+
+    @Test
+    @DisplayName("Should track the line map through edits, undo and redo")
+    void testTracksEdits() throws Exception {
+        Random rnd = new Random(7);
+        PieceTableDocument doc = new PieceTableDocument(CharBuffer.wrap("a\nbb\n\nccc".toCharArray()));
+        LineIndex index = LineIndex.of(doc);
+        UndoManager undo = new UndoManager();
+        doc.addUndoableEditListener(undo);
+        assertEquals(4, index.getLineCount());
+
+        for (int step = 0; step < 500; step++) {
+            int len = doc.getLength();
+            int op = rnd.nextInt(10);
+            if (op < 5) {
+                doc.insertString(rnd.nextInt(len + 1), rnd.nextBoolean() ? "\n" : "q\n\nw", null);
+            } else if (op < 8 && len > 0) {
+                int offset = rnd.nextInt(len);
+                doc.remove(offset, 1 + rnd.nextInt(Math.min(6, len - offset)));
+            } else if (rnd.nextBoolean() && undo.canUndo()) {
+                undo.undo();
+            } else if (undo.canRedo()) {
+                undo.redo();
+            }
+            assertMatchesRoot(doc, index);
+        }
+    }
+
+    @Test
+    @DisplayName("Should follow a streaming load")
+    void testStreamingAppend() {
+        PieceTableDocument doc = PieceTableDocument.streaming(CharBuffer.wrap("x\ny\nzz\nlast".toCharArray()));
+        LineIndex index = LineIndex.of(doc);
+        doc.appendOriginal(3);
+        doc.appendOriginal(11);
+        assertEquals(4, index.getLineCount());
+        assertEquals(7, index.getLineStartOffset(3));
+        assertMatchesRoot(doc, index);
+    }
+}
@@ -0,0 +1,74 @@
+// -----------------------------
+// File: src/test/editor/text/LiteralSearchBenchmark.java
+// -----------------------------
+package test.editor.text;
+
+import editor.text.DocumentCharSequence;
+import editor.text.DocumentSearch;
+import editor.text.PieceTableDocument;
+import java.nio.CharBuffer;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * One Find Next / Find Previous across a 100 MB document whose only matches
+ * are at its two ends. Compares the old getText()/toLowerCase()/indexOf path,
+ * a literal regex over the document, and DocumentSearch's Boyer-Moore-Horspool
+ * path.
+ *
+ * Run with: java -Xmx3g test.editor.text.LiteralSearchBenchmark
+ */
+public class LiteralSearchBenchmark {
+    private static final int SIZE = 100 * 1024 * 1024;
+    private static final String NEEDLE = "Horspool_Needle";
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) throws Exception {
+        Random rnd = new Random(1);
+        String words = "the quick brown fox jumps over a lazy dog\nHORSE pool needle Hors ";
+        char[] text = new char[SIZE];
+        for (int i = 0; i < SIZE - NEEDLE.length(); i++) {
+            text[i] = words.charAt(rnd.nextInt(words.length()));
+        }
+        NEEDLE.getChars(0, NEEDLE.length(), text, 0);
+        NEEDLE.getChars(0, NEEDLE.length(), text, SIZE - NEEDLE.length());
+        PieceTableDocument doc = new PieceTableDocument(CharBuffer.wrap(text));
+        // a few edits so the scan crosses piece boundaries
+        for (int i = 1; i <= 8; i++) {
+            doc.insertString(i * (SIZE / 10), " edit ", null);
+        }
+
+        for (boolean matchCase : new boolean[] {true, false}) {
+            String needle = matchCase ? NEEDLE : NEEDLE.toLowerCase();
+            System.out.println(matchCase ? "Match case:" : "Ignore case:");
+            time("  getText + indexOf     ", () -> {
+                String content = doc.getText(0, doc.getLength());
+                if (!matchCase) content = content.toLowerCase();
+                return content.indexOf(needle, 1);
+            });
+            Pattern regex = DocumentSearch.compile(needle, matchCase, false);
+            time("  literal regex         ", () -> {
+                var m = regex.matcher(new DocumentCharSequence(doc));
+                return m.find(1) ? m.start() : -1;
+            });
+            DocumentSearch search = new DocumentSearch(needle, matchCase, false, false);
+            time("  Boyer-Moore-Horspool  ", () -> search.find(doc, 1, true).start);
+            time("  BMH, Find Previous    ", () -> search.find(doc, doc.getLength() - NEEDLE.length(), false).start);
+        }
+    }
+
+    private interface Search {
+        int run() throws Exception;
+    }
+
+    private static void time(String name, Search search) throws Exception {
+        long best = Long.MAX_VALUE;
+        int found = 0;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            found = search.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("%s %7.1f ms  (found at %d)%n", name, best / 1e6, found);
+    }
+}
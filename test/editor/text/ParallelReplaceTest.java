@@ -0,0 +1,94 @@
+// -----------------------------
+// File: src/test/editor/text/ParallelReplaceTest.java
+// -----------------------------
+package test.editor.text;
+
+import editor.text.DocumentSearch;
+import editor.text.ParallelReplace;
+import editor.text.PieceTableDocument;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import static org.junit.jupiter.api.Assertions.*;
+import javax.swing.text.Element;
+import javax.swing.undo.UndoManager;
+import java.nio.CharBuffer;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Unit tests for ParallelReplace and piece table snapshots
+ */
+public class ParallelReplaceTest {
+
+    // about 3 chunks of runs like "aaab", so matches straddle chunk boundaries
+    private static String runs() {
+        Random rnd = new Random(9);
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 3_200_000) {
+            for (int i = rnd.nextInt(7); i >= 0; i--) sb.append('a');
+            sb.append(rnd.nextBoolean() ? "b" : "B\n");
+        }
+        return sb.toString();
+    }
+
+    private static String replaceAll(PieceTableDocument doc, DocumentSearch search, String replacement) throws Exception {
+        ParallelReplace job = new ParallelReplace(search, replacement);
+        List<ParallelReplace.Replacement> found = job.findAll(DocumentSearch.snapshot(doc));
+        ParallelReplace.apply(doc, found);
+        assertEquals(100, job.getProgress());
+        String result = doc.getText(0, doc.getLength());
+        assertLineMap(doc, result);
+        return result;
+    }
+
+    // one line element per line, at the offsets of the replaced text
+    private static void assertLineMap(PieceTableDocument doc, String text) {
+        Element root = doc.getDefaultRootElement();
+        int start = 0;
+        for (int i = 0; i < root.getElementCount(); i++) {
+            assertEquals(start, root.getElement(i).getStartOffset());
+            start = text.indexOf('\n', start) + 1;
+        }
+        assertEquals(0, start, "line count");
+    }
+
+    @Test
+    @DisplayName("Should replace like a single left-to-right pass across chunks")
+    void testMatchesSequentialReplace() throws Exception {
+        String text = runs();
+        PieceTableDocument literal = new PieceTableDocument(CharBuffer.wrap(text.toCharArray()));
+        assertEquals(text.replace("aa", "x"),
+            replaceAll(literal, new DocumentSearch("aa", true, false, false), "x"));
+
+        PieceTableDocument regex = new PieceTableDocument(CharBuffer.wrap(text.toCharArray()));
+        assertEquals(Pattern.compile("(a+)(b)?").matcher(text).replaceAll("<$2\\$$1>"),
+            replaceAll(regex, new DocumentSearch("(a+)(b)?", true, false, true), "<$2\\$$1>"));
+    }
+
+    @Test
+    @DisplayName("Should undo a Replace All in one step")
+    void testCompoundUndo() throws Exception {
+        PieceTableDocument doc = new PieceTableDocument(CharBuffer.wrap("Cat cat concat CAT".toCharArray()));
+        UndoManager undo = new UndoManager();
+        doc.addUndoableEditListener(undo);
+        assertEquals("dog dog concat dog", replaceAll(doc, new DocumentSearch("cat", false, true, false), "dog"));
+        undo.undo();
+        assertEquals("Cat cat concat CAT", doc.getText(0, doc.getLength()));
+        assertLineMap(doc, "Cat cat concat CAT");
+        assertFalse(undo.canUndo(), "Replace All should be one undoable edit");
+    }
+
+    @Test
+    @DisplayName("Should keep a snapshot unchanged while the document is edited")
+    void testSnapshotIsolation() throws Exception {
+        PieceTableDocument doc = new PieceTableDocument(CharBuffer.wrap("hello world".toCharArray()));
+        doc.insertString(5, ",", null);
+        CharSequence snapshot = doc.snapshot();
+        doc.remove(0, 6);
+        doc.insertString(0, "bye", null);
+        assertEquals("hello, world", snapshot.toString());
+        assertEquals("world", snapshot.subSequence(7, 12).toString());
+        assertEquals("bye world", doc.getText(0, doc.getLength()));
+    }
+}
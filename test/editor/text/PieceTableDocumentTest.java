@@ -0,0 +1,117 @@
+// -----------------------------
+// File: src/test/editor/text/PieceTableDocumentTest.java
+// -----------------------------
+package test.editor.text;
+
+import editor.text.PieceTableDocument;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import static org.junit.jupiter.api.Assertions.*;
+import javax.swing.text.Element;
+import javax.swing.text.PlainDocument;
+import javax.swing.text.Position;
+import javax.swing.undo.UndoManager;
+import java.nio.CharBuffer;
+import java.util.Random;
+
+/**
+ * Unit tests for PieceTableDocument / PieceTableContent
+ */
+public class PieceTableDocumentTest {
+
+    private static String lineMap(javax.swing.text.Document doc) {
+        Element root = doc.getDefaultRootElement();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < root.getElementCount(); i++) {
+            Element e = root.getElement(i);
+            sb.append(e.getStartOffset()).append('-').append(e.getEndOffset()).append(' ');
+        }
+        return sb.toString();
+    }
+
+    @Test
+    @DisplayName("Should load text without going through insertString")
+    void testLoadOriginal() throws Exception {
+        PieceTableDocument doc = new PieceTableDocument(CharBuffer.wrap("one\ntwo\nthree".toCharArray()));
+        assertEquals("one\ntwo\nthree", doc.getText(0, doc.getLength()));
+        assertEquals(3, doc.getDefaultRootElement().getElementCount(), "Should build one element per line");
+        assertEquals(1, doc.getPieceTable().getPieceCount() - 1, "Original should be a single piece");
+    }
+
+    @Test
+    @DisplayName("Should merge consecutive typing into one piece")
+    void testTypingExtendsPiece() throws Exception {
+        PieceTableDocument doc = new PieceTableDocument(CharBuffer.wrap("hello world".toCharArray()));
+        for (int i = 0; i < 5; i++) {
+            doc.insertString(5 + i, "x", null);
+        }
+        assertEquals("helloxxxxx world", doc.getText(0, doc.getLength()));
+        // original split in two around one add piece, plus the implied newline
+        assertEquals(4, doc.getPieceTable().getPieceCount());
+    }
+
+    @Test
+    @DisplayName("Should keep the piece count as edits split the original")
+    void testPieceCount() throws Exception {
+        PieceTableDocument doc = new PieceTableDocument(CharBuffer.wrap("abcdefghij".toCharArray()));
+        for (int at = 9; at > 0; at -= 2) {
+            doc.insertString(at, "x", null);
+        }
+        assertEquals("axbcxdexfgxhixj", doc.getText(0, doc.getLength()));
+        // six original pieces, five added ones and the implied newline
+        assertEquals(12, doc.getPieceTable().getPieceCount());
+        doc.remove(0, doc.getLength());
+        assertEquals(1, doc.getPieceTable().getPieceCount(), "Only the implied newline is left");
+    }
+
+    @Test
+    @DisplayName("Should match PlainDocument for random edits, undo and redo")
+    void testMatchesPlainDocument() throws Exception {
+        Random rnd = new Random(42);
+        String init = "alpha\nbeta\ngamma\n";
+        PlainDocument expected = new PlainDocument();
+        expected.insertString(0, init, null);
+        PieceTableDocument actual = new PieceTableDocument(CharBuffer.wrap(init.toCharArray()));
+        UndoManager expectedUndo = new UndoManager();
+        UndoManager actualUndo = new UndoManager();
+        expected.addUndoableEditListener(expectedUndo);
+        actual.addUndoableEditListener(actualUndo);
+
+        for (int step = 0; step < 2000; step++) {
+            int len = expected.getLength();
+            int op = rnd.nextInt(10);
+            if (op < 5) {
+                int offset = rnd.nextInt(len + 1);
+                String s = rnd.nextInt(3) == 0 ? "\n" : "ab";
+                expected.insertString(offset, s, null);
+                actual.insertString(offset, s, null);
+            } else if (op < 8 && len > 0) {
+                int offset = rnd.nextInt(len);
+                int n = 1 + rnd.nextInt(Math.min(5, len - offset));
+                expected.remove(offset, n);
+                actual.remove(offset, n);
+            } else if (rnd.nextBoolean() && expectedUndo.canUndo()) {
+                expectedUndo.undo();
+                actualUndo.undo();
+            } else if (expectedUndo.canRedo()) {
+                expectedUndo.redo();
+                actualUndo.redo();
+            }
+            assertEquals(expected.getText(0, expected.getLength()), actual.getText(0, actual.getLength()));
+            assertEquals(lineMap(expected), lineMap(actual), "Line elements should match at step " + step);
+        }
+    }
+
+    @Test
+    @DisplayName("Should keep positions sticky across edits")
+    void testPositions() throws Exception {
+        PieceTableDocument doc = new PieceTableDocument(CharBuffer.wrap("abcdef".toCharArray()));
+        Position start = doc.createPosition(0);
+        Position mid = doc.createPosition(3);
+        doc.insertString(0, "xx", null);
+        assertEquals(0, start.getOffset(), "Position at 0 should not move");
+        assertEquals(5, mid.getOffset());
+        doc.remove(4, 3);
+        assertEquals(4, mid.getOffset(), "Position inside removed range should collapse");
+    }
+}
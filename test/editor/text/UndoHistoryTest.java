@@ -0,0 +1,149 @@
+// -----------------------------
+// File: src/test/editor/text/UndoHistoryTest.java
+// -----------------------------
+package test.editor.text;
+
+import editor.text.PieceTableDocument;
+import editor.text.UndoHistory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import static org.junit.jupiter.api.Assertions.*;
+import javax.swing.text.PlainDocument;
+
+/**
+ * Unit tests for typing coalescing and the byte budget of UndoHistory
+ */
+public class UndoHistoryTest {
+
+    private static void type(PieceTableDocument doc, String keys) throws Exception {
+        for (char c : keys.toCharArray()) {
+            doc.insertString(doc.getLength(), String.valueOf(c), null);
+        }
+    }
+
+    private static String text(javax.swing.text.Document doc) throws Exception {
+        return doc.getText(0, doc.getLength());
+    }
+
+    @Test
+    @DisplayName("Should undo typing a word or line at a time")
+    void testTypingCoalesces() throws Exception {
+        PieceTableDocument doc = new PieceTableDocument();
+        UndoHistory undo = new UndoHistory();
+        doc.addUndoableEditListener(undo);
+        type(doc, "hello world\nnext");
+
+        undo.undo();
+        assertEquals("hello world\n", text(doc), "A line break ends the step");
+        undo.undo();
+        assertEquals("hello ", text(doc), "A new word starts a step");
+        undo.undo();
+        assertEquals("", text(doc));
+        assertFalse(undo.canUndo());
+
+        undo.redo();
+        undo.redo();
+        assertEquals("hello world\n", text(doc));
+    }
+
+    @Test
+    @DisplayName("Should group Backspace runs and stop at a caret jump")
+    void testDeletesCoalesce() throws Exception {
+        PieceTableDocument doc = new PieceTableDocument();
+        UndoHistory undo = new UndoHistory();
+        doc.insertString(0, "abcdef", null);
+        doc.addUndoableEditListener(undo);
+        doc.remove(5, 1);
+        doc.remove(4, 1);
+        doc.remove(3, 1);
+        doc.remove(0, 1);          // somewhere else
+        assertEquals("bc", text(doc));
+
+        undo.undo();
+        assertEquals("abc", text(doc));
+        undo.undo();
+        assertEquals("abcdef", text(doc));
+        assertFalse(undo.canUndo());
+    }
+
+    @Test
+    @DisplayName("Should not merge into a step that was undone or closed")
+    void testNoMergeAfterUndo() throws Exception {
+        PieceTableDocument doc = new PieceTableDocument();
+        UndoHistory undo = new UndoHistory();
+        doc.addUndoableEditListener(undo);
+        type(doc, "ab");
+        undo.undo();
+        type(doc, "cd");
+        undo.closeTyping();
+        type(doc, "e");
+        undo.undo();
+        assertEquals("cd", text(doc));
+        undo.undo();
+        assertEquals("", text(doc));
+    }
+
+    @Test
+    @DisplayName("Should drop the oldest steps once past the byte budget")
+    void testBudget() throws Exception {
+        PlainDocument doc = new PlainDocument();
+        doc.insertString(0, "x".repeat(10_000), null);
+        UndoHistory undo = new UndoHistory(10_000);
+        doc.addUndoableEditListener(undo);
+        for (int i = 0; i < 5; i++) {
+            doc.remove(0, 2_000);  // each keeps 4 KB of removed text
+            assertTrue(undo.getUsedBytes() <= undo.getBudget() || i == 0);
+        }
+        assertTrue(undo.getUsedBytes() <= 10_000);
+        int steps = 0;
+        while (undo.canUndo()) {
+            undo.undo();
+            steps++;
+        }
+        assertTrue(steps > 0 && steps < 5, "Oldest steps were dropped: " + steps);
+
+        undo.discardAllEdits();
+        assertEquals(0, undo.getUsedBytes());
+    }
+
+    @Test
+    @DisplayName("Should replace the whole text by its changed span only")
+    void testReplaceTextKeepsDelta() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10_000; i++) sb.append("line ").append(i).append('\n');
+        String before = sb.toString();
+        PieceTableDocument doc = new PieceTableDocument(before);
+        UndoHistory undo = new UndoHistory();
+        doc.addUndoableEditListener(undo);
+
+        String after = before.replace("line 5000\n", "changed\n");
+        doc.replaceText(after);
+        assertEquals(after, text(doc));
+        assertTrue(undo.getUsedBytes() < 2_000, "Only the changed line is held: " + undo.getUsedBytes());
+
+        undo.undo();
+        assertEquals(before, text(doc));
+        assertFalse(undo.canUndo(), "The replace is one step");
+    }
+
+    @Test
+    @DisplayName("Should tell change listeners only when the history changes")
+    void testChangeEvents() throws Exception {
+        PieceTableDocument doc = new PieceTableDocument();
+        UndoHistory undo = new UndoHistory();
+        doc.addUndoableEditListener(undo);
+        int[] events = {0};
+        undo.addChangeListener(e -> events[0]++);
+
+        type(doc, "abc");
+        assertEquals(1, events[0], "Keys merged into a step change nothing");
+        undo.undo();
+        assertEquals(2, events[0]);
+        assertTrue(undo.canRedo());
+        undo.redo();
+        assertEquals(3, events[0]);
+        undo.discardAllEdits();
+        assertEquals(4, events[0]);
+        assertFalse(undo.canUndo());
+    }
+}
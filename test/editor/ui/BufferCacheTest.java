@@ -0,0 +1,132 @@
+// -----------------------------
+// File: src/test/editor/ui/BufferCacheTest.java
+// -----------------------------
+package test.editor.ui;
+
+import editor.ui.BufferCache;
+import editor.ui.TextAreaPanel;
+import editor.ui.Workspace;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import javax.swing.SwingUtilities;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for evicting and reloading the editors of inactive tabs
+ */
+public class BufferCacheTest {
+
+    private Workspace workspace;
+    private final List<Path> files = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        for (int i = 0; i < 3; i++) {
+            Path file = Files.createTempFile("buffer" + i, ".txt");
+            Files.write(file, ("file " + i + "\nsecond line\n").getBytes(StandardCharsets.UTF_8));
+            files.add(file);
+        }
+        SwingUtilities.invokeAndWait(() -> workspace = new Workspace(null, null));
+        for (Path file : files) {
+            open(file);
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        SwingUtilities.invokeAndWait(() -> workspace.close());
+        for (Path file : files) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // shows a file and waits until it is loaded
+    private TextAreaPanel open(Path file) throws Exception {
+        CountDownLatch loaded = new CountDownLatch(1);
+        TextAreaPanel[] panel = new TextAreaPanel[1];
+        SwingUtilities.invokeAndWait(() -> workspace.open(file, p -> {
+            panel[0] = p;
+            loaded.countDown();
+        }));
+        assertTrue(loaded.await(5, TimeUnit.SECONDS), "File should load");
+        return panel[0];
+    }
+
+    @Test
+    @DisplayName("Should keep every editor while within budget")
+    void testWithinBudget() throws Exception {
+        SwingUtilities.invokeAndWait(() -> {
+            BufferCache cache = workspace.getBufferCache();
+            cache.trim();
+            assertEquals(3, cache.getBufferCount());
+            assertEquals(0, cache.getEvictions());
+            assertEquals(3, cache.getMisses());
+            assertTrue(cache.getUsedBytes() > 0);
+        });
+    }
+
+    @Test
+    @DisplayName("Should evict the least recently shown clean editors over budget")
+    void testEvictsOldestClean() throws Exception {
+        SwingUtilities.invokeAndWait(() -> {
+            BufferCache cache = workspace.getBufferCache();
+            cache.setBudget(1);
+            assertEquals(2, cache.getEvictions());
+            assertNull(workspace.getPanel(0), "Oldest tab should be back to a path");
+            assertNull(workspace.getPanel(1));
+            assertNotNull(workspace.getPanel(2), "The shown tab should stay");
+            assertEquals(3, workspace.getTabCount(), "Evicted tabs should stay open");
+        });
+    }
+
+    @Test
+    @DisplayName("Should never evict an editor with unsaved changes")
+    void testKeepsModified() throws Exception {
+        SwingUtilities.invokeAndWait(() -> {
+            workspace.getPanel(0).getTextArea().insert("x", 0);
+            workspace.getBufferCache().setBudget(1);
+            assertNotNull(workspace.getPanel(0));
+            assertNull(workspace.getPanel(1));
+        });
+    }
+
+    @Test
+    @DisplayName("Should reload an evicted tab at the same caret when shown")
+    void testReloadsEvicted() throws Exception {
+        SwingUtilities.invokeAndWait(() -> {
+            workspace.setSelectedIndex(0);
+            workspace.getActivePanel().getTextArea().setCaretPosition(5);
+            workspace.setSelectedIndex(2);
+            workspace.getBufferCache().setBudget(1);
+            assertNull(workspace.getPanel(0));
+            workspace.getBufferCache().setBudget(Long.MAX_VALUE);
+        });
+        CountDownLatch reloaded = new CountDownLatch(1);
+        SwingUtilities.invokeAndWait(() -> {
+            workspace.setSelectedIndex(0);
+            workspace.getActivePanel().addPropertyChangeListener("loadProgress", e -> {
+                if (Integer.valueOf(-1).equals(e.getNewValue())) reloaded.countDown();
+            });
+        });
+        assertTrue(reloaded.await(5, TimeUnit.SECONDS), "Evicted file should load again");
+        SwingUtilities.invokeAndWait(() -> {
+            TextAreaPanel panel = workspace.getActivePanel();
+            assertEquals("file 0\nsecond line\n", panel.getTextContent());
+            assertEquals(5, panel.getTextArea().getCaretPosition());
+            assertFalse(panel.isModified());
+            BufferCache cache = workspace.getBufferCache();
+            assertEquals(4, cache.getMisses());
+            assertTrue(cache.getHits() >= 1, "Showing tab 2 again was a hit");
+        });
+    }
+}
@@ -0,0 +1,73 @@
+// -----------------------------
+// File: src/test/editor/ui/LineNumberViewBenchmark.java
+// -----------------------------
+package test.editor.ui;
+
+import editor.ui.LineNumberView;
+import javax.swing.JTextArea;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+
+/**
+ * Paint benchmark for LineNumberView: time and bytes allocated per repaint of
+ * one screen of line numbers while scrolling through a large document.
+ *
+ * Run with: java -Djava.awt.headless=true test.editor.ui.LineNumberViewBenchmark
+ */
+public class LineNumberViewBenchmark {
+    private static final int LINES = 1_000_000;
+    private static final int VISIBLE = 60;
+    private static final int WARMUP = 20_000;
+    private static final int RUNS = 50_000;
+    private static final int POSITIONS = 256;
+
+    public static void main(String[] args) throws Exception {
+        StringBuilder sb = new StringBuilder(LINES * 2);
+        for (int i = 1; i < LINES; i++) sb.append('\n');
+        JTextArea textArea = new JTextArea(sb.toString());
+        textArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 14));
+        LineNumberView view = new LineNumberView(textArea);
+        int rowHeight = view.getFontMetrics(textArea.getFont()).getHeight();
+        int height = rowHeight * VISIBLE;
+        view.setSize(view.getPreferredSize().width, rowHeight * LINES);
+
+        // one graphics per scroll position, made up front so the loop itself allocates nothing
+        BufferedImage screen = new BufferedImage(view.getWidth(), height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D screenGraphics = screen.createGraphics();
+        Object[][] graphics = new Object[POSITIONS][];
+        for (int i = 0; i < POSITIONS; i++) {
+            // spread over six- and seven-digit line numbers
+            int top = (LINES - VISIBLE - 1 - i * (LINES / 2 / POSITIONS)) * rowHeight;
+            Graphics g = screenGraphics.create();
+            g.translate(0, -top);
+            g.setClip(0, top, view.getWidth(), height);
+            graphics[i] = new Object[] {g};
+        }
+        Method paint = LineNumberView.class.getDeclaredMethod("paintComponent", Graphics.class);
+        paint.setAccessible(true);
+
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+
+        run(paint, view, graphics, WARMUP);
+        long bytes = threads.getThreadAllocatedBytes(tid);
+        long start = System.nanoTime();
+        run(paint, view, graphics, RUNS);
+        long nanos = System.nanoTime() - start;
+        bytes = threads.getThreadAllocatedBytes(tid) - bytes;
+
+        System.out.printf("%d repaints of %d lines: %.1f us/repaint, %.1f bytes/repaint%n",
+            RUNS, VISIBLE, nanos / 1e3 / RUNS, (double) bytes / RUNS);
+    }
+
+    private static void run(Method paint, LineNumberView view, Object[][] graphics, int runs) throws Exception {
+        for (int i = 0; i < runs; i++) {
+            paint.invoke(view, graphics[i % graphics.length]);
+        }
+    }
+}
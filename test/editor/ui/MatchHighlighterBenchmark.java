@@ -0,0 +1,82 @@
+// -----------------------------
+// File: src/test/editor/ui/MatchHighlighterBenchmark.java
+// -----------------------------
+package test.editor.ui;
+
+import editor.text.DocumentSearch;
+import editor.text.PieceTableDocument;
+import editor.ui.MatchHighlighter;
+import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * Paint benchmark for MatchHighlighter: time per repaint of one screen of
+ * highlights while scrolling through a document with 400k matches, the first
+ * time through (blocks searched) and again (blocks cached), and after typing
+ * a line near the top (only the edited block searched again).
+ *
+ * Run with: java -Djava.awt.headless=true test.editor.ui.MatchHighlighterBenchmark
+ */
+public class MatchHighlighterBenchmark {
+    private static final int LINES = 200_000;
+    private static final int VISIBLE = 60;
+    private static final int POSITIONS = 2000;
+
+    public static void main(String[] args) throws Exception {
+        SwingUtilities.invokeAndWait(() -> {
+            try {
+                run();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    private static void run() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < LINES; i++) {
+            sb.append("int needle = needle + ").append(i).append(";\n");
+        }
+        JTextArea textArea = new JTextArea(new PieceTableDocument());
+        textArea.setText(sb.toString());
+        textArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 14));
+        textArea.setSize(textArea.getPreferredSize());
+        MatchHighlighter highlighter = new MatchHighlighter(textArea);
+        highlighter.setSearch(new DocumentSearch("needle", true, true, false));
+
+        int rowHeight = textArea.getFontMetrics(textArea.getFont()).getHeight();
+        int height = rowHeight * VISIBLE;
+        BufferedImage screen = new BufferedImage(textArea.getWidth(), height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D screenGraphics = screen.createGraphics();
+        Rectangle bounds = new Rectangle(0, 0, textArea.getWidth(), textArea.getHeight());
+
+        // scroll down a screen-third at a time, as with the mouse wheel
+        double first = time(textArea, highlighter, screenGraphics, bounds, height);
+        double cached = time(textArea, highlighter, screenGraphics, bounds, height);
+        textArea.getDocument().insertString(textArea.getLineStartOffset(100), "needle\n", null);
+        double edited = time(textArea, highlighter, screenGraphics, bounds, height);
+        System.out.printf("%d repaints of %d lines, 2 matches per line:%n", POSITIONS, VISIBLE);
+        System.out.printf("  first scroll  %6.1f us/repaint%n", first);
+        System.out.printf("  cached        %6.1f us/repaint%n", cached);
+        System.out.printf("  after an edit %6.1f us/repaint%n", edited);
+    }
+
+    private static double time(JTextArea textArea, MatchHighlighter highlighter, Graphics2D screen,
+                               Rectangle bounds, int height) {
+        long start = System.nanoTime();
+        for (int i = 0; i < POSITIONS; i++) {
+            int top = i * height / 3;
+            Graphics g = screen.create();
+            g.translate(0, -top);
+            g.setClip(0, top, textArea.getWidth(), height);
+            highlighter.paint(g, 0, 0, bounds, textArea);
+            g.dispose();
+        }
+        return (System.nanoTime() - start) / 1e3 / POSITIONS;
+    }
+}
@@ -0,0 +1,102 @@
+// -----------------------------
+// File: src/test/editor/ui/MatchHighlighterTest.java
+// -----------------------------
+package test.editor.ui;
+
+import editor.text.DocumentSearch;
+import editor.text.PieceTableDocument;
+import editor.ui.MatchHighlighter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import static org.junit.jupiter.api.Assertions.*;
+import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+import javax.swing.text.Document;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Unit tests for MatchHighlighter
+ */
+public class MatchHighlighterTest {
+
+    private JTextArea textArea;
+    private MatchHighlighter highlighter;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        SwingUtilities.invokeAndWait(() -> {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 2000; i++) {
+                sb.append("line ").append(i).append(i % 3 == 0 ? " match\n" : "\n");
+            }
+            textArea = new JTextArea(new PieceTableDocument());
+            textArea.setText(sb.toString());
+            highlighter = new MatchHighlighter(textArea);
+        });
+    }
+
+    // every match of "match" by a plain scan, as start/end pairs on lines [first, last]
+    private int[] expected(int first, int last) throws Exception {
+        Document doc = textArea.getDocument();
+        String text = doc.getText(0, doc.getLength());
+        int from = textArea.getLineStartOffset(first);
+        int to = textArea.getLineEndOffset(last);
+        List<Integer> found = new ArrayList<>();
+        for (int i = text.indexOf("match", from); i >= 0 && i < to; i = text.indexOf("match", i + 5)) {
+            found.add(i);
+            found.add(i + 5);
+        }
+        return found.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    @Test
+    @DisplayName("Should find the matches of the requested lines only")
+    void testVisibleLines() throws Exception {
+        SwingUtilities.invokeAndWait(() -> {
+            try {
+                highlighter.setSearch(new DocumentSearch("match", true, false, false));
+                assertArrayEquals(expected(300, 359), highlighter.getMatches(300, 359));
+                assertEquals(20, highlighter.getMatches(300, 359).length / 2);
+                assertArrayEquals(expected(0, 1999), highlighter.getMatches(0, 1999));
+                highlighter.setSearch(null);
+                assertEquals(0, highlighter.getMatches(0, 1999).length);
+            } catch (Exception e) {
+                fail(e.toString());
+            }
+        });
+    }
+
+    @Test
+    @DisplayName("Should keep the matches right across edits that add and remove lines")
+    void testEdits() throws Exception {
+        SwingUtilities.invokeAndWait(() -> {
+            try {
+                highlighter.setSearch(new DocumentSearch("match", true, false, false));
+                highlighter.getMatches(0, textArea.getLineCount() - 1);
+                Document doc = textArea.getDocument();
+                Random rnd = new Random(3);
+                String[] inserts = {"x", "match", "\n", "a\nmatch\nb\n", "mat", "ch\n\n"};
+                for (int i = 0; i < 300; i++) {
+                    int at = rnd.nextInt(doc.getLength());
+                    if (rnd.nextBoolean()) {
+                        doc.insertString(at, inserts[rnd.nextInt(inserts.length)], null);
+                    } else {
+                        doc.remove(at, Math.min(doc.getLength() - at, rnd.nextInt(i % 50 == 0 ? 5000 : 20)));
+                    }
+                    int line = textArea.getLineOfOffset(at);
+                    int first = Math.max(0, line - 40);
+                    int last = Math.min(textArea.getLineCount() - 1, line + 40);
+                    assertArrayEquals(expected(first, last), highlighter.getMatches(first, last), "edit " + i);
+                }
+                int last = textArea.getLineCount() - 1;
+                assertArrayEquals(expected(0, last), highlighter.getMatches(0, last));
+            } catch (Exception e) {
+                fail(e.toString());
+            }
+        });
+    }
+}
@@ -3,7 +3,9 @@
 // -----------------------------
 package test.editor.ui;
 
+import editor.text.LineEndings;
 import editor.ui.TextAreaPanel;
+import editor.utils.EditJournal;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.AfterEach;
@@ -18,7 +20,11 @@ import java.nio.file.Path;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeEvent;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
 
 /**
  * Unit tests for TextAreaPanel class
@@ -248,6 +254,52 @@ public class TextAreaPanelTest {
         }
     }
 
+    @Test
+    @DisplayName("Should stream a file in without marking it modified")
+    void testStreamingLoad() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 50_000; i++) {
+            sb.append("streamed line ").append(i).append('\n');
+        }
+        Files.writeString(tempFile, sb.toString());
+        
+        CountDownLatch done = new CountDownLatch(1);
+        SwingUtilities.invokeAndWait(() -> {
+            panel.addPropertyChangeListener("loadProgress", evt -> {
+                if ((Integer) evt.getNewValue() < 0) done.countDown();
+            });
+            panel.loadFile(tempFile);
+        });
+        
+        assertTrue(done.await(10, TimeUnit.SECONDS), "Load should finish");
+        SwingUtilities.invokeAndWait(() -> {
+            assertFalse(panel.isLoading(), "Panel should not be loading any more");
+            assertEquals(sb.toString(), panel.getTextArea().getText(), "All batches should be appended");
+            assertFalse(panel.isModified(), "Loading should not mark the panel modified");
+            assertFalse(panel.getUndoManager().canUndo(), "Loading should not be undoable");
+            assertTrue(panel.getTextArea().isEditable(), "Text area should be editable after loading");
+        });
+    }
+
+    @Test
+    @DisplayName("Should coalesce status updates from a typing burst")
+    void testStatusCoalescing() throws Exception {
+        List<Object> caretEvents = new CopyOnWriteArrayList<>();
+        SwingUtilities.invokeAndWait(() -> {
+            panel.addPropertyChangeListener("caret", evt -> caretEvents.add(evt.getNewValue()));
+            for (int i = 0; i < 100; i++) {
+                panel.getTextArea().replaceSelection("x");
+            }
+        });
+
+        Thread.sleep(200);
+        assertEquals(List.of("1,101"), caretEvents, "A burst should publish one caret update");
+
+        SwingUtilities.invokeAndWait(() -> panel.getTextArea().setCaretPosition(100));
+        Thread.sleep(200);
+        assertEquals(1, caretEvents.size(), "An unchanged position should not be published again");
+    }
+
     @Test
     @DisplayName("Should handle non-existent files gracefully")
     void testNonExistentFile() throws Exception {
@@ -263,4 +315,53 @@ public class TextAreaPanelTest {
             }
         });
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("Should keep mixed line endings as they are until a style is picked")
+    void testMixedLineEndings() throws Exception {
+        Files.write(tempFile, "a\r\nb\nc\rd".getBytes());
+        CountDownLatch loaded = new CountDownLatch(1);
+        SwingUtilities.invokeAndWait(() -> panel.loadFile(tempFile, loaded::countDown));
+        assertTrue(loaded.await(5, TimeUnit.SECONDS), "File should load");
+
+        SwingUtilities.invokeAndWait(() -> {
+            assertEquals("a\r\nb\nc\rd", panel.getTextContent());
+            assertNull(panel.getLineEnding(), "No style is imposed on a mixed file");
+            assertEquals("Mixed", panel.getFileType());
+            panel.getTextArea().insert("x", 0);
+            panel.saveFile(tempFile);
+        });
+        for (int i = 0; i < 100 && Files.readAllBytes(tempFile)[0] != 'x'; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals("xa\r\nb\nc\rd", new String(Files.readAllBytes(tempFile)));
+
+        SwingUtilities.invokeAndWait(() -> {
+            assertTrue(panel.setLineEnding(LineEndings.Style.LF));
+            assertEquals("xa\nb\nc\nd", panel.getTextContent());
+            assertEquals(LineEndings.Style.LF, panel.getLineEnding());
+        });
+    }
+
+    @Test
+    @DisplayName("Should finish a queued save before deleting the journal on close")
+    void testCloseAfterSave() throws Exception {
+        Path journals = Files.createTempDirectory("journal");
+        Future<?>[] saves = new Future<?>[2];
+        SwingUtilities.invokeAndWait(() -> {
+            panel.setJournal(new EditJournal(journals));
+            panel.getTextArea().setText("saved on close");
+            saves[0] = panel.saveFile(tempFile);
+            saves[1] = panel.saveFile(journals); // a directory: the save fails
+            panel.close();
+        });
+        assertTrue(panel.awaitClosed(5, TimeUnit.SECONDS), "Close should wait for the saves");
+        assertEquals(Boolean.TRUE, saves[0].get());
+        assertEquals(Boolean.FALSE, saves[1].get());
+        assertEquals("saved on close", Files.readString(tempFile));
+        try (Stream<Path> left = Files.list(journals)) {
+            assertEquals(0, left.count(), "The journal goes once the save is written");
+        }
+        Files.delete(journals);
+    }
+}
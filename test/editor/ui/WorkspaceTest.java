@@ -0,0 +1,119 @@
+// -----------------------------
+// File: src/test/editor/ui/WorkspaceTest.java
+// -----------------------------
+package test.editor.ui;
+
+import editor.ui.TextAreaPanel;
+import editor.ui.Workspace;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import javax.swing.SwingUtilities;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for the tabs of open documents and their lazy loading
+ */
+public class WorkspaceTest {
+
+    private Workspace workspace;
+    private final List<Path> files = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        for (int i = 0; i < 3; i++) {
+            Path file = Files.createTempFile("tab" + i, ".txt");
+            Files.write(file, ("file " + i + "\nline 2\n").getBytes(StandardCharsets.UTF_8));
+            files.add(file);
+        }
+        SwingUtilities.invokeAndWait(() -> workspace = new Workspace(null, null));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        SwingUtilities.invokeAndWait(() -> workspace.close());
+        for (Path file : files) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    @DisplayName("Should start with one empty document")
+    void testStartsWithNewDocument() throws Exception {
+        SwingUtilities.invokeAndWait(() -> {
+            assertEquals(1, workspace.getTabCount());
+            assertNotNull(workspace.getActivePanel());
+            assertNull(workspace.getFile(0));
+        });
+    }
+
+    @Test
+    @DisplayName("Should not create editors for tabs that were never shown")
+    void testLazyTabs() throws Exception {
+        SwingUtilities.invokeAndWait(() -> {
+            workspace.add(files.get(0));
+            workspace.add(files.get(1));
+            workspace.add(files.get(2));
+            // the untouched new document made way for the files
+            assertEquals(3, workspace.getTabCount());
+            assertEquals(1, workspace.getPanels().size(), "Only the shown tab has an editor");
+            assertNull(workspace.getPanel(1));
+            assertNull(workspace.getPanel(2));
+        });
+    }
+
+    @Test
+    @DisplayName("Should load a tab when it is shown and run the callback")
+    void testOpenLoadsWhenShown() throws Exception {
+        CountDownLatch loaded = new CountDownLatch(1);
+        String[] text = new String[1];
+        SwingUtilities.invokeAndWait(() -> {
+            workspace.add(files.get(0));
+            workspace.add(files.get(1));
+            workspace.open(files.get(1), panel -> {
+                text[0] = panel.getTextContent();
+                loaded.countDown();
+            });
+        });
+        assertTrue(loaded.await(5, TimeUnit.SECONDS), "File should load");
+        assertEquals("file 1\nline 2\n", text[0]);
+        SwingUtilities.invokeAndWait(() -> {
+            assertEquals(1, workspace.getSelectedIndex());
+            assertEquals(files.get(1).toAbsolutePath().normalize(), workspace.getActivePanel().getCurrentFile());
+        });
+    }
+
+    @Test
+    @DisplayName("Should show the existing tab when a file is opened again")
+    void testOpenSameFileTwice() throws Exception {
+        SwingUtilities.invokeAndWait(() -> {
+            workspace.open(files.get(0));
+            workspace.open(files.get(1));
+            workspace.open(files.get(0));
+            assertEquals(2, workspace.getTabCount());
+            assertEquals(0, workspace.getSelectedIndex());
+        });
+    }
+
+    @Test
+    @DisplayName("Should keep one document open when the last tab is closed")
+    void testCloseLastTab() throws Exception {
+        SwingUtilities.invokeAndWait(() -> {
+            workspace.open(files.get(0));
+            TextAreaPanel first = workspace.getActivePanel();
+            workspace.close(0);
+            assertEquals(1, workspace.getTabCount());
+            assertNotSame(first, workspace.getActivePanel());
+            assertNull(workspace.getFile(0));
+        });
+    }
+}
@@ -0,0 +1,94 @@
+// -----------------------------
+// File: src/test/editor/utils/BackgroundIOTest.java
+// -----------------------------
+package test.editor.utils;
+
+import editor.utils.BackgroundIO;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for the I/O pool shared by all open documents
+ */
+public class BackgroundIOTest {
+
+    @Test
+    @DisplayName("Should run a serial executor's tasks in order, one at a time")
+    void testSerialOrder() throws Exception {
+        ExecutorService serial = BackgroundIO.serial();
+        List<Integer> seen = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < 1000; i++) {
+            int n = i;
+            serial.execute(() -> seen.add(n));
+        }
+        serial.shutdown();
+        assertTrue(serial.awaitTermination(5, TimeUnit.SECONDS));
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            expected.add(i);
+        }
+        assertEquals(expected, seen);
+    }
+
+    @Test
+    @DisplayName("Should not add threads for more documents")
+    void testThreadsStayBounded() throws Exception {
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        List<ExecutorService> documents = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            ExecutorService serial = BackgroundIO.serial();
+            documents.add(serial);
+            serial.execute(() -> threads.add(Thread.currentThread()));
+        }
+        for (ExecutorService serial : documents) {
+            serial.shutdown();
+            assertTrue(serial.awaitTermination(5, TimeUnit.SECONDS));
+        }
+        assertTrue(threads.size() <= BackgroundIO.getThreadCount(),
+            threads.size() + " threads for 200 documents");
+    }
+
+    @Test
+    @DisplayName("Should reject tasks after shutdown and drop queued ones on shutdownNow")
+    void testShutdown() throws Exception {
+        ExecutorService serial = BackgroundIO.serial();
+        CountDownLatch started = new CountDownLatch(1);
+        serial.execute(() -> {
+            started.countDown();
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                // cancelled
+            }
+        });
+        serial.execute(() -> { });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertEquals(1, serial.shutdownNow().size(), "The queued task should be dropped");
+        assertThrows(RejectedExecutionException.class, () -> serial.execute(() -> { }));
+        assertTrue(serial.awaitTermination(5, TimeUnit.SECONDS), "The running task should be interrupted");
+    }
+
+    @Test
+    @DisplayName("Should go on with the queued tasks after one throws an Error")
+    void testError() throws Exception {
+        ExecutorService serial = BackgroundIO.serial();
+        List<Integer> seen = Collections.synchronizedList(new ArrayList<>());
+        serial.execute(() -> seen.add(1));
+        serial.execute(() -> { throw new AssertionError("task failed"); });
+        serial.execute(() -> seen.add(2));
+        serial.shutdown();
+        assertTrue(serial.awaitTermination(5, TimeUnit.SECONDS), "The tasks after the Error should still run");
+        assertEquals(Arrays.asList(1, 2), seen);
+    }
+}
@@ -0,0 +1,64 @@
+// -----------------------------
+// File: src/test/editor/utils/EditJournalBenchmark.java
+// -----------------------------
+package test.editor.utils;
+
+import editor.text.PieceTableDocument;
+import editor.utils.EditJournal;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Cost of journaling on the editing thread: a session of typed keystrokes
+ * and backspaces into a 10 MB document, with and without an EditJournal
+ * listening, then the time the journal thread needs to catch up.
+ *
+ * Run with: java test.editor.utils.EditJournalBenchmark
+ */
+public class EditJournalBenchmark {
+    private static final int KEYSTROKES = 10_000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        String text = "some line of text in a large file\n".repeat(300_000);
+        Path dir = Files.createTempDirectory("journal-bench");
+        for (int round = 0; round < ROUNDS; round++) {
+            long plain = type(new PieceTableDocument(text), null);
+            EditJournal journal = new EditJournal(dir);
+            PieceTableDocument doc = new PieceTableDocument(text);
+            journal.reset(null, doc.getLength());
+            long journaled = type(doc, journal);
+            long start = System.nanoTime();
+            journal.flush();
+            long flush = System.nanoTime() - start;
+            journal.close();
+            System.out.printf("plain %.2f us/edit, journaled %.2f us/edit, journal caught up %.1f ms later%n",
+                plain / 1e3 / KEYSTROKES, journaled / 1e3 / KEYSTROKES, flush / 1e6);
+        }
+    }
+
+    private static long type(PieceTableDocument doc, EditJournal journal) throws Exception {
+        if (journal != null) {
+            doc.addDocumentListener(new DocumentListener() {
+                public void insertUpdate(DocumentEvent e) { journal.inserted(e); }
+                public void removeUpdate(DocumentEvent e) { journal.removed(e); }
+                public void changedUpdate(DocumentEvent e) { }
+            });
+        }
+        int caret = doc.getLength() / 2;
+        long start = System.nanoTime();
+        for (int i = 0; i < KEYSTROKES; i++) {
+            if (i % 10 == 9) {
+                doc.remove(--caret, 1);
+            } else {
+                doc.insertString(caret++, "k", null);
+            }
+            if (i % 500 == 499) {
+                caret = (caret * 7) % doc.getLength();
+            }
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,215 @@
+// -----------------------------
+// File: src/test/editor/utils/EditJournalTest.java
+// -----------------------------
+package test.editor.utils;
+
+import editor.text.PieceTableDocument;
+import editor.utils.EditJournal;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Unit tests for EditJournal: the journal is read back without closing it,
+ * as it would be after a crash
+ */
+public class EditJournalTest {
+
+    private Path dir;
+    private EditJournal journal;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        dir = Files.createTempDirectory("journal");
+        journal = new EditJournal(dir);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        journal.close();
+        assertTrue(journal.awaitClosed(5, TimeUnit.SECONDS), "The journal should be deleted");
+        try (Stream<Path> walk = Files.walk(dir)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private PieceTableDocument journaled(String text) {
+        PieceTableDocument doc = new PieceTableDocument(text);
+        doc.addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) { journal.inserted(e); }
+            public void removeUpdate(DocumentEvent e) { journal.removed(e); }
+            public void changedUpdate(DocumentEvent e) { }
+        });
+        return doc;
+    }
+
+    private static void edit(PieceTableDocument doc, Random random, int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            int at = random.nextInt(doc.getLength() + 1);
+            if (random.nextInt(3) == 0 && at < doc.getLength()) {
+                doc.remove(at, Math.min(1 + random.nextInt(20), doc.getLength() - at));
+            } else {
+                doc.insertString(at, random.nextBoolean() ? "x" : "é中\n", null);
+            }
+        }
+    }
+
+    private static String replay(EditJournal.Recovery r, String base) throws Exception {
+        PieceTableDocument doc = new PieceTableDocument(base);
+        r.replay(doc);
+        return doc.getText(0, doc.getLength());
+    }
+
+    @Test
+    @DisplayName("Should replay the journaled edits over the base file")
+    void testReplay() throws Exception {
+        Path base = dir.resolve("base.txt");
+        String text = "line one\nline two\nline three\n";
+        Files.write(base, text.getBytes(StandardCharsets.UTF_8));
+        PieceTableDocument doc = journaled(text);
+        journal.reset(base, doc.getLength());
+        edit(doc, new Random(1), 2000);
+        journal.flush();
+
+        EditJournal.Recovery r = EditJournal.read(journal.getFile());
+        assertEquals(base, r.getBase());
+        assertTrue(r.isBaseUnchanged());
+        assertEquals(2000, r.getEditCount());
+        assertEquals(doc.getText(0, doc.getLength()), replay(r, text));
+    }
+
+    @Test
+    @DisplayName("Should fold a long journal into a few edits")
+    void testCompaction() throws Exception {
+        String text = "0123456789\n".repeat(10_000);
+        PieceTableDocument doc = journaled(text);
+        journal.reset(null, doc.getLength());
+        Random random = new Random(2);
+        // typing in a few places, far more records than the compaction threshold
+        for (int i = 0; i < 200_000; i++) {
+            int at = (i % 4) * 20_000 + i / 4 % 50;
+            if (i % 7 == 6) {
+                doc.remove(at, 1);
+            } else {
+                doc.insertString(at, String.valueOf((char) ('a' + random.nextInt(26))), null);
+            }
+        }
+        journal.flush();
+
+        EditJournal.Recovery r = EditJournal.read(journal.getFile());
+        assertTrue(r.getEditCount() < 100_000, "compacted to " + r.getEditCount() + " edits");
+        assertEquals(doc.getText(0, doc.getLength()), replay(r, text));
+    }
+
+    @Test
+    @DisplayName("Should keep only the edits made after the saved snapshot")
+    void testSaved() throws Exception {
+        PieceTableDocument doc = journaled("");
+        journal.reset(null, 0);
+        Random random = new Random(3);
+        edit(doc, random, 500);
+        long mark = journal.mark();
+        String saved = doc.getText(0, doc.getLength());
+        edit(doc, random, 30);
+        Path file = dir.resolve("saved.txt");
+        Files.write(file, saved.getBytes(StandardCharsets.UTF_8));
+        journal.saved(mark, file, saved.length());
+        journal.flush();
+
+        EditJournal.Recovery r = EditJournal.read(journal.getFile());
+        assertEquals(file, r.getBase());
+        assertEquals(30, r.getEditCount());
+        assertEquals(doc.getText(0, doc.getLength()), replay(r, saved));
+    }
+
+    @Test
+    @DisplayName("Should delete the journal when it is closed or nothing is left unsaved")
+    void testDeleted() throws Exception {
+        PieceTableDocument doc = journaled("abc");
+        journal.reset(null, 3);
+        doc.insertString(1, "x", null);
+        journal.flush();
+        assertTrue(Files.exists(journal.getFile()));
+        assertTrue(EditJournal.recoverable(dir).isEmpty(), "this process is still running");
+
+        journal.reset(null, doc.getLength());
+        journal.flush();
+        assertFalse(Files.exists(journal.getFile()));
+
+        doc.insertString(0, "y", null);
+        journal.close();
+        assertTrue(journal.awaitClosed(5, TimeUnit.SECONDS));
+        assertFalse(Files.exists(journal.getFile()));
+    }
+
+    @Test
+    @DisplayName("Should keep the journal and its directory private to the owner")
+    void testPrivate() throws Exception {
+        assumeTrue(dir.getFileSystem().supportedFileAttributeViews().contains("posix"));
+        Path recovery = dir.resolve("recovery");
+        EditJournal own = new EditJournal(recovery);
+        PieceTableDocument doc = new PieceTableDocument("abc");
+        doc.addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) { own.inserted(e); }
+            public void removeUpdate(DocumentEvent e) { own.removed(e); }
+            public void changedUpdate(DocumentEvent e) { }
+        });
+        own.reset(null, 3);
+        doc.insertString(1, "secret", null);
+        own.flush();
+        try {
+            assertEquals(PosixFilePermissions.fromString("rwx------"), Files.getPosixFilePermissions(recovery));
+            assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(own.getFile()));
+        } finally {
+            own.close();
+            own.awaitClosed(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    @DisplayName("Should report when journaling stops and when a reload starts it again")
+    void testStatus() throws Exception {
+        Path blocked = dir.resolve("blocked");
+        Files.write(blocked, new byte[0]); // a file where the directory should be
+        EditJournal own = new EditJournal(blocked);
+        List<String> problems = new CopyOnWriteArrayList<>();
+        own.setStatusListener(problems::add);
+        PieceTableDocument doc = new PieceTableDocument("abc");
+        doc.addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) { own.inserted(e); }
+            public void removeUpdate(DocumentEvent e) { own.removed(e); }
+            public void changedUpdate(DocumentEvent e) { }
+        });
+        try {
+            own.reset(null, 3);
+            doc.insertString(1, "x", null);
+            doc.insertString(1, "y", null);
+            own.flush();
+            assertEquals(1, problems.size(), "reported once: " + problems);
+            assertNotNull(problems.get(0));
+
+            own.reset(null, doc.getLength());
+            own.flush();
+            assertEquals(Arrays.asList(problems.get(0), null), problems);
+        } finally {
+            own.close();
+            own.awaitClosed(5, TimeUnit.SECONDS);
+        }
+    }
+}
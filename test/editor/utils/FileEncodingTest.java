@@ -0,0 +1,143 @@
+// -----------------------------
+// File: src/test/editor/utils/FileEncodingTest.java
+// -----------------------------
+package test.editor.utils;
+
+import editor.utils.FileEncoding;
+import editor.utils.FileUtils;
+import editor.utils.MappedTextFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Unit tests for charset and BOM detection on load and save
+ */
+public class FileEncodingTest {
+
+    private Path dir;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        dir = Files.createTempDirectory("encoding");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        try (Stream<Path> walk = Files.walk(dir)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private Path write(String name, byte[] bom, String text, Charset charset) throws Exception {
+        byte[] body = text.getBytes(charset);
+        byte[] bytes = new byte[bom.length + body.length];
+        System.arraycopy(bom, 0, bytes, 0, bom.length);
+        System.arraycopy(body, 0, bytes, bom.length, body.length);
+        Path file = dir.resolve(name);
+        Files.write(file, bytes);
+        return file;
+    }
+
+    @Test
+    @DisplayName("Should detect and skip byte order marks")
+    void testBom() throws Exception {
+        String text = "héllo\r\nwörld 😀\n";
+        Path utf8 = write("utf8.txt", new byte[] {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF}, text, StandardCharsets.UTF_8);
+        Path le = write("le.txt", new byte[] {(byte) 0xFF, (byte) 0xFE}, text, StandardCharsets.UTF_16LE);
+        Path be = write("be.txt", new byte[] {(byte) 0xFE, (byte) 0xFF}, text, StandardCharsets.UTF_16BE);
+
+        assertEquals(new FileEncoding(StandardCharsets.UTF_8, true), FileEncoding.detect(utf8));
+        assertEquals(new FileEncoding(StandardCharsets.UTF_16LE, true), FileEncoding.detect(le));
+        assertEquals(new FileEncoding(StandardCharsets.UTF_16BE, true), FileEncoding.detect(be));
+        assertEquals(text, FileUtils.readFile(utf8));
+        assertEquals(text, FileUtils.readFile(le));
+        assertEquals(text, FileUtils.readFile(be));
+    }
+
+    @Test
+    @DisplayName("Should tell UTF-8, UTF-16 and Latin-1 apart without a BOM")
+    void testSniff() throws Exception {
+        String text = "café crème brûlée\n";
+        Path utf8 = write("utf8.txt", new byte[0], text, StandardCharsets.UTF_8);
+        Path latin1 = write("latin1.txt", new byte[0], text, StandardCharsets.ISO_8859_1);
+        Path le = write("le.txt", new byte[0], text, StandardCharsets.UTF_16LE);
+
+        assertEquals(FileEncoding.UTF_8, FileEncoding.detect(utf8));
+        assertEquals(StandardCharsets.ISO_8859_1, FileEncoding.detect(latin1).getCharset());
+        assertEquals(StandardCharsets.UTF_16LE, FileEncoding.detect(le).getCharset());
+        assertEquals(text, FileUtils.readFile(latin1));
+        assertEquals(text, FileUtils.readFile(le));
+    }
+
+    @Test
+    @DisplayName("Should fall back to Latin-1 for malformed bytes past the sample and save them unchanged")
+    void testMalformed() throws Exception {
+        // valid UTF-8 in the sample, a stray byte after it
+        byte[] bytes = new byte[20_000];
+        java.util.Arrays.fill(bytes, (byte) 'a');
+        bytes[bytes.length - 2] = (byte) 0xFF;
+        Path file = dir.resolve("bad.txt");
+        Files.write(file, bytes);
+
+        String text = FileUtils.readFile(file);
+        assertEquals(bytes.length, text.length());
+        assertEquals('\u00FF', text.charAt(bytes.length - 2));
+        FileUtils.writeText(file, text, FileEncoding.ISO_8859_1, false);
+        assertArrayEquals(bytes, Files.readAllBytes(file));
+
+        MappedTextFile mapped = MappedTextFile.open(file);
+        assertEquals(FileEncoding.ISO_8859_1, mapped.getEncoding());
+        assertEquals(text, mapped.toString());
+    }
+
+    @Test
+    @DisplayName("Should save back in the detected encoding")
+    void testRoundTrip() throws Exception {
+        String text = "café\r\n";
+        Path le = write("le.txt", new byte[] {(byte) 0xFF, (byte) 0xFE}, text, StandardCharsets.UTF_16LE);
+        Path latin1 = write("latin1.txt", new byte[0], text, StandardCharsets.ISO_8859_1);
+        byte[] leBytes = Files.readAllBytes(le);
+        byte[] latin1Bytes = Files.readAllBytes(latin1);
+
+        FileUtils.writeText(le, FileUtils.readFile(le), FileEncoding.detect(le), false);
+        FileUtils.writeText(latin1, FileUtils.readFile(latin1), FileEncoding.detect(latin1), false);
+        assertArrayEquals(leBytes, Files.readAllBytes(le));
+        assertArrayEquals(latin1Bytes, Files.readAllBytes(latin1));
+    }
+
+    @Test
+    @DisplayName("Should refuse to save a char the charset cannot hold and leave the file as it was")
+    void testUnmappable() throws Exception {
+        Path latin1 = write("latin1.txt", new byte[0], "café\n", StandardCharsets.ISO_8859_1);
+        byte[] before = Files.readAllBytes(latin1);
+
+        assertThrows(java.nio.charset.UnmappableCharacterException.class,
+            () -> FileUtils.writeText(latin1, "café 20 €\n", FileEncoding.ISO_8859_1, false));
+        assertArrayEquals(before, Files.readAllBytes(latin1));
+    }
+
+    @Test
+    @DisplayName("Should map UTF-16 files without splitting chars across pages")
+    void testMappedUtf16() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; sb.length() < 300_000; i++) {
+            sb.append("line ").append(i).append(i % 3 == 0 ? " 😀中" : "").append("\r\n");
+        }
+        String text = sb.toString();
+        Path file = write("big.txt", new byte[] {(byte) 0xFE, (byte) 0xFF}, text, StandardCharsets.UTF_16BE);
+
+        MappedTextFile mapped = MappedTextFile.open(file);
+        assertEquals(new FileEncoding(StandardCharsets.UTF_16BE, true), mapped.getEncoding());
+        assertEquals(text, mapped.toString());
+        assertTrue(mapped.hasCrLf());
+    }
+}
@@ -0,0 +1,98 @@
+// -----------------------------
+// File: src/test/editor/utils/FileUtilsTest.java
+// -----------------------------
+package test.editor.utils;
+
+import editor.text.PieceTableDocument;
+import editor.utils.FileUtils;
+import editor.utils.MappedTextFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Unit tests for the save path of FileUtils
+ */
+public class FileUtilsTest {
+
+    private Path dir;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        dir = Files.createTempDirectory("save");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        try (Stream<Path> walk = Files.walk(dir)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private static String text() {
+        // surrogate pairs and multi-byte chars straddle the encoder's chunks
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; sb.length() < 400_000; i++) {
+            sb.append("line ").append(i).append(i % 5 == 0 ? " é中😀" : "").append('\n');
+        }
+        return sb.toString();
+    }
+
+    @Test
+    @DisplayName("Should write a document snapshot through a temp file")
+    void testWriteSnapshot() throws Exception {
+        String expected = text();
+        PieceTableDocument doc = new PieceTableDocument();
+        doc.insertString(0, expected, null);
+        doc.insertString(6, "inserted 😀", null);
+        doc.remove(200_000, 5);
+        String edited = doc.getText(0, doc.getLength());
+
+        Path file = dir.resolve("out.txt");
+        Files.write(file, "old contents".getBytes(StandardCharsets.UTF_8));
+        FileUtils.writeText(file, doc.snapshot(), StandardCharsets.UTF_8, true);
+        assertEquals(edited, new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(1, files.count(), "no temp file is left behind");
+        }
+    }
+
+    @Test
+    @DisplayName("Should replace a file that is still mapped by its document")
+    void testOverwriteMapped() throws Exception {
+        Path file = dir.resolve("big.txt");
+        String expected = text();
+        Files.write(file, expected.getBytes(StandardCharsets.UTF_8));
+        PieceTableDocument doc = new PieceTableDocument(MappedTextFile.open(file));
+        doc.insertString(0, "first line\n", null);
+
+        FileUtils.writeText(file, doc.snapshot(), StandardCharsets.UTF_8, false);
+        assertEquals("first line\n" + expected, new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    @DisplayName("Should keep permissions and write through symbolic links")
+    void testPermissionsAndLinks() throws Exception {
+        if (!FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            return;
+        }
+        Path file = dir.resolve("script.sh");
+        Files.write(file, "echo old\n".getBytes(StandardCharsets.UTF_8));
+        Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rwxr-x---"));
+        Path link = Files.createSymbolicLink(dir.resolve("link.sh"), file);
+
+        FileUtils.writeFile(link, "echo new\n");
+        assertTrue(Files.isSymbolicLink(link));
+        assertEquals("echo new\n", new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        assertEquals("rwxr-x---", PosixFilePermissions.toString(Files.getPosixFilePermissions(file)));
+    }
+}
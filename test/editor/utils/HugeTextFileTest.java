@@ -0,0 +1,117 @@
+// -----------------------------
+// File: src/test/editor/utils/HugeTextFileTest.java
+// -----------------------------
+package test.editor.utils;
+
+import editor.utils.FileUtils;
+import editor.utils.HugeTextFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.regex.Pattern;
+
+/**
+ * Unit tests for the line index, rows and search of the read-only viewer's file
+ */
+public class HugeTextFileTest {
+
+    private Path file;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        file = Files.createTempFile("huge", ".txt");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    private HugeTextFile open(String text) throws Exception {
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+        HugeTextFile huge = HugeTextFile.open(file);
+        huge.index(bytes -> { });
+        return huge;
+    }
+
+    @Test
+    @DisplayName("Index counts lines and finds their starts past many checkpoints")
+    void testLineIndex() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; i++) sb.append("line ").append(i).append('\n');
+        try (HugeTextFile huge = open(sb.toString())) {
+            assertTrue(huge.isIndexed());
+            assertEquals(5001, huge.lineCount(), "Text after the last newline counts as a line");
+            for (int line : new int[] {0, 1, 1023, 1024, 1025, 4999}) {
+                long start = huge.lineStart(line);
+                assertEquals("line " + line, huge.row(start));
+                assertEquals(line, huge.lineOf(start));
+                assertEquals(line, huge.lineOf(huge.nextRow(start) - 1));
+            }
+            assertEquals(-1, huge.lineStart(6000));
+        }
+    }
+
+    @Test
+    @DisplayName("Long lines are cut into rows that walk the same both ways")
+    void testLongLineRows() throws Exception {
+        String longLine = "é".repeat(HugeTextFile.MAX_LINE_BYTES * 2);
+        try (HugeTextFile huge = open("first\n" + longLine + "\nlast")) {
+            long start = huge.lineStart(1);
+            StringBuilder joined = new StringBuilder();
+            long row = start;
+            int rows = 0;
+            while (huge.lineOf(row) == 1) {
+                assertEquals(row == start, huge.startsLine(row));
+                joined.append(huge.row(row));
+                long next = huge.nextRow(row);
+                assertTrue(next - row <= HugeTextFile.MAX_LINE_BYTES + 1);
+                assertEquals(row, huge.previousRow(next));
+                assertEquals(row, huge.rowStart(next - 1));
+                row = next;
+                rows++;
+            }
+            assertTrue(rows > 2, "A 64 KB line takes several rows");
+            assertEquals(longLine, joined.toString(), "Rows split only on char boundaries");
+            assertEquals("last", huge.row(row));
+        }
+    }
+
+    @Test
+    @DisplayName("Find returns byte ranges and honours the limit")
+    void testFind() throws Exception {
+        try (HugeTextFile huge = open("über alpha\nbeta alpha\r\n")) {
+            Pattern p = Pattern.compile("alpha");
+            long[] first = huge.find(p, 0, huge.size());
+            assertArrayEquals(new long[] {6, 11}, first);
+            long[] second = huge.find(p, first[1], huge.size());
+            assertArrayEquals(new long[] {17, 22}, second);
+            assertNull(huge.find(p, second[1], huge.size()));
+            assertNull(huge.find(p, 0, 8));
+            assertEquals("beta alpha", huge.row(huge.lineStart(1)), "CRLF is trimmed from rows");
+        }
+    }
+
+    @Test
+    @DisplayName("Find keeps a char whole where a chunk of one long line ends")
+    void testFindAcrossChunks() throws Exception {
+        // the first read ends after the lead byte of 中
+        int chunk = 1024 * 1024;
+        try (HugeTextFile huge = open("a".repeat(chunk - 1) + "中xyz")) {
+            assertArrayEquals(new long[] {chunk - 1, chunk + 3}, huge.find(Pattern.compile("中x"), 0, huge.size()));
+            assertArrayEquals(new long[] {chunk + 2, chunk + 5}, huge.find(Pattern.compile("xyz"), 0, huge.size()));
+        }
+    }
+
+    @Test
+    @DisplayName("Only files past what the editor can hold go to the viewer")
+    void testTooBigToEdit() throws Exception {
+        Files.write(file, "small".getBytes(StandardCharsets.UTF_8));
+        assertFalse(FileUtils.isTooBigToEdit(file));
+    }
+}
@@ -0,0 +1,103 @@
+// -----------------------------
+// File: src/test/editor/utils/IncrementalSaveTest.java
+// -----------------------------
+package test.editor.utils;
+
+import editor.text.PieceTableDocument;
+import editor.utils.FileUtils;
+import editor.utils.MappedTextFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import javax.swing.undo.UndoManager;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Unit tests for saving a mapped document back to its file (FileUtils.writeText)
+ */
+public class IncrementalSaveTest {
+
+    private Path file;
+    private String expected;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; sb.length() < 2_000_000; i++) {
+            sb.append("line ").append(i).append(i % 3 == 0 ? " é中😀" : "").append('\n');
+        }
+        expected = sb.toString();
+        file = Files.createTempFile("incremental", ".log");
+        Files.write(file, expected.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    private Object fileKey() throws Exception {
+        return Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+    }
+
+    private void save(PieceTableDocument doc) throws Exception {
+        FileUtils.writeText(file, doc.snapshot(), StandardCharsets.UTF_8, false);
+        assertEquals(doc.getText(0, doc.getLength()), new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    @DisplayName("Should write same-length edits in place and keep the old text for undo")
+    void testInPlace() throws Exception {
+        Object key = fileKey();
+        PieceTableDocument doc = new PieceTableDocument(MappedTextFile.open(file));
+        UndoManager undo = new UndoManager();
+        doc.addUndoableEditListener(undo);
+        int at = expected.indexOf("line 40002 ");
+        doc.remove(at, 10);
+        doc.insertString(at, "LINE 4000X", null);
+        int mid = expected.indexOf("é中😀", 1_000_000);
+        doc.remove(mid, 4);
+        doc.insertString(mid, "ab😀", null);
+        save(doc);
+        if (key != null) {
+            assertEquals(key, fileKey(), "saved in place");
+        }
+
+        while (undo.canUndo()) {
+            undo.undo();
+        }
+        assertEquals(expected, doc.getText(0, doc.getLength()), "undo still reads the text as opened");
+        save(doc);
+        assertEquals(expected, new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    @DisplayName("Should truncate in place when text is removed at the end")
+    void testTruncate() throws Exception {
+        Object key = fileKey();
+        PieceTableDocument doc = new PieceTableDocument(MappedTextFile.open(file));
+        doc.remove(doc.getLength() - 1000, 1000);
+        doc.insertString(doc.getLength(), "the end\n", null);
+        save(doc);
+        if (key != null) {
+            assertEquals(key, fileKey(), "saved in place");
+        }
+    }
+
+    @Test
+    @DisplayName("Should rebuild the file when edits shift the rest of it")
+    void testShifted() throws Exception {
+        PieceTableDocument doc = new PieceTableDocument(MappedTextFile.open(file));
+        doc.insertString(5, "inserted near the start, ", null);
+        save(doc);
+        doc.remove(1_500_000, 30);
+        doc.insertString(100, "é", null);
+        save(doc);
+        assertTrue(doc.getText(0, doc.getLength()).startsWith("line inserted near the start, 0"));
+    }
+}
@@ -0,0 +1,69 @@
+// -----------------------------
+// File: src/test/editor/utils/MappedTextFileTest.java
+// -----------------------------
+package test.editor.utils;
+
+import editor.text.PieceTableDocument;
+import editor.utils.MappedTextFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Unit tests for MappedTextFile (large-file mode of FileUtils)
+ */
+public class MappedTextFileTest {
+
+    private Path tempFile;
+    private String expected;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        // multi-byte chars and a surrogate pair land on many page boundaries
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; sb.length() < 300_000; i++) {
+            sb.append("line ").append(i).append(i % 7 == 0 ? " é中😀" : "").append('\n');
+        }
+        expected = sb.toString();
+        tempFile = Files.createTempFile("mapped", ".txt");
+        Files.write(tempFile, expected.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        Files.deleteIfExists(tempFile);
+    }
+
+    @Test
+    @DisplayName("Should decode the same text as a regular read")
+    void testDecodesLikeReader() throws Exception {
+        MappedTextFile mapped = MappedTextFile.open(tempFile);
+        assertEquals(expected.length(), mapped.length());
+        assertEquals(expected, mapped.toString());
+        char[] middle = new char[1000];
+        mapped.getChars(150_000, 151_000, middle, 0);
+        assertEquals(expected.substring(150_000, 151_000), new String(middle));
+        assertTrue(mapped.hasLf());
+        assertFalse(mapped.hasCrLf());
+    }
+
+    @Test
+    @DisplayName("Should build the same line map as an in-memory document")
+    void testLineMap() throws Exception {
+        PieceTableDocument fromMapped = new PieceTableDocument(MappedTextFile.open(tempFile));
+        PieceTableDocument fromChars = new PieceTableDocument(CharBuffer.wrap(expected.toCharArray()));
+        int lines = fromChars.getDefaultRootElement().getElementCount();
+        assertEquals(lines, fromMapped.getDefaultRootElement().getElementCount());
+        for (int i = 0; i < lines; i += 997) {
+            assertEquals(fromChars.getDefaultRootElement().getElement(i).getStartOffset(),
+                fromMapped.getDefaultRootElement().getElement(i).getStartOffset());
+        }
+        assertEquals(expected.substring(100, 200), fromMapped.getText(100, 100));
+    }
+}
@@ -0,0 +1,229 @@
+// -----------------------------
+// File: src/test/editor/utils/UndoLogTest.java
+// -----------------------------
+package test.editor.utils;
+
+import editor.text.PieceTableDocument;
+import editor.text.UndoHistory;
+import editor.utils.UndoLog;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import javax.swing.SwingUtilities;
+import javax.swing.undo.CannotUndoException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Unit tests for keeping the undo history on disk between sessions
+ */
+public class UndoLogTest {
+
+    private Path dir;
+    private Path file;
+    // the log of the last reopened file
+    private UndoLog opened;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        dir = Files.createTempDirectory("undolog");
+        file = dir.resolve("notes.txt");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        try (Stream<Path> walk = Files.walk(dir)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private static String text(PieceTableDocument doc) throws Exception {
+        return doc.getText(0, doc.getLength());
+    }
+
+    // what TextAreaPanel does on save
+    private void save(UndoLog log, PieceTableDocument doc) throws Exception {
+        long mark = log.mark();
+        Files.write(file, text(doc).getBytes(StandardCharsets.UTF_8));
+        log.saved(mark, file);
+        log.flush();
+    }
+
+    // opens the saved file in a new session, as after a restart
+    private PieceTableDocument reopen(UndoHistory history) throws Exception {
+        PieceTableDocument doc = new PieceTableDocument(Files.readString(file));
+        doc.addUndoableEditListener(history);
+        opened = new UndoLog(dir);
+        opened.track(doc, history, file);
+        opened.flush();
+        SwingUtilities.invokeAndWait(() -> { });
+        opened.flush();
+        return doc;
+    }
+
+    @Test
+    @DisplayName("Should restore undo and redo after reopening the saved file")
+    void testRestoresHistory() throws Exception {
+        PieceTableDocument doc = new PieceTableDocument();
+        UndoHistory history = new UndoHistory();
+        doc.addUndoableEditListener(history);
+        UndoLog log = new UndoLog(dir);
+        log.track(doc, history, null);
+
+        doc.insertString(0, "first line\n", null);
+        doc.insertString(doc.getLength(), "second ünïcode line\n", null);
+        doc.remove(0, 6);
+        doc.compoundEdit(() -> {
+            try {
+                doc.insertString(0, "[", null);
+                doc.insertString(doc.getLength(), "]", null);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        String fourth = text(doc);
+        history.undo();
+        String third = text(doc);
+        save(log, doc);
+        log.close();
+
+        UndoHistory restored = new UndoHistory();
+        PieceTableDocument reopened = reopen(restored);
+        assertEquals(third, text(reopened));
+        assertTrue(restored.canRedo(), "The undone step comes back as redo");
+        restored.redo();
+        assertEquals(fourth, text(reopened));
+        restored.undo();
+        restored.undo();
+        assertEquals("first line\nsecond ünïcode line\n", text(reopened));
+        restored.undo();
+        restored.undo();
+        assertEquals("", text(reopened));
+        assertFalse(restored.canUndo());
+        restored.redo();
+        assertEquals("first line\n", text(reopened));
+    }
+
+    @Test
+    @DisplayName("Should not restore when the file changed since it was saved")
+    void testIgnoresChangedFile() throws Exception {
+        PieceTableDocument doc = new PieceTableDocument();
+        UndoHistory history = new UndoHistory();
+        doc.addUndoableEditListener(history);
+        UndoLog log = new UndoLog(dir);
+        log.track(doc, history, null);
+        doc.insertString(0, "saved", null);
+        save(log, doc);
+        log.close();
+
+        Files.write(file, "changed elsewhere".getBytes(StandardCharsets.UTF_8));
+        UndoHistory restored = new UndoHistory();
+        reopen(restored);
+        assertFalse(restored.canUndo());
+        assertFalse(restored.canRedo());
+    }
+
+    @Test
+    @DisplayName("Should refuse to undo over a file rewritten with the same size and time")
+    void testChecksTextOnUndo() throws Exception {
+        PieceTableDocument doc = new PieceTableDocument();
+        UndoHistory history = new UndoHistory();
+        doc.addUndoableEditListener(history);
+        UndoLog log = new UndoLog(dir);
+        log.track(doc, history, null);
+        doc.insertString(0, "hello", null);
+        history.closeTyping();
+        doc.insertString(5, " world", null);
+        save(log, doc);
+        log.close();
+
+        FileTime modified = Files.getLastModifiedTime(file);
+        Files.write(file, "HELLO WORLD".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, modified);
+        UndoHistory restored = new UndoHistory();
+        PieceTableDocument reopened = reopen(restored);
+        assertTrue(restored.canUndo(), "Size and time match, so the history is restored");
+        assertThrows(CannotUndoException.class, restored::undo);
+        assertEquals("HELLO WORLD", text(reopened));
+    }
+
+    @Test
+    @DisplayName("Should keep the history in memory only while another editor owns the log")
+    void testLocked() throws Exception {
+        Files.write(file, new byte[0]);
+        UndoLog owner = new UndoLog(dir);
+        owner.track(new PieceTableDocument(), new UndoHistory(), file);
+        PieceTableDocument doc = new PieceTableDocument();
+        UndoHistory history = new UndoHistory();
+        doc.addUndoableEditListener(history);
+        UndoLog second = new UndoLog(dir);
+        second.track(doc, history, file);
+        second.flush();
+        SwingUtilities.invokeAndWait(() -> { });
+
+        doc.insertString(0, "second", null);
+        save(second, doc);
+        assertTrue(history.canUndo(), "Undo still works in memory");
+        second.close();
+        owner.close();
+
+        UndoHistory restored = new UndoHistory();
+        reopen(restored);
+        assertFalse(restored.canUndo(), "Nothing was logged without the lock");
+    }
+
+    @Test
+    @DisplayName("Should keep restored steps and new ones in one history across saves")
+    void testAppendsAfterRestore() throws Exception {
+        PieceTableDocument doc = new PieceTableDocument();
+        UndoHistory history = new UndoHistory();
+        doc.addUndoableEditListener(history);
+        UndoLog log = new UndoLog(dir);
+        log.track(doc, history, null);
+        doc.insertString(0, "one\n", null);
+        save(log, doc);
+        log.close();
+
+        UndoHistory second = new UndoHistory();
+        PieceTableDocument reopened = reopen(second);
+        reopened.insertString(reopened.getLength(), "two\n", null);
+        save(opened, reopened);
+        opened.close();
+
+        UndoHistory third = new UndoHistory();
+        PieceTableDocument again = reopen(third);
+        assertEquals("one\ntwo\n", text(again));
+        third.undo();
+        assertEquals("one\n", text(again));
+        third.undo();
+        assertEquals("", text(again));
+        assertFalse(third.canUndo());
+        opened.close();
+    }
+
+    @Test
+    @DisplayName("Should keep the log and its directory private to the owner")
+    void testPrivate() throws Exception {
+        assumeTrue(dir.getFileSystem().supportedFileAttributeViews().contains("posix"));
+        Path undo = dir.resolve("undo");
+        PieceTableDocument doc = new PieceTableDocument();
+        UndoHistory history = new UndoHistory();
+        doc.addUndoableEditListener(history);
+        UndoLog log = new UndoLog(undo);
+        log.track(doc, history, null);
+        doc.insertString(0, "secret", null);
+        save(log, doc);
+        log.close();
+
+        assertEquals(PosixFilePermissions.fromString("rwx------"), Files.getPosixFilePermissions(undo));
+        assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(log.logFor(file)));
+    }
+}